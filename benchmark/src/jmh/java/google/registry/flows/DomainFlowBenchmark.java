@@ -0,0 +1,177 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows;
+
+import static google.registry.flows.FlowBenchmarkEnvironment.loadEppInput;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainBase;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistDomainWithDependentResources;
+import static google.registry.testing.DatastoreHelper.persistReservedList;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.host.HostResource;
+import google.registry.model.registry.Registry;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the domain flows that dominate EPP traffic.
+ *
+ * <p>Each benchmark runs one EPP command end to end: unmarshalling, {@link FlowRunner#run}, and
+ * strictly validated marshalling of the response, so that regressions in either the flow logic or
+ * {@code EppXmlTransformer} show up here. Run with {@code ./gradlew :benchmark:jmh}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 10)
+@Measurement(iterations = 10, time = 10)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DomainFlowBenchmark {
+
+  static final String TLD = "bench";
+
+  final FlowBenchmarkEnvironment environment = new FlowBenchmarkEnvironment();
+
+  private ContactResource registrant;
+  private byte[] checkInput;
+  private byte[] infoInput;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    environment.setUp();
+    createTld(TLD);
+    persistResource(
+        Registry.get(TLD)
+            .asBuilder()
+            .setReservedLists(persistReservedList("tld-reserved", "reserved,FULLY_BLOCKED"))
+            .build());
+    registrant = persistActiveContact("jd1234");
+    persistActiveContact("sh8013");
+    HostResource ns1 = persistActiveHost("ns1.example.net");
+    HostResource ns2 = persistActiveHost("ns2.example.net");
+    persistResource(
+        newDomainBase("example." + TLD, registrant)
+            .asBuilder()
+            .setNameservers(ImmutableSet.of(ns1.createVKey(), ns2.createVKey()))
+            .build());
+    checkInput = loadEppInput("domain_check.xml", ImmutableMap.of("TLD", TLD));
+    infoInput = loadEppInput("domain_info.xml", ImmutableMap.of("TLD", TLD));
+  }
+
+  @Setup(Level.Iteration)
+  public void attachToCurrentThread() {
+    environment.attachToCurrentThread();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    environment.tearDown();
+  }
+
+  /** A check of 20 names, mixing registered, reserved, premium and available names. */
+  @Benchmark
+  public byte[] domainCheck() throws Exception {
+    return environment.runFlow(checkInput);
+  }
+
+  /** An info command on a registered domain, with all hosts and contacts in the response. */
+  @Benchmark
+  public byte[] domainInfo() throws Exception {
+    return environment.runFlow(infoInput);
+  }
+
+  /** A two-year create of a standard-priced domain that doesn't exist yet. */
+  @Benchmark
+  public byte[] domainCreate(CreateInput input) throws Exception {
+    return environment.runFlow(input.xml);
+  }
+
+  /** A one-year renew of a domain that was registered a year ago. */
+  @Benchmark
+  public byte[] domainRenew(RenewInput input) throws Exception {
+    return environment.runFlow(input.xml);
+  }
+
+  /** Per-invocation input for {@link #domainCreate}, naming a new domain each time. */
+  @State(Scope.Thread)
+  public static class CreateInput {
+
+    byte[] xml;
+    private int nextId;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+      xml =
+          loadEppInput(
+              "domain_create.xml",
+              ImmutableMap.of("DOMAIN", String.format("create%d.%s", nextId++, TLD)));
+    }
+  }
+
+  /**
+   * Per-invocation input for {@link #domainRenew}.
+   *
+   * <p>Every renew extends the registration, so each invocation gets a freshly persisted domain
+   * (with its autorenew billing event and poll message) whose expiration time matches the
+   * {@code curExpDate} in the command.
+   */
+  @State(Scope.Thread)
+  public static class RenewInput {
+
+    byte[] xml;
+    private int nextId;
+
+    @Setup(Level.Invocation)
+    public void setUp(DomainFlowBenchmark benchmark) {
+      benchmark.environment.attachToCurrentThread();
+      DateTime creationTime = benchmark.environment.now().minusYears(1);
+      DateTime expirationTime = creationTime.plusYears(2);
+      DomainBase domain =
+          persistDomainWithDependentResources(
+              String.format("renew%d", nextId++),
+              TLD,
+              benchmark.registrant,
+              creationTime,
+              creationTime,
+              expirationTime);
+      xml =
+          loadEppInput(
+              "domain_renew.xml",
+              ImmutableMap.of(
+                  "DOMAIN", domain.getFullyQualifiedDomainName(),
+                  "EXPDATE", expirationTime.toString("yyyy-MM-dd")));
+    }
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows;
+
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static google.registry.model.eppcommon.EppXmlTransformer.marshal;
+import static google.registry.model.eppcommon.EppXmlTransformer.unmarshal;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.ResourceUtils.readResourceUtf8;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.MoreFiles;
+import com.googlecode.objectify.ObjectifyFilter;
+import google.registry.flows.EppTestComponent.FakesAndMocksModule;
+import google.registry.model.eppcommon.ProtocolDefinition;
+import google.registry.model.eppinput.EppInput;
+import google.registry.model.eppoutput.EppOutput;
+import google.registry.model.ofy.ObjectifyService;
+import google.registry.model.tmch.ClaimsListShard.ClaimsListSingleton;
+import google.registry.monitoring.whitebox.EppMetric;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.FakeHttpSession;
+import google.registry.testing.TestDataHelper;
+import google.registry.xml.ValidationMode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.joda.time.DateTime;
+
+/**
+ * An in-process registry backend for running flows outside of a unit test.
+ *
+ * <p>This sets up the same in-memory Datastore and task queue stubs that {@link AppEngineRule}
+ * provides to flow tests, and runs EPP commands through {@link FlowRunner} with the same Dagger
+ * graph used by {@link FlowTestCase}. It has no JUnit lifecycle of its own, so that it can be
+ * driven from JMH {@code @Setup} and {@code @TearDown} methods.
+ */
+final class FlowBenchmarkEnvironment {
+
+  /**
+   * The GAE testing library requires queue.xml to be a file, not a resource in a jar, so we read it
+   * in here and write it to a temporary file on setup.
+   */
+  private static final String QUEUE_XML =
+      readResourceUtf8("google/registry/env/common/default/WEB-INF/queue.xml");
+
+  private final FakeClock clock = new FakeClock(DateTime.now(UTC));
+
+  private Path temporaryDirectory;
+  private LocalServiceTestHelper helper;
+  private ApiProxy.Environment apiEnvironment;
+  private SessionMetadata sessionMetadata;
+  private EppMetric.Builder eppMetricBuilder;
+  private EppTestComponent component;
+
+  /** Starts the App Engine service stubs and loads the canned registrars. */
+  void setUp() throws IOException {
+    temporaryDirectory = Files.createTempDirectory("flow-benchmark");
+    Path queueFile = temporaryDirectory.resolve("queue.xml");
+    Files.write(queueFile, QUEUE_XML.getBytes(UTF_8));
+    helper =
+        new LocalServiceTestHelper(
+            new LocalDatastoreServiceTestConfig()
+                // We need to set this to allow cross entity group transactions.
+                .setApplyAllHighRepJobPolicy(),
+            new LocalTaskQueueTestConfig().setQueueXmlPath(queueFile.toString()));
+    helper.setUp();
+    apiEnvironment = ApiProxy.getCurrentEnvironment();
+    ObjectifyService.initOfy();
+    AppEngineRule.loadInitialData();
+    ofy().saveWithoutBackup().entity(new ClaimsListSingleton()).now();
+
+    sessionMetadata = new HttpSessionMetadata(new FakeHttpSession());
+    sessionMetadata.setClientId("TheRegistrar");
+    sessionMetadata.setServiceExtensionUris(ProtocolDefinition.getVisibleServiceExtensionUris());
+    eppMetricBuilder = EppMetric.builderForRequest(clock);
+    component =
+        DaggerEppTestComponent.builder()
+            .fakesAndMocksModule(FakesAndMocksModule.create(clock, eppMetricBuilder))
+            .build();
+  }
+
+  /** Shuts down the App Engine service stubs, discarding all persisted data. */
+  void tearDown() throws IOException {
+    ObjectifyFilter.complete();
+    helper.tearDown();
+    helper = null;
+    MoreFiles.deleteRecursively(temporaryDirectory, ALLOW_INSECURE);
+  }
+
+  /**
+   * Binds the App Engine API environment to the calling thread.
+   *
+   * <p>The service stubs are only reachable from the thread that called {@link #setUp}. JMH does
+   * not guarantee that setup and measurement run on the same thread, so benchmarks must call this
+   * before touching Datastore from a new thread.
+   */
+  void attachToCurrentThread() {
+    if (ApiProxy.getCurrentEnvironment() != apiEnvironment) {
+      ApiProxy.setEnvironmentForCurrentThread(apiEnvironment);
+    }
+  }
+
+  /** Returns the current time of the clock injected into flows. */
+  DateTime now() {
+    return clock.nowUtc();
+  }
+
+  /**
+   * Loads an EPP command template from the {@code benchmarkdata} directory and fills in its
+   * placeholders.
+   */
+  static byte[] loadEppInput(String filename, Map<String, String> substitutions) {
+    return TestDataHelper.loadFile(
+            FlowBenchmarkEnvironment.class, "benchmarkdata/" + filename, substitutions)
+        .getBytes(UTF_8);
+  }
+
+  static byte[] loadEppInput(String filename) {
+    return loadEppInput(filename, ImmutableMap.of());
+  }
+
+  /**
+   * Runs a single EPP command the way {@code EppController} would, and returns the marshalled
+   * response.
+   *
+   * <p>This covers unmarshalling the input, running the flow through {@link FlowRunner}, and
+   * marshalling the output with strict schema validation. A flow that fails with an {@link
+   * EppException} is rethrown, so that a broken fixture does not silently benchmark the error path.
+   */
+  byte[] runFlow(byte[] inputXmlBytes) throws Exception {
+    EppInput eppInput = unmarshal(EppInput.class, inputXmlBytes);
+    EppOutput output =
+        component
+            .startRequest()
+            .flowComponentBuilder()
+            .flowModule(
+                new FlowModule.Builder()
+                    .setSessionMetadata(sessionMetadata)
+                    .setCredentials(new PasswordOnlyTransportCredentials())
+                    .setEppRequestSource(EppRequestSource.TOOL)
+                    .setIsDryRun(false)
+                    .setIsSuperuser(false)
+                    .setInputXmlBytes(inputXmlBytes)
+                    .setEppInput(eppInput)
+                    .build())
+            .build()
+            .flowRunner()
+            .run(eppMetricBuilder);
+    // Each EPP command is a separate request in production, so don't let the Objectify session
+    // cache carry entities over from one run to the next.
+    ofy().clearSessionCache();
+    return marshal(output, ValidationMode.STRICT);
+  }
+}
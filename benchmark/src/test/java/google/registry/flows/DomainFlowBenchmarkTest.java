@@ -0,0 +1,92 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.joda.time.DateTimeZone.UTC;
+
+import google.registry.flows.DomainFlowBenchmark.CreateInput;
+import google.registry.flows.DomainFlowBenchmark.RenewInput;
+import google.registry.model.domain.DomainBase;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link DomainFlowBenchmark}.
+ *
+ * <p>These run each benchmark once to make sure that the fixtures are valid, i.e., that the
+ * benchmarks measure successful commands rather than the error path.
+ */
+@RunWith(JUnit4.class)
+public class DomainFlowBenchmarkTest {
+
+  private static final String SUCCESS = "<result code=\"1000\">";
+
+  private final DomainFlowBenchmark benchmark = new DomainFlowBenchmark();
+
+  @Before
+  public void before() throws Exception {
+    benchmark.setUp();
+    benchmark.attachToCurrentThread();
+  }
+
+  @After
+  public void after() throws Exception {
+    benchmark.tearDown();
+  }
+
+  @Test
+  public void testDomainCheck() throws Exception {
+    String response = new String(benchmark.domainCheck(), UTF_8);
+    assertThat(response).contains(SUCCESS);
+    assertThat(response).contains("example.bench");
+    assertThat(response).contains("available16.bench");
+  }
+
+  @Test
+  public void testDomainInfo() throws Exception {
+    String response = new String(benchmark.domainInfo(), UTF_8);
+    assertThat(response).contains(SUCCESS);
+    assertThat(response).contains("ns1.example.net");
+  }
+
+  @Test
+  public void testDomainCreate_createsNewDomainOnEachInvocation() throws Exception {
+    CreateInput input = new CreateInput();
+    for (int i = 0; i < 2; i++) {
+      input.setUp();
+      assertThat(new String(benchmark.domainCreate(input), UTF_8)).contains(SUCCESS);
+    }
+    // Transactions are timestamped by the system clock rather than by the flow clock.
+    DateTime now = DateTime.now(UTC);
+    assertThat(loadByForeignKey(DomainBase.class, "create0.bench", now)).isPresent();
+    assertThat(loadByForeignKey(DomainBase.class, "create1.bench", now)).isPresent();
+  }
+
+  @Test
+  public void testDomainRenew_renewsNewDomainOnEachInvocation() throws Exception {
+    RenewInput input = new RenewInput();
+    for (int i = 0; i < 2; i++) {
+      input.setUp(benchmark);
+      assertThat(new String(benchmark.domainRenew(input), UTF_8)).contains(SUCCESS);
+    }
+  }
+}
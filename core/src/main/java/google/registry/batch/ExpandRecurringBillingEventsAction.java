@@ -15,6 +15,8 @@
 package google.registry.batch;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.Sets.difference;
 import static google.registry.mapreduce.MapreduceRunner.PARAM_DRY_RUN;
@@ -35,8 +37,13 @@ import static google.registry.util.DomainNameUtils.getTldFromDomainName;
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Range;
 import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
@@ -62,8 +69,11 @@ import google.registry.request.Response;
 import google.registry.request.auth.Auth;
 import google.registry.schema.cursor.CursorDao;
 import google.registry.util.Clock;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import org.joda.money.Money;
 import org.joda.time.DateTime;
@@ -119,16 +129,36 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
         .sendLinkToMapreduceConsole(response);
   }
 
-  /** Mapper to expand {@link Recurring} billing events into synthetic {@link OneTime} events. */
+  /**
+   * Mapper to expand {@link Recurring} billing events into synthetic {@link OneTime} events.
+   *
+   * <p>Only a small fraction of recurring events recur within the range being expanded, so those
+   * that don't are dropped before anything is loaded. The rest are grouped by domain and expanded
+   * in batches of domains, each in a single transaction, with the existing {@link OneTime} events
+   * of all the domains in the batch queried at once.
+   */
   public static class ExpandRecurringBillingEventsMapper
       extends Mapper<Recurring, DateTime, DateTime> {
 
     private static final long serialVersionUID = 8376442755556228455L;
 
+    /**
+     * Maximum number of domains expanded in a single transaction.
+     *
+     * <p>Datastore allows 25 entity groups in a transaction, and the commit log takes one of them.
+     */
+    private static final int MAX_DOMAINS_PER_TRANSACTION = 20;
+
     private final boolean isDryRun;
     private final DateTime cursorTime;
     private final DateTime executeTime;
 
+    // These only exist for the duration of a slice.
+    private transient ListMultimap<Key<? extends EppResource>, Recurring> pendingRecurrings;
+    private transient Stopwatch sliceStopwatch;
+    private transient int recurringsExpandedInSlice;
+    private transient int transactionsInSlice;
+
     public ExpandRecurringBillingEventsMapper(
         boolean isDryRun, DateTime cursorTime, DateTime executeTime) {
       this.isDryRun = isDryRun;
@@ -136,6 +166,29 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
       this.executeTime = executeTime;
     }
 
+    @Override
+    public void beginSlice() {
+      pendingRecurrings = MultimapBuilder.linkedHashKeys().arrayListValues().build();
+      sliceStopwatch = Stopwatch.createStarted();
+      recurringsExpandedInSlice = 0;
+      transactionsInSlice = 0;
+    }
+
+    @Override
+    public void endSlice() {
+      expandPendingRecurrings();
+      long elapsedMillis = sliceStopwatch.elapsed(TimeUnit.MILLISECONDS);
+      logger.atInfo().log(
+          "Expanded %d Recurring billing events in %d transactions in %dms (%.1f events/s).",
+          recurringsExpandedInSlice,
+          transactionsInSlice,
+          elapsedMillis,
+          (elapsedMillis == 0) ? 0.0 : recurringsExpandedInSlice * 1000.0 / elapsedMillis);
+      getContext().incrementCounter("Expansion time (ms)", elapsedMillis);
+      pendingRecurrings = null;
+      sliceStopwatch = null;
+    }
+
     @Override
     public final void map(final Recurring recurring) {
       // This single emit forces the reducer to run at the end of the map job, so that a mapper
@@ -153,110 +206,41 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
         getContext().incrementCounter("Recurring billing events ignored");
         return;
       }
-      int numBillingEventsSaved = 0;
+      ImmutableSet<DateTime> billingTimes;
       try {
-        numBillingEventsSaved =
-            tm().transactNew(
-                    () -> {
-                      ImmutableSet.Builder<OneTime> syntheticOneTimesBuilder =
-                          new ImmutableSet.Builder<>();
-                      final Registry tld =
-                          Registry.get(getTldFromDomainName(recurring.getTargetId()));
-
-                      // Determine the complete set of times at which this recurring event should
-                      // occur (up to and including the runtime of the mapreduce).
-                      Iterable<DateTime> eventTimes =
-                          recurring
-                              .getRecurrenceTimeOfYear()
-                              .getInstancesInRange(
-                                  Range.closed(
-                                      recurring.getEventTime(),
-                                      earliestOf(recurring.getRecurrenceEndTime(), executeTime)));
-
-                      // Convert these event times to billing times
-                      final ImmutableSet<DateTime> billingTimes =
-                          getBillingTimesInScope(eventTimes, cursorTime, executeTime, tld);
-
-                      Key<? extends EppResource> domainKey = recurring.getParentKey().getParent();
-                      Iterable<OneTime> oneTimesForDomain =
-                          ofy().load().type(OneTime.class).ancestor(domainKey);
-
-                      // Determine the billing times that already have OneTime events persisted.
-                      ImmutableSet<DateTime> existingBillingTimes =
-                          getExistingBillingTimes(oneTimesForDomain, recurring);
-
-                      ImmutableSet.Builder<HistoryEntry> historyEntriesBuilder =
-                          new ImmutableSet.Builder<>();
-                      // Create synthetic OneTime events for all billing times that do not yet have
-                      // an event persisted.
-                      for (DateTime billingTime : difference(billingTimes, existingBillingTimes)) {
-                        // Construct a new HistoryEntry that parents over the OneTime
-                        HistoryEntry historyEntry =
-                            new HistoryEntry.Builder()
-                                .setBySuperuser(false)
-                                .setClientId(recurring.getClientId())
-                                .setModificationTime(tm().getTransactionTime())
-                                .setParent(domainKey)
-                                .setPeriod(Period.create(1, YEARS))
-                                .setReason(
-                                    "Domain autorenewal by ExpandRecurringBillingEventsAction")
-                                .setRequestedByRegistrar(false)
-                                .setType(DOMAIN_AUTORENEW)
-                                // Don't write a domain transaction record if the recurrence was
-                                // ended prior to the billing time (i.e. a domain was deleted
-                                // during the autorenew grace period).
-                                .setDomainTransactionRecords(
-                                    recurring.getRecurrenceEndTime().isBefore(billingTime)
-                                        ? ImmutableSet.of()
-                                        : ImmutableSet.of(
-                                            DomainTransactionRecord.create(
-                                                tld.getTldStr(),
-                                                // We report this when the autorenew grace period
-                                                // ends
-                                                billingTime,
-                                                TransactionReportField.netRenewsFieldFromYears(1),
-                                                1)))
-                                .build();
-                        historyEntriesBuilder.add(historyEntry);
+        billingTimes = getBillingTimesInScope(recurring);
+      } catch (Throwable t) {
+        throw recordError(t, ImmutableList.of(recurring));
+      }
+      if (billingTimes.isEmpty()) {
+        getContext().incrementCounter("Recurring billing events out of range");
+        return;
+      }
+      pendingRecurrings.put(recurring.getParentKey().getParent(), recurring);
+      if (pendingRecurrings.keySet().size() >= MAX_DOMAINS_PER_TRANSACTION) {
+        expandPendingRecurrings();
+      }
+    }
 
-                        DateTime eventTime = billingTime.minus(tld.getAutoRenewGracePeriodLength());
-                        // Determine the cost for a one-year renewal.
-                        Money renewCost = getDomainRenewCost(recurring.getTargetId(), eventTime, 1);
-                        syntheticOneTimesBuilder.add(
-                            new OneTime.Builder()
-                                .setBillingTime(billingTime)
-                                .setClientId(recurring.getClientId())
-                                .setCost(renewCost)
-                                .setEventTime(eventTime)
-                                .setFlags(union(recurring.getFlags(), Flag.SYNTHETIC))
-                                .setParent(historyEntry)
-                                .setPeriodYears(1)
-                                .setReason(recurring.getReason())
-                                .setSyntheticCreationTime(executeTime)
-                                .setCancellationMatchingBillingEvent(recurring.createVKey())
-                                .setTargetId(recurring.getTargetId())
-                                .build());
-                      }
-                      Set<HistoryEntry> historyEntries = historyEntriesBuilder.build();
-                      Set<OneTime> syntheticOneTimes = syntheticOneTimesBuilder.build();
-                      if (!isDryRun) {
-                        ImmutableSet<ImmutableObject> entitiesToSave =
-                            new ImmutableSet.Builder<ImmutableObject>()
-                                .addAll(historyEntries)
-                                .addAll(syntheticOneTimes)
-                                .build();
-                        ofy().save().entities(entitiesToSave).now();
-                      }
-                      return syntheticOneTimes.size();
-                    });
+    /** Expands the pending recurring events of a batch of domains in a single transaction. */
+    private void expandPendingRecurrings() {
+      if (pendingRecurrings.isEmpty()) {
+        return;
+      }
+      ImmutableListMultimap<Key<? extends EppResource>, Recurring> recurringsByDomain =
+          ImmutableListMultimap.copyOf(pendingRecurrings);
+      pendingRecurrings.clear();
+      int numBillingEventsSaved;
+      try {
+        numBillingEventsSaved = tm().transactNew(() -> expandRecurrings(recurringsByDomain));
       } catch (Throwable t) {
-        getContext().incrementCounter("error: " + t.getClass().getSimpleName());
-        getContext().incrementCounter(ERROR_COUNTER);
-        throw new RuntimeException(
-            String.format(
-                "Error while expanding Recurring billing events for %d", recurring.getId()),
-            t);
+        throw recordError(t, recurringsByDomain.values());
       }
+      recurringsExpandedInSlice += recurringsByDomain.size();
+      transactionsInSlice++;
+      getContext().incrementCounter("Recurring billing events expanded", recurringsByDomain.size());
+      getContext().incrementCounter("Domains expanded", recurringsByDomain.keySet().size());
+      getContext().incrementCounter("Expansion transactions");
       if (!isDryRun) {
         getContext().incrementCounter("Saved OneTime billing events", numBillingEventsSaved);
       } else {
@@ -265,6 +249,136 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
       }
     }
 
+    /**
+     * Creates and saves the synthetic {@link OneTime} events, and their history entries, for the
+     * given recurring events, and returns how many {@link OneTime} events there are.
+     */
+    private int expandRecurrings(
+        ImmutableListMultimap<Key<? extends EppResource>, Recurring> recurringsByDomain) {
+      // Start the queries for the existing OneTime events of every domain before iterating over
+      // any of them, so that they run concurrently.
+      ImmutableMap<Key<? extends EppResource>, List<OneTime>> oneTimesByDomain =
+          recurringsByDomain.keySet().stream()
+              .collect(
+                  toImmutableMap(
+                      domainKey -> domainKey,
+                      domainKey -> ofy().load().type(OneTime.class).ancestor(domainKey).list()));
+      ImmutableSet.Builder<HistoryEntry> historyEntriesBuilder = new ImmutableSet.Builder<>();
+      ImmutableSet.Builder<OneTime> syntheticOneTimesBuilder = new ImmutableSet.Builder<>();
+      recurringsByDomain.forEach(
+          (domainKey, recurring) ->
+              expandRecurring(
+                  recurring,
+                  domainKey,
+                  oneTimesByDomain.get(domainKey),
+                  historyEntriesBuilder,
+                  syntheticOneTimesBuilder));
+      Set<HistoryEntry> historyEntries = historyEntriesBuilder.build();
+      Set<OneTime> syntheticOneTimes = syntheticOneTimesBuilder.build();
+      if (!isDryRun) {
+        ImmutableSet<ImmutableObject> entitiesToSave =
+            new ImmutableSet.Builder<ImmutableObject>()
+                .addAll(historyEntries)
+                .addAll(syntheticOneTimes)
+                .build();
+        ofy().save().entities(entitiesToSave).now();
+      }
+      return syntheticOneTimes.size();
+    }
+
+    /**
+     * Creates the synthetic {@link OneTime} events, and their history entries, for all the billing
+     * times of a recurring event that don't have an event persisted yet.
+     */
+    private void expandRecurring(
+        Recurring recurring,
+        Key<? extends EppResource> domainKey,
+        Iterable<OneTime> oneTimesForDomain,
+        ImmutableSet.Builder<HistoryEntry> historyEntriesBuilder,
+        ImmutableSet.Builder<OneTime> syntheticOneTimesBuilder) {
+      final Registry tld = Registry.get(getTldFromDomainName(recurring.getTargetId()));
+      final ImmutableSet<DateTime> billingTimes = getBillingTimesInScope(recurring);
+
+      // Determine the billing times that already have OneTime events persisted.
+      ImmutableSet<DateTime> existingBillingTimes =
+          getExistingBillingTimes(oneTimesForDomain, recurring);
+
+      // Create synthetic OneTime events for all billing times that do not yet have an event
+      // persisted.
+      for (DateTime billingTime : difference(billingTimes, existingBillingTimes)) {
+        // Construct a new HistoryEntry that parents over the OneTime
+        HistoryEntry historyEntry =
+            new HistoryEntry.Builder()
+                .setBySuperuser(false)
+                .setClientId(recurring.getClientId())
+                .setModificationTime(tm().getTransactionTime())
+                .setParent(domainKey)
+                .setPeriod(Period.create(1, YEARS))
+                .setReason("Domain autorenewal by ExpandRecurringBillingEventsAction")
+                .setRequestedByRegistrar(false)
+                .setType(DOMAIN_AUTORENEW)
+                // Don't write a domain transaction record if the recurrence was ended prior to the
+                // billing time (i.e. a domain was deleted during the autorenew grace period).
+                .setDomainTransactionRecords(
+                    recurring.getRecurrenceEndTime().isBefore(billingTime)
+                        ? ImmutableSet.of()
+                        : ImmutableSet.of(
+                            DomainTransactionRecord.create(
+                                tld.getTldStr(),
+                                // We report this when the autorenew grace period ends
+                                billingTime,
+                                TransactionReportField.netRenewsFieldFromYears(1),
+                                1)))
+                .build();
+        historyEntriesBuilder.add(historyEntry);
+
+        DateTime eventTime = billingTime.minus(tld.getAutoRenewGracePeriodLength());
+        // Determine the cost for a one-year renewal.
+        Money renewCost = getDomainRenewCost(recurring.getTargetId(), eventTime, 1);
+        syntheticOneTimesBuilder.add(
+            new OneTime.Builder()
+                .setBillingTime(billingTime)
+                .setClientId(recurring.getClientId())
+                .setCost(renewCost)
+                .setEventTime(eventTime)
+                .setFlags(union(recurring.getFlags(), Flag.SYNTHETIC))
+                .setParent(historyEntry)
+                .setPeriodYears(1)
+                .setReason(recurring.getReason())
+                .setSyntheticCreationTime(executeTime)
+                .setCancellationMatchingBillingEvent(recurring.createVKey())
+                .setTargetId(recurring.getTargetId())
+                .build());
+      }
+    }
+
+    /**
+     * Determines the billing times of a recurring event that are in scope for this mapreduce run,
+     * from its complete set of event times up to and including the execution time.
+     */
+    private ImmutableSet<DateTime> getBillingTimesInScope(Recurring recurring) {
+      Registry tld = Registry.get(getTldFromDomainName(recurring.getTargetId()));
+      Iterable<DateTime> eventTimes =
+          recurring
+              .getRecurrenceTimeOfYear()
+              .getInstancesInRange(
+                  Range.closed(
+                      recurring.getEventTime(),
+                      earliestOf(recurring.getRecurrenceEndTime(), executeTime)));
+      return getBillingTimesInScope(eventTimes, cursorTime, executeTime, tld);
+    }
+
+    /** Counts an error while expanding the given recurring events, and wraps it to be thrown. */
+    private RuntimeException recordError(Throwable t, Collection<Recurring> recurrings) {
+      getContext().incrementCounter("error: " + t.getClass().getSimpleName());
+      getContext().incrementCounter(ERROR_COUNTER);
+      return new RuntimeException(
+          String.format(
+              "Error while expanding Recurring billing events for %s",
+              recurrings.stream().map(Recurring::getId).collect(toImmutableList())),
+          t);
+    }
+
     /**
      * Filters a set of {@link DateTime}s down to event times that are in scope for a particular
      * mapreduce run, given the cursor time and the mapreduce execution time.
@@ -303,6 +303,39 @@ public final class RegistryConfig {
       return 100;
     }
 
+    /**
+     * The largest batch of domain and host updates ReadDnsQueueAction may send to a single
+     * PublishDnsUpdatesAction when the DNS queue is backed up.
+     *
+     * <p>Normally updates are batched in groups of {@code dnsTldUpdateBatchSize}. When a single TLD
+     * lock has more than {@code dnsMaxPublishTasksPerLock} such batches waiting, the batches grow
+     * (up to this size) instead, since the publish tasks for a lock run one at a time anyway. This
+     * must stay small enough for the DnsWriters to commit a batch within {@code
+     * publishDnsUpdatesLockDuration}.
+     *
+     * @see google.registry.dns.ReadDnsQueueAction
+     */
+    @Provides
+    @Config("dnsMaxTldUpdateBatchSize")
+    public static int provideDnsMaxTldUpdateBatchSize() {
+      return 250;
+    }
+
+    /**
+     * The number of PublishDnsUpdatesAction tasks ReadDnsQueueAction aims to enqueue per TLD lock
+     * for each batch of tasks it leases.
+     *
+     * <p>Tasks for the same TLD lock can't run concurrently, so enqueuing more of them only adds
+     * lock contention. See {@code dnsMaxTldUpdateBatchSize} for how this limit is applied.
+     *
+     * @see google.registry.dns.ReadDnsQueueAction
+     */
+    @Provides
+    @Config("dnsMaxPublishTasksPerLock")
+    public static int provideDnsMaxPublishTasksPerLock() {
+      return 2;
+    }
+
     /**
      * The maximum time we allow publishDnsUpdates to run.
      *
@@ -325,6 +358,22 @@ public final class RegistryConfig {
       return Duration.standardMinutes(3);
     }
 
+    /**
+     * The maximum time publishDnsUpdates waits for its lock when another publish task holds it.
+     *
+     * <p>Publish tasks for the same lock that are dispatched close together would otherwise fail
+     * and be retried by the task queue with backoff, delaying the updates much longer than the
+     * wait. Together with {@code publishDnsUpdatesLockDuration}, this must fit well within the
+     * task deadline.
+     *
+     * @see google.registry.dns.PublishDnsUpdatesAction
+     */
+    @Provides
+    @Config("publishDnsUpdatesLockWait")
+    public static Duration providePublishDnsUpdatesLockWait() {
+      return Duration.standardMinutes(1);
+    }
+
     /**
      * The requested maximum duration for ReadDnsQueueAction.
      *
@@ -615,6 +664,17 @@ public final class RegistryConfig {
       return config.registryPolicy.requireSslCertificates;
     }
 
+    /**
+     * Returns whether EPP commands are sanitized for logging during the parse that unmarshals them.
+     *
+     * @see google.registry.flows.EppController
+     */
+    @Provides
+    @Config("singlePassEppInputEnabled")
+    public static boolean provideSinglePassEppInputEnabled(RegistryConfigSettings config) {
+      return config.registryPolicy.singlePassEppInputEnabled;
+    }
+
     /**
      * Returns the default job zone to run Apache Beam (Cloud Dataflow) jobs in.
      *
@@ -772,6 +832,19 @@ public final class RegistryConfig {
       return Duration.standardDays(1);
     }
 
+    /**
+     * Days of the week on which full RDE deposits are staged, with {@link
+     * google.registry.model.rde.RdeMode#DIFF} deposits on the other days.
+     *
+     * @see google.registry.rde.PendingDepositChecker
+     */
+    @Provides
+    @Config("rdeFullDepositDaysOfWeek")
+    public static ImmutableSet<Integer> provideRdeFullDepositDaysOfWeek(
+        RegistryConfigSettings config) {
+      return ImmutableSet.copyOf(config.rde.fullDepositDaysOfWeek);
+    }
+
     /**
      * Maximum amount of time for sending a small XML file to ICANN via HTTP, before killing.
      *
@@ -1446,6 +1519,19 @@ public final class RegistryConfig {
     return CONFIG_SETTINGS.get().caching.staticPremiumListMaxCachedEntries;
   }
 
+  /**
+   * Returns whether premium prices are looked up in an in-memory index of each whole premium list,
+   * rather than in a cache of individually loaded entries.
+   */
+  public static boolean isPremiumListIndexEnabled() {
+    return CONFIG_SETTINGS.get().caching.premiumListIndexEnabled;
+  }
+
+  @VisibleForTesting
+  public static void overrideIsPremiumListIndexEnabledForTesting(boolean enabled) {
+    CONFIG_SETTINGS.get().caching.premiumListIndexEnabled = enabled;
+  }
+
   public static boolean isEppResourceCachingEnabled() {
     return CONFIG_SETTINGS.get().caching.eppResourceCachingEnabled;
   }
@@ -1462,11 +1548,43 @@ public final class RegistryConfig {
     return Duration.standardSeconds(CONFIG_SETTINGS.get().caching.eppResourceCachingSeconds);
   }
 
+  /**
+   * Returns the age after which a cached EPP resource or key is reloaded in the background, while
+   * the stale value continues to be served.
+   */
+  public static Duration getEppResourceCacheRefreshDuration() {
+    return Duration.standardSeconds(
+        CONFIG_SETTINGS.get().caching.eppResourceCachingRefreshSeconds);
+  }
+
   /** Returns the maximum number of EPP resources and keys to keep in in-memory cache. */
   public static int getEppResourceMaxCachedEntries() {
     return CONFIG_SETTINGS.get().caching.eppResourceMaxCachedEntries;
   }
 
+  /**
+   * Returns the amount of time the keys of the hosts with a given IP address should be cached in
+   * memory before expiring.
+   */
+  public static Duration getHostsByInetAddressCachingDuration() {
+    return Duration.standardSeconds(CONFIG_SETTINGS.get().caching.hostsByInetAddressCachingSeconds);
+  }
+
+  /** Returns the maximum total number of host keys kept in the in-memory cache by IP address. */
+  public static int getHostsByInetAddressMaxCachedHosts() {
+    return CONFIG_SETTINGS.get().caching.hostsByInetAddressMaxCachedHosts;
+  }
+
+  /** Returns the amount of time rendered WHOIS domain responses are cached in memory. */
+  public static Duration getWhoisResponseCachingDuration() {
+    return Duration.standardSeconds(CONFIG_SETTINGS.get().caching.whoisResponseCachingSeconds);
+  }
+
+  /** Returns the maximum total size, in bytes, of the WHOIS domain responses cached in memory. */
+  public static long getWhoisResponseCacheMaxBytes() {
+    return CONFIG_SETTINGS.get().caching.whoisResponseCacheMaxBytes;
+  }
+
   /** Returns the email address that outgoing emails from the app are sent from. */
   public static InternetAddress getGSuiteOutgoingEmailAddress() {
     return parseEmailAddress(CONFIG_SETTINGS.get().gSuite.outgoingEmailAddress);
@@ -1532,6 +1650,16 @@ public final class RegistryConfig {
     return CONFIG_SETTINGS.get().registryPolicy.contactAndHostRoidSuffix;
   }
 
+  /** Returns the fraction of EPP responses that are validated against the schema before sending. */
+  public static double getEppOutputValidationSampleRate() {
+    return CONFIG_SETTINGS.get().registryPolicy.eppOutputValidationSampleRate;
+  }
+
+  @VisibleForTesting
+  public static void overrideEppOutputValidationSampleRateForTesting(double sampleRate) {
+    CONFIG_SETTINGS.get().registryPolicy.eppOutputValidationSampleRate = sampleRate;
+  }
+
   /** Returns the global automatic transfer length for contacts. */
   public static Duration getContactAutomaticTransferLength() {
     return Duration.standardDays(CONFIG_SETTINGS.get().registryPolicy.contactAutomaticTransferDays);
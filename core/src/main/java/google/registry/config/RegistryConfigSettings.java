@@ -98,6 +98,8 @@ public class RegistryConfigSettings {
     public String registryName;
     public List<String> spec11WebResources;
     public boolean requireSslCertificates;
+    public boolean singlePassEppInputEnabled;
+    public double eppOutputValidationSampleRate;
   }
 
   /** Configuration for Cloud Datastore. */
@@ -141,9 +143,15 @@ public class RegistryConfigSettings {
     public int domainLabelCachingSeconds;
     public int singletonCachePersistSeconds;
     public int staticPremiumListMaxCachedEntries;
+    public boolean premiumListIndexEnabled;
     public boolean eppResourceCachingEnabled;
     public int eppResourceCachingSeconds;
+    public int eppResourceCachingRefreshSeconds;
     public int eppResourceMaxCachedEntries;
+    public int hostsByInetAddressCachingSeconds;
+    public int hostsByInetAddressMaxCachedHosts;
+    public int whoisResponseCachingSeconds;
+    public long whoisResponseCacheMaxBytes;
   }
 
   /** Configuration for ICANN monthly reporting. */
@@ -163,6 +171,7 @@ public class RegistryConfigSettings {
     public String reportUrlPrefix;
     public String uploadUrl;
     public String sshIdentityEmailAddress;
+    public List<Integer> fullDepositDaysOfWeek;
   }
 
   /** Configuration for the web-based registrar console. */
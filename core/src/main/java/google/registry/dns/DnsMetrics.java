@@ -211,7 +211,9 @@ public class DnsMetrics {
    * <p>The information includes running times (per item and per commit), and batch sizes (per item
    * and per commit)
    *
-   * <p>This is to be used for load testing the system, and will not measure anything in prod.
+   * <p>Apart from the counts, only the processing time per commit is recorded in production, so
+   * that slow publishing can be traced to a single TLD (i.e. zone) and DNS writer. The remaining
+   * distributions are for load testing the system, and are not recorded in prod.
    */
   void recordCommit(
       String tld,
@@ -223,6 +225,8 @@ public class DnsMetrics {
     commitCount.increment(tld, status.name(), dnsWriter);
     domainsCommittedCount.incrementBy(numberOfDomains, tld, status.name(), dnsWriter);
     hostsCommittedCount.incrementBy(numberOfHosts, tld, status.name(), dnsWriter);
+    processingTimePerCommitDist.record(
+        processingDuration.getMillis(), tld, status.name(), dnsWriter);
 
     // We don't want to record the following metrics in production, as they are quite expensive
     if (RegistryEnvironment.get().equals(PRODUCTION)) {
@@ -231,8 +235,6 @@ public class DnsMetrics {
 
     int batchSize = numberOfDomains + numberOfHosts;
 
-    processingTimePerCommitDist.record(
-        processingDuration.getMillis(), tld, status.name(), dnsWriter);
     processingTimePerItemDist.record(
         processingDuration.getMillis(), batchSize, tld, status.name(), dnsWriter);
 
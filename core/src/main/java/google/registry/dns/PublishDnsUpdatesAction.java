@@ -25,6 +25,7 @@ import static google.registry.request.Action.Method.POST;
 import static google.registry.request.RequestParameters.PARAM_TLD;
 import static google.registry.util.CollectionUtils.nullToEmpty;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.net.InternetDomainName;
 import google.registry.config.RegistryConfig.Config;
@@ -38,10 +39,10 @@ import google.registry.request.HttpException.ServiceUnavailableException;
 import google.registry.request.Parameter;
 import google.registry.request.auth.Auth;
 import google.registry.request.lock.LockHandler;
+import google.registry.request.lock.LockHandler.FencedCallable;
 import google.registry.util.Clock;
 import google.registry.util.DomainNameUtils;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -53,7 +54,7 @@ import org.joda.time.Duration;
     method = POST,
     automaticallyPrintOk = true,
     auth = Auth.AUTH_INTERNAL_OR_ADMIN)
-public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
+public final class PublishDnsUpdatesAction implements Runnable, FencedCallable {
 
   public static final String PATH = "/_dr/task/publishDnsUpdates";
   public static final String LOCK_NAME = "DNS updates";
@@ -64,6 +65,7 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
   @Inject DnsWriterProxy dnsWriterProxy;
   @Inject DnsMetrics dnsMetrics;
   @Inject @Config("publishDnsUpdatesLockDuration") Duration timeout;
+  @Inject @Config("publishDnsUpdatesLockWait") Duration lockWait;
 
   /**
    * The DNS writer to use for this batch.
@@ -125,11 +127,7 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
     // false. We need to make sure to take note of this error; otherwise, a failed lock might result
     // in the update task being dequeued and dropped. A message will already have been logged
     // to indicate the problem.
-    if (!lockHandler.executeWithLocks(
-        this,
-        tld,
-        timeout,
-        String.format("%s-lock %d of %d", LOCK_NAME, lockIndex, numPublishLocks))) {
+    if (!lockHandler.executeWithLocks(this, tld, timeout, lockWait, getLockName())) {
       recordActionResult(ActionStatus.LOCK_FAILURE);
       throw new ServiceUnavailableException("Lock failure");
     }
@@ -137,9 +135,12 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
 
   /** Runs the task, with the lock. */
   @Override
-  public Void call() {
-    processBatch();
-    return null;
+  public void call(ImmutableMap<String, Long> fencingTokens) {
+    processBatch(fencingTokens.get(getLockName()));
+  }
+
+  private String getLockName() {
+    return String.format("%s-lock %d of %d", LOCK_NAME, lockIndex, numPublishLocks);
   }
 
   /** Adds all the domains and hosts in the batch back to the queue to be processed later. */
@@ -173,7 +174,7 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
   }
 
   /** Steps through the domain and host refreshes contained in the parameters and processes them. */
-  private void processBatch() {
+  private void processBatch(long fencingToken) {
     DateTime timeAtStart = clock.nowUtc();
 
     DnsWriter writer = dnsWriterProxy.getByClassNameForTld(dnsWriter, tld);
@@ -217,8 +218,15 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
     dnsMetrics.incrementPublishHostRequests(tld, hostsPublished, PublishStatus.ACCEPTED);
     dnsMetrics.incrementPublishHostRequests(tld, hostsRejected, PublishStatus.REJECTED);
 
-    // If we got here it means we managed to stage the entire batch without any errors.
-    // Next we will commit the batch.
+    // If we got here it means we managed to stage the entire batch without any errors. Make sure
+    // that we didn't stall past the lease and lose the lock meanwhile, since whoever holds it now
+    // might have published newer data that this batch would overwrite. Next we will commit the
+    // batch.
+    if (!lockHandler.isLockHeld(getLockName(), tld, fencingToken)) {
+      logger.atSevere().log("%s: lost the lock before committing", tld);
+      recordActionResult(ActionStatus.LOCK_FAILURE);
+      throw new ServiceUnavailableException("Lost the lock before committing");
+    }
     CommitStatus commitStatus = CommitStatus.FAILURE;
     ActionStatus actionStatus = ActionStatus.COMMIT_FAILURE;
     try {
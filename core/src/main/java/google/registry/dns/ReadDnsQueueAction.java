@@ -14,6 +14,7 @@
 
 package google.registry.dns;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSetMultimap.toImmutableSetMultimap;
 import static com.google.common.collect.Sets.difference;
 import static google.registry.dns.DnsConstants.DNS_PUBLISH_PUSH_QUEUE_NAME;
@@ -29,14 +30,17 @@ import static google.registry.dns.DnsModule.PARAM_PUBLISH_TASK_ENQUEUED;
 import static google.registry.dns.DnsModule.PARAM_REFRESH_REQUEST_CREATED;
 import static google.registry.request.RequestParameters.PARAM_TLD;
 import static google.registry.util.DomainNameUtils.getSecondLevelDomain;
+import static java.math.RoundingMode.CEILING;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueConstants;
 import com.google.appengine.api.taskqueue.TaskHandle;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
@@ -45,6 +49,7 @@ import com.google.common.collect.Ordering;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.math.IntMath;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.DnsConstants.TargetType;
 import google.registry.model.registry.Registries;
@@ -53,6 +58,7 @@ import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.auth.Auth;
 import google.registry.util.Clock;
+import google.registry.util.Concurrent;
 import google.registry.util.TaskQueueUtils;
 import java.io.UnsupportedEncodingException;
 import java.util.Collection;
@@ -102,6 +108,8 @@ public final class ReadDnsQueueAction implements Runnable {
   private static final Duration LEASE_PADDING = Duration.standardMinutes(1);
 
   @Inject @Config("dnsTldUpdateBatchSize") int tldUpdateBatchSize;
+  @Inject @Config("dnsMaxTldUpdateBatchSize") int maxTldUpdateBatchSize;
+  @Inject @Config("dnsMaxPublishTasksPerLock") int maxPublishTasksPerLock;
   @Inject @Config("readDnsQueueActionRuntime") Duration requestedMaximumDuration;
   @Inject @Named(DNS_PUBLISH_PUSH_QUEUE_NAME) Queue dnsPublishPushQueue;
   @Inject @Parameter(PARAM_JITTER_SECONDS) Optional<Integer> jitterSeconds;
@@ -310,31 +318,48 @@ public final class ReadDnsQueueAction implements Runnable {
    * Subdivides the tld to {@link RefreshItem} multimap into buckets by lock index, if applicable.
    *
    * <p>If the tld has numDnsPublishLocks <= 1, we enqueue all updates on the default lock 1 of 1.
+   *
+   * <p>The TLDs are independent of each other, so their tasks are enqueued in parallel. This keeps
+   * a large backlog on one TLD from delaying the updates of all the others.
    */
   private void bucketRefreshItems(ImmutableSetMultimap<String, RefreshItem> refreshItemsByTld) {
-    // Loop through the multimap by TLD and generate refresh tasks for the hosts and domains for
-    // each configured DNS writer.
-    for (Map.Entry<String, Collection<RefreshItem>> tldRefreshItemsEntry
-        : refreshItemsByTld.asMap().entrySet()) {
-      String tld = tldRefreshItemsEntry.getKey();
-      int numPublishLocks = Registry.get(tld).getNumDnsPublishLocks();
-      // 1 lock or less implies no TLD-wide locks, simply enqueue everything under lock 1 of 1
-      if (numPublishLocks <= 1) {
-        enqueueUpdates(tld, 1, 1, tldRefreshItemsEntry.getValue());
-      } else {
-        tldRefreshItemsEntry
-            .getValue()
+    int numTasks =
+        Concurrent.transform(
+                refreshItemsByTld.asMap().entrySet(),
+                entry -> bucketTldRefreshItems(entry.getKey(), entry.getValue()))
             .stream()
-            .collect(
-                toImmutableSetMultimap(
-                    refreshItem -> getLockIndex(tld, numPublishLocks, refreshItem),
-                    refreshItem -> refreshItem))
-            .asMap()
-            .entrySet()
-            .forEach(
-                entry -> enqueueUpdates(tld, entry.getKey(), numPublishLocks, entry.getValue()));
-      }
+            .mapToInt(Integer::intValue)
+            .sum();
+    logger.atInfo().log("Enqueued %d DNS publish tasks.", numTasks);
+  }
+
+  /** Enqueues refresh tasks for all the items of a single tld, and returns how many there were. */
+  private int bucketTldRefreshItems(String tld, Collection<RefreshItem> refreshItems) {
+    int numPublishLocks = Registry.get(tld).getNumDnsPublishLocks();
+    ImmutableList<TaskOptions> tasks;
+    // 1 lock or less implies no TLD-wide locks, simply enqueue everything under lock 1 of 1
+    if (numPublishLocks <= 1) {
+      tasks = createUpdateTasks(tld, 1, 1, refreshItems);
+    } else {
+      tasks =
+          refreshItems.stream()
+              .collect(
+                  toImmutableSetMultimap(
+                      refreshItem -> getLockIndex(tld, numPublishLocks, refreshItem),
+                      refreshItem -> refreshItem))
+              .asMap()
+              .entrySet()
+              .stream()
+              .flatMap(
+                  entry ->
+                      createUpdateTasks(tld, entry.getKey(), numPublishLocks, entry.getValue())
+                          .stream())
+              .collect(toImmutableList());
+    }
+    for (List<TaskOptions> batch : Iterables.partition(tasks, QueueConstants.maxTasksPerAdd())) {
+      taskQueueUtils.enqueue(dnsPublishPushQueue, batch);
     }
+    return tasks.size();
   }
 
   /**
@@ -350,18 +375,32 @@ public final class ReadDnsQueueAction implements Runnable {
     return Hashing.consistentHash(hashFunction.hashString(domain, UTF_8), numPublishLocks) + 1;
   }
 
+  /**
+   * Returns how many refresh items to send to each publish task for a single lock.
+   *
+   * <p>This is normally {@link #tldUpdateBatchSize}. The publish tasks for a lock can't run
+   * concurrently, so when more than {@link #maxPublishTasksPerLock} such batches are waiting, we
+   * instead grow the batches (up to {@link #maxTldUpdateBatchSize}) to make fewer of them. Each
+   * DnsWriter commit then carries more updates, which drains a backlog much faster than many small
+   * tasks contending for the same lock.
+   */
+  private int getPublishBatchSize(int numItems) {
+    int batchSizeForLimit = IntMath.divide(numItems, maxPublishTasksPerLock, CEILING);
+    return Math.max(tldUpdateBatchSize, Math.min(maxTldUpdateBatchSize, batchSizeForLimit));
+  }
+
   /**
    * Creates DNS refresh tasks for all writers for the tld within a lock index and batches large
    * updates into smaller chunks.
    */
-  private void enqueueUpdates(
+  private ImmutableList<TaskOptions> createUpdateTasks(
       String tld, int lockIndex, int numPublishLocks, Collection<RefreshItem> items) {
-    for (List<RefreshItem> chunk : Iterables.partition(items, tldUpdateBatchSize)) {
+    ImmutableList.Builder<TaskOptions> tasks = new ImmutableList.Builder<>();
+    for (List<RefreshItem> chunk : Iterables.partition(items, getPublishBatchSize(items.size()))) {
       DateTime earliestCreateTime =
           chunk.stream().map(RefreshItem::creationTime).min(Comparator.naturalOrder()).get();
       for (String dnsWriter : Registry.get(tld).getDnsWriters()) {
-        taskQueueUtils.enqueue(
-            dnsPublishPushQueue,
+        tasks.add(
             TaskOptions.Builder.withUrl(PublishDnsUpdatesAction.PATH)
                 .countdownMillis(
                     jitterSeconds
@@ -389,5 +428,6 @@ public final class ReadDnsQueueAction implements Runnable {
                         .collect(Collectors.joining(","))));
       }
     }
+    return tasks.build();
   }
 }
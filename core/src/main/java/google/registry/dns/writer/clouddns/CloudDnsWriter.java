@@ -89,6 +89,7 @@ public class CloudDnsWriter extends BaseDnsWriter {
   private final String zoneName;
   private final Dns dnsConnection;
   private final HashMap<String, ImmutableSet<ResourceRecordSet>> desiredRecords = new HashMap<>();
+  private final HashSet<String> publishedDomains = new HashSet<>();
 
   @Inject
   CloudDnsWriter(
@@ -120,6 +121,12 @@ public class CloudDnsWriter extends BaseDnsWriter {
     // Canonicalize name
     String absoluteDomainName = getAbsoluteHostName(domainName);
 
+    // Refreshes of several hosts under the same domain, e.g. after a bulk nameserver rename, all
+    // republish that domain. Its records are already staged the second time, so skip loading it.
+    if (!publishedDomains.add(absoluteDomainName)) {
+      return;
+    }
+
     // Load the target domain. Note that it can be absent if this domain was just deleted.
     Optional<DomainBase> domainBase =
         loadByForeignKey(DomainBase.class, domainName, clock.nowUtc());
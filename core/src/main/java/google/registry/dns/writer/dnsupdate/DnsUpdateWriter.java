@@ -36,7 +36,11 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import javax.inject.Inject;
 import org.joda.time.Duration;
 import org.xbill.DNS.AAAARecord;
@@ -92,6 +96,16 @@ public class DnsUpdateWriter extends BaseDnsWriter {
   private final Update update;
   private final String zoneName;
 
+  /**
+   * The domains already published in {@link #update}, each with the names of the hosts whose
+   * records were deleted while publishing it, or empty if the domain doesn't exist, in which case
+   * the records of its hosts are left alone.
+   *
+   * <p>A bulk host change, such as renaming a nameserver, can refresh many hosts under the same
+   * domain in a single batch, each of which would otherwise republish the whole domain.
+   */
+  private final Map<String, Optional<Set<String>>> publishedDomains = new HashMap<>();
+
   /**
    * Class constructor.
    *
@@ -127,6 +141,18 @@ public class DnsUpdateWriter extends BaseDnsWriter {
    *     this domain refresh request
    */
   private void publishDomain(String domainName, String requestingHostName) {
+    Optional<Set<String>> publishedHostNames = publishedDomains.get(domainName);
+    if (publishedHostNames != null) {
+      // The domain and its glue records are already up to date in this update. A requesting host
+      // not seen yet isn't one of its subordinate hosts, so it can't have glue records to keep.
+      if (requestingHostName != null
+          && publishedHostNames.isPresent()
+          && publishedHostNames.get().add(requestingHostName)) {
+        update.delete(toAbsoluteName(requestingHostName), Type.ANY);
+      }
+      return;
+    }
+    Optional<Set<String>> deletedHostNames = Optional.empty();
     Optional<DomainBase> domainOptional =
         loadByForeignKey(DomainBase.class, domainName, clock.nowUtc());
     update.delete(toAbsoluteName(domainName), Type.ANY);
@@ -134,13 +160,17 @@ public class DnsUpdateWriter extends BaseDnsWriter {
     if (domainOptional.isPresent()) {
       DomainBase domain = domainOptional.get();
       // As long as the domain exists, orphan glues should be cleaned.
-      deleteSubordinateHostAddressSet(domain, requestingHostName, update);
+      deletedHostNames =
+          Optional.of(
+              new HashSet<>(deleteSubordinateHostAddressSet(domain, requestingHostName, update)));
       if (domain.shouldPublishToDns()) {
         addInBailiwickNameServerSet(domain, update);
         update.add(makeNameServerSet(domain));
         update.add(makeDelegationSignerSet(domain));
       }
     }
+    // A missing domain is recorded too, so that its later hosts are left alone like this one.
+    publishedDomains.put(domainName, deletedHostNames);
   }
 
   @Override
@@ -201,16 +231,19 @@ public class DnsUpdateWriter extends BaseDnsWriter {
     return signerSet;
   }
 
-  private void deleteSubordinateHostAddressSet(
+  /** Deletes the records of all subordinate hosts, and returns the names of these hosts. */
+  private Set<String> deleteSubordinateHostAddressSet(
       DomainBase domain, String additionalHost, Update update) {
-    for (String hostName :
+    Set<String> hostNames =
         union(
             domain.getSubordinateHosts(),
             (additionalHost == null
                 ? ImmutableSet.of()
-                : ImmutableSet.of(additionalHost)))) {
+                : ImmutableSet.of(additionalHost)));
+    for (String hostName : hostNames) {
       update.delete(toAbsoluteName(hostName), Type.ANY);
     }
+    return hostNames;
   }
 
   private void addInBailiwickNameServerSet(DomainBase domain, Update update) {
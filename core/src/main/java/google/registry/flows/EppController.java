@@ -25,6 +25,8 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.flogger.FluentLogger;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.flows.EppXmlSanitizer.StreamingSanitizer;
 import google.registry.flows.FlowModule.EppExceptionInProviderException;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppinput.EppInput;
@@ -51,6 +53,7 @@ public final class EppController {
   @Inject EppMetric.Builder eppMetricBuilder;
   @Inject EppMetrics eppMetrics;
   @Inject ServerTridProvider serverTridProvider;
+  @Inject @Config("singlePassEppInputEnabled") boolean singlePassEppInputEnabled;
   @Inject EppController() {}
 
   /** Reads EPP XML, executes the matching flow, and returns an {@link EppOutput}. */
@@ -64,8 +67,15 @@ public final class EppController {
     eppMetricBuilder.setClientId(Optional.ofNullable(sessionMetadata.getClientId()));
     try {
       EppInput eppInput;
+      Optional<StreamingSanitizer> sanitizer =
+          singlePassEppInputEnabled
+              ? Optional.of(EppXmlSanitizer.newStreamingSanitizer(inputXmlBytes))
+              : Optional.empty();
       try {
-        eppInput = unmarshalEpp(EppInput.class, inputXmlBytes);
+        eppInput =
+            sanitizer.isPresent()
+                ? unmarshalEpp(EppInput.class, inputXmlBytes, sanitizer.get())
+                : unmarshalEpp(EppInput.class, inputXmlBytes);
       } catch (EppException e) {
         // Log the unmarshalling error, with the raw bytes (in base64) to help with debugging.
         logger.atInfo().withCause(e).log(
@@ -99,17 +109,21 @@ public final class EppController {
           eppMetricBuilder.setTlds(extractTlds(eppInput.getTargetIds()));
         }
       }
-      EppOutput output = runFlowConvertEppErrors(flowComponentBuilder
-          .flowModule(new FlowModule.Builder()
+      FlowModule.Builder flowModuleBuilder =
+          new FlowModule.Builder()
               .setSessionMetadata(sessionMetadata)
               .setCredentials(credentials)
               .setEppRequestSource(eppRequestSource)
               .setIsDryRun(isDryRun)
               .setIsSuperuser(isSuperuser)
               .setInputXmlBytes(inputXmlBytes)
-              .setEppInput(eppInput)
-              .build())
-          .build());
+              .setEppInput(eppInput);
+      sanitizer.ifPresent(
+          streamingSanitizer ->
+              flowModuleBuilder.setSanitizedInputXml(streamingSanitizer.getSanitizedXml()));
+      EppOutput output =
+          runFlowConvertEppErrors(
+              flowComponentBuilder.flowModule(flowModuleBuilder.build()).build());
       if (output.isResponse()) {
         eppMetricBuilder.setStatus(output.getResponse().getResult().getCode());
       }
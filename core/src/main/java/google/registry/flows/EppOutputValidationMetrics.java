@@ -0,0 +1,55 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+
+/** Instrumentation for schema validation of EPP responses in {@link FlowUtils}. */
+class EppOutputValidationMetrics {
+
+  /** Possible outcomes of marshalling an EPP response. */
+  enum ValidationOutcome {
+    /** The response was not sampled for validation. */
+    SKIPPED,
+
+    /** The response was validated and conforms to the schema. */
+    VALID,
+
+    /** The response was validated and does not conform to the schema. */
+    INVALID
+  }
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("outcome", "Whether the response was validated, and the result."));
+
+  /** Metric counting marshalled EPP responses, by validation outcome. */
+  @VisibleForTesting
+  static final IncrementableMetric responses =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/epp/output_validation/responses",
+              "Count of marshalled EPP responses by schema validation outcome",
+              "count",
+              LABEL_DESCRIPTORS);
+
+  static void recordResponse(ValidationOutcome outcome) {
+    responses.increment(outcome.name());
+  }
+}
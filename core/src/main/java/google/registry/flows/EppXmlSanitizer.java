@@ -28,6 +28,7 @@ import java.util.Locale;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventFactory;
 import javax.xml.stream.XMLEventReader;
@@ -35,9 +36,9 @@ import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.Characters;
 import javax.xml.stream.events.StartDocument;
 import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.XMLEventConsumer;
 
 /**
  * Sanitizes sensitive data in incoming/outgoing EPP XML messages.
@@ -86,60 +87,139 @@ public class EppXmlSanitizer {
    * <p>Also, an empty element will be formatted as {@code <tag></tag>} instead of {@code <tag/>}.
    */
   public static String sanitizeEppXml(byte[] inputXmlBytes) {
+    StreamingSanitizer sanitizer = newStreamingSanitizer(inputXmlBytes);
     try {
-      // Keep exactly one newline at end of sanitized string.
-      return CharMatcher.whitespace().trimTrailingFrom(sanitizeAndEncode(inputXmlBytes)) + "\n";
-    } catch (XMLStreamException | UnsupportedEncodingException e) {
-      logger.atWarning().withCause(e).log("Failed to sanitize EPP XML message.");
-      return Base64.getMimeEncoder().encodeToString(inputXmlBytes);
+      XMLEventReader xmlEventReader =
+          XML_INPUT_FACTORY.createXMLEventReader(new ByteArrayInputStream(inputXmlBytes));
+      while (xmlEventReader.hasNext()) {
+        sanitizer.add(xmlEventReader.nextEvent());
+      }
+    } catch (XMLStreamException e) {
+      sanitizer.fail(e);
     }
+    return sanitizer.getSanitizedXml();
   }
 
-  private static String sanitizeAndEncode(byte[] inputXmlBytes)
-      throws XMLStreamException, UnsupportedEncodingException {
-    XMLEventReader xmlEventReader =
-        XML_INPUT_FACTORY.createXMLEventReader(new ByteArrayInputStream(inputXmlBytes));
+  /**
+   * Returns a {@link StreamingSanitizer} for {@code inputXmlBytes}, which builds the same output as
+   * {@link #sanitizeEppXml} from events that are parsed elsewhere.
+   *
+   * <p>This lets the sanitized copy of an EPP command be produced by the same parse that validates
+   * and unmarshals it.
+   */
+  public static StreamingSanitizer newStreamingSanitizer(byte[] inputXmlBytes) {
+    return new StreamingSanitizer(inputXmlBytes);
+  }
 
-    if (!xmlEventReader.hasNext()) {
-      return "";
+  /**
+   * An {@link XMLEventConsumer} that writes out the events of an EPP XML message with sensitive
+   * data masked.
+   *
+   * <p>Events must be added in document order, starting with the {@link StartDocument}. Adjacent
+   * character events need not be coalesced. Adding never throws, so that a sanitizer can observe a
+   * parse without being able to fail it; if the events are not a well-formed document, {@link
+   * #getSanitizedXml} returns the base64-encoded raw bytes instead.
+   */
+  public static final class StreamingSanitizer implements XMLEventConsumer {
+
+    private final byte[] inputXmlBytes;
+    private final ByteArrayOutputStream outputXmlBytes = new ByteArrayOutputStream();
+    private final StringBuilder sensitiveData = new StringBuilder();
+    private String encoding;
+    private XMLEventWriter xmlEventWriter;
+    @Nullable private QName sensitiveElementName;
+    private boolean complete;
+    @Nullable private Exception failure;
+    @Nullable private String sanitizedXml;
+
+    private StreamingSanitizer(byte[] inputXmlBytes) {
+      this.inputXmlBytes = inputXmlBytes;
     }
 
-    XMLEvent firstEvent = xmlEventReader.nextEvent();
-    checkState(firstEvent.isStartDocument(), "Missing StartDocument");
-    // Get input encoding for use in XMLEventWriter creation, so that sanitized XML preserves the
-    // encoding declaration. According to XML spec, UTF-8 is to be used unless input declares
-    // otherwise. Epp officially allows UTF-8 and UTF-16.
-    String inputEncoding =
-        Optional.ofNullable(((StartDocument) firstEvent).getCharacterEncodingScheme())
-            .orElse(StandardCharsets.UTF_8.name());
-
-    ByteArrayOutputStream outputXmlBytes = new ByteArrayOutputStream();
-    XMLEventWriter xmlEventWriter =
-        XML_OUTPUT_FACTORY.createXMLEventWriter(outputXmlBytes, inputEncoding);
-    xmlEventWriter.add(firstEvent);
-
-    while (xmlEventReader.hasNext()) {
-      XMLEvent xmlEvent = xmlEventReader.nextEvent();
-      xmlEventWriter.add(xmlEvent);
-      if (isStartEventForSensitiveData(xmlEvent)) {
-        QName startEventName = xmlEvent.asStartElement().getName();
-        while (xmlEventReader.hasNext()) {
-          XMLEvent event = xmlEventReader.nextEvent();
-          if (event.isCharacters()) {
-            Characters characters = event.asCharacters();
-            event = XML_EVENT_FACTORY.createCharacters(maskSensitiveData(characters.getData()));
-          }
-          xmlEventWriter.add(event);
-          if (isMatchingEndEvent(event, startEventName)) {
-            // The inner while-loop is guaranteed to break here for any valid XML.
-            // If matching event is missing, xmlEventReader will throw XMLStreamException.
-            break;
+    @Override
+    public void add(XMLEvent xmlEvent) {
+      if (failure != null || sanitizedXml != null) {
+        return;
+      }
+      try {
+        write(xmlEvent);
+      } catch (XMLStreamException | RuntimeException e) {
+        failure = e;
+      }
+    }
+
+    /** Records that the message could not be parsed, so that it is returned base64-encoded. */
+    void fail(Exception e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+
+    /** Returns the sanitized message, or the base64-encoded raw bytes if it was malformed. */
+    public String getSanitizedXml() {
+      if (sanitizedXml == null) {
+        sanitizedXml = encode();
+      }
+      return sanitizedXml;
+    }
+
+    private void write(XMLEvent xmlEvent) throws XMLStreamException {
+      if (xmlEventWriter == null) {
+        checkState(xmlEvent.isStartDocument(), "Missing StartDocument");
+        // Get input encoding for use in XMLEventWriter creation, so that sanitized XML preserves
+        // the encoding declaration. According to XML spec, UTF-8 is to be used unless input
+        // declares otherwise. Epp officially allows UTF-8 and UTF-16.
+        encoding =
+            Optional.ofNullable(((StartDocument) xmlEvent).getCharacterEncodingScheme())
+                .orElse(StandardCharsets.UTF_8.name());
+        xmlEventWriter = XML_OUTPUT_FACTORY.createXMLEventWriter(outputXmlBytes, encoding);
+        xmlEventWriter.add(xmlEvent);
+        return;
+      }
+      if (sensitiveElementName == null) {
+        xmlEventWriter.add(xmlEvent);
+        if (isStartEventForSensitiveData(xmlEvent)) {
+          sensitiveElementName = xmlEvent.asStartElement().getName();
+        }
+      } else if (xmlEvent.isCharacters()) {
+        // Buffer the data until the next non-character event, so that masking is done per code
+        // point even if the parser splits the text into several events.
+        sensitiveData.append(xmlEvent.asCharacters().getData());
+      } else {
+        writeSensitiveData();
+        xmlEventWriter.add(xmlEvent);
+        if (isMatchingEndEvent(xmlEvent, sensitiveElementName)) {
+          sensitiveElementName = null;
+        }
+      }
+      complete = xmlEvent.isEndDocument();
+    }
+
+    private void writeSensitiveData() throws XMLStreamException {
+      if (sensitiveData.length() > 0) {
+        xmlEventWriter.add(
+            XML_EVENT_FACTORY.createCharacters(maskSensitiveData(sensitiveData.toString())));
+        sensitiveData.setLength(0);
+      }
+    }
+
+    private String encode() {
+      try {
+        if (failure == null) {
+          if (!complete) {
+            throw new XMLStreamException("Incomplete XML document");
           }
+          xmlEventWriter.flush();
+          // Keep exactly one newline at end of sanitized string.
+          return CharMatcher.whitespace().trimTrailingFrom(outputXmlBytes.toString(encoding))
+              + "\n";
         }
+      } catch (XMLStreamException | UnsupportedEncodingException e) {
+        failure = e;
       }
+      logger.atWarning().withCause(failure).log("Failed to sanitize EPP XML message.");
+      return Base64.getMimeEncoder().encodeToString(inputXmlBytes);
     }
-    xmlEventWriter.flush();
-    return outputXmlBytes.toString(inputEncoding);
   }
 
   private static String maskSensitiveData(String original) {
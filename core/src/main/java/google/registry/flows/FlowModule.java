@@ -41,6 +41,7 @@ public class FlowModule {
 
   private EppInput eppInput;
   private byte[] inputXmlBytes;
+  private String sanitizedInputXml;
   private SessionMetadata sessionMetadata;
   private TransportCredentials credentials;
   private boolean isDryRun;
@@ -63,6 +64,16 @@ public class FlowModule {
       return this;
     }
 
+    /**
+     * Sets the sanitized copy of the input XML, if it was already produced while unmarshalling.
+     *
+     * @see EppXmlSanitizer#newStreamingSanitizer
+     */
+    Builder setSanitizedInputXml(String sanitizedInputXml) {
+      module.sanitizedInputXml = sanitizedInputXml;
+      return this;
+    }
+
     Builder setSessionMetadata(SessionMetadata sessionMetadata) {
       module.sessionMetadata = sessionMetadata;
       return this;
@@ -105,6 +116,15 @@ public class FlowModule {
     return inputXmlBytes;
   }
 
+  @Provides
+  @FlowScope
+  @SanitizedInputXml
+  String provideSanitizedInputXml() {
+    return sanitizedInputXml != null
+        ? sanitizedInputXml
+        : EppXmlSanitizer.sanitizeEppXml(inputXmlBytes);
+  }
+
   @Provides
   @FlowScope
   EppInput provideEppInput() {
@@ -269,6 +289,11 @@ public class FlowModule {
   @Documented
   public @interface InputXml {}
 
+  /** Dagger qualifier for the input XML with sensitive data masked, for logging. */
+  @Qualifier
+  @Documented
+  public @interface SanitizedInputXml {}
+
   /** Dagger qualifier for registrar client id. */
   @Qualifier
   @Documented
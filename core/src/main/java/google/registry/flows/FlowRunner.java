@@ -21,7 +21,7 @@ import com.google.common.base.Strings;
 import com.google.common.flogger.FluentLogger;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.DryRun;
-import google.registry.flows.FlowModule.InputXml;
+import google.registry.flows.FlowModule.SanitizedInputXml;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.FlowModule.Transactional;
 import google.registry.flows.session.LoginFlow;
@@ -43,7 +43,7 @@ public class FlowRunner {
   @Inject EppRequestSource eppRequestSource;
   @Inject Provider<Flow> flowProvider;
   @Inject Class<? extends Flow> flowClass;
-  @Inject @InputXml byte[] inputXmlBytes;
+  @Inject @SanitizedInputXml String sanitizedInputXml;
   @Inject @DryRun boolean isDryRun;
   @Inject @Superuser boolean isSuperuser;
   @Inject @Transactional boolean isTransactional;
@@ -54,7 +54,7 @@ public class FlowRunner {
 
   /** Runs the EPP flow, and records metrics on the given builder. */
   public EppOutput run(final EppMetric.Builder eppMetricBuilder) throws EppException {
-    String prettyXml = prettyPrint(EppXmlSanitizer.sanitizeEppXml(inputXmlBytes));
+    String prettyXml = prettyPrint(sanitizedInputXml);
 
     logger.atInfo().log(
         COMMAND_LOG_FORMAT,
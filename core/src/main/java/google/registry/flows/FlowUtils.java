@@ -15,6 +15,7 @@
 package google.registry.flows;
 
 import static com.google.common.base.Preconditions.checkState;
+import static google.registry.flows.EppOutputValidationMetrics.recordResponse;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.xml.ValidationMode.LENIENT;
 import static google.registry.xml.ValidationMode.STRICT;
@@ -22,10 +23,12 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.Throwables;
 import com.google.common.flogger.FluentLogger;
+import google.registry.config.RegistryConfig;
 import google.registry.flows.EppException.CommandUseErrorException;
 import google.registry.flows.EppException.ParameterValueRangeErrorException;
 import google.registry.flows.EppException.SyntaxErrorException;
 import google.registry.flows.EppException.UnimplementedProtocolVersionException;
+import google.registry.flows.EppOutputValidationMetrics.ValidationOutcome;
 import google.registry.flows.custom.EntityChanges;
 import google.registry.model.eppcommon.EppXmlTransformer;
 import google.registry.model.eppinput.EppInput.WrongProtocolVersionException;
@@ -34,6 +37,8 @@ import google.registry.model.host.InetAddressAdapter.IpVersionMismatchException;
 import google.registry.model.translators.CurrencyUnitAdapter.UnknownCurrencyException;
 import google.registry.xml.XmlException;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.xml.stream.util.XMLEventConsumer;
 
 /** Static utility functions for flows. */
 public final class FlowUtils {
@@ -63,42 +68,81 @@ public final class FlowUtils {
     try {
       return EppXmlTransformer.unmarshal(clazz, bytes);
     } catch (XmlException e) {
-      // If this XmlException is wrapping a known type find it. If not, it's a syntax error.
-      List<Throwable> causalChain = Throwables.getCausalChain(e);
-      if (causalChain.stream().anyMatch(IpVersionMismatchException.class::isInstance)) {
-        throw new IpAddressVersionMismatchException();
-      }
-      if (causalChain.stream().anyMatch(WrongProtocolVersionException.class::isInstance)) {
-        throw new UnimplementedProtocolVersionException();
-      }
-      if (causalChain.stream().anyMatch(UnknownCurrencyException.class::isInstance)) {
-        throw new UnknownCurrencyEppException();
-      }
-      throw new GenericXmlSyntaxErrorException(e.getMessage());
+      throw toEppException(e);
     }
   }
 
+  /**
+   * Unmarshals bytes into Epp classes like {@link #unmarshalEpp(Class, byte[])}, passing every
+   * parsed XML event to {@code observer}.
+   */
+  public static <T> T unmarshalEpp(Class<T> clazz, byte[] bytes, XMLEventConsumer observer)
+      throws EppException {
+    try {
+      return EppXmlTransformer.unmarshal(clazz, bytes, observer);
+    } catch (XmlException e) {
+      throw toEppException(e);
+    }
+  }
+
+  private static EppException toEppException(XmlException e) {
+    // If this XmlException is wrapping a known type find it. If not, it's a syntax error.
+    List<Throwable> causalChain = Throwables.getCausalChain(e);
+    if (causalChain.stream().anyMatch(IpVersionMismatchException.class::isInstance)) {
+      return new IpAddressVersionMismatchException();
+    }
+    if (causalChain.stream().anyMatch(WrongProtocolVersionException.class::isInstance)) {
+      return new UnimplementedProtocolVersionException();
+    }
+    if (causalChain.stream().anyMatch(UnknownCurrencyException.class::isInstance)) {
+      return new UnknownCurrencyEppException();
+    }
+    return new GenericXmlSyntaxErrorException(e.getMessage());
+  }
+
+  /**
+   * Marshals an EPP response, validating it against the schema if it is sampled for validation.
+   *
+   * <p>The fraction of responses that are validated is set by {@link
+   * RegistryConfig#getEppOutputValidationSampleRate}. A sampled response that fails validation is
+   * logged and counted, and then sent anyway without validation.
+   */
   public static byte[] marshalWithLenientRetry(EppOutput eppOutput) {
     checkState(eppOutput != null);
     // We need to marshal to a string instead of writing the response directly to the servlet's
     // response writer, so that partial results don't get written on failure.
+    if (!isSampledForValidation(RegistryConfig.getEppOutputValidationSampleRate())) {
+      recordResponse(ValidationOutcome.SKIPPED);
+      return marshalLenient(eppOutput);
+    }
     try {
-      return EppXmlTransformer.marshal(eppOutput, STRICT);
+      byte[] strict = EppXmlTransformer.marshal(eppOutput, STRICT);
+      recordResponse(ValidationOutcome.VALID);
+      return strict;
     } catch (XmlException e) {
       // We failed to marshal with validation. This is very bad, but we can potentially still send
       // back slightly invalid xml, so try again without validation.
-      try {
-        byte[] lenient = EppXmlTransformer.marshal(eppOutput, LENIENT);
-        // Marshaling worked even though the results didn't validate against the schema.
-        logger.atSevere().withCause(e).log(
-            "Result marshaled but did not validate: %s", new String(lenient, UTF_8));
-        return lenient;
-      } catch (XmlException e2) {
-        throw new RuntimeException(e2); // Failing to marshal at all is not recoverable.
-      }
+      recordResponse(ValidationOutcome.INVALID);
+      byte[] lenient = marshalLenient(eppOutput);
+      // Marshaling worked even though the results didn't validate against the schema.
+      logger.atSevere().withCause(e).log(
+          "Result marshaled but did not validate: %s", new String(lenient, UTF_8));
+      return lenient;
     }
   }
 
+  private static byte[] marshalLenient(EppOutput eppOutput) {
+    try {
+      return EppXmlTransformer.marshal(eppOutput, LENIENT);
+    } catch (XmlException e) {
+      throw new RuntimeException(e); // Failing to marshal at all is not recoverable.
+    }
+  }
+
+  private static boolean isSampledForValidation(double sampleRate) {
+    return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+  }
+
   /** Registrar is not logged in. */
   public static class NotLoggedInException extends CommandUseErrorException {
     public NotLoggedInException() {
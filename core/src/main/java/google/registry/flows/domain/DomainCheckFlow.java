@@ -15,6 +15,7 @@
 package google.registry.flows.domain;
 
 import static com.google.common.base.Strings.emptyToNull;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static google.registry.flows.FlowUtils.validateClientIsLoggedIn;
 import static google.registry.flows.ResourceFlowUtils.verifyTargetIdCount;
 import static google.registry.flows.domain.DomainFlowUtils.checkAllowedAccessToTld;
@@ -34,6 +35,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimaps;
 import com.google.common.net.InternetDomainName;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.flows.EppException;
@@ -64,9 +66,11 @@ import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.eppoutput.EppResponse.ResponseExtension;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
+import google.registry.model.registry.label.PremiumListUtils;
 import google.registry.model.registry.label.ReservationType;
 import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
 import google.registry.util.Clock;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -172,10 +176,16 @@ public final class DomainCheckFlow implements Flow {
             .orElse(ImmutableMap.of());
     Optional<AllocationToken> allocationToken =
         tokenDomainCheckResults.flatMap(AllocationTokenDomainCheckResults::token);
+    // Look up the reservations of all the names up front, so that each TLD's reserved lists are
+    // only consulted once per command rather than several times per name.
+    ImmutableMap<InternetDomainName, ImmutableSet<ReservationType>> reservationTypes =
+        getReservationTypes(domainNames.values());
     for (String targetId : targetIds) {
+      InternetDomainName domainName = domainNames.get(targetId);
       Optional<String> message =
           getMessageForCheck(
-              domainNames.get(targetId),
+              domainName,
+              reservationTypes.get(domainName),
               existingIds,
               domainCheckResults,
               tldStates,
@@ -197,6 +207,7 @@ public final class DomainCheckFlow implements Flow {
 
   private Optional<String> getMessageForCheck(
       InternetDomainName domainName,
+      ImmutableSet<ReservationType> reservationTypes,
       Set<String> existingIds,
       ImmutableMap<InternetDomainName, String> tokenCheckResults,
       Map<String, TldState> tldStates,
@@ -205,10 +216,9 @@ public final class DomainCheckFlow implements Flow {
       return Optional.of("In use");
     }
     TldState tldState = tldStates.get(domainName.parent().toString());
-    if (isReserved(domainName, START_DATE_SUNRISE.equals(tldState))) {
-      if (!isValidReservedCreate(domainName, allocationToken)
-          && !isAnchorTenant(domainName, allocationToken, Optional.empty())) {
-        ImmutableSet<ReservationType> reservationTypes = getReservationTypes(domainName);
+    if (isReserved(reservationTypes, START_DATE_SUNRISE.equals(tldState))) {
+      if (!isValidReservedCreate(domainName, reservationTypes, allocationToken)
+          && !isAnchorTenant(domainName, reservationTypes, allocationToken, Optional.empty())) {
         if (!reservationTypes.isEmpty()) {
           ReservationType highestSeverityType = getTypeOfHighestSeverity(reservationTypes);
           return Optional.of(highestSeverityType.getMessageForCheck());
@@ -230,6 +240,7 @@ public final class DomainCheckFlow implements Flow {
       return ImmutableList.of(); // No fee checks were requested.
     }
     FeeCheckCommandExtension<?, ?> feeCheck = feeCheckOpt.get();
+    prefetchPremiumListEntries(domainNames.values());
     ImmutableList.Builder<FeeCheckResponseExtensionItem> responseItems =
         new ImmutableList.Builder<>();
     for (FeeCheckCommandExtensionItem feeCheckItem : feeCheck.getItems()) {
@@ -249,6 +260,22 @@ public final class DomainCheckFlow implements Flow {
     return ImmutableList.of(feeCheck.createResponse(responseItems.build()));
   }
 
+  /**
+   * Loads the premium list entries of all the names being checked in one batch per TLD, so that
+   * pricing each fee check item doesn't go to Datastore once per name.
+   */
+  private static void prefetchPremiumListEntries(Collection<InternetDomainName> domainNames) {
+    Multimaps.index(domainNames, domainName -> domainName.parent().toString())
+        .asMap()
+        .forEach(
+            (tld, namesOnTld) ->
+                PremiumListUtils.prefetchPremiumListEntries(
+                    namesOnTld.stream()
+                        .map(domainName -> domainName.parts().get(0))
+                        .collect(toImmutableList()),
+                    Registry.get(tld)));
+  }
+
   /**
    * Return the domains to be checked for a particular fee check item. Some versions of the fee
    * extension specify the domain name in the extension item, while others use the list of domain
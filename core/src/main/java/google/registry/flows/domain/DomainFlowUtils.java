@@ -51,6 +51,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
@@ -256,9 +257,21 @@ public class DomainFlowUtils {
       InternetDomainName domainName,
       Optional<AllocationToken> token,
       Optional<MetadataExtension> metadataExtension) {
+    return isAnchorTenant(domainName, getReservationTypes(domainName), token, metadataExtension);
+  }
+
+  /**
+   * Returns whether a given domain create request is for a valid anchor tenant, given the
+   * domain's already looked up {@link ReservationType}s.
+   */
+  static boolean isAnchorTenant(
+      InternetDomainName domainName,
+      ImmutableSet<ReservationType> reservationTypes,
+      Optional<AllocationToken> token,
+      Optional<MetadataExtension> metadataExtension) {
     // If the domain is reserved for anchor tenants, then check if the allocation token exists and
     // is for this domain.
-    if (getReservationTypes(domainName).contains(RESERVED_FOR_ANCHOR_TENANT)
+    if (reservationTypes.contains(RESERVED_FOR_ANCHOR_TENANT)
         && token.isPresent()
         && token.get().getDomainName().isPresent()
         && token.get().getDomainName().get().equals(domainName.toString())) {
@@ -272,9 +285,20 @@ public class DomainFlowUtils {
   /** Returns whether a given domain create request is for a valid reserved domain. */
   public static boolean isValidReservedCreate(
       InternetDomainName domainName, Optional<AllocationToken> token) {
+    return isValidReservedCreate(domainName, getReservationTypes(domainName), token);
+  }
+
+  /**
+   * Returns whether a given domain create request is for a valid reserved domain, given the
+   * domain's already looked up {@link ReservationType}s.
+   */
+  static boolean isValidReservedCreate(
+      InternetDomainName domainName,
+      ImmutableSet<ReservationType> reservationTypes,
+      Optional<AllocationToken> token) {
     // If the domain is reserved for specific use, then check if the allocation token exists and
     // is for this domain.
-    return getReservationTypes(domainName).contains(RESERVED_FOR_SPECIFIC_USE)
+    return reservationTypes.contains(RESERVED_FOR_SPECIFIC_USE)
         && token.isPresent()
         && token.get().getDomainName().isPresent()
         && token.get().getDomainName().get().equals(domainName.toString());
@@ -430,7 +454,11 @@ public class DomainFlowUtils {
       ImmutableSet.of(RESERVED_FOR_SPECIFIC_USE, RESERVED_FOR_ANCHOR_TENANT, FULLY_BLOCKED);
 
   static boolean isReserved(InternetDomainName domainName, boolean isSunrise) {
-    ImmutableSet<ReservationType> types = getReservationTypes(domainName);
+    return isReserved(getReservationTypes(domainName), isSunrise);
+  }
+
+  /** Returns whether a domain with the given {@link ReservationType}s is reserved. */
+  static boolean isReserved(ImmutableSet<ReservationType> types, boolean isSunrise) {
     return !Sets.intersection(types, RESERVED_TYPES).isEmpty()
         || !(isSunrise || intersection(TYPES_ALLOWED_FOR_CREATE_ONLY_IN_SUNRISE, types).isEmpty());
   }
@@ -442,6 +470,29 @@ public class DomainFlowUtils {
         domainName.parts().get(0), domainName.parent().toString());
   }
 
+  /**
+   * Returns the {@link ReservationType}s for each of the given domain names, looking up the
+   * reserved lists of each TLD only once.
+   */
+  static ImmutableMap<InternetDomainName, ImmutableSet<ReservationType>> getReservationTypes(
+      Collection<InternetDomainName> domainNames) {
+    ImmutableMap.Builder<InternetDomainName, ImmutableSet<ReservationType>> reservationTypes =
+        new ImmutableMap.Builder<>();
+    ImmutableListMultimap<String, InternetDomainName> domainNamesByTld =
+        Multimaps.index(ImmutableSet.copyOf(domainNames), name -> name.parent().toString());
+    for (String tld : domainNamesByTld.keySet()) {
+      ImmutableList<InternetDomainName> namesOnTld = domainNamesByTld.get(tld);
+      ImmutableMap<String, ImmutableSet<ReservationType>> typesByLabel =
+          ReservedList.getReservationTypes(
+              namesOnTld.stream().map(name -> name.parts().get(0)).collect(toImmutableList()),
+              tld);
+      for (InternetDomainName name : namesOnTld) {
+        reservationTypes.put(name, typesByLabel.get(name.parts().get(0)));
+      }
+    }
+    return reservationTypes.build();
+  }
+
   /** Verifies that a launch extension's specified phase matches the specified registry's phase. */
   static void verifyLaunchPhaseMatchesRegistryPhase(
       Registry registry, LaunchExtension launchExtension, DateTime now) throws EppException {
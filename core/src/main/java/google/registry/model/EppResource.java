@@ -19,18 +19,16 @@ import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.common.collect.Sets.difference;
 import static com.google.common.collect.Sets.union;
+import static google.registry.config.RegistryConfig.getEppResourceCacheRefreshDuration;
 import static google.registry.config.RegistryConfig.getEppResourceCachingDuration;
 import static google.registry.config.RegistryConfig.getEppResourceMaxCachedEntries;
 import static google.registry.persistence.transaction.TransactionManagerFactory.tm;
 import static google.registry.util.CollectionUtils.nullToEmpty;
 import static google.registry.util.CollectionUtils.nullToEmptyImmutableCopy;
 import static google.registry.util.DateTimeUtils.END_OF_TIME;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
@@ -351,17 +349,23 @@ public abstract class EppResource extends BackupGroupRoot implements Buildable {
    * <p>This is only used to cache contacts and hosts for the purposes of checking whether they are
    * deleted or in pending delete during a few domain flows. Any operations on contacts and hosts
    * directly should of course never use the cache.
+   *
+   * <p>Entries older than the refresh duration are reloaded in the background on their next access
+   * while the old value is still served, so that popular hosts and contacts never block a flow on
+   * Datastore.
    */
   @NonFinalForTesting
-  private static LoadingCache<VKey<? extends EppResource>, EppResource> cacheEppResources =
+  private static RefreshAheadCache<VKey<? extends EppResource>, EppResource> cacheEppResources =
       createEppResourcesCache(getEppResourceCachingDuration());
 
-  private static LoadingCache<VKey<? extends EppResource>, EppResource> createEppResourcesCache(
-      Duration expiry) {
-    return CacheBuilder.newBuilder()
-        .expireAfterWrite(expiry.getMillis(), MILLISECONDS)
-        .maximumSize(getEppResourceMaxCachedEntries())
-        .build(CACHE_LOADER);
+  private static RefreshAheadCache<VKey<? extends EppResource>, EppResource>
+      createEppResourcesCache(Duration expiry) {
+    return RefreshAheadCache.create(
+        "eppResources",
+        getEppResourceCacheRefreshDuration(),
+        expiry,
+        getEppResourceMaxCachedEntries(),
+        CACHE_LOADER);
   }
 
   @VisibleForTesting
@@ -0,0 +1,140 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static google.registry.model.EppResourceUtils.loadAtPointInTime;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.joda.time.DateTime;
+
+/**
+ * A bounded cache of resources projected to points in time with {@link
+ * EppResourceUtils#loadAtPointInTime}.
+ *
+ * <p>Projecting a resource to a time before its last update means loading a commit log mutation,
+ * which adds up for resources that are looked up over and over, such as the superordinate domains
+ * of hosts in an escrow deposit. The time has to be in the past for the projection to stay the
+ * same, so this is only meant for the duration of a job working on past points in time, such as
+ * watermarks.
+ */
+@NotThreadSafe
+public final class ProjectedResourceCache<T extends EppResource> {
+
+  private final Cache<CacheKey<T>, Optional<T>> cache;
+
+  private long hitCount = 0;
+  private long projectionCount = 0;
+
+  private ProjectedResourceCache(Cache<CacheKey<T>, Optional<T>> cache) {
+    this.cache = cache;
+  }
+
+  /** Creates a cache that holds up to {@code maxSize} projections. */
+  public static <T extends EppResource> ProjectedResourceCache<T> create(long maxSize) {
+    return new ProjectedResourceCache<>(
+        CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build());
+  }
+
+  /**
+   * Returns the resource with the given key as it was at {@code time}, or null if it didn't exist
+   * then (or doesn't exist at all).
+   */
+  @Nullable
+  public T get(Key<T> key, DateTime time) {
+    CacheKey<T> cacheKey = CacheKey.create(key, time);
+    Optional<T> resource = cache.getIfPresent(cacheKey);
+    if (resource == null) {
+      resource = Optional.ofNullable(project(ofy().load().key(key).now(), time).now());
+      cache.put(cacheKey, resource);
+      projectionCount++;
+    } else {
+      hitCount++;
+    }
+    return resource.orElse(null);
+  }
+
+  /**
+   * Loads and caches the resources with the given keys at each of the given times, unless they are
+   * cached already.
+   *
+   * <p>The resources are loaded in a single batch, and all their projections are started before
+   * waiting for any of them. The projections count as misses, and looking them up afterwards with
+   * {@link #get} as hits.
+   */
+  public void prefetch(Iterable<Key<T>> keys, Iterable<DateTime> times) {
+    ImmutableSet.Builder<CacheKey<T>> missingBuilder = new ImmutableSet.Builder<>();
+    for (Key<T> key : keys) {
+      for (DateTime time : times) {
+        CacheKey<T> cacheKey = CacheKey.create(key, time);
+        if (!cache.asMap().containsKey(cacheKey)) {
+          missingBuilder.add(cacheKey);
+        }
+      }
+    }
+    ImmutableSet<CacheKey<T>> missing = missingBuilder.build();
+    if (missing.isEmpty()) {
+      return;
+    }
+    Map<Key<T>, T> resources =
+        ofy().load().keys(missing.stream().map(CacheKey::key).collect(toImmutableSet()));
+    Map<CacheKey<T>, Result<T>> projections = new HashMap<>();
+    for (CacheKey<T> cacheKey : missing) {
+      projections.put(cacheKey, project(resources.get(cacheKey.key()), cacheKey.time()));
+    }
+    projections.forEach(
+        (cacheKey, projection) -> cache.put(cacheKey, Optional.ofNullable(projection.now())));
+    projectionCount += projections.size();
+  }
+
+  /**
+   * Returns the statistics of the cache since it was created.
+   *
+   * <p>Hits are lookups served without projecting anything, and misses are the projections done,
+   * whether by {@link #get} or by {@link #prefetch}.
+   */
+  public CacheStats stats() {
+    return new CacheStats(hitCount, projectionCount, 0, 0, 0, cache.stats().evictionCount());
+  }
+
+  private static <T extends EppResource> Result<T> project(@Nullable T resource, DateTime time) {
+    return (resource == null) ? () -> null : loadAtPointInTime(resource, time);
+  }
+
+  /** The key of a resource and the time it was projected to. */
+  @AutoValue
+  abstract static class CacheKey<T extends EppResource> {
+
+    abstract Key<T> key();
+
+    abstract DateTime time();
+
+    static <T extends EppResource> CacheKey<T> create(Key<T> key, DateTime time) {
+      return new AutoValue_ProjectedResourceCache_CacheKey<>(key, time);
+    }
+  }
+}
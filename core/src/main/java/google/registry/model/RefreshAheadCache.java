@@ -0,0 +1,333 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static com.google.monitoring.metrics.EventMetric.DEFAULT_FITTER;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.apphosting.api.ApiProxy;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.monitoring.metrics.EventMetric;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+import google.registry.util.NonFinalForTesting;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.joda.time.Duration;
+
+/**
+ * A size- and time-limited {@link LoadingCache} that reloads entries in the background before they
+ * expire.
+ *
+ * <p>With a plain expire-after-write cache, every request for a popular key blocks on Datastore at
+ * the moment the key expires. This cache instead marks an entry as due for refresh after {@code
+ * refreshAfter}. The first request to see a due entry starts a single background reload and, like
+ * every request until the reload finishes, is served the old value. Entries still expire after
+ * {@code expireAfter}, so no value is ever served older than that.
+ *
+ * <p>Reloads run on a small pool of App Engine background threads, so that they aren't cut off
+ * when the request that triggered them ends. Where background threads aren't available, and when
+ * there is no current request (e.g. in tools and pipelines), they run synchronously instead. Each
+ * reload gets a fresh Objectify session, since nothing clears the session of a background thread.
+ *
+ * <p>Requests, hits, misses and load latency are exported through the default metric registry,
+ * labelled with the name of the cache.
+ */
+public final class RefreshAheadCache<K, V> {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Possible outcomes of looking up a key in a {@link RefreshAheadCache}. */
+  enum RequestOutcome {
+    /** The key was in the cache, though its value may have been due for refresh. */
+    HIT,
+
+    /** The key was not in the cache, so the request waited for it to be loaded. */
+    MISS
+  }
+
+  /** Kinds of loads done by a {@link RefreshAheadCache}. */
+  enum LoadKind {
+    /** A load of missing keys, on the requesting thread. */
+    LOAD,
+
+    /** A background reload of a key that is due for refresh. */
+    RELOAD
+  }
+
+  private static final ImmutableSet<LabelDescriptor> REQUEST_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("cache", "Name of the cache."),
+          LabelDescriptor.create("outcome", "Whether the key was already cached."));
+
+  private static final ImmutableSet<LabelDescriptor> LOAD_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("cache", "Name of the cache."),
+          LabelDescriptor.create("kind", "Whether this was a blocking load or background reload."));
+
+  @VisibleForTesting
+  static final IncrementableMetric requests =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/cache/requests",
+              "Count of keys requested from caches",
+              "count",
+              REQUEST_LABEL_DESCRIPTORS);
+
+  @VisibleForTesting
+  static final EventMetric loadTime =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/cache/load_time",
+              "Time taken to load cache entries",
+              "milliseconds",
+              LOAD_LABEL_DESCRIPTORS,
+              DEFAULT_FITTER);
+
+  /** Number of long-lived threads that reloads are run on, shared by all caches. */
+  private static final int RELOAD_THREADS = 2;
+
+  /** Number of reloads that can wait for a thread before they're run on the requesting thread. */
+  private static final int RELOAD_QUEUE_SIZE = 100;
+
+  /**
+   * Runs reloads on a small pool of long-lived threads, or on the calling thread if there is no
+   * current request (e.g. in tools and pipelines).
+   */
+  private static final Executor RELOAD_EXECUTOR =
+      command -> {
+        if (ApiProxy.getCurrentEnvironment() == null) {
+          command.run();
+        } else {
+          getBackgroundReloadExecutor().execute(command);
+        }
+      };
+
+  /** Executor for reloads during requests, created by the first one. */
+  @NonFinalForTesting private static Executor backgroundReloadExecutor;
+
+  /**
+   * Returns the executor for reloads during requests.
+   *
+   * <p>A reload can't run on a request thread, because those are stopped when the request that
+   * started them ends. App Engine only allows threads that outlive requests on instances with
+   * manual or basic scaling, so elsewhere reloads are run synchronously on the requesting thread,
+   * which then waits for the refresh like it would for an expired entry.
+   */
+  private static synchronized Executor getBackgroundReloadExecutor() {
+    if (backgroundReloadExecutor == null) {
+      ThreadFactory threadFactory;
+      try {
+        threadFactory = ThreadManager.backgroundThreadFactory();
+      } catch (RuntimeException e) {
+        logger.atInfo().withCause(e).log(
+            "Background threads are unavailable; cache entries will be refreshed synchronously.");
+        backgroundReloadExecutor = directExecutor();
+        return backgroundReloadExecutor;
+      }
+      backgroundReloadExecutor =
+          new ThreadPoolExecutor(
+              RELOAD_THREADS,
+              RELOAD_THREADS,
+              0,
+              MILLISECONDS,
+              new ArrayBlockingQueue<>(RELOAD_QUEUE_SIZE),
+              threadFactory,
+              new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    return backgroundReloadExecutor;
+  }
+
+  private final String name;
+  private final LoadingCache<K, V> cache;
+
+  private RefreshAheadCache(String name, LoadingCache<K, V> cache) {
+    this.name = name;
+    this.cache = cache;
+  }
+
+  /**
+   * Creates a cache that loads entries with {@code loader}, and holds at most {@code maximumSize}
+   * of them.
+   *
+   * <p>If {@code refreshAfter} is not shorter than {@code expireAfter}, entries are never
+   * refreshed, and the cache behaves like a plain expire-after-write cache.
+   */
+  public static <K, V> RefreshAheadCache<K, V> create(
+      String name,
+      Duration refreshAfter,
+      Duration expireAfter,
+      long maximumSize,
+      CacheLoader<K, V> loader) {
+    return build(
+        name, refreshAfter, expireAfter, CacheBuilder.newBuilder().maximumSize(maximumSize), loader);
+  }
+
+  /**
+   * Creates a cache that loads entries with {@code loader}, and holds entries up to a total weight
+   * of {@code maximumWeight}, as given by {@code weigher}.
+   *
+   * @see #create(String, Duration, Duration, long, CacheLoader)
+   */
+  public static <K, V> RefreshAheadCache<K, V> create(
+      String name,
+      Duration refreshAfter,
+      Duration expireAfter,
+      long maximumWeight,
+      Weigher<? super K, ? super V> weigher,
+      CacheLoader<K, V> loader) {
+    return build(
+        name,
+        refreshAfter,
+        expireAfter,
+        CacheBuilder.newBuilder().maximumWeight(maximumWeight).weigher(weigher),
+        loader);
+  }
+
+  private static <K, V> RefreshAheadCache<K, V> build(
+      String name,
+      Duration refreshAfter,
+      Duration expireAfter,
+      CacheBuilder<? super K, ? super V> builder,
+      CacheLoader<K, V> loader) {
+    builder.expireAfterWrite(expireAfter.getMillis(), MILLISECONDS);
+    if (refreshAfter.isShorterThan(expireAfter) && refreshAfter.getMillis() > 0) {
+      builder.refreshAfterWrite(refreshAfter.getMillis(), MILLISECONDS);
+    }
+    return new RefreshAheadCache<>(
+        name,
+        builder.build(
+            CacheLoader.asyncReloading(new TimedLoader<>(name, loader), RELOAD_EXECUTOR)));
+  }
+
+  /** Returns the value for {@code key}, loading it if it isn't cached. */
+  public V get(K key) throws ExecutionException {
+    V value = cache.getIfPresent(key);
+    if (value != null) {
+      requests.increment(name, RequestOutcome.HIT.name());
+      return value;
+    }
+    requests.increment(name, RequestOutcome.MISS.name());
+    return cache.get(key);
+  }
+
+  /**
+   * Returns the values for {@code keys}, loading all the ones that aren't cached with a single call
+   * to {@link CacheLoader#loadAll}.
+   */
+  public ImmutableMap<K, V> getAll(Iterable<? extends K> keys) throws ExecutionException {
+    ImmutableSet<K> uniqueKeys = ImmutableSet.copyOf(keys);
+    ImmutableMap<K, V> present = cache.getAllPresent(uniqueKeys);
+    int misses = uniqueKeys.size() - present.size();
+    if (!present.isEmpty()) {
+      requests.incrementBy(present.size(), name, RequestOutcome.HIT.name());
+    }
+    if (misses == 0) {
+      return present;
+    }
+    requests.incrementBy(misses, name, RequestOutcome.MISS.name());
+    ImmutableMap<K, V> loaded =
+        cache.getAll(Iterables.filter(uniqueKeys, key -> !present.containsKey(key)));
+    return uniqueKeys.stream()
+        .collect(
+            toImmutableMap(
+                key -> key, key -> present.containsKey(key) ? present.get(key) : loaded.get(key)));
+  }
+
+  /** Discards all entries in the cache. */
+  @VisibleForTesting
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /** A {@link CacheLoader} that records the latency of the loads it delegates. */
+  private static class TimedLoader<K, V> extends CacheLoader<K, V> {
+
+    private final String name;
+    private final CacheLoader<K, V> delegate;
+
+    TimedLoader(String name, CacheLoader<K, V> delegate) {
+      this.name = name;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public V load(K key) throws Exception {
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      V value = delegate.load(key);
+      loadTime.record(stopwatch.elapsed(MILLISECONDS), name, LoadKind.LOAD.name());
+      return value;
+    }
+
+    @Override
+    public Map<K, V> loadAll(Iterable<? extends K> keys) throws Exception {
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      Map<K, V> values = delegate.loadAll(keys);
+      loadTime.record(stopwatch.elapsed(MILLISECONDS), name, LoadKind.LOAD.name());
+      return values;
+    }
+
+    /**
+     * Reloads a value on the reload executor.
+     *
+     * <p>{@link CacheLoader#asyncReloading} calls this on the background thread. A failed reload
+     * keeps serving the old value until it expires, so the failure is only logged.
+     *
+     * <p>The reload runs in a fresh Objectify session, which is discarded once it's done. Background
+     * threads outlive requests, so their own session is never cleared by {@code ObjectifyFilter}.
+     * Reusing it would hand the entities of the first load back to every reload, while the session
+     * cache grew with every key reloaded on the thread.
+     */
+    @Override
+    public ListenableFuture<V> reload(K key, V oldValue) {
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      try {
+        return ofy()
+            .doWithFreshSessionCache(
+                () -> {
+                  try {
+                    return delegate.reload(key, oldValue);
+                  } catch (Exception e) {
+                    logger.atWarning().withCause(e).log(
+                        "Failed to refresh %s entry for %s", name, key);
+                    return Futures.immediateFailedFuture(e);
+                  }
+                });
+      } finally {
+        loadTime.record(stopwatch.elapsed(MILLISECONDS), name, LoadKind.RELOAD.name());
+      }
+    }
+  }
+}
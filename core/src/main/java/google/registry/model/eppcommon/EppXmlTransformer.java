@@ -26,6 +26,7 @@ import google.registry.xml.XmlException;
 import google.registry.xml.XmlTransformer;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import javax.xml.stream.util.XMLEventConsumer;
 
 /** {@link XmlTransformer} for marshalling to and from the Epp model classes.  */
 public class EppXmlTransformer  {
@@ -70,6 +71,17 @@ public class EppXmlTransformer  {
     return INPUT_TRANSFORMER.unmarshal(clazz, new ByteArrayInputStream(bytes));
   }
 
+  /**
+   * Unmarshal bytes into Epp classes, passing every parsed XML event to {@code observer}.
+   *
+   * @param clazz type to return, specified as a param to enforce typesafe generics
+   * @see XmlTransformer#unmarshal(Class, java.io.InputStream, XMLEventConsumer)
+   */
+  public static <T> T unmarshal(Class<T> clazz, byte[] bytes, XMLEventConsumer observer)
+      throws XmlException {
+    return INPUT_TRANSFORMER.unmarshal(clazz, new ByteArrayInputStream(bytes), observer);
+  }
+
   private static byte[] marshal(
       XmlTransformer transformer,
       ImmutableObject root,
@@ -0,0 +1,207 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.host;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static google.registry.config.RegistryConfig.getHostsByInetAddressCachingDuration;
+import static google.registry.config.RegistryConfig.getHostsByInetAddressMaxCachedHosts;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import google.registry.model.RefreshAheadCache;
+import google.registry.util.Clock;
+import google.registry.util.NonFinalForTesting;
+import google.registry.util.SystemClock;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * An in-memory index from IP addresses to the keys of the active hosts that have them.
+ *
+ * <p>WHOIS and RDAP nameserver lookups by IP are otherwise a Datastore query per request, and are
+ * frequently repeated for the same handful of addresses. This caches the result of the (keys-only)
+ * query per address, and loads the hosts themselves by key, which is much cheaper than a query.
+ *
+ * <p>The cached keys can be up to {@code caching.hostsByInetAddressCachingSeconds} old, so a host
+ * that was just created or given the address may not be found yet. Since the hosts are always
+ * loaded fresh and checked against the address and the given time, a host that was deleted or no
+ * longer has the address is never returned.
+ *
+ * <p>At most {@link #maxHostsPerAddress} hosts are indexed for each address, so that an address
+ * shared by a huge number of hosts can't fill the cache. Lookups of such an address say that their
+ * results might be incomplete.
+ */
+public final class HostInetAddressIndex {
+
+  /**
+   * The maximum number of hosts with the same address that are indexed.
+   *
+   * <p>This is more than any lookup asks for at once, and orders of magnitude more than any address
+   * has in practice.
+   */
+  @NonFinalForTesting
+  @VisibleForTesting
+  static int maxHostsPerAddress = 1000;
+
+  /** The clock used to decide which hosts are active when loading the cache. */
+  @NonFinalForTesting private static Clock clock = new SystemClock();
+
+  private static final CacheLoader<InetAddress, HostKeys> CACHE_LOADER =
+      new CacheLoader<InetAddress, HostKeys>() {
+        @Override
+        public HostKeys load(InetAddress inetAddress) {
+          return queryActiveHostKeys(inetAddress, clock.nowUtc());
+        }
+      };
+
+  @NonFinalForTesting
+  private static Optional<RefreshAheadCache<InetAddress, HostKeys>> cacheHostKeys =
+      createCache(getHostsByInetAddressCachingDuration());
+
+  private HostInetAddressIndex() {}
+
+  private static Optional<RefreshAheadCache<InetAddress, HostKeys>> createCache(Duration expiry) {
+    if (expiry.getMillis() <= 0) {
+      return Optional.empty();
+    }
+    // Hot addresses are reloaded in the background half way through their expiry, so that lookups
+    // for them never wait on the query. Entries are weighed by the number of keys they hold, plus
+    // one for the entry itself, so that the cache is bounded by the number of keys in it.
+    return Optional.of(
+        RefreshAheadCache.create(
+            "hostsByInetAddress",
+            expiry.dividedBy(2),
+            expiry,
+            getHostsByInetAddressMaxCachedHosts(),
+            (InetAddress inetAddress, HostKeys hostKeys) -> hostKeys.keys().size() + 1,
+            CACHE_LOADER));
+  }
+
+  @VisibleForTesting
+  public static void setCacheForTest(Optional<Duration> expiry) {
+    cacheHostKeys = createCache(expiry.orElse(getHostsByInetAddressCachingDuration()));
+  }
+
+  /** The hosts found by a lookup in the index. */
+  @AutoValue
+  public abstract static class ActiveHosts {
+
+    /** The hosts found, in order of their keys. */
+    public abstract ImmutableList<HostResource> hosts();
+
+    /**
+     * Whether more than {@link HostInetAddressIndex#maxHostsPerAddress} hosts have the address, so
+     * that hosts other than the ones looked at might have matched.
+     */
+    public abstract boolean mightBeIncomplete();
+
+    static ActiveHosts create(ImmutableList<HostResource> hosts, boolean mightBeIncomplete) {
+      return new AutoValue_HostInetAddressIndex_ActiveHosts(hosts, mightBeIncomplete);
+    }
+  }
+
+  /**
+   * Returns the first {@code limit} hosts, in order of their keys, that have the given IP address,
+   * are not deleted as of {@code now} and match {@code filter}.
+   *
+   * <p>The hosts are loaded in batches of no more than the number still needed, so that no more
+   * hosts than {@code limit} are loaded unless some of them don't match.
+   */
+  public static ActiveHosts loadActiveHosts(
+      InetAddress inetAddress, DateTime now, Predicate<HostResource> filter, int limit) {
+    checkArgument(limit > 0, "Limit must be positive: %s", limit);
+    HostKeys hostKeys = getActiveHostKeys(inetAddress, now);
+    List<Key<HostResource>> keys = hostKeys.keys();
+    ImmutableList.Builder<HostResource> hosts = new ImmutableList.Builder<>();
+    int numHosts = 0;
+    int nextKey = 0;
+    while (numHosts < limit && nextKey < keys.size()) {
+      List<Key<HostResource>> batch =
+          keys.subList(nextKey, nextKey + Math.min(keys.size() - nextKey, limit - numHosts));
+      nextKey += batch.size();
+      // Load the hosts directly rather than through the transaction manager, which fails if any of
+      // them doesn't exist, since a cached key can outlive its host (e.g. a deleted prober host).
+      for (HostResource host : ofy().load().keys(batch).values()) {
+        if (now.isBefore(host.getDeletionTime())
+            && host.getInetAddresses().contains(inetAddress)
+            && filter.test(host)) {
+          hosts.add(host);
+          numHosts++;
+        }
+      }
+    }
+    return ActiveHosts.create(hosts.build(), hostKeys.truncated());
+  }
+
+  private static HostKeys getActiveHostKeys(InetAddress inetAddress, DateTime now) {
+    if (!cacheHostKeys.isPresent()) {
+      return queryActiveHostKeys(inetAddress, now);
+    }
+    try {
+      return cacheHostKeys.get().get(inetAddress);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Error loading cached host keys", e.getCause());
+    }
+  }
+
+  /**
+   * Queries the keys of at most {@link #maxHostsPerAddress} hosts that have the given address and
+   * are not deleted as of {@code now}.
+   */
+  private static HostKeys queryActiveHostKeys(InetAddress inetAddress, DateTime now) {
+    // The inequality filter orders the results by deletion time, so sort them by key afterwards.
+    List<Key<HostResource>> keys =
+        ofy()
+            .load()
+            .type(HostResource.class)
+            .filter("inetAddresses", inetAddress)
+            .filter("deletionTime >", now)
+            .limit(maxHostsPerAddress + 1)
+            .keys()
+            .list();
+    boolean truncated = keys.size() > maxHostsPerAddress;
+    return HostKeys.create(
+        keys.stream()
+            .limit(maxHostsPerAddress)
+            .sorted()
+            .collect(toImmutableList()),
+        truncated);
+  }
+
+  /** The keys of the active hosts with an address, as cached in {@link #cacheHostKeys}. */
+  @AutoValue
+  abstract static class HostKeys {
+
+    /** The keys of the hosts, in order. */
+    abstract ImmutableList<Key<HostResource>> keys();
+
+    /** Whether more hosts had the address than {@link #keys} holds. */
+    abstract boolean truncated();
+
+    static HostKeys create(ImmutableList<Key<HostResource>> keys, boolean truncated) {
+      return new AutoValue_HostInetAddressIndex_HostKeys(keys, truncated);
+    }
+  }
+}
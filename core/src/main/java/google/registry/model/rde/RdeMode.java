@@ -30,7 +30,16 @@ public enum RdeMode {
    *
    * @see <a href="http://newgtlds.icann.org/en/applicants/agb/agreement-approved-09jan14-en.htm">Registry Agreement</a>
    */
-  THIN;
+  THIN,
+
+  /**
+   * Escrow deposit of only the information that changed since the previous deposit.
+   *
+   * <p>This mode of operation is an alternative to {@link #FULL} on the days between the weekly
+   * full deposits, per gTLD Registry Agreement, Specification 2 Part A § 1.1. Resources that were
+   * deleted since the previous deposit are listed in its deletes section.
+   */
+  DIFF;
 
   public String getFilenameComponent() {
     return Ascii.toLowerCase(name());
@@ -59,6 +59,23 @@ public final class RdeRevision extends ImmutableObject {
     return object == null ? 0 : object.revision + 1;
   }
 
+  /**
+   * Returns whether an RDE deposit, either {@link RdeMode#FULL} or {@link RdeMode#DIFF}, was
+   * staged for the given TLD and date.
+   */
+  public static boolean isRdeDepositStaged(String tld, DateTime date) {
+    return getNextRevision(tld, date, RdeMode.FULL) > 0
+        || getNextRevision(tld, date, RdeMode.DIFF) > 0;
+  }
+
+  /**
+   * Returns the mode of the RDE deposit staged for the given TLD and date, which is {@link
+   * RdeMode#DIFF} if a diff was staged rather than a full deposit.
+   */
+  public static RdeMode getStagedRdeMode(String tld, DateTime date) {
+    return (getNextRevision(tld, date, RdeMode.DIFF) > 0) ? RdeMode.DIFF : RdeMode.FULL;
+  }
+
   /**
    * Sets the revision ID for a given triplet.
    *
@@ -40,7 +40,13 @@ class DomainLabelMetrics {
     UNCACHED_NEGATIVE,
 
     /** Bloom filter thinks it might be premium, and it is, but wasn't in the cache */
-    UNCACHED_POSITIVE
+    UNCACHED_POSITIVE,
+
+    /** The in-memory index of the whole premium list knows it is not premium */
+    INDEXED_NEGATIVE,
+
+    /** The in-memory index of the whole premium list knows it is premium */
+    INDEXED_POSITIVE
   }
 
   @AutoValue
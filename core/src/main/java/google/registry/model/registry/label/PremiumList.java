@@ -32,6 +32,8 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.hash.BloomFilter;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.googlecode.objectify.Key;
@@ -48,6 +50,7 @@ import google.registry.util.NonFinalForTesting;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -184,6 +187,46 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
                     }
                   });
 
+  /**
+   * In-memory cache for {@link PremiumListIndex}es, used instead of {@link
+   * #cachePremiumListEntries} when {@link
+   * google.registry.config.RegistryConfig#isPremiumListIndexEnabled} is set.
+   *
+   * <p>Each index holds every entry of a {@link PremiumListRevision}, all loaded with a single
+   * ancestor query the first time the revision is used. Indexes are immutable, so they only need
+   * to expire once their revision is no longer in use, which is at most one {@link
+   * #cachePremiumLists} expiry after the premium list is updated. Since an index is large, it is
+   * evicted as soon as it hasn't been accessed for that long.
+   */
+  @NonFinalForTesting
+  static LoadingCache<Key<PremiumListRevision>, PremiumListIndex> cachePremiumListIndexes =
+      createCachePremiumListIndexes(getDomainLabelListCacheDuration());
+
+  @VisibleForTesting
+  public static void setPremiumListIndexesCacheForTest(Optional<Duration> expiry) {
+    Duration effectiveExpiry = expiry.orElse(getDomainLabelListCacheDuration());
+    cachePremiumListIndexes = createCachePremiumListIndexes(effectiveExpiry);
+  }
+
+  @VisibleForTesting
+  static LoadingCache<Key<PremiumListRevision>, PremiumListIndex> createCachePremiumListIndexes(
+      Duration cachePersistDuration) {
+    return CacheBuilder.newBuilder()
+        .expireAfterAccess(cachePersistDuration.getMillis(), MILLISECONDS)
+        .build(
+            new CacheLoader<Key<PremiumListRevision>, PremiumListIndex>() {
+              @Override
+              public PremiumListIndex load(final Key<PremiumListRevision> revisionKey) {
+                return tm().doTransactionless(() -> loadPremiumListIndex(revisionKey));
+              }
+            });
+  }
+
+  private static PremiumListIndex loadPremiumListIndex(Key<PremiumListRevision> revisionKey) {
+    return PremiumListIndex.create(
+        ofy().load().type(PremiumListEntry.class).ancestor(revisionKey).list());
+  }
+
   /**
    * In-memory cache for {@link PremiumListEntry}s for a given label and {@link PremiumListRevision}
    *
@@ -223,6 +266,15 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
                 return tm()
                     .doTransactionless(() -> Optional.ofNullable(ofy().load().key(entryKey).now()));
               }
+
+              @Override
+              public Map<Key<PremiumListEntry>, Optional<PremiumListEntry>> loadAll(
+                  Iterable<? extends Key<PremiumListEntry>> entryKeys) {
+                ImmutableSet<Key<PremiumListEntry>> keys = ImmutableSet.copyOf(entryKeys);
+                Map<Key<PremiumListEntry>, PremiumListEntry> entries =
+                    tm().doTransactionless(() -> ofy().load().keys(keys));
+                return Maps.toMap(keys, key -> Optional.ofNullable(entries.get(key)));
+              }
             });
   }
 
@@ -0,0 +1,129 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry.label;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import google.registry.model.registry.label.PremiumList.PremiumListEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+
+/**
+ * An immutable in-memory index of all the prices in a single {@link
+ * PremiumList.PremiumListRevision}.
+ *
+ * <p>Labels are kept in one array, with their prices held as minor-unit amounts in a parallel
+ * {@code long} array, so that a list with hundreds of thousands of labels costs little more than
+ * the label strings themselves. Lookups go through an open-addressing hash table of array
+ * positions, which is kept at most half full, and so take constant time without touching
+ * Datastore.
+ *
+ * <p>Since a revision and its entries never change once saved, an index never needs to be updated
+ * either. Saving a premium list creates a new revision, which gets a new index.
+ */
+final class PremiumListIndex {
+
+  private final String[] labels;
+  private final long[] amountsMinor;
+  private final CurrencyUnit[] currencies;
+  private final byte[] currencyIndexes;
+
+  /** Positions in {@link #labels} plus one, by hash of the label; zero marks an empty slot. */
+  private final int[] slots;
+
+  private PremiumListIndex(
+      String[] labels,
+      long[] amountsMinor,
+      CurrencyUnit[] currencies,
+      byte[] currencyIndexes,
+      int[] slots) {
+    this.labels = labels;
+    this.amountsMinor = amountsMinor;
+    this.currencies = currencies;
+    this.currencyIndexes = currencyIndexes;
+    this.slots = slots;
+  }
+
+  /** Builds an index of the given entries, which must all have distinct labels. */
+  static PremiumListIndex create(Iterable<PremiumListEntry> entries) {
+    ImmutableList<PremiumListEntry> entryList = ImmutableList.copyOf(entries);
+    int size = entryList.size();
+    String[] labels = new String[size];
+    long[] amountsMinor = new long[size];
+    byte[] currencyIndexes = new byte[size];
+    List<CurrencyUnit> currencies = new ArrayList<>();
+    int[] slots = new int[tableSize(size)];
+    for (int i = 0; i < size; i++) {
+      PremiumListEntry entry = entryList.get(i);
+      Money price = entry.getValue();
+      int currencyIndex = currencies.indexOf(price.getCurrencyUnit());
+      if (currencyIndex < 0) {
+        checkArgument(
+            currencies.size() <= Byte.MAX_VALUE, "Too many currencies in premium list entries");
+        currencyIndex = currencies.size();
+        currencies.add(price.getCurrencyUnit());
+      }
+      labels[i] = entry.getLabel();
+      amountsMinor[i] = price.getAmountMinorLong();
+      currencyIndexes[i] = (byte) currencyIndex;
+      int slot = findSlot(labels, slots, entry.getLabel());
+      checkArgument(slots[slot] == 0, "Duplicate premium list label: %s", entry.getLabel());
+      slots[slot] = i + 1;
+    }
+    return new PremiumListIndex(
+        labels,
+        amountsMinor,
+        currencies.toArray(new CurrencyUnit[0]),
+        currencyIndexes,
+        slots);
+  }
+
+  /** Returns the premium price of the given label, or empty if it is not in this list. */
+  Optional<Money> getPrice(String label) {
+    int position = slots[findSlot(labels, slots, label)] - 1;
+    if (position < 0) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        Money.ofMinor(currencies[currencyIndexes[position]], amountsMinor[position]));
+  }
+
+  /** Returns the number of labels in this index. */
+  int size() {
+    return labels.length;
+  }
+
+  /** Returns the slot holding {@code label}, or the empty slot where it would be inserted. */
+  private static int findSlot(String[] labels, int[] slots, String label) {
+    int mask = slots.length - 1;
+    int hash = label.hashCode();
+    for (int slot = (hash ^ (hash >>> 16)) & mask; ; slot = (slot + 1) & mask) {
+      int position = slots[slot] - 1;
+      if (position < 0 || labels[position].equals(label)) {
+        return slot;
+      }
+    }
+  }
+
+  /** Returns the smallest power of two that is at least twice {@code size}, and at least two. */
+  private static int tableSize(int size) {
+    checkArgument(size < (1 << 29), "Too many premium list entries to index: %s", size);
+    return Math.max(2, Integer.highestOneBit(Math.max(1, size) * 4 - 1));
+  }
+}
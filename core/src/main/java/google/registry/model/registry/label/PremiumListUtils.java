@@ -17,14 +17,18 @@ package google.registry.model.registry.label;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.Iterables.partition;
+import static google.registry.config.RegistryConfig.isPremiumListIndexEnabled;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.BLOOM_FILTER_NEGATIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.CACHED_NEGATIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.CACHED_POSITIVE;
+import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.INDEXED_NEGATIVE;
+import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.INDEXED_POSITIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.UNCACHED_NEGATIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.UNCACHED_POSITIVE;
 import static google.registry.model.registry.label.PremiumList.cachePremiumListEntries;
+import static google.registry.model.registry.label.PremiumList.cachePremiumListIndexes;
 import static google.registry.model.registry.label.PremiumList.cachePremiumListRevisions;
 import static google.registry.model.registry.label.PremiumList.cachePremiumLists;
 import static google.registry.persistence.transaction.TransactionManagerFactory.tm;
@@ -43,6 +47,7 @@ import google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckO
 import google.registry.model.registry.label.PremiumList.PremiumListEntry;
 import google.registry.model.registry.label.PremiumList.PremiumListRevision;
 import google.registry.schema.tld.PremiumListDao;
+import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -80,21 +85,7 @@ public final class PremiumListUtils {
     }
     DateTime startTime = DateTime.now(UTC);
     String listName = registry.getPremiumList().getName();
-    Optional<PremiumList> optionalPremiumList = PremiumList.getCached(listName);
-    checkState(optionalPremiumList.isPresent(), "Could not load premium list '%s'", listName);
-    PremiumList premiumList = optionalPremiumList.get();
-    PremiumListRevision revision;
-    try {
-      revision = cachePremiumListRevisions.get(premiumList.getRevisionKey());
-    } catch (InvalidCacheLoadException | ExecutionException e) {
-      throw new RuntimeException(
-          "Could not load premium list revision " + premiumList.getRevisionKey(), e);
-    }
-    checkState(
-        revision.getProbablePremiumLabels() != null,
-        "Probable premium labels Bloom filter is null on revision '%s'",
-        premiumList.getRevisionKey());
-
+    PremiumListRevision revision = loadCurrentRevision(listName);
     CheckResults checkResults = checkStatus(revision, label);
     DomainLabelMetrics.recordPremiumListCheckOutcome(
         registry.getTldStr(),
@@ -117,7 +108,71 @@ public final class PremiumListUtils {
     return checkResults.premiumPrice();
   }
 
+  /**
+   * Loads the premium list entries for the given labels into the in-memory cache with a single
+   * batch load, so that subsequent calls to {@link #getPremiumPrice} for these labels on the same
+   * registry don't each go to Datastore.
+   *
+   * <p>Labels that the Bloom filter of the premium list rules out, and labels whose entries are
+   * already cached, are not loaded. If the premium list index is enabled, this loads the index of
+   * the whole list instead, if it isn't already loaded.
+   */
+  public static void prefetchPremiumListEntries(Collection<String> labels, Registry registry) {
+    if (registry.getPremiumList() == null) {
+      return;
+    }
+    PremiumListRevision revision = loadCurrentRevision(registry.getPremiumList().getName());
+    if (isPremiumListIndexEnabled()) {
+      loadIndex(revision);
+      return;
+    }
+    ImmutableSet<Key<PremiumListEntry>> entryKeys =
+        labels.stream()
+            .filter(revision.getProbablePremiumLabels()::mightContain)
+            .map(label -> Key.create(Key.create(revision), PremiumListEntry.class, label))
+            .collect(toImmutableSet());
+    try {
+      cachePremiumListEntries.getAll(entryKeys);
+    } catch (InvalidCacheLoadException | ExecutionException e) {
+      throw new RuntimeException("Could not load premium list entries " + entryKeys, e);
+    }
+  }
+
+  /** Returns the current revision of the named premium list, from cache. */
+  private static PremiumListRevision loadCurrentRevision(String listName) {
+    Optional<PremiumList> optionalPremiumList = PremiumList.getCached(listName);
+    checkState(optionalPremiumList.isPresent(), "Could not load premium list '%s'", listName);
+    PremiumList premiumList = optionalPremiumList.get();
+    PremiumListRevision revision;
+    try {
+      revision = cachePremiumListRevisions.get(premiumList.getRevisionKey());
+    } catch (InvalidCacheLoadException | ExecutionException e) {
+      throw new RuntimeException(
+          "Could not load premium list revision " + premiumList.getRevisionKey(), e);
+    }
+    checkState(
+        revision.getProbablePremiumLabels() != null,
+        "Probable premium labels Bloom filter is null on revision '%s'",
+        premiumList.getRevisionKey());
+    return revision;
+  }
+
+  /** Returns the in-memory index of all entries of the given revision, from cache. */
+  private static PremiumListIndex loadIndex(PremiumListRevision revision) {
+    Key<PremiumListRevision> revisionKey = Key.create(revision);
+    try {
+      return cachePremiumListIndexes.get(revisionKey);
+    } catch (InvalidCacheLoadException | ExecutionException e) {
+      throw new RuntimeException("Could not load premium list index " + revisionKey, e);
+    }
+  }
+
   private static CheckResults checkStatus(PremiumListRevision premiumListRevision, String label) {
+    if (isPremiumListIndexEnabled()) {
+      // The index is a cheaper lookup than the Bloom filter, and is never wrong.
+      Optional<Money> price = loadIndex(premiumListRevision).getPrice(label);
+      return CheckResults.create(price.isPresent() ? INDEXED_POSITIVE : INDEXED_NEGATIVE, price);
+    }
     if (!premiumListRevision.getProbablePremiumLabels().mightContain(label)) {
       return CheckResults.create(BLOOM_FILTER_NEGATIVE, Optional.empty());
     }
@@ -50,6 +50,7 @@ import google.registry.schema.replay.DatastoreEntity;
 import google.registry.schema.replay.SqlEntity;
 import google.registry.schema.tld.ReservedList.ReservedEntry;
 import google.registry.schema.tld.ReservedListDao;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -183,25 +184,50 @@ public final class ReservedList
     if (label.length() == 0) {
       return ImmutableSet.of(FULLY_BLOCKED);
     }
-    return getReservedListEntries(label, tld)
-        .stream()
-        .map(ReservedListEntry::getValue)
-        .collect(toImmutableSet());
+    return getReservationTypes(ImmutableList.of(label), tld).get(label);
   }
 
   /**
-   * Helper function to retrieve the entries associated with this label and TLD, or an empty set if
-   * no such entry exists.
+   * Queries the set of all reserved lists associated with the specified TLD and returns the
+   * reservation types of each of the labels.
+   *
+   * <p>This is equivalent to calling {@link #getReservationTypes(String, String)} for each label,
+   * but only looks up the TLD's reserved lists once. Labels that are in none of the lists map to an
+   * empty set.
    */
-  private static ImmutableSet<ReservedListEntry> getReservedListEntries(String label, String tld) {
-    DateTime startTime = DateTime.now(UTC);
+  public static ImmutableMap<String, ImmutableSet<ReservationType>> getReservationTypes(
+      Collection<String> labels, String tld) {
     Registry registry = Registry.get(checkNotNull(tld, "tld must not be null"));
+    ImmutableSet<ReservedList> reservedLists = loadReservedLists(registry.getReservedLists());
+    ImmutableMap.Builder<String, ImmutableSet<ReservationType>> reservationTypes =
+        new ImmutableMap.Builder<>();
+    for (String label : ImmutableSet.copyOf(labels)) {
+      checkNotNull(label, "label");
+      reservationTypes.put(
+          label,
+          label.length() == 0
+              ? ImmutableSet.of(FULLY_BLOCKED)
+              : getReservedListEntries(label, tld, reservedLists)
+                  .stream()
+                  .map(ReservedListEntry::getValue)
+                  .collect(toImmutableSet()));
+    }
+    return reservationTypes.build();
+  }
+
+  /**
+   * Helper function to retrieve the entries associated with this label in the given reserved
+   * lists of a TLD, or an empty set if no such entry exists.
+   */
+  private static ImmutableSet<ReservedListEntry> getReservedListEntries(
+      String label, String tld, ImmutableSet<ReservedList> reservedLists) {
+    DateTime startTime = DateTime.now(UTC);
     ImmutableSet.Builder<ReservedListEntry> entriesBuilder = new ImmutableSet.Builder<>();
     ImmutableSet.Builder<MetricsReservedListMatch> metricMatchesBuilder =
         new ImmutableSet.Builder<>();
 
     // Loop through all reservation lists and add each of them.
-    for (ReservedList rl : loadReservedLists(registry.getReservedLists())) {
+    for (ReservedList rl : reservedLists) {
       if (rl.getReservedListEntries().containsKey(label)) {
         ReservedListEntry entry = rl.getReservedListEntries().get(label);
         entriesBuilder.add(entry);
@@ -79,6 +79,16 @@ public class Lock extends ImmutableObject implements DatastoreEntity, Serializab
   /** When the lock can be considered implicitly released. */
   DateTime expirationTime;
 
+  /**
+   * Token that identifies this acquisition of the lock.
+   *
+   * <p>Every acquisition of a lock gets a larger token than the acquisition it took the lock over
+   * from, so a holder whose lease has expired can be told apart from the new holder, even if the
+   * former doesn't know yet that it lost the lock. The token stays the same when the lease is
+   * renewed.
+   */
+  long fencingToken;
+
   public String getRequestLogId() {
     return requestLogId;
   }
@@ -91,6 +101,10 @@ public class Lock extends ImmutableObject implements DatastoreEntity, Serializab
     return acquiredTime;
   }
 
+  public long getFencingToken() {
+    return fencingToken;
+  }
+
   /** When was the lock acquired. Used for logging. */
   DateTime acquiredTime;
 
@@ -111,16 +125,33 @@ public class Lock extends ImmutableObject implements DatastoreEntity, Serializab
       String requestLogId,
       DateTime acquiredTime,
       Duration leaseLength) {
+    return create(
+        resourceName,
+        tld,
+        requestLogId,
+        acquiredTime,
+        acquiredTime.plus(leaseLength),
+        acquiredTime.getMillis());
+  }
+
+  private static Lock create(
+      String resourceName,
+      @Nullable String tld,
+      String requestLogId,
+      DateTime acquiredTime,
+      DateTime expirationTime,
+      long fencingToken) {
     checkArgument(!Strings.isNullOrEmpty(resourceName), "resourceName cannot be null or empty");
     Lock instance = new Lock();
     // Add the tld to the Lock's id so that it is unique for locks acquiring the same resource
     // across different TLDs.
     instance.lockId = makeLockId(resourceName, tld);
     instance.requestLogId = requestLogId;
-    instance.expirationTime = acquiredTime.plus(leaseLength);
+    instance.expirationTime = expirationTime;
     instance.acquiredTime = acquiredTime;
     instance.resourceName = resourceName;
     instance.tld = tld;
+    instance.fencingToken = fencingToken;
     return instance;
   }
 
@@ -215,8 +246,20 @@ public class Lock extends ImmutableObject implements DatastoreEntity, Serializab
                     return AcquireResult.create(now, lock, null, lockState);
                   }
 
+                  // The token is normally the acquisition time, but it must still go up if the
+                  // clock of this server is behind the one that acquired the lock before.
+                  long fencingToken =
+                      lock == null
+                          ? now.getMillis()
+                          : Math.max(now.getMillis(), lock.fencingToken + 1);
                   Lock newLock =
-                      create(resourceName, tld, requestStatusChecker.getLogId(), now, leaseLength);
+                      create(
+                          resourceName,
+                          tld,
+                          requestStatusChecker.getLogId(),
+                          now,
+                          now.plus(leaseLength),
+                          fencingToken);
                   // Locks are not parented under an EntityGroupRoot (so as to avoid write
                   // contention) and
                   // don't need to be backed up.
@@ -230,6 +273,58 @@ public class Lock extends ImmutableObject implements DatastoreEntity, Serializab
     return Optional.ofNullable(acquireResult.newLock());
   }
 
+  /**
+   * Try to extend the lease of the lock to {@code leaseLength} from now.
+   *
+   * <p>Returns the renewed lock, which must be used for any later renewal or release, or absent if
+   * the lock was already released, or taken over by someone else after it expired.
+   */
+  public Optional<Lock> renew(Duration leaseLength) {
+    Optional<Lock> renewedLock =
+        tm().transactNew(
+                () -> {
+                  DateTime now = tm().getTransactionTime();
+                  Lock loadedLock = ofy().load().type(Lock.class).id(lockId).now();
+                  if (!Lock.this.equals(loadedLock)) {
+                    logger.atSevere().log(
+                        "The lock we acquired was transferred to someone else before we"
+                            + " renewed it! Our lock: %s, current lock: %s",
+                        Lock.this, loadedLock);
+                    return Optional.empty();
+                  }
+                  Lock newLock =
+                      create(
+                          resourceName,
+                          tld,
+                          requestLogId,
+                          acquiredTime,
+                          now.plus(leaseLength),
+                          fencingToken);
+                  ofy().saveWithoutBackup().entity(newLock);
+                  return Optional.of(newLock);
+                });
+    lockMetrics.recordRenewal(resourceName, tld, renewedLock.isPresent());
+    return renewedLock;
+  }
+
+  /**
+   * Returns whether the acquisition of the lock identified by {@code fencingToken} still holds an
+   * unexpired lease on it.
+   *
+   * <p>Code that writes to a resource the lock protects should check this right before the write,
+   * so that a holder that stalled past its lease doesn't overwrite the work of the next holder.
+   */
+  public static boolean isHeld(String resourceName, @Nullable String tld, long fencingToken) {
+    String lockId = makeLockId(resourceName, tld);
+    return tm().transactNewReadOnly(
+            () -> {
+              Lock lock = ofy().load().type(Lock.class).id(lockId).now();
+              return lock != null
+                  && lock.fencingToken == fencingToken
+                  && tm().getTransactionTime().isBefore(lock.expirationTime);
+            });
+  }
+
   /** Release the lock. */
   public void release() {
     // Just use the default clock because we aren't actually doing anything that will use the clock.
@@ -26,7 +26,7 @@ import javax.annotation.Nullable;
 import org.joda.time.Duration;
 
 /** Metrics for lock contention. */
-class LockMetrics {
+public class LockMetrics {
 
   private static final ImmutableSet<LabelDescriptor> REQUEST_LABEL_DESCRIPTORS =
       ImmutableSet.of(
@@ -40,6 +40,18 @@ class LockMetrics {
           LabelDescriptor.create("tld", "TLD"),
           LabelDescriptor.create("resource", "resource name"));
 
+  private static final ImmutableSet<LabelDescriptor> RENEWAL_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("tld", "TLD"),
+          LabelDescriptor.create("resource", "resource name"),
+          LabelDescriptor.create("renewed", "Whether the lease was renewed."));
+
+  private static final ImmutableSet<LabelDescriptor> WAIT_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("tld", "TLD"),
+          LabelDescriptor.create("resource", "resource name"),
+          LabelDescriptor.create("acquired", "Whether the lock was acquired in the end."));
+
   // Finer-grained fitter than the DEFAULT_FITTER, allows values between 10 and 10*2^20, which
   // gives almost 3 hours.
   private static final DistributionFitter EXPONENTIAL_FITTER =
@@ -62,6 +74,23 @@ class LockMetrics {
               RELEASE_LABEL_DESCRIPTORS,
               EXPONENTIAL_FITTER);
 
+  private static final IncrementableMetric lockRenewalsMetric =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/lock/lease_renewals",
+              "Count of lock lease renewal attempts",
+              "count",
+              RENEWAL_LABEL_DESCRIPTORS);
+
+  private static final EventMetric lockWaitTimeMetric =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/lock/wait_time",
+              "Time spent waiting for a lock held by someone else",
+              "milliseconds",
+              WAIT_LABEL_DESCRIPTORS,
+              EXPONENTIAL_FITTER);
+
   void recordAcquire(String resourceName, @Nullable String tld, LockState state) {
     lockRequestsMetric.increment(String.valueOf(tld), resourceName, state.name());
   }
@@ -69,4 +98,18 @@ class LockMetrics {
   void recordRelease(String resourceName, @Nullable String tld, Duration duration) {
     lockLifetimeMetric.record(duration.getMillis(), String.valueOf(tld), resourceName);
   }
+
+  void recordRenewal(String resourceName, @Nullable String tld, boolean renewed) {
+    lockRenewalsMetric.increment(String.valueOf(tld), resourceName, String.valueOf(renewed));
+  }
+
+  /**
+   * Records the time spent waiting for a lock, from the first attempt to acquire it until it was
+   * acquired or the caller gave up.
+   */
+  public void recordWait(
+      String resourceName, @Nullable String tld, Duration duration, boolean acquired) {
+    lockWaitTimeMetric.record(
+        duration.getMillis(), String.valueOf(tld), resourceName, String.valueOf(acquired));
+  }
 }
@@ -18,6 +18,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Throwables.throwIfUnchecked;
 import static com.google.common.base.Verify.verify;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static google.registry.model.CacheUtils.memoizeWithShortExpiration;
 import static google.registry.model.ofy.ObjectifyService.allocateId;
 import static google.registry.model.ofy.ObjectifyService.ofy;
@@ -28,9 +29,6 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.MapDifference;
-import com.google.common.collect.MapDifference.ValueDifference;
-import com.google.common.collect.Maps;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.googlecode.objectify.Key;
@@ -53,7 +51,6 @@ import google.registry.util.CollectionUtils;
 import google.registry.util.Concurrent;
 import google.registry.util.Retrier;
 import google.registry.util.SystemSleeper;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -66,7 +63,8 @@ import org.joda.time.DateTime;
  *
  * <p>The claims list is actually sharded into multiple {@link ClaimsListShard} entities to work
  * around the Datastore limitation of 1M max size per entity. However, when calling {@link #get} all
- * of the shards are recombined into one {@link ClaimsListShard} object.
+ * of the shards are recombined into one {@link ClaimsListShard} object, whose labels and keys are
+ * held in a {@link CompactClaimsMap}.
  *
  * <p>ClaimsList shards are tied to a specific revision and are persisted individually, then the
  * entire claims list is atomically shifted over to using the new shards by persisting the new
@@ -109,14 +107,13 @@ public class ClaimsListShard extends ImmutableObject implements DatastoreEntity
         // Find the most recent revision.
         Key<ClaimsListRevision> revisionKey = getCurrentRevision();
 
-        Map<String, String> combinedLabelsToKeys = new HashMap<>();
+        List<ClaimsListShard> shards = ImmutableList.of();
         DateTime creationTime = START_OF_TIME;
         if (revisionKey != null) {
           // Grab all of the keys for the shards that belong to the current revision.
           final List<Key<ClaimsListShard>> shardKeys =
               ofy().load().type(ClaimsListShard.class).ancestor(revisionKey).keys().list();
 
-          List<ClaimsListShard> shards;
           try {
             // Load all of the shards concurrently, each in a separate transaction.
             shards =
@@ -141,11 +138,9 @@ public class ClaimsListShard extends ImmutableObject implements DatastoreEntity
             throw e;
           }
 
-          // Combine the shards together and return the concatenated ClaimsList.
           if (!shards.isEmpty()) {
             creationTime = shards.get(0).creationTime;
             for (ClaimsListShard shard : shards) {
-              combinedLabelsToKeys.putAll(shard.labelsToKeys);
               checkState(
                   creationTime.equals(shard.creationTime),
                   "Inconsistent claims list shard creation times.");
@@ -153,8 +148,14 @@ public class ClaimsListShard extends ImmutableObject implements DatastoreEntity
           }
         }
 
+        // Combine the shards together into a compact map and return the concatenated ClaimsList.
+        // This is built directly from the shards, without first copying them into one big hash
+        // map, since for the full claims list that takes hundreds of MB.
         ClaimsListShard datastoreList =
-            create(creationTime, ImmutableMap.copyOf(combinedLabelsToKeys));
+            create(
+                creationTime,
+                CompactClaimsMap.copyOf(
+                    shards.stream().map(shard -> shard.labelsToKeys).collect(toImmutableList())));
         // Also load the list from Cloud SQL, compare the two lists, and log if different.
         try {
           loadAndCompareCloudSqlList(datastoreList);
@@ -168,28 +169,39 @@ public class ClaimsListShard extends ImmutableObject implements DatastoreEntity
     Optional<ClaimsList> maybeCloudSqlList = ClaimsListDao.getLatestRevision();
     if (maybeCloudSqlList.isPresent()) {
       ClaimsList cloudSqlList = maybeCloudSqlList.get();
-      MapDifference<String, String> diff =
-          Maps.difference(datastoreList.labelsToKeys, cloudSqlList.getLabelsToKeys());
-      if (!diff.areEqual()) {
-        if (diff.entriesDiffering().size() > 10) {
+      Map<String, String> datastoreLabelsToKeys = datastoreList.labelsToKeys;
+      Map<String, String> cloudSqlLabelsToKeys = cloudSqlList.getLabelsToKeys();
+      // Compare the lists by looking up each Cloud SQL entry in the Datastore list, rather than
+      // with Maps.difference(), which would copy all the entries common to both lists.
+      ImmutableList<String> differingLabels =
+          cloudSqlLabelsToKeys.entrySet().stream()
+              .filter(
+                  entry -> {
+                    String datastoreKey = datastoreLabelsToKeys.get(entry.getKey());
+                    return datastoreKey != null && !datastoreKey.equals(entry.getValue());
+                  })
+              .map(Map.Entry::getKey)
+              .collect(toImmutableList());
+      boolean areEqual =
+          differingLabels.isEmpty()
+              && datastoreLabelsToKeys.size() == cloudSqlLabelsToKeys.size()
+              && cloudSqlLabelsToKeys.keySet().stream()
+                  .allMatch(datastoreLabelsToKeys::containsKey);
+      if (!areEqual) {
+        if (differingLabels.size() > 10) {
           logger.atWarning().log(
               String.format(
                   "Unequal claims lists detected, Cloud SQL list with revision id %d has %d"
                       + " different records than the current Datastore list.",
-                  cloudSqlList.getRevisionId(), diff.entriesDiffering().size()));
+                  cloudSqlList.getRevisionId(), differingLabels.size()));
         } else {
           StringBuilder diffMessage = new StringBuilder("Unequal claims lists detected:\n");
-          diff.entriesDiffering().entrySet().stream()
-              .forEach(
-                  entry -> {
-                    String label = entry.getKey();
-                    ValueDifference<String> valueDiff = entry.getValue();
-                    diffMessage.append(
-                        String.format(
-                            "Domain label %s has key %s in Datastore and key %s in Cloud"
-                                + " SQL.\n",
-                            label, valueDiff.leftValue(), valueDiff.rightValue()));
-                  });
+          for (String label : differingLabels) {
+            diffMessage.append(
+                String.format(
+                    "Domain label %s has key %s in Datastore and key %s in Cloud SQL.\n",
+                    label, datastoreLabelsToKeys.get(label), cloudSqlLabelsToKeys.get(label)));
+          }
           logger.atWarning().log(diffMessage.toString());
         }
       }
@@ -0,0 +1,229 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.tmch;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable, memory-compact map from claims labels to claims keys.
+ *
+ * <p>The claims list has millions of entries, and holding each label and key as a separate {@link
+ * String} in a hash map costs several times as much memory as the characters themselves. This map
+ * instead packs all labels, sorted, into a single byte array, and all keys into another, with
+ * parallel arrays of offsets into them. Lookups are a binary search over the labels.
+ *
+ * <p>Each character is stored in a single byte, so this only holds labels and keys whose
+ * characters all fit in ISO-8859-1. Claims labels are A-labels and claims keys are ASCII, so in
+ * practice this is always the case; {@link #copyOf} falls back to an {@link ImmutableMap} if not.
+ */
+final class CompactClaimsMap extends AbstractMap<String, String> {
+
+  /** All labels, in sorted order, one byte per character. */
+  private final byte[] labels;
+
+  /** Start of each label in {@link #labels}, followed by the total length. */
+  private final int[] labelOffsets;
+
+  /** The key for each label, in the same order as the labels, one byte per character. */
+  private final byte[] keys;
+
+  /** Start of each key in {@link #keys}, followed by the total length. */
+  private final int[] keyOffsets;
+
+  private CompactClaimsMap(byte[] labels, int[] labelOffsets, byte[] keys, int[] keyOffsets) {
+    this.labels = labels;
+    this.labelOffsets = labelOffsets;
+    this.keys = keys;
+    this.keyOffsets = keyOffsets;
+  }
+
+  /**
+   * Returns an immutable map containing all entries of the given maps.
+   *
+   * <p>If a label is in more than one of the maps, its key in the last of them is used.
+   */
+  static Map<String, String> copyOf(Iterable<? extends Map<String, String>> maps) {
+    List<Map.Entry<String, String>> entries = new ArrayList<>();
+    for (Map<String, String> map : maps) {
+      for (Map.Entry<String, String> entry : map.entrySet()) {
+        if (!isLatin1(entry.getKey()) || !isLatin1(entry.getValue())) {
+          return copyToImmutableMap(maps);
+        }
+        entries.add(entry);
+      }
+    }
+    // This sort is stable, so of any entries with the same label, the last one added comes last.
+    entries.sort(Map.Entry.comparingByKey());
+    int size = 0;
+    int labelsLength = 0;
+    int keysLength = 0;
+    for (int i = 0; i < entries.size(); i++) {
+      if (isLastWithLabel(entries, i)) {
+        size++;
+        labelsLength += entries.get(i).getKey().length();
+        keysLength += entries.get(i).getValue().length();
+      }
+    }
+    byte[] labels = new byte[labelsLength];
+    int[] labelOffsets = new int[size + 1];
+    byte[] keys = new byte[keysLength];
+    int[] keyOffsets = new int[size + 1];
+    int position = 0;
+    for (int i = 0; i < entries.size(); i++) {
+      if (isLastWithLabel(entries, i)) {
+        labelOffsets[position + 1] =
+            pack(entries.get(i).getKey(), labels, labelOffsets[position]);
+        keyOffsets[position + 1] = pack(entries.get(i).getValue(), keys, keyOffsets[position]);
+        position++;
+      }
+    }
+    return new CompactClaimsMap(labels, labelOffsets, keys, keyOffsets);
+  }
+
+  private static Map<String, String> copyToImmutableMap(
+      Iterable<? extends Map<String, String>> maps) {
+    Map<String, String> combined = new HashMap<>();
+    maps.forEach(combined::putAll);
+    return ImmutableMap.copyOf(combined);
+  }
+
+  private static boolean isLastWithLabel(List<Map.Entry<String, String>> entries, int i) {
+    return i == entries.size() - 1
+        || !entries.get(i).getKey().equals(entries.get(i + 1).getKey());
+  }
+
+  private static boolean isLatin1(String string) {
+    for (int i = 0; i < string.length(); i++) {
+      if (string.charAt(i) > 0xFF) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Writes {@code string} into {@code bytes} at {@code offset}, and returns the end offset. */
+  private static int pack(String string, byte[] bytes, int offset) {
+    for (int i = 0; i < string.length(); i++) {
+      bytes[offset + i] = (byte) string.charAt(i);
+    }
+    return offset + string.length();
+  }
+
+  private static String unpack(byte[] bytes, int[] offsets, int index) {
+    char[] chars = new char[offsets[index + 1] - offsets[index]];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = (char) (bytes[offsets[index] + i] & 0xFF);
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Returns the position of {@code label}, or a negative number if it isn't in this map.
+   *
+   * <p>Labels are compared character by character, which for ISO-8859-1 strings is the same order
+   * that {@link String#compareTo} sorts them in.
+   */
+  private int indexOf(String label) {
+    int low = 0;
+    int high = size() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = compareLabel(middle, label);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  private int compareLabel(int index, String label) {
+    int start = labelOffsets[index];
+    int length = labelOffsets[index + 1] - start;
+    int commonLength = Math.min(length, label.length());
+    for (int i = 0; i < commonLength; i++) {
+      int difference = (labels[start + i] & 0xFF) - label.charAt(i);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return length - label.length();
+  }
+
+  @Override
+  public String get(Object label) {
+    if (!(label instanceof String)) {
+      return null;
+    }
+    int index = indexOf((String) label);
+    return index < 0 ? null : unpack(keys, keyOffsets, index);
+  }
+
+  @Override
+  public boolean containsKey(Object label) {
+    return label instanceof String && indexOf((String) label) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return labelOffsets.length - 1;
+  }
+
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    return new AbstractSet<Map.Entry<String, String>>() {
+      @Override
+      public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<Map.Entry<String, String>>() {
+          private int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return next < size();
+          }
+
+          @Override
+          public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> entry =
+                new SimpleImmutableEntry<>(
+                    unpack(labels, labelOffsets, next), unpack(keys, keyOffsets, next));
+            next++;
+            return entry;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return CompactClaimsMap.this.size();
+      }
+    };
+  }
+}
@@ -19,6 +19,9 @@ import static com.google.common.base.Preconditions.checkState;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 
 import com.google.common.base.Joiner;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Ordering;
@@ -231,37 +234,74 @@ abstract class AbstractJsonableObject implements Jsonable {
     String[] value();
   }
 
+  /**
+   * Caches the {@link JsonableElement} fields of each class, including non-public and inherited
+   * fields, sorted by name for test consistency.
+   *
+   * <p>Finding these by reflection is much slower than reading them, and search responses convert
+   * hundreds of objects of the same few classes.
+   */
+  private static final LoadingCache<Class<?>, ImmutableList<Field>> JSONABLE_FIELDS_CACHE =
+      CacheBuilder.newBuilder()
+          .build(
+              new CacheLoader<Class<?>, ImmutableList<Field>>() {
+                @Override
+                public ImmutableList<Field> load(Class<?> clazz) {
+                  return getAllJsonableElementFields(clazz);
+                }
+              });
+
+  /**
+   * Caches the {@link JsonableElement} methods of each class, including non-public and inherited
+   * methods, sorted by name for test consistency.
+   */
+  private static final LoadingCache<Class<?>, ImmutableList<Method>> JSONABLE_METHODS_CACHE =
+      CacheBuilder.newBuilder()
+          .build(
+              new CacheLoader<Class<?>, ImmutableList<Method>>() {
+                @Override
+                public ImmutableList<Method> load(Class<?> clazz) {
+                  return getAllJsonableElementMethods(clazz);
+                }
+              });
+
+  /** Caches the result of {@link #getNameRestriction} for each class. */
+  private static final LoadingCache<Class<?>, Optional<ImmutableSet<String>>>
+      NAME_RESTRICTION_CACHE =
+          CacheBuilder.newBuilder()
+              .build(
+                  new CacheLoader<Class<?>, Optional<ImmutableSet<String>>>() {
+                    @Override
+                    public Optional<ImmutableSet<String>> load(Class<?> clazz) {
+                      return findNameRestriction(clazz);
+                    }
+                  });
+
   @Override
   public final JsonObject toJson() {
     try {
       JsonObjectBuilder builder = new JsonObjectBuilder();
 
-      for (Field field : getAllJsonableElementFields()) {
+      for (Field field : JSONABLE_FIELDS_CACHE.getUnchecked(this.getClass())) {
         JsonableElement jsonableElement = field.getAnnotation(JsonableElement.class);
         Object object;
         try {
-          field.setAccessible(true);
           object = field.get(this);
         } catch (IllegalAccessException e) {
           throw new IllegalStateException(
               String.format("Error reading value of field '%s'", field), e);
-        } finally {
-          field.setAccessible(false);
         }
         builder.add(jsonableElement, field, object);
       }
 
-      for (Method method : getAllJsonableElementMethods()) {
+      for (Method method : JSONABLE_METHODS_CACHE.getUnchecked(this.getClass())) {
         JsonableElement jsonableElement = method.getAnnotation(JsonableElement.class);
         Object object;
         try {
-          method.setAccessible(true);
           object = method.invoke(this);
         } catch (ReflectiveOperationException e) {
           throw new IllegalStateException(
               String.format("Error reading value of method '%s'", method), e);
-        } finally {
-          method.setAccessible(false);
         }
         builder.add(jsonableElement, method, object);
       }
@@ -274,35 +314,36 @@ abstract class AbstractJsonableObject implements Jsonable {
   }
 
   /**
-   * Get all the fields declared on this class.
+   * Get all the fields declared on the class, made accessible.
    *
    * <p>We aren't using {@link Class#getFields} because that would return only the public fields.
    */
-  private Iterable<Field> getAllJsonableElementFields() {
+  private static ImmutableList<Field> getAllJsonableElementFields(Class<?> leafClass) {
     ImmutableList.Builder<Field> builder = new ImmutableList.Builder<>();
-    for (Class<?> clazz = this.getClass();
+    for (Class<?> clazz = leafClass;
         clazz != null;
         clazz = clazz.getSuperclass()) {
       for (Field field : clazz.getDeclaredFields()) {
         if (!field.isAnnotationPresent(JsonableElement.class)) {
           continue;
         }
+        field.setAccessible(true);
         builder.add(field);
       }
     }
     // Sorting for test consistency
-    return Ordering.natural().onResultOf(Field::getName).sortedCopy(builder.build());
+    return Ordering.natural().onResultOf(Field::getName).immutableSortedCopy(builder.build());
   }
 
   /**
-   * Get all the methods declared on this class.
+   * Get all the methods declared on the class, made accessible.
    *
    * <p>We aren't using {@link Class#getMethods} because that would return only the public methods.
    */
-  private Iterable<Method> getAllJsonableElementMethods() {
+  private static ImmutableList<Method> getAllJsonableElementMethods(Class<?> leafClass) {
     ImmutableList.Builder<Method> builder = new ImmutableList.Builder<>();
     HashSet<String> seenNames = new HashSet<>();
-    for (Class<?> clazz = this.getClass();
+    for (Class<?> clazz = leafClass;
         clazz != null;
         clazz = clazz.getSuperclass()) {
       for (Method method : clazz.getDeclaredMethods()) {
@@ -315,11 +356,12 @@ abstract class AbstractJsonableObject implements Jsonable {
           // version.
           continue;
         }
+        method.setAccessible(true);
         builder.add(method);
       }
     }
     // Sorting for test consistency
-    return Ordering.natural().onResultOf(Method::getName).sortedCopy(builder.build());
+    return Ordering.natural().onResultOf(Method::getName).immutableSortedCopy(builder.build());
   }
 
   /** Converts an Object to a JsonElement. */
@@ -362,6 +404,10 @@ abstract class AbstractJsonableObject implements Jsonable {
    * the class is an element in a array with this name.
    */
   static Optional<ImmutableSet<String>> getNameRestriction(Class<?> clazz) {
+    return NAME_RESTRICTION_CACHE.getUnchecked(clazz);
+  }
+
+  private static Optional<ImmutableSet<String>> findNameRestriction(Class<?> clazz) {
     // Find the first superclass that has an RestrictJsonNames annotation.
     //
     // The reason we don't use @Inherited on the annotation instead is that we want a good error
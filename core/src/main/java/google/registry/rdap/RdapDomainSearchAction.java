@@ -29,9 +29,13 @@ import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.net.InetAddresses;
 import com.google.common.primitives.Booleans;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.cmd.Query;
 import google.registry.model.domain.DomainBase;
+import google.registry.model.host.HostInetAddressIndex;
+import google.registry.model.host.HostInetAddressIndex.ActiveHosts;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.ForeignKeyIndex.ForeignKeyDomainIndex;
 import google.registry.persistence.VKey;
 import google.registry.rdap.RdapJsonFormatter.OutputDataType;
 import google.registry.rdap.RdapMetrics.EndpointType;
@@ -47,6 +51,7 @@ import google.registry.request.Parameter;
 import google.registry.request.auth.Auth;
 import google.registry.util.NonFinalForTesting;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
@@ -196,8 +201,14 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
     // give up and return just the ones we found. Don't use queryItems, because it checks that the
     // initial string is at least a certain length, which we don't need in this case. Query the
     // domains directly, rather than the foreign keys, because then we have an index on TLD if we
-    // need it.
+    // need it. If we don't need it, and are only interested in active domains, the foreign keys
+    // do have the deletion time, and are much cheaper to scan.
     int querySizeLimit = RESULT_SET_SIZE_SCALING_FACTOR * rdapResultSetMaxSize;
+    if (partialStringQuery.getSuffix() == null
+        && !shouldIncludeDeleted()
+        && !getDesiredRegistrar().isPresent()) {
+      return makeSearchResults(getActiveDomainsByPrefix(partialStringQuery, querySizeLimit));
+    }
     Query<DomainBase> query =
         ofy()
             .load()
@@ -215,6 +226,69 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
     return makeSearchResults(getMatchingResources(query, true, querySizeLimit));
   }
 
+  /**
+   * Searches for active domains by domain name prefix, using the domain foreign key indexes.
+   *
+   * <p>The foreign key indexes are keyed and therefore sorted by domain name, and hold the deletion
+   * time of their domain. Scanning them instead of the domains themselves skips deleted domains
+   * without loading them, and only the domains that are returned are loaded, in a single batch.
+   *
+   * <p>Like {@link #getMatchingResources}, this gives up after {@code querySizeLimit} names, and
+   * the result set is flagged as possibly incomplete in the same circumstances. Since there is one
+   * index per name, and every active domain is visible, the results are the same.
+   *
+   * <p>This can only be used if deleted domains are not requested, since the index only points to
+   * the most recent domain with each name, and if the results don't need to be filtered by
+   * registrar or TLD, since the index has neither.
+   */
+  private RdapResultSet<DomainBase> getActiveDomainsByPrefix(
+      RdapSearchPattern partialStringQuery, int querySizeLimit) {
+    Query<ForeignKeyDomainIndex> query =
+        ofy()
+            .load()
+            .type(ForeignKeyDomainIndex.class)
+            .filterKey(
+                ">=",
+                Key.create(ForeignKeyDomainIndex.class, partialStringQuery.getInitialString()))
+            .filterKey(
+                "<",
+                Key.create(ForeignKeyDomainIndex.class, partialStringQuery.getNextInitialString()));
+    if (cursorString.isPresent()) {
+      query = query.filterKey(">", Key.create(ForeignKeyDomainIndex.class, cursorString.get()));
+    }
+    List<Key<DomainBase>> domainKeys = new ArrayList<>();
+    int numNamesQueried = 0;
+    boolean someExcluded = false;
+    for (ForeignKeyDomainIndex fki : query.limit(querySizeLimit)) {
+      numNamesQueried++;
+      if (getRequestTime().isBefore(fki.getDeletionTime())) {
+        domainKeys.add(fki.getResourceKey().getOfyKey());
+        if (domainKeys.size() > rdapResultSetMaxSize) {
+          break;
+        }
+      } else {
+        someExcluded = true;
+      }
+    }
+    List<DomainBase> domains = new ArrayList<>();
+    for (DomainBase domain : ofy().load().keys(domainKeys).values()) {
+      // Only active domains are loaded, so this only excludes ones deleted since the scan.
+      if (shouldBeVisible(domain)) {
+        domains.add(domain);
+      } else {
+        someExcluded = true;
+      }
+    }
+    return RdapResultSet.create(
+        domains,
+        (someExcluded
+                && (domains.size() < rdapResultSetMaxSize)
+                && (numNamesQueried >= querySizeLimit))
+            ? IncompletenessWarningType.MIGHT_BE_INCOMPLETE
+            : IncompletenessWarningType.COMPLETE,
+        numNamesQueried);
+  }
+
   /** Searches for domains by domain name with a TLD suffix. */
   private DomainSearchResponse searchByDomainNameByTld(String tld) {
     // Even though we are not searching on fullyQualifiedDomainName, we want the results to come
@@ -391,23 +465,18 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
    * domains which used to be connected to an undeleted nameserver.
    */
   private DomainSearchResponse searchByNameserverIp(final InetAddress inetAddress) {
-    Query<HostResource> query =
-        queryItems(
-            HostResource.class,
-            "inetAddresses",
-            inetAddress.getHostAddress(),
-            Optional.empty(),
-            Optional.empty(),
-            DeletedItemHandling.EXCLUDE,
-            maxNameserversInFirstStage);
     Optional<String> desiredRegistrar = getDesiredRegistrar();
-    if (desiredRegistrar.isPresent()) {
-      query = query.filter("currentSponsorClientId", desiredRegistrar.get());
-    }
+    ActiveHosts hosts =
+        HostInetAddressIndex.loadActiveHosts(
+            inetAddress,
+            getRequestTime(),
+            host ->
+                !desiredRegistrar.isPresent()
+                    || desiredRegistrar.get().equals(host.getPersistedCurrentSponsorClientId()),
+            maxNameserversInFirstStage);
     return searchByNameserverRefs(
-        StreamSupport.stream(query.keys().spliterator(), false)
-            .map(key -> VKey.createOfy(HostResource.class, key))
-            .collect(toImmutableSet()));
+        hosts.hosts().stream().map(HostResource::createVKey).collect(toImmutableSet()),
+        hosts.mightBeIncomplete());
   }
 
   /**
@@ -417,6 +486,15 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
    * #searchByNameserverIp} after they assemble the relevant host keys.
    */
   private DomainSearchResponse searchByNameserverRefs(final Iterable<VKey<HostResource>> hostKeys) {
+    return searchByNameserverRefs(hostKeys, false);
+  }
+
+  /**
+   * Locates all domains which are linked to a set of host keys, which might not include all the
+   * matching hosts if {@code hostKeysMightBeIncomplete} is true.
+   */
+  private DomainSearchResponse searchByNameserverRefs(
+      final Iterable<VKey<HostResource>> hostKeys, boolean hostKeysMightBeIncomplete) {
     // We must break the query up into chunks, because the in operator is limited to 30 subqueries.
     // Since it is possible for the same domain to show up more than once in our result list (if
     // we do a wildcard nameserver search that returns multiple nameservers used by the same
@@ -456,7 +534,7 @@ public class RdapDomainSearchAction extends RdapSearchActionBase {
     // so, indicate the result might be incomplete.
     return makeSearchResults(
         domains,
-        (numHostKeysSearched >= maxNameserversInFirstStage)
+        (hostKeysMightBeIncomplete || numHostKeysSearched >= maxNameserversInFirstStage)
             ? IncompletenessWarningType.MIGHT_BE_INCOMPLETE
             : IncompletenessWarningType.COMPLETE,
         (numHostKeysSearched > 0) ? Optional.of((long) domains.size()) : Optional.empty());
@@ -24,6 +24,8 @@ import com.google.common.net.InetAddresses;
 import com.google.common.primitives.Booleans;
 import com.googlecode.objectify.cmd.Query;
 import google.registry.model.domain.DomainBase;
+import google.registry.model.host.HostInetAddressIndex;
+import google.registry.model.host.HostInetAddressIndex.ActiveHosts;
 import google.registry.model.host.HostResource;
 import google.registry.rdap.RdapJsonFormatter.OutputDataType;
 import google.registry.rdap.RdapMetrics.EndpointType;
@@ -228,10 +230,39 @@ public class RdapNameserverSearchAction extends RdapSearchActionBase {
         getMatchingResources(query, shouldIncludeDeleted(), querySizeLimit), CursorType.NAME);
   }
 
-  /** Searches for nameservers by IP address, returning a JSON array of nameserver info maps. */
+  /**
+   * Searches for nameservers by IP address, returning a JSON array of nameserver info maps.
+   *
+   * <p>Unless deleted nameservers are requested, the nameservers are looked up in the {@link
+   * HostInetAddressIndex} rather than queried.
+   */
   private NameserverSearchResponse searchByIp(InetAddress inetAddress) {
     // Add 1 so we can detect truncation.
     int querySizeLimit = getStandardQuerySizeLimit();
+    if (!shouldIncludeDeleted()) {
+      Optional<String> desiredRegistrar = getDesiredRegistrar();
+      ActiveHosts hosts =
+          HostInetAddressIndex.loadActiveHosts(
+              inetAddress,
+              getRequestTime(),
+              host ->
+                  (!desiredRegistrar.isPresent()
+                          || desiredRegistrar
+                              .get()
+                              .equals(host.getPersistedCurrentSponsorClientId()))
+                      // The hosts are in key order, which is the order of their repo IDs.
+                      && (!cursorString.isPresent()
+                          || host.getRepoId().compareTo(cursorString.get()) > 0),
+              querySizeLimit);
+      return makeSearchResults(
+          RdapResultSet.create(
+              hosts.hosts(),
+              hosts.mightBeIncomplete()
+                  ? IncompletenessWarningType.MIGHT_BE_INCOMPLETE
+                  : IncompletenessWarningType.COMPLETE,
+              hosts.hosts().size()),
+          CursorType.ADDRESS);
+    }
     Query<HostResource> query =
         queryItems(
             HostResource.class,
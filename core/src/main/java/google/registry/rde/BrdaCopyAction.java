@@ -14,6 +14,7 @@
 
 package google.registry.rde;
 
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
 import static google.registry.model.rde.RdeMode.THIN;
 import static google.registry.request.Action.Method.POST;
 
@@ -102,6 +103,7 @@ public final class BrdaCopyAction implements Runnable {
             .setRydeOutput(rydeOut, receiverKey)
             .setSignatureOutput(sigOut, signingKey)
             .setFileMetadata(prefix, xmlLength, watermark)
+            .setPipelineThreadFactory(currentRequestThreadFactory())
             .build()) {
       ByteStreams.copy(ghostrydeDecoder, rydeEncoder);
     }
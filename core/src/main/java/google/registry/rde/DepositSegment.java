@@ -0,0 +1,60 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rde;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.Serializable;
+
+/**
+ * Ghostryde file on GCS holding some of the XML fragments of a deposit, written by {@link
+ * RdeStagingMapper}.
+ *
+ * <p>Only this small description of the file goes through the MapReduce shuffle, rather than the
+ * fragments themselves.
+ */
+@AutoValue
+public abstract class DepositSegment implements Serializable {
+
+  private static final long serialVersionUID = 2880163475294740271L;
+
+  /** Name of the file in the RDE bucket. */
+  public abstract String filename();
+
+  /** Number of fragments of each type in the file. */
+  public abstract ImmutableMap<RdeResourceType, Long> counts();
+
+  /** Whether any resource failed to marshal, in which case the deposit must fail as well. */
+  public abstract boolean failed();
+
+  /**
+   * XML fragments of the resources deleted since the previous deposit, for a diff deposit.
+   *
+   * <p>These go in their own section, before the contents of the deposit. There are few of them,
+   * so they're passed along with the segment rather than written to a file of their own.
+   */
+  public abstract ImmutableList<String> deletes();
+
+  public static DepositSegment create(
+      String filename,
+      ImmutableMap<RdeResourceType, Long> counts,
+      boolean failed,
+      ImmutableList<String> deletes) {
+    return new AutoValue_DepositSegment(filename, counts, failed, deletes);
+  }
+
+  DepositSegment() {}
+}
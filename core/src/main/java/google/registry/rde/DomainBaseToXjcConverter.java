@@ -153,6 +153,7 @@ final class DomainBaseToXjcConverter {
 
     switch (mode) {
       case FULL:
+      case DIFF:
         String domainName = model.getFullyQualifiedDomainName();
 
         // o  Zero or more OPTIONAL <rgpStatus> element to represent
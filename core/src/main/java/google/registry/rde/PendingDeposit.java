@@ -44,9 +44,13 @@ public abstract class PendingDeposit implements Serializable {
   /** Watermark date for which a deposit should be generated. */
   public abstract DateTime watermark();
 
-  /** Which type of deposit to generate: full (RDE) or thin (BRDA). */
+  /** Which type of deposit to generate: full or diff (RDE), or thin (BRDA). */
   public abstract RdeMode mode();
 
+  /** Watermark of the deposit that a diff deposit holds the changes since (used only for diffs). */
+  @Nullable
+  public abstract DateTime previousWatermark();
+
   /** The cursor type to update (not used in manual operation). */
   @Nullable
   public abstract CursorType cursor();
@@ -76,6 +80,7 @@ public abstract class PendingDeposit implements Serializable {
         tld,
         watermark,
         mode,
+        mode == RdeMode.DIFF ? watermark.minus(interval) : null,
         cursor,
         interval,
         null,
@@ -86,6 +91,7 @@ public abstract class PendingDeposit implements Serializable {
       String tld,
       DateTime watermark,
       RdeMode mode,
+      @Nullable DateTime previousWatermark,
       String directoryWithTrailingSlash,
       @Nullable Integer revision) {
     return new AutoValue_PendingDeposit(
@@ -93,6 +99,7 @@ public abstract class PendingDeposit implements Serializable {
         tld,
         watermark,
         mode,
+        previousWatermark,
         null,
         null,
         directoryWithTrailingSlash,
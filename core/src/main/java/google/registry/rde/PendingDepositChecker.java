@@ -20,11 +20,13 @@ import static google.registry.persistence.transaction.TransactionManagerFactory.
 import static google.registry.schema.cursor.CursorDao.loadAndCompare;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.model.common.Cursor;
 import google.registry.model.common.Cursor.CursorType;
 import google.registry.model.rde.RdeMode;
+import google.registry.model.rde.RdeRevision;
 import google.registry.model.registry.Registries;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldType;
@@ -51,6 +53,9 @@ import org.joda.time.Duration;
  * <p>If no deposits have been made so far, then {@code startingPoint} is used as the watermark
  * of the next deposit. If that's a day in the future, then escrow won't start until that date.
  * This first deposit time will be set to Datastore in a transaction.
+ *
+ * <p>RDE deposits are only full on the configured days of the week. On the other days they are
+ * {@link RdeMode#DIFF diffs} from the previous deposit, unless that one was never staged.
  */
 public final class PendingDepositChecker {
 
@@ -58,6 +63,7 @@ public final class PendingDepositChecker {
   @Inject @Config("brdaDayOfWeek") int brdaDayOfWeek;
   @Inject @Config("brdaInterval") Duration brdaInterval;
   @Inject @Config("rdeInterval") Duration rdeInterval;
+  @Inject @Config("rdeFullDepositDaysOfWeek") ImmutableSet<Integer> rdeFullDepositDaysOfWeek;
   @Inject PendingDepositChecker() {}
 
   /** Returns multimap of TLDs to all RDE and BRDA deposits that need to happen. */
@@ -99,13 +105,26 @@ public final class PendingDepositChecker {
             ? cursor.getCursorTime()
             : transactionallyInitializeCursor(registry, cursorType, startingPoint));
         if (isBeforeOrAt(watermark, now)) {
-          builder.put(tld, PendingDeposit.create(tld, watermark, mode, cursorType, interval));
+          RdeMode depositMode = (mode == RdeMode.FULL) ? getRdeMode(tld, watermark) : mode;
+          builder.put(
+              tld, PendingDeposit.create(tld, watermark, depositMode, cursorType, interval));
         }
       }
     }
     return builder.build();
   }
 
+  /** Returns whether the RDE deposit at a watermark should be full, or a diff. */
+  private RdeMode getRdeMode(String tld, DateTime watermark) {
+    if (rdeFullDepositDaysOfWeek.contains(watermark.getDayOfWeek())) {
+      return RdeMode.FULL;
+    }
+    // A diff is meaningless without the deposit that it's relative to.
+    return RdeRevision.isRdeDepositStaged(tld, watermark.minus(rdeInterval))
+        ? RdeMode.DIFF
+        : RdeMode.FULL;
+  }
+
   private DateTime transactionallyInitializeCursor(
       final Registry registry,
       final CursorType cursorType,
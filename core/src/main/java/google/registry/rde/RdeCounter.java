@@ -14,6 +14,7 @@
 
 package google.registry.rde;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import google.registry.model.rde.RdeMode;
@@ -24,6 +25,7 @@ import google.registry.xjc.rdeheader.XjcRdeHeaderElement;
 import google.registry.xjc.rdereport.XjcRdeReport;
 import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.inject.Inject;
@@ -49,6 +51,23 @@ public final class RdeCounter {
     counts.get(type).incrementAndGet();
   }
 
+  /** Adds counts that were made separately, e.g. by {@link RdeStagingMapper} for a segment. */
+  public void add(Map<RdeResourceType, Long> moreCounts) {
+    moreCounts.forEach((type, count) -> counts.get(type).addAndGet(count));
+  }
+
+  /** Returns the non-zero counts so far. */
+  public ImmutableMap<RdeResourceType, Long> getCounts() {
+    ImmutableMap.Builder<RdeResourceType, Long> builder = new ImmutableMap.Builder<>();
+    counts.forEach(
+        (type, count) -> {
+          if (count.get() > 0) {
+            builder.put(type, count.get());
+          }
+        });
+    return builder.build();
+  }
+
   /** Constructs a header containing the sum of {@link #increment(RdeResourceType)} calls. */
   public XjcRdeHeader makeHeader(String tld, RdeMode mode) {
     XjcRdeHeader header = new XjcRdeHeader();
@@ -61,11 +80,12 @@ public final class RdeCounter {
   }
 
   /** Returns an ICANN notification report as a JAXB object. */
-  public XjcRdeReport
-      makeReport(String id, DateTime watermark, XjcRdeHeader header, int revision) {
+  public XjcRdeReport makeReport(
+      String id, DateTime watermark, RdeMode mode, XjcRdeHeader header, int revision) {
     XjcRdeReport report = new XjcRdeReport();
     report.setId(id);
-    report.setKind(XjcRdeDepositTypeType.FULL);
+    report.setKind(
+        (mode == RdeMode.DIFF) ? XjcRdeDepositTypeType.DIFF : XjcRdeDepositTypeType.FULL);
     report.setCrDate(watermark);
     report.setWatermark(watermark);
     report.setVersion(ICANN_REPORT_SPEC_VERSION);
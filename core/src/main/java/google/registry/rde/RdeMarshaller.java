@@ -17,6 +17,7 @@ package google.registry.rde;
 import static com.google.common.base.Verify.verify;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
 import com.googlecode.objectify.Key;
 import google.registry.model.ImmutableObject;
@@ -31,6 +32,12 @@ import google.registry.xjc.rde.XjcRdeContentsType;
 import google.registry.xjc.rde.XjcRdeDeposit;
 import google.registry.xjc.rde.XjcRdeDepositTypeType;
 import google.registry.xjc.rde.XjcRdeMenuType;
+import google.registry.xjc.rdecontact.XjcRdeContactDelete;
+import google.registry.xjc.rdecontact.XjcRdeContactDeleteType;
+import google.registry.xjc.rdedomain.XjcRdeDomainDelete;
+import google.registry.xjc.rdedomain.XjcRdeDomainDeleteType;
+import google.registry.xjc.rdehost.XjcRdeHostDelete;
+import google.registry.xjc.rdehost.XjcRdeHostDeleteType;
 import google.registry.xjc.rdeidn.XjcRdeIdn;
 import google.registry.xjc.rdeidn.XjcRdeIdnElement;
 import google.registry.xjc.rdepolicy.XjcRdePolicy;
@@ -41,9 +48,11 @@ import google.registry.xml.XmlFragmentMarshaller;
 import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
 import java.util.Collection;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.MarshalException;
+import javax.xml.namespace.QName;
 import org.joda.time.DateTime;
 
 /** XML document <i>fragment</i> marshaller for RDE. */
@@ -63,6 +72,23 @@ public final class RdeMarshaller implements Serializable {
   /** Returns top-portion of XML document. */
   public String makeHeader(
       String depositId, DateTime watermark, Collection<String> uris, int revision) {
+    return makeHeader(depositId, watermark, RdeMode.FULL, null, uris, revision, ImmutableList.of());
+  }
+
+  /**
+   * Returns top-portion of XML document, for a deposit of the given mode.
+   *
+   * <p>A {@link RdeMode#DIFF} deposit refers to the deposit it holds the changes since, and lists
+   * the XML fragments of the resources that were deleted since then before its contents.
+   */
+  public String makeHeader(
+      String depositId,
+      DateTime watermark,
+      RdeMode mode,
+      @Nullable String previousDepositId,
+      Collection<String> uris,
+      int revision,
+      Collection<String> deletes) {
     // We can't make JAXB marshal half an element. So we're going to use a kludge where we provide
     // it with the minimum data necessary to marshal a deposit, and then cut it up by manually.
     XjcRdeMenuType menu = new XjcRdeMenuType();
@@ -76,7 +102,12 @@ public final class RdeMarshaller implements Serializable {
     XjcRdeDeposit deposit = new XjcRdeDeposit();
     deposit.setId(depositId);
     deposit.setWatermark(watermark);
-    deposit.setType(XjcRdeDepositTypeType.FULL);
+    if (mode == RdeMode.DIFF) {
+      deposit.setType(XjcRdeDepositTypeType.DIFF);
+      deposit.setPrevId(previousDepositId);
+    } else {
+      deposit.setType(XjcRdeDepositTypeType.FULL);
+    }
     if (revision > 0) {
       deposit.setResend(revision);
     }
@@ -92,7 +123,13 @@ public final class RdeMarshaller implements Serializable {
     String marker = "<rde:contents>\n";
     int startOfContents = rdeDocument.indexOf(marker);
     verify(startOfContents > 0, "Bad RDE document:\n%s", rdeDocument);
-    return rdeDocument.substring(0, startOfContents + marker.length());
+    StringBuilder header = new StringBuilder(rdeDocument.substring(0, startOfContents));
+    if (!deletes.isEmpty()) {
+      header.append("<rde:deletes>\n");
+      deletes.forEach(header::append);
+      header.append("\n</rde:deletes>\n");
+    }
+    return header.append(marker).toString();
   }
 
   /** Returns bottom-portion of XML document. */
@@ -148,6 +185,37 @@ public final class RdeMarshaller implements Serializable {
         RegistrarToXjcConverter.convert(registrar));
   }
 
+  /** Turns deleted {@link ContactResource} object into an XML fragment for a diff deposit. */
+  public String marshalContactDelete(ContactResource contact) {
+    XjcRdeContactDeleteType bean = new XjcRdeContactDeleteType();
+    bean.getIds().add(contact.getContactId());
+    return marshalOrDie(new XjcRdeContactDelete(bean));
+  }
+
+  /** Turns deleted {@link DomainBase} object into an XML fragment for a diff deposit. */
+  public String marshalDomainDelete(DomainBase domain) {
+    XjcRdeDomainDeleteType bean = new XjcRdeDomainDeleteType();
+    bean.getNames().add(domain.getFullyQualifiedDomainName());
+    return marshalOrDie(new XjcRdeDomainDelete(bean));
+  }
+
+  /**
+   * Turns deleted {@link HostResource} object into an XML fragment for a diff deposit.
+   *
+   * <p>Hosts can be renamed, so they're identified by their ROID rather than their name.
+   */
+  public String marshalHostDelete(HostResource host) {
+    XjcRdeHostDeleteType bean = new XjcRdeHostDeleteType();
+    bean.getNamesAndRoids()
+        .add(
+            new JAXBElement<>(
+                new QName(RdeResourceType.HOST.getUri(), "roid"),
+                String.class,
+                XjcRdeHostDeleteType.class,
+                host.getRepoId()));
+    return marshalOrDie(new XjcRdeHostDelete(bean));
+  }
+
   /** Turns {@link IdnTable} object into an XML fragment. */
   public String marshalIdn(IdnTable idn) {
     XjcRdeIdn bean = new XjcRdeIdn();
@@ -14,6 +14,7 @@
 
 package google.registry.rde;
 
+import static google.registry.model.rde.RdeMode.DIFF;
 import static google.registry.model.rde.RdeMode.FULL;
 import static google.registry.model.rde.RdeMode.THIN;
 
@@ -25,12 +26,12 @@ import java.util.EnumSet;
 
 /** Types of objects that get embedded in an escrow deposit. */
 public enum RdeResourceType {
-  CONTACT("urn:ietf:params:xml:ns:rdeContact-1.0", EnumSet.of(FULL)),
-  DOMAIN("urn:ietf:params:xml:ns:rdeDomain-1.0", EnumSet.of(FULL, THIN)),
-  HOST("urn:ietf:params:xml:ns:rdeHost-1.0", EnumSet.of(FULL)),
-  REGISTRAR("urn:ietf:params:xml:ns:rdeRegistrar-1.0", EnumSet.of(FULL, THIN)),
-  IDN("urn:ietf:params:xml:ns:rdeIDN-1.0", EnumSet.of(FULL, THIN)),
-  HEADER("urn:ietf:params:xml:ns:rdeHeader-1.0", EnumSet.of(FULL, THIN));
+  CONTACT("urn:ietf:params:xml:ns:rdeContact-1.0", EnumSet.of(FULL, DIFF)),
+  DOMAIN("urn:ietf:params:xml:ns:rdeDomain-1.0", EnumSet.of(FULL, THIN, DIFF)),
+  HOST("urn:ietf:params:xml:ns:rdeHost-1.0", EnumSet.of(FULL, DIFF)),
+  REGISTRAR("urn:ietf:params:xml:ns:rdeRegistrar-1.0", EnumSet.of(FULL, THIN, DIFF)),
+  IDN("urn:ietf:params:xml:ns:rdeIDN-1.0", EnumSet.of(FULL, THIN, DIFF)),
+  HEADER("urn:ietf:params:xml:ns:rdeHeader-1.0", EnumSet.of(FULL, THIN, DIFF));
 
   private final String uri;
   private final ImmutableSet<RdeMode> modes;
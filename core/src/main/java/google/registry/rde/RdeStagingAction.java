@@ -66,6 +66,10 @@ import org.joda.time.Duration;
  * <p>There is one map worker for each {@code EppResourceIndexBucket} entity group shard. There is
  * one reduce worker for each deposit being generated.
  *
+ * <p>The map workers write the XML fragments straight to {@link DepositSegment} files on GCS, in
+ * parallel, and only a description of each segment goes through the shuffle. The reduce worker
+ * for a deposit then concatenates its segments, so the fragments are only serialized once.
+ *
  * <p>{@link ContactResource} and {@link HostResource} are emitted on all TLDs, even when the
  * domains on a TLD don't reference them. BRDA {@link RdeMode#THIN thin} deposits exclude contacts
  * and hosts entirely.
@@ -73,6 +77,13 @@ import org.joda.time.Duration;
  * <p>{@link Registrar} entities, both active and inactive, are included in all deposits. They are
  * not rewinded point-in-time.
  *
+ * <p>RDE {@link RdeMode#DIFF diff} deposits only include the resources that changed since the
+ * previous watermark, and list the ones that were deleted in their deletes section. Resources
+ * also change with the passing of time, without being saved, such as when a domain autorenews or a
+ * pending transfer is implicitly approved. There is no record of these changes, so the job still
+ * scans every resource, but it only rewinds and marshals the ones that changed. Registrars are
+ * only included if they were updated since the previous watermark.
+ *
  * <p>The XML deposit files generated by this job are humongous. A tiny XML report file is generated
  * for each deposit, telling us how much of what it contains.
  *
@@ -122,9 +133,10 @@ import org.joda.time.Duration;
  * <p>The deposit and report are encrypted using {@link Ghostryde}. Administrators can use the
  * {@code GhostrydeCommand} command in the {@code nomulus} tool to view them.
  *
- * <p>Unencrypted XML fragments are stored temporarily between the map and reduce steps. The
- * ghostryde encryption on the full archived deposits makes life a little more difficult for an
- * attacker. But security ultimately depends on the bucket.
+ * <p>The XML fragments are stored temporarily in segments between the map and reduce steps. These
+ * are also encrypted using {@link Ghostryde}, but with a {@link SegmentEncryptionKey} generated for
+ * the job, since the reducer can't hold the staging decryption key. The ghostryde encryption makes
+ * life a little more difficult for an attacker. But security ultimately depends on the bucket.
  *
  * <h3>Idempotency</h3>
  *
@@ -175,7 +187,8 @@ import org.joda.time.Duration;
  * <ul>
  *   <li>manual: if present and true, manual operation is indicated
  *   <li>directory: the subdirectory of "manual" into which the files should be placed
- *   <li>mode: the mode(s) to generate: FULL for RDE deposits, THIN for BRDA deposits
+ *   <li>mode: the mode(s) to generate: FULL or DIFF for RDE deposits, THIN for BRDA deposits; DIFF
+ *       deposits hold the changes since the previous day
  *   <li>tld: the tld(s) for which deposits should be generated
  *   <li>watermark: the date(s) for which deposits should be generated; dates should be start-of-day
  *   <li>revision: optional; if not specified, the next available revision number will be used
@@ -204,10 +217,12 @@ public final class RdeStagingAction implements Runnable {
 
   @Inject Clock clock;
   @Inject PendingDepositChecker pendingDepositChecker;
+  @Inject RdeStagingMapper.Factory mapperFactory;
   @Inject RdeStagingReducer.Factory reducerFactory;
   @Inject Response response;
   @Inject MapreduceRunner mrRunner;
   @Inject @Config("transactionCooldown") Duration transactionCooldown;
+  @Inject @Config("rdeInterval") Duration rdeInterval;
   @Inject @Parameter(RdeModule.PARAM_MANUAL) boolean manual;
   @Inject @Parameter(RdeModule.PARAM_DIRECTORY) Optional<String> directory;
   @Inject @Parameter(RdeModule.PARAM_MODE) ImmutableSet<String> modeStrings;
@@ -233,8 +248,9 @@ public final class RdeStagingAction implements Runnable {
       logger.atInfo().log("Pending deposit: %s", pending);
     }
     ValidationMode validationMode = lenient ? LENIENT : STRICT;
-    RdeStagingMapper mapper = new RdeStagingMapper(validationMode, pendings);
-    RdeStagingReducer reducer = reducerFactory.create(validationMode);
+    SegmentEncryptionKey segmentKey = SegmentEncryptionKey.generate();
+    RdeStagingMapper mapper = mapperFactory.create(validationMode, pendings, segmentKey);
+    RdeStagingReducer reducer = reducerFactory.create(validationMode, segmentKey);
 
     mrRunner
         .setJobName("Stage escrow deposits for all TLDs")
@@ -299,7 +315,8 @@ public final class RdeStagingAction implements Runnable {
       try {
         modesBuilder.add(RdeMode.valueOf(Ascii.toUpperCase(modeString)));
       } catch (IllegalArgumentException e) {
-        throw new BadRequestException("Mode must be FULL for RDE deposits, THIN for BRDA deposits");
+        throw new BadRequestException(
+            "Mode must be FULL or DIFF for RDE deposits, THIN for BRDA deposits");
       }
     }
     ImmutableSet<RdeMode> modes = modesBuilder.build();
@@ -336,6 +353,7 @@ public final class RdeStagingAction implements Runnable {
                   tld,
                   watermark,
                   mode,
+                  mode == RdeMode.DIFF ? watermark.minus(rdeInterval) : null,
                   directoryWithTrailingSlash,
                   revision.orElse(null)));
         }
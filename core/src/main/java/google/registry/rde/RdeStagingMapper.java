@@ -14,62 +14,197 @@
 
 package google.registry.rde;
 
+import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
 import static com.google.common.base.Strings.nullToEmpty;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static google.registry.model.EppResourceUtils.isActive;
 import static google.registry.model.EppResourceUtils.loadAtPointInTime;
 import static google.registry.model.ofy.ObjectifyService.ofy;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.RetryParams;
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.flogger.FluentLogger;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Result;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.gcs.GcsUtils;
+import google.registry.keyring.api.PgpHelper;
 import google.registry.model.EppResource;
+import google.registry.model.ProjectedResourceCache;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainBase;
 import google.registry.model.host.HostResource;
 import google.registry.model.rde.RdeMode;
 import google.registry.model.registrar.Registrar;
+import google.registry.persistence.VKey;
+import google.registry.util.NonFinalForTesting;
 import google.registry.xml.ValidationMode;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import javax.inject.Inject;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPPublicKey;
 import org.joda.time.DateTime;
 
-/** Mapper for {@link RdeStagingAction}. */
-public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit, DepositFragment> {
+/**
+ * Mapper for {@link RdeStagingAction}.
+ *
+ * <p>Rather than emitting every XML fragment through the shuffle, each slice of each shard buffers
+ * the fragments of every deposit it touches, and writes them to {@link DepositSegment} files. Only
+ * a description of each segment is emitted, once the segment is complete.
+ *
+ * <p>All the buffers of a slice share a budget of {@code segmentBufferSize} characters. When it's
+ * exceeded, the largest buffer is written to a segment of its own, so only one segment file (and
+ * one ghostryde stream) is ever open at a time, however many TLDs there are. The largest buffer
+ * holds at least its share of the budget, so each slice writes at most one segment per deposit it
+ * touches, plus one for every {@code segmentBufferSize / deposits} characters it overflows by.
+ * With the default budget, a slice normally fits in it and writes one segment per deposit, so a
+ * deposit gets about one segment for each slice of each shard that touched it. Memory is bounded
+ * by the budget, rather than growing with the number of deposits.
+ *
+ * <p>Segments are named after the job, shard, slice and the order in which the slice wrote them,
+ * so a slice that's retried overwrites the segments of its failed attempt, whose descriptions were
+ * never committed to the shuffle.
+ *
+ * <p>Resources that didn't change since the previous watermark are left out of {@link
+ * RdeMode#DIFF diff} deposits before they are rewound, so that they cost next to nothing.
+ */
+public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit, DepositSegment> {
 
   private static final long serialVersionUID = -1518185703789372524L;
 
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /**
+   * Maximum number of superordinate domains to cache per slice, for all watermarks. This is about
+   * the number of domains that fits in a few tens of megabytes.
+   */
+  private static final int SUPERORDINATE_DOMAIN_CACHE_SIZE = 5000;
+
+  /** Maximum number of nameserver update times to cache per slice. */
+  private static final int NAMESERVER_UPDATE_TIME_CACHE_SIZE = 10000;
+
+  /**
+   * Maximum number of XML characters to buffer per slice, for all deposits, before writing the
+   * largest buffer to a segment. This is about 32 megabytes.
+   */
+  @NonFinalForTesting private static int segmentBufferSize = 16 * 1024 * 1024;
+
   private final RdeMarshaller marshaller;
   private final ImmutableSetMultimap<String, PendingDeposit> pendings;
+  private final String bucket;
+  private final byte[] segmentKeyBytes;
+
+  /** Number of the current slice of this shard, which is restored along with the mapper. */
+  private int sliceNumber = 0;
+
+  // These only exist for the duration of a slice.
+  private transient GcsUtils cloudStorage;
+  private transient PGPPublicKey segmentKey;
+  private transient Map<PendingDeposit, SegmentBuffer> segmentBuffers;
+  private transient long bufferedChars;
+  private transient ProjectedResourceCache<DomainBase> superordinateDomains;
+  private transient Cache<Key<HostResource>, DateTime> nameserverUpdateTimes;
 
-  RdeStagingMapper(
-      ValidationMode validationMode, ImmutableSetMultimap<String, PendingDeposit> pendings) {
+  private RdeStagingMapper(
+      ValidationMode validationMode,
+      ImmutableSetMultimap<String, PendingDeposit> pendings,
+      String bucket,
+      byte[] segmentKeyBytes) {
     this.marshaller = new RdeMarshaller(validationMode);
     this.pendings = pendings;
+    this.bucket = bucket;
+    this.segmentKeyBytes = segmentKeyBytes;
+  }
+
+  @Override
+  public void beginSlice() {
+    // Normally this is done by BackendServlet but it's not present in MapReduceServlet.
+    Security.addProvider(new BouncyCastleProvider());
+    sliceNumber++;
+    // Construct things that Dagger would inject if this wasn't serialized. The buffer size is only
+    // used for reading, which we don't do.
+    cloudStorage = new GcsUtils(createGcsService(RetryParams.getDefaultInstance()), 0);
+    segmentKey = PgpHelper.loadPublicKeyBytes(segmentKeyBytes);
+    segmentBuffers = new HashMap<>();
+    bufferedChars = 0;
+    superordinateDomains = ProjectedResourceCache.create(SUPERORDINATE_DOMAIN_CACHE_SIZE);
+    nameserverUpdateTimes =
+        CacheBuilder.newBuilder()
+            .maximumSize(NAMESERVER_UPDATE_TIME_CACHE_SIZE)
+            .recordStats()
+            .build();
+  }
+
+  @Override
+  public void endSlice() {
+    for (SegmentBuffer buffer : segmentBuffers.values()) {
+      // Every deposit that the slice touched gets at least one segment, even an empty one.
+      if (buffer.chars > 0 || buffer.failed || buffer.segmentsWritten == 0) {
+        buffer.flush();
+      }
+    }
+    segmentBuffers = null;
+    CacheStats stats = superordinateDomains.stats();
+    getContext().incrementCounter("superordinate domain cache hits", stats.hitCount());
+    getContext().incrementCounter("superordinate domain cache misses", stats.missCount());
+    getContext().incrementCounter("superordinate domain cache evictions", stats.evictionCount());
+    superordinateDomains = null;
+    stats = nameserverUpdateTimes.stats();
+    getContext().incrementCounter("nameserver update time cache hits", stats.hitCount());
+    getContext().incrementCounter("nameserver update time cache misses", stats.missCount());
+    nameserverUpdateTimes = null;
   }
 
   @Override
   public final void map(final EppResource resource) {
     // The mapreduce has one special input that provides a null resource. This is used as a sentinel
-    // to indicate that we should emit the Registrar objects on this map shard, as these need to be
-    // added to every deposit. It is important that these be emitted as part of the mapreduce and
-    // not added in a separate stage, because the reducer only runs if there is at least one value
-    // emitted from the mapper. Without this, a cursor might never advance because no EppResource
-    // entity exists at the watermark.
+    // to indicate that we should write the Registrar objects on this map shard, as these need to be
+    // added to every deposit. It is important that a segment is written for every deposit as part
+    // of the mapreduce, even if there are no registrars, because the reducer only runs if there is
+    // at least one value emitted from the mapper. Without this, a cursor might never advance
+    // because no EppResource entity exists at the watermark.
     if (resource == null) {
       long registrarsEmitted = 0;
+      for (PendingDeposit pending : pendings.values()) {
+        getSegmentBuffer(pending);
+      }
       for (Registrar registrar : Registrar.loadAllCached()) {
         DepositFragment fragment = marshaller.marshalRegistrar(registrar);
         for (PendingDeposit pending : pendings.values()) {
-          emit(pending, fragment);
+          // Registrars aren't rewound, so a diff has those that were updated since the previous
+          // watermark, as they are now.
+          if (pending.mode() == RdeMode.DIFF
+              && !registrar.getLastUpdateTime().isAfter(pending.previousWatermark())) {
+            continue;
+          }
+          getSegmentBuffer(pending).write(fragment);
           registrarsEmitted++;
         }
       }
       getContext().incrementCounter("registrars emitted", registrarsEmitted);
+      flushLargestBuffers();
       return;
     }
 
@@ -105,40 +240,63 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
       tlds = pendings.keySet();
     }
 
+    // Determine which of the deposits of those TLDs the resource goes in.
+    List<PendingDeposit> deposits = new ArrayList<>();
+    for (String tld : tlds) {
+      for (PendingDeposit pending : pendings.get(tld)) {
+        // Hosts and contacts don't get included in BRDA deposits.
+        if (pending.mode() == RdeMode.THIN
+            && (resource instanceof ContactResource
+                || resource instanceof HostResource)) {
+          continue;
+        }
+        // Diff deposits only get the resources that changed since the previous watermark.
+        if (pending.mode() == RdeMode.DIFF
+            && !isChangedSince(resource, pending.previousWatermark(), pending.watermark())) {
+          getContext().incrementCounter("unchanged resources skipped in diffs");
+          continue;
+        }
+        deposits.add(pending);
+      }
+    }
+
     // Get the set of all point-in-time watermarks we need, to minimize rewinding.
     ImmutableSet<DateTime> dates =
-        tlds.stream()
-            .map(pendings::get)
-            .flatMap(ImmutableSet::stream)
-            .map(PendingDeposit::watermark)
-            .collect(toImmutableSet());
+        deposits.stream().map(PendingDeposit::watermark).collect(toImmutableSet());
 
     // Launch asynchronous fetches of point-in-time representations of resource.
     ImmutableMap<DateTime, Result<EppResource>> resourceAtTimes =
         ImmutableMap.copyOf(Maps.asMap(dates, input -> loadAtPointInTime(resource, input)));
 
+    // Load the superordinate domains of a subordinate host at all the watermarks in one batch.
+    if (resource instanceof HostResource) {
+      prefetchSuperordinateDomains(resourceAtTimes);
+    }
+
     // Convert resource to an XML fragment for each watermark/mode pair lazily and cache the result.
     Fragmenter fragmenter = new Fragmenter(resourceAtTimes);
 
-    // Emit resource as an XML fragment for all TLDs and modes pending deposit.
+    // Write resource as an XML fragment for all TLDs and modes pending deposit.
     long resourcesEmitted = 0;
-    for (String tld : tlds) {
-      for (PendingDeposit pending : pendings.get(tld)) {
-        // Hosts and contacts don't get included in BRDA deposits.
-        if (pending.mode() == RdeMode.THIN
-            && (resource instanceof ContactResource
-                || resource instanceof HostResource)) {
-          continue;
-        }
-        Optional<DepositFragment> fragment =
-            fragmenter.marshal(pending.watermark(), pending.mode());
-        if (fragment.isPresent()) {
-          emit(pending, fragment.get());
-          resourcesEmitted++;
-        }
+    long deletesEmitted = 0;
+    for (PendingDeposit pending : deposits) {
+      // A diff holds the same XML as a full deposit, so they share fragments.
+      Optional<DepositFragment> fragment =
+          fragmenter.marshal(
+              pending.watermark(),
+              (pending.mode() == RdeMode.DIFF) ? RdeMode.FULL : pending.mode());
+      if (fragment.isPresent()) {
+        getSegmentBuffer(pending).write(fragment.get());
+        resourcesEmitted++;
+      } else if (pending.mode() == RdeMode.DIFF
+          && isActive(resource, pending.previousWatermark())) {
+        getSegmentBuffer(pending).writeDelete(marshalDelete(resource));
+        deletesEmitted++;
       }
     }
     getContext().incrementCounter("resources emitted", resourcesEmitted);
+    getContext().incrementCounter("deletes emitted", deletesEmitted);
+    flushLargestBuffers();
     getContext().incrementCounter("fragmenter cache hits", fragmenter.cacheHits);
     getContext().incrementCounter("fragmenter resources not found", fragmenter.resourcesNotFound);
     getContext().incrementCounter("fragmenter resources found", fragmenter.resourcesFound);
@@ -189,9 +347,8 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
         result = Optional.of(host.isSubordinate()
             ? marshaller.marshalSubordinateHost(
                 host,
-                // Note that loadAtPointInTime() does cloneProjectedAtTime(watermark) for us.
-                loadAtPointInTime(
-                    ofy().load().key(host.getSuperordinateDomain()).now(), watermark).now())
+                // Note that the cache projects the domain to the watermark for us.
+                superordinateDomains.get(host.getSuperordinateDomain(), watermark))
             : marshaller.marshalExternalHost(host));
         cache.put(WatermarkModePair.create(watermark, RdeMode.FULL), result);
         cache.put(WatermarkModePair.create(watermark, RdeMode.THIN), result);
@@ -202,6 +359,180 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
     }
   }
 
+  /**
+   * Prefetches the superordinate domains of a host, as of the watermarks of the deposits that the
+   * host is included in.
+   */
+  private void prefetchSuperordinateDomains(
+      ImmutableMap<DateTime, Result<EppResource>> hostAtTimes) {
+    ImmutableSet<Key<DomainBase>> superordinateDomainKeys =
+        hostAtTimes.values().stream()
+            .map(hostAtTime -> (HostResource) hostAtTime.now())
+            .filter(host -> host != null && host.isSubordinate())
+            .map(HostResource::getSuperordinateDomain)
+            .collect(toImmutableSet());
+    superordinateDomains.prefetch(superordinateDomainKeys, hostAtTimes.keySet());
+  }
+
+  /**
+   * Returns whether a resource might be different at a watermark than at the previous one, in
+   * which case it goes in the diff deposit.
+   *
+   * <p>That's the case if it was saved since the previous watermark, or if it changed with the
+   * passing of time in between, such as with an autorenew, the implicit approval of a transfer, the
+   * end of a grace period or its deletion. A domain also changes when one of its nameservers is
+   * renamed, since that doesn't save the domain. A resource that was only saved after the watermark
+   * makes for a redundant entry in the diff, which is harmless.
+   */
+  private boolean isChangedSince(
+      EppResource resource, DateTime previousWatermark, DateTime watermark) {
+    if (resource.getUpdateAutoTimestamp().getTimestamp().isAfter(previousWatermark)) {
+      return true;
+    }
+    // Otherwise the resource hasn't changed since the previous watermark, so it can be projected
+    // to both watermarks without loading anything.
+    if (isActive(resource, previousWatermark) != isActive(resource, watermark)
+        || !resource
+            .cloneProjectedAtTime(previousWatermark)
+            .equals(resource.cloneProjectedAtTime(watermark))) {
+      return true;
+    }
+    // The sponsor of a subordinate host changes with that of its superordinate domain.
+    if (resource instanceof HostResource && ((HostResource) resource).isSubordinate()) {
+      DomainBase superordinateDomain =
+          superordinateDomains.get(((HostResource) resource).getSuperordinateDomain(), watermark);
+      return superordinateDomain != null
+          && superordinateDomain.getLastTransferTime() != null
+          && superordinateDomain.getLastTransferTime().isAfter(previousWatermark);
+    }
+    // The nameservers of a domain are listed by name, so it changes with their renames. The domain
+    // wasn't saved since the previous watermark, so its current nameservers are the ones it had.
+    if (resource instanceof DomainBase) {
+      return isAnyNameserverUpdatedSince((DomainBase) resource, previousWatermark);
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether any of the nameservers of a domain was saved since the given time, whether it
+   * was renamed or not.
+   */
+  private boolean isAnyNameserverUpdatedSince(DomainBase domain, DateTime time) {
+    ImmutableSet<Key<HostResource>> keys =
+        domain.getNameservers().stream().map(VKey::getOfyKey).collect(toImmutableSet());
+    Map<Key<HostResource>, DateTime> updateTimes =
+        new HashMap<>(nameserverUpdateTimes.getAllPresent(keys));
+    ImmutableSet<Key<HostResource>> missingKeys =
+        Sets.difference(keys, updateTimes.keySet()).immutableCopy();
+    if (!missingKeys.isEmpty()) {
+      ofy()
+          .load()
+          .keys(missingKeys)
+          .forEach(
+              (key, host) -> {
+                DateTime updateTime = host.getUpdateAutoTimestamp().getTimestamp();
+                updateTimes.put(key, updateTime);
+                nameserverUpdateTimes.put(key, updateTime);
+              });
+    }
+    return updateTimes.values().stream().anyMatch(updateTime -> updateTime.isAfter(time));
+  }
+
+  /** Turns a resource that was deleted since the previous watermark into an XML fragment. */
+  private String marshalDelete(EppResource resource) {
+    if (resource instanceof DomainBase) {
+      return marshaller.marshalDomainDelete((DomainBase) resource);
+    } else if (resource instanceof ContactResource) {
+      return marshaller.marshalContactDelete((ContactResource) resource);
+    } else if (resource instanceof HostResource) {
+      return marshaller.marshalHostDelete((HostResource) resource);
+    } else {
+      throw new AssertionError(resource.toString());
+    }
+  }
+
+  private SegmentBuffer getSegmentBuffer(PendingDeposit pending) {
+    return segmentBuffers.computeIfAbsent(pending, SegmentBuffer::new);
+  }
+
+  /** Writes the largest buffers to segments until the slice is back within its budget. */
+  private void flushLargestBuffers() {
+    while (bufferedChars > segmentBufferSize) {
+      segmentBuffers.values().stream()
+          .max(Comparator.comparingLong(buffer -> buffer.chars))
+          .get()
+          .flush();
+    }
+  }
+
+  /** Buffers the XML fragments of one deposit, while counting them, until they fill a segment. */
+  private class SegmentBuffer {
+    private final PendingDeposit pending;
+    private StringBuilder xml = new StringBuilder();
+    private RdeCounter counter = new RdeCounter();
+    private ImmutableList.Builder<String> deletes = new ImmutableList.Builder<>();
+    private boolean failed = false;
+    private long chars = 0;
+    private int segmentsWritten = 0;
+
+    SegmentBuffer(PendingDeposit pending) {
+      this.pending = pending;
+    }
+
+    void write(DepositFragment fragment) {
+      if (!fragment.xml().isEmpty()) {
+        xml.append(fragment.xml());
+        addChars(fragment.xml().length());
+        counter.increment(fragment.type());
+      }
+      if (!fragment.error().isEmpty()) {
+        failed = true;
+        logger.atSevere().log("Fragment error: %s", fragment.error());
+      }
+    }
+
+    void writeDelete(String xml) {
+      deletes.add(xml);
+      addChars(xml.length());
+    }
+
+    private void addChars(long length) {
+      chars += length;
+      bufferedChars += length;
+    }
+
+    /** Writes the buffered fragments to a new segment, emits it and empties the buffer. */
+    void flush() {
+      String filename =
+          String.format(
+              "segments/%s/%s_%s_%s/%d-%d-%d.xml.ghostryde",
+              getContext().getJobId(),
+              pending.tld(),
+              pending.watermark().toLocalDate(),
+              pending.mode(),
+              getContext().getShardNumber(),
+              sliceNumber,
+              segmentsWritten);
+      try (OutputStream gcsOutput =
+              cloudStorage.openOutputStream(new GcsFilename(bucket, filename));
+          OutputStream ghostrydeEncoder = Ghostryde.encoder(gcsOutput, segmentKey);
+          Writer output = new OutputStreamWriter(ghostrydeEncoder, UTF_8)) {
+        output.write(xml.toString());
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      emit(pending, DepositSegment.create(filename, counter.getCounts(), failed, deletes.build()));
+      getContext().incrementCounter("segments written");
+      segmentsWritten++;
+      bufferedChars -= chars;
+      xml = new StringBuilder();
+      counter = new RdeCounter();
+      deletes = new ImmutableList.Builder<>();
+      failed = false;
+      chars = 0;
+    }
+  }
+
   /** Map key for {@link Fragmenter} cache. */
   @AutoValue
   abstract static class WatermarkModePair {
@@ -212,4 +543,22 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
       return new AutoValue_RdeStagingMapper_WatermarkModePair(watermark, mode);
     }
   }
+
+  /** Injectible factory for creating {@link RdeStagingMapper}. */
+  static class Factory {
+    @Inject @Config("rdeBucket") String bucket;
+
+    @Inject Factory() {}
+
+    RdeStagingMapper create(
+        ValidationMode validationMode,
+        ImmutableSetMultimap<String, PendingDeposit> pendings,
+        SegmentEncryptionKey segmentKey) {
+      return new RdeStagingMapper(
+          validationMode,
+          pendings,
+          bucket,
+          PgpHelper.convertPublicKeyToBytes(segmentKey.getPublicKey()));
+    }
+  }
 }
@@ -19,6 +19,8 @@ import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
 import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Verify.verify;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static google.registry.model.common.Cursor.getCursorTimeOrStartOfTime;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.persistence.transaction.TransactionManagerFactory.tm;
@@ -26,10 +28,14 @@ import static google.registry.schema.cursor.CursorDao.loadAndCompare;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.appengine.tools.cloudstorage.RetryParams;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.io.ByteStreams;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.gcs.GcsUtils;
 import google.registry.keyring.api.KeyModule;
@@ -49,21 +55,32 @@ import google.registry.xjc.rdeheader.XjcRdeHeaderElement;
 import google.registry.xml.ValidationMode;
 import google.registry.xml.XmlException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.security.Security;
-import java.util.Iterator;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import javax.inject.Inject;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
-/** Reducer for {@link RdeStagingAction}. */
-public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFragment, Void> {
+/**
+ * Reducer for {@link RdeStagingAction}.
+ *
+ * <p>This concatenates the {@link DepositSegment} files written by {@link RdeStagingMapper} into
+ * the deposit, and merges their counts into its header. The segment folder of the deposit is
+ * deleted once the deposit has been staged, along with any segments that retried map slices left
+ * behind. Only the folders of jobs that are aborted before their reducers run are left behind.
+ *
+ * <p>The deletes of a {@link RdeMode#DIFF diff} deposit come with the segment descriptions, and are
+ * written ahead of its contents.
+ */
+public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositSegment, Void> {
 
   private static final long serialVersionUID = 60326234579091203L;
 
@@ -75,6 +92,7 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
   private final String bucket;
   private final Duration lockTimeout;
   private final byte[] stagingKeyBytes;
+  private final SegmentEncryptionKey segmentKey;
   private final RdeMarshaller marshaller;
 
   private RdeStagingReducer(
@@ -84,6 +102,7 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
       String bucket,
       Duration lockTimeout,
       byte[] stagingKeyBytes,
+      SegmentEncryptionKey segmentKey,
       ValidationMode validationMode) {
     this.taskQueueUtils = taskQueueUtils;
     this.lockHandler = lockHandler;
@@ -91,14 +110,15 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
     this.bucket = bucket;
     this.lockTimeout = lockTimeout;
     this.stagingKeyBytes = stagingKeyBytes;
+    this.segmentKey = segmentKey;
     this.marshaller = new RdeMarshaller(validationMode);
   }
 
   @Override
-  public void reduce(final PendingDeposit key, final ReducerInput<DepositFragment> fragments) {
+  public void reduce(final PendingDeposit key, final ReducerInput<DepositSegment> segments) {
     Callable<Void> lockRunner =
         () -> {
-          reduceWithLock(key, fragments);
+          reduceWithLock(key, ImmutableList.copyOf(segments));
           return null;
         };
     String lockName = String.format("RdeStaging %s", key.mode());
@@ -107,7 +127,7 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
     }
   }
 
-  private void reduceWithLock(final PendingDeposit key, Iterator<DepositFragment> fragments) {
+  private void reduceWithLock(final PendingDeposit key, ImmutableList<DepositSegment> segments) {
     logger.atInfo().log("RdeStagingReducer %s", key);
 
     // Normally this is done by BackendServlet but it's not present in MapReduceServlet.
@@ -115,10 +135,19 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
 
     // Construct things that Dagger would inject if this wasn't serialized.
     PGPPublicKey stagingKey = PgpHelper.loadPublicKeyBytes(stagingKeyBytes);
-    GcsUtils cloudStorage =
-        new GcsUtils(createGcsService(RetryParams.getDefaultInstance()), gcsBufferSize);
+    GcsService gcsService = createGcsService(RetryParams.getDefaultInstance());
+    GcsUtils cloudStorage = new GcsUtils(gcsService, gcsBufferSize);
     RdeCounter counter = new RdeCounter();
 
+    // A duplicate task, or a duplicate job, can run after the deposit was already staged, when its
+    // segments might be gone and the next revision is no longer the right one. The revision is
+    // saved in the same transaction that rolls the cursor forward, so checking the cursor suffices.
+    if (!key.manual() && isAlreadyStaged(key)) {
+      logger.atWarning().log("Deposit has already been staged: %s", key);
+      deleteSegments(gcsService, cloudStorage, segments);
+      return;
+    }
+
     // Determine some basic things about the deposit.
     final RdeMode mode = key.mode();
     final String tld = key.tld();
@@ -145,6 +174,15 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
     boolean failed = false;
     XjcRdeHeader header;
 
+    // A duplicate task of a manual or failed deposit finds the segments deleted. Check before we
+    // start, so that it doesn't overwrite the deposit with a truncated one.
+    for (DepositSegment segment : segments) {
+      checkState(
+          cloudStorage.existsAndNotEmpty(new GcsFilename(bucket, segment.filename())),
+          "Missing segment %s, the deposit might already be staged",
+          segment.filename());
+    }
+
     // Write a gigantic XML file to GCS. We'll start by opening encrypted out/err file handles.
 
     logger.atInfo().log("Writing %s and %s", xmlFilename, xmlLengthFilename);
@@ -153,20 +191,31 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
         OutputStream ghostrydeEncoder = Ghostryde.encoder(gcsOutput, stagingKey, lengthOutput);
         Writer output = new OutputStreamWriter(ghostrydeEncoder, UTF_8)) {
 
-      // Output the top portion of the XML document.
-      output.write(marshaller.makeHeader(id, watermark, RdeResourceType.getUris(mode), revision));
+      // Output the top portion of the XML document, including the deletes of a diff.
+      output.write(
+          marshaller.makeHeader(
+              id,
+              watermark,
+              mode,
+              (mode == RdeMode.DIFF) ? RdeUtil.timestampToId(key.previousWatermark()) : null,
+              RdeResourceType.getUris(mode),
+              revision,
+              segments.stream()
+                  .flatMap(segment -> segment.deletes().stream())
+                  .collect(toImmutableList())));
 
-      // Output XML fragments emitted to us by RdeStagingMapper while counting them.
-      while (fragments.hasNext()) {
-        DepositFragment fragment = fragments.next();
-        if (!fragment.xml().isEmpty()) {
-          output.write(fragment.xml());
-          counter.increment(fragment.type());
-        }
-        if (!fragment.error().isEmpty()) {
-          failed = true;
-          logger.atSevere().log("Fragment error: %s", fragment.error());
+      // Output the XML fragments that RdeStagingMapper wrote to segments, and their counts. The
+      // mapper has already logged the errors of any fragments that failed.
+      output.flush();
+      PGPPrivateKey segmentDecryptionKey = segmentKey.getPrivateKey();
+      for (DepositSegment segment : segments) {
+        try (InputStream gcsInput =
+                cloudStorage.openInputStream(new GcsFilename(bucket, segment.filename()));
+            InputStream ghostrydeDecoder = Ghostryde.decoder(gcsInput, segmentDecryptionKey)) {
+          ByteStreams.copy(ghostrydeDecoder, ghostrydeEncoder);
         }
+        counter.add(segment.counts());
+        failed |= segment.failed();
       }
       for (IdnTableEnum idn : IdnTableEnum.values()) {
         output.write(marshaller.marshalIdn(idn.getTable()));
@@ -184,17 +233,23 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
       throw new RuntimeException(e);
     }
 
-    // If an entity was broken, abort after writing as much logs/deposit data as possible.
+    // If an entity was broken, abort after writing as much logs/deposit data as possible. The
+    // segments won't be needed again, since the deposit can only be retried by a new job.
+    if (failed) {
+      deleteSegments(gcsService, cloudStorage, segments);
+    }
     verify(!failed, "RDE staging failed for TLD %s", tld);
 
     // Write a tiny XML file to GCS containing some information about the deposit.
     //
     // This will be sent to ICANN once we're done uploading the big XML to the escrow provider.
-    if (mode == RdeMode.FULL) {
+    if (mode != RdeMode.THIN) {
       logger.atInfo().log("Writing %s", reportFilename);
       try (OutputStream gcsOutput = cloudStorage.openOutputStream(reportFilename);
           OutputStream ghostrydeEncoder = Ghostryde.encoder(gcsOutput, stagingKey)) {
-        counter.makeReport(id, watermark, header, revision).marshal(ghostrydeEncoder, UTF_8);
+        counter
+            .makeReport(id, watermark, mode, header, revision)
+            .marshal(ghostrydeEncoder, UTF_8);
       } catch (IOException | XmlException e) {
         throw new RuntimeException(e);
       }
@@ -203,8 +258,28 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
     // Now that we're done, kick off RdeUploadAction and roll the cursor forward.
     if (key.manual()) {
       logger.atInfo().log("Manual operation; not advancing cursor or enqueuing upload task");
-      return;
+    } else {
+      rollForwardCursor(key, revision);
     }
+    deleteSegments(gcsService, cloudStorage, segments);
+  }
+
+  /** Returns whether the cursor of a deposit has already been rolled forward past it. */
+  private static boolean isAlreadyStaged(PendingDeposit key) {
+    checkState(key.interval() != null, "Interval must be present");
+    DateTime newPosition = key.watermark().plus(key.interval());
+    return tm().transactNewReadOnly(
+            () -> {
+              Cursor cursor =
+                  ofy().load().key(Cursor.createKey(key.cursor(), Registry.get(key.tld()))).now();
+              return !getCursorTimeOrStartOfTime(cursor).isBefore(newPosition);
+            });
+  }
+
+  private void rollForwardCursor(PendingDeposit key, int revision) {
+    final RdeMode mode = key.mode();
+    final String tld = key.tld();
+    final DateTime watermark = key.watermark();
     tm().transact(
             () -> {
               Registry registry = Registry.get(tld);
@@ -227,20 +302,44 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
               logger.atInfo().log(
                   "Rolled forward %s on %s cursor to %s", key.cursor(), tld, newPosition);
               RdeRevision.saveRevision(tld, watermark, mode, revision);
-              if (mode == RdeMode.FULL) {
-                taskQueueUtils.enqueue(
-                    getQueue("rde-upload"),
-                    withUrl(RdeUploadAction.PATH).param(RequestParameters.PARAM_TLD, tld));
-              } else {
+              if (mode == RdeMode.THIN) {
                 taskQueueUtils.enqueue(
                     getQueue("brda"),
                     withUrl(BrdaCopyAction.PATH)
                         .param(RequestParameters.PARAM_TLD, tld)
                         .param(RdeModule.PARAM_WATERMARK, watermark.toString()));
+              } else {
+                taskQueueUtils.enqueue(
+                    getQueue("rde-upload"),
+                    withUrl(RdeUploadAction.PATH).param(RequestParameters.PARAM_TLD, tld));
               }
             });
   }
 
+  /**
+   * Deletes the segment folder of a deposit, which is no longer needed once it has been written.
+   *
+   * <p>The whole folder is deleted, rather than just the given segments, so that the segments
+   * written by map slices that failed and were retried don't linger.
+   */
+  private void deleteSegments(
+      GcsService gcsService, GcsUtils cloudStorage, ImmutableList<DepositSegment> segments) {
+    ImmutableSet<String> folders =
+        segments.stream()
+            .map(DepositSegment::filename)
+            .map(filename -> filename.substring(0, filename.lastIndexOf('/') + 1))
+            .collect(toImmutableSet());
+    for (String folder : folders) {
+      try {
+        for (String filename : cloudStorage.listFolderObjects(bucket, folder)) {
+          gcsService.delete(new GcsFilename(bucket, folder + filename));
+        }
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Failed to delete segment folder %s", folder);
+      }
+    }
+  }
+
   /** Injectible factory for creating {@link RdeStagingReducer}. */
   static class Factory {
     @Inject TaskQueueUtils taskQueueUtils;
@@ -252,7 +351,7 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
 
     @Inject Factory() {}
 
-    RdeStagingReducer create(ValidationMode validationMode) {
+    RdeStagingReducer create(ValidationMode validationMode, SegmentEncryptionKey segmentKey) {
       return new RdeStagingReducer(
           taskQueueUtils,
           lockHandler,
@@ -260,6 +359,7 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
           bucket,
           lockTimeout,
           stagingKeyBytes,
+          segmentKey,
           validationMode);
     }
   }
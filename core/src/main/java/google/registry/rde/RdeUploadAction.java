@@ -14,6 +14,7 @@
 
 package google.registry.rde;
 
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
 import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
 import static com.google.common.base.Verify.verify;
 import static com.google.common.net.MediaType.PLAIN_TEXT_UTF_8;
@@ -21,7 +22,6 @@ import static com.jcraft.jsch.ChannelSftp.OVERWRITE;
 import static google.registry.model.common.Cursor.CursorType.RDE_UPLOAD_SFTP;
 import static google.registry.model.common.Cursor.getCursorTimeOrStartOfTime;
 import static google.registry.model.ofy.ObjectifyService.ofy;
-import static google.registry.model.rde.RdeMode.FULL;
 import static google.registry.persistence.transaction.TransactionManagerFactory.tm;
 import static google.registry.request.Action.Method.POST;
 import static google.registry.schema.cursor.CursorDao.loadAndCompare;
@@ -42,6 +42,7 @@ import google.registry.gcs.GcsUtils;
 import google.registry.keyring.api.KeyModule.Key;
 import google.registry.model.common.Cursor;
 import google.registry.model.common.Cursor.CursorType;
+import google.registry.model.rde.RdeMode;
 import google.registry.model.rde.RdeNamingUtils;
 import google.registry.model.rde.RdeRevision;
 import google.registry.model.registry.Registry;
@@ -160,9 +161,10 @@ public final class RdeUploadAction implements Runnable, EscrowTask {
               sftpCursorTime,
               timeSinceLastSftp.getStandardMinutes()));
     }
-    int revision = RdeRevision.getNextRevision(tld, watermark, FULL) - 1;
+    RdeMode mode = RdeRevision.getStagedRdeMode(tld, watermark);
+    int revision = RdeRevision.getNextRevision(tld, watermark, mode) - 1;
     verify(revision >= 0, "RdeRevision was not set on generated deposit");
-    final String name = RdeNamingUtils.makeRydeFilename(tld, watermark, FULL, 1, revision);
+    final String name = RdeNamingUtils.makeRydeFilename(tld, watermark, mode, 1, revision);
     final GcsFilename xmlFilename = new GcsFilename(bucket, name + ".xml.ghostryde");
     final GcsFilename xmlLengthFilename = new GcsFilename(bucket, name + ".xml.length");
     GcsFilename reportFilename = new GcsFilename(bucket, name + "-report.xml.ghostryde");
@@ -227,6 +229,7 @@ public final class RdeUploadAction implements Runnable, EscrowTask {
                     .setRydeOutput(teeOutput, receiverKey)
                     .setSignatureOutput(sigOut, signingKey)
                     .setFileMetadata(name, xmlLength, watermark)
+                    .setPipelineThreadFactory(currentRequestThreadFactory())
                     .build()) {
             long bytesCopied = ByteStreams.copy(ghostrydeDecoder, rydeEncoder);
             logger.atInfo().log("uploaded %,d bytes: %s", bytesCopied, rydeFilename);
@@ -21,12 +21,16 @@ import static google.registry.rde.RydeEncryption.openEncryptor;
 import static google.registry.rde.RydeFileEncoding.openPgpFileWriter;
 import static google.registry.rde.RydeTar.openTarWriter;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.Closer;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.security.SecureRandom;
 import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
 import javax.annotation.concurrent.NotThreadSafe;
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPKeyPair;
@@ -48,6 +52,11 @@ import org.joda.time.DateTime;
  *
  * <p>Because of the external tar file encoding - the encoder must know the total length of the data
  * from the start. This is a bit annoying, but necessary.
+ *
+ * <p>By default all the layers run on the writing thread. If given a {@link ThreadFactory},
+ * encryption and signing each run on their own thread instead, connected by {@link
+ * RydePipelineStage}s, so that a large deposit is compressed, encrypted and signed concurrently.
+ * The layers see the same data either way, so this doesn't change the output.
  */
 @NotThreadSafe
 public final class RydeEncoder extends FilterOutputStream {
@@ -65,18 +74,50 @@ public final class RydeEncoder extends FilterOutputStream {
       String filenamePrefix,
       DateTime modified,
       PGPKeyPair signingKey,
-      Collection<PGPPublicKey> receiverKeys) {
+      Collection<PGPPublicKey> receiverKeys,
+      Optional<ThreadFactory> threadFactory,
+      Optional<SecureRandom> random) {
     super(null);
     this.sigOutput = sigOutput;
-    signer = closer.register(new RydePgpSigningOutputStream(checkNotNull(rydeOutput), signingKey));
-    OutputStream encryptLayer =
-        closer.register(openEncryptor(signer, RYDE_USE_INTEGRITY_PACKET, receiverKeys));
-    OutputStream kompressor = closer.register(openCompressor(encryptLayer));
-    OutputStream fileLayer =
-        closer.register(openPgpFileWriter(kompressor, filenamePrefix + ".tar", modified));
-    OutputStream tarLayer =
-        closer.register(openTarWriter(fileLayer, dataLength, filenamePrefix + ".xml", modified));
-    this.out = tarLayer;
+    try {
+      signer =
+          closer.register(new RydePgpSigningOutputStream(checkNotNull(rydeOutput), signingKey));
+      OutputStream signingStage = openStage("signing", signer, threadFactory);
+      OutputStream encryptLayer =
+          closer.register(
+              random.isPresent()
+                  ? openEncryptor(
+                      signingStage, RYDE_USE_INTEGRITY_PACKET, receiverKeys, random.get())
+                  : openEncryptor(signingStage, RYDE_USE_INTEGRITY_PACKET, receiverKeys));
+      OutputStream encryptionStage = openStage("encryption", encryptLayer, threadFactory);
+      OutputStream kompressor = closer.register(openCompressor(encryptionStage));
+      OutputStream fileLayer =
+          closer.register(openPgpFileWriter(kompressor, filenamePrefix + ".tar", modified));
+      OutputStream tarLayer =
+          closer.register(
+              openTarWriter(fileLayer, dataLength, filenamePrefix + ".xml", modified));
+      this.out = tarLayer;
+    } catch (RuntimeException e) {
+      // Make sure the threads of any stages that were already started are stopped.
+      try {
+        closer.close();
+      } catch (IOException | RuntimeException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Returns a stream that writes to {@code os} on its own thread, or {@code os} itself if there's
+   * no {@code threadFactory}.
+   */
+  private OutputStream openStage(
+      String name, OutputStream os, Optional<ThreadFactory> threadFactory) {
+    if (!threadFactory.isPresent()) {
+      return os;
+    }
+    return closer.register(new RydePipelineStage(name, os, threadFactory.get()));
   }
 
   /**
@@ -114,6 +155,8 @@ public final class RydeEncoder extends FilterOutputStream {
     DateTime modified;
     PGPKeyPair signingKey;
     ImmutableList<PGPPublicKey> receiverKeys;
+    Optional<ThreadFactory> threadFactory = Optional.empty();
+    Optional<SecureRandom> random = Optional.empty();
 
     /** Sets the OutputStream for the Ryde-encoded data, and the keys used for the encryption. */
     public Builder setRydeOutput(
@@ -139,6 +182,23 @@ public final class RydeEncoder extends FilterOutputStream {
       return this;
     }
 
+    /**
+     * Sets the factory for the threads that encryption and signing run on.
+     *
+     * <p>If not set, all the encoding is done on the thread writing to the encoder.
+     */
+    public Builder setPipelineThreadFactory(ThreadFactory threadFactory) {
+      this.threadFactory = Optional.of(threadFactory);
+      return this;
+    }
+
+    /** Sets the source of the random bits used by the encryption, so that tests can repeat it. */
+    @VisibleForTesting
+    Builder setSecureRandom(SecureRandom random) {
+      this.random = Optional.of(random);
+      return this;
+    }
+
     /** Returns the built {@link RydeEncoder}. */
     public RydeEncoder build() {
       return new RydeEncoder(
@@ -148,7 +208,9 @@ public final class RydeEncoder extends FilterOutputStream {
           checkNotNull(filenamePrefix, "Must call 'setFileMetadata'"),
           checkNotNull(modified, "Must call 'setFileMetadata'"),
           checkNotNull(signingKey, "Must call 'setSignatureOutput'"),
-          checkNotNull(receiverKeys, "Must call 'setRydeOutput'"));
+          checkNotNull(receiverKeys, "Must call 'setRydeOutput'"),
+          threadFactory,
+          random);
     }
   }
 }
@@ -18,6 +18,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags.AES_128;
 import static org.bouncycastle.jce.provider.BouncyCastleProvider.PROVIDER_NAME;
 
+import com.google.common.annotations.VisibleForTesting;
 import google.registry.util.ImprovedInputStream;
 import google.registry.util.ImprovedOutputStream;
 import java.io.IOException;
@@ -118,19 +119,40 @@ final class RydeEncryption {
       @WillNotClose OutputStream os,
       boolean withIntegrityPacket,
       Collection<PGPPublicKey> receiverKeys) {
+    try {
+      return openEncryptor(
+          os, withIntegrityPacket, receiverKeys, SecureRandom.getInstance(RANDOM_SOURCE));
+    } catch (NoSuchAlgorithmException e) {
+      throw new ProviderException(e);
+    }
+  }
+
+  /**
+   * Creates an OutputStream that encrypts data for the owners of {@code receiverKeys}, with the
+   * session key and padding taken from {@code random}.
+   *
+   * <p>This is only meant for tests that need the same output every time.
+   */
+  @CheckReturnValue
+  @VisibleForTesting
+  static ImprovedOutputStream openEncryptor(
+      @WillNotClose OutputStream os,
+      boolean withIntegrityPacket,
+      Collection<PGPPublicKey> receiverKeys,
+      SecureRandom random) {
     try {
       PGPEncryptedDataGenerator encryptor =
           new PGPEncryptedDataGenerator(
               new JcePGPDataEncryptorBuilder(CIPHER)
                   .setWithIntegrityPacket(withIntegrityPacket)
-                  .setSecureRandom(SecureRandom.getInstance(RANDOM_SOURCE))
+                  .setSecureRandom(random)
                   .setProvider(PROVIDER_NAME));
       checkArgument(!receiverKeys.isEmpty(), "Must give at least one receiver key");
       receiverKeys.forEach(
-          key -> encryptor.addMethod(new JcePublicKeyKeyEncryptionMethodGenerator(key)));
+          key ->
+              encryptor.addMethod(
+                  new JcePublicKeyKeyEncryptionMethodGenerator(key).setSecureRandom(random)));
       return new ImprovedOutputStream("RydeEncryptor", encryptor.open(os, new byte[BUFFER_SIZE]));
-    } catch (NoSuchAlgorithmException e) {
-      throw new ProviderException(e);
     } catch (IOException | PGPException e) {
       throw new RuntimeException(e);
     }
@@ -0,0 +1,236 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rde;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.monitoring.metrics.EventMetric.DEFAULT_FITTER;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSet;
+import com.google.monitoring.metrics.EventMetric;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Stream that hands the data written to it over to another thread, which writes it to the upstream
+ * {@link OutputStream}.
+ *
+ * <p>This lets the layers of {@link RydeEncoder} run concurrently, each on its own core. The data
+ * is passed through a ring of a few fixed size buffers, so a fast layer blocks once it gets too far
+ * ahead of a slow one rather than buffering the whole deposit. The upstream stream sees exactly the
+ * same bytes, in the same order, as if they had been written to it directly.
+ *
+ * <p>Errors on the other thread are rethrown by the next call to {@link #write} or {@link #close}.
+ * Closing this stream waits until all the data has been written, but doesn't close the upstream
+ * stream.
+ */
+@NotThreadSafe
+final class RydePipelineStage extends OutputStream {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int BUFFER_COUNT = 4;
+
+  /** Marks the end of the data. */
+  private static final Chunk END = new Chunk(0);
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(LabelDescriptor.create("stage", "The stage of the RyDE encoder."));
+
+  @VisibleForTesting
+  static final IncrementableMetric bytesWritten =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/rde/ryde/stage_bytes",
+              "Bytes processed by each stage of the pipelined RyDE encoder",
+              "bytes",
+              LABEL_DESCRIPTORS);
+
+  @VisibleForTesting
+  static final EventMetric throughput =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/rde/ryde/stage_throughput",
+              "Throughput of each stage of the pipelined RyDE encoder while it wasn't waiting for"
+                  + " data",
+              "kilobytes/second",
+              LABEL_DESCRIPTORS,
+              DEFAULT_FITTER);
+
+  private final String name;
+  private final OutputStream out;
+  private final BlockingQueue<Chunk> freeChunks = new ArrayBlockingQueue<>(BUFFER_COUNT);
+  // One more than the number of buffers, so there's always room for the END marker.
+  private final BlockingQueue<Chunk> filledChunks = new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+  private final Thread worker;
+  private volatile Throwable failure;
+  private Chunk current;
+  private boolean isClosed = false;
+
+  /**
+   * Creates a stage that writes to {@code out} on a new thread from {@code threadFactory}.
+   *
+   * @param name the name of the stage, used in metrics and error messages
+   * @param out is the upstream {@link OutputStream} which is not closed by this object
+   */
+  RydePipelineStage(String name, @WillNotClose OutputStream out, ThreadFactory threadFactory) {
+    this.name = checkNotNull(name);
+    this.out = checkNotNull(out);
+    for (int i = 0; i < BUFFER_COUNT; i++) {
+      freeChunks.add(new Chunk(BUFFER_SIZE));
+    }
+    worker = threadFactory.newThread(this::drain);
+    checkState(worker != null, "Couldn't create a thread for %s", name);
+    worker.start();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    checkState(!isClosed, "%s is closed", name);
+    while (len > 0) {
+      throwIfFailed();
+      if (current == null) {
+        current = take(freeChunks);
+      }
+      int count = Math.min(len, BUFFER_SIZE - current.length);
+      System.arraycopy(b, off, current.data, current.length, count);
+      current.length += count;
+      off += count;
+      len -= count;
+      if (current.length == BUFFER_SIZE) {
+        put(current);
+        current = null;
+      }
+    }
+  }
+
+  /**
+   * Waits until all the data has been written to the upstream stream.
+   *
+   * <p>There's no {@link #flush} until then, since none of the layers need their data flushed
+   * before they are closed.
+   */
+  @Override
+  public void close() throws IOException {
+    if (isClosed) {
+      return;
+    }
+    isClosed = true;
+    if (current != null) {
+      put(current);
+      current = null;
+    }
+    put(END);
+    try {
+      worker.join();
+    } catch (InterruptedException e) {
+      worker.interrupt();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(String.format("Interrupted waiting for %s", name));
+    }
+    throwIfFailed();
+  }
+
+  /** Writes the handed over data to the upstream stream, until the END marker. */
+  private void drain() {
+    Stopwatch busy = Stopwatch.createUnstarted();
+    long bytes = 0;
+    try {
+      for (Chunk chunk = filledChunks.take(); chunk != END; chunk = filledChunks.take()) {
+        // After a failure, keep recycling the buffers so that the writing thread never blocks.
+        if (failure == null) {
+          busy.start();
+          try {
+            out.write(chunk.data, 0, chunk.length);
+            bytes += chunk.length;
+          } catch (Throwable e) {
+            failure = e;
+          } finally {
+            busy.stop();
+          }
+        }
+        chunk.length = 0;
+        freeChunks.add(chunk);
+      }
+    } catch (InterruptedException e) {
+      if (failure == null) {
+        failure = e;
+      }
+      return;
+    }
+    if (failure == null) {
+      bytesWritten.incrementBy(bytes, name);
+      long busyNanos = busy.elapsed(NANOSECONDS);
+      if (busyNanos > 0) {
+        throughput.record(bytes * 1e9 / 1024 / busyNanos, name);
+      }
+    }
+  }
+
+  private void throwIfFailed() throws IOException {
+    if (failure != null) {
+      throw new IOException(String.format("%s failed", name), failure);
+    }
+  }
+
+  private Chunk take(BlockingQueue<Chunk> queue) throws IOException {
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      throw interrupted();
+    }
+  }
+
+  private void put(Chunk chunk) throws IOException {
+    try {
+      filledChunks.put(chunk);
+    } catch (InterruptedException e) {
+      throw interrupted();
+    }
+  }
+
+  /** Stops the other thread as well, since nothing will be handed over to it anymore. */
+  private InterruptedIOException interrupted() {
+    worker.interrupt();
+    Thread.currentThread().interrupt();
+    return new InterruptedIOException(String.format("Interrupted writing to %s", name));
+  }
+
+  /** A buffer of data handed over to the other thread. */
+  private static final class Chunk {
+    final byte[] data;
+    int length = 0;
+
+    Chunk(int size) {
+      data = new byte[size];
+    }
+  }
+}
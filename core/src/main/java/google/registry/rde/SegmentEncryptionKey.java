@@ -0,0 +1,84 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rde;
+
+import static org.bouncycastle.bcpg.PublicKeyAlgorithmTags.RSA_GENERAL;
+
+import java.io.Serializable;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProviderException;
+import java.util.Date;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair;
+
+/**
+ * Single use key pair that {@link DepositSegment} files are encrypted with.
+ *
+ * <p>The staging reducer has to decrypt the segments to concatenate them, but it is serialized into
+ * the MapReduce state, so it can't hold the staging decryption key from the keyring. Instead each
+ * staging job generates its own key pair, and the segments are deleted once the deposit is staged.
+ */
+final class SegmentEncryptionKey implements Serializable {
+
+  private static final long serialVersionUID = -3346785412990465106L;
+
+  private static final String ALGORITHM = "RSA";
+  private static final int KEY_SIZE = 2048;
+
+  private final KeyPair keyPair;
+  private final Date creationTime;
+
+  private SegmentEncryptionKey(KeyPair keyPair, Date creationTime) {
+    this.keyPair = keyPair;
+    this.creationTime = creationTime;
+  }
+
+  /** Generates a new key pair. */
+  static SegmentEncryptionKey generate() {
+    try {
+      KeyPairGenerator generator = KeyPairGenerator.getInstance(ALGORITHM);
+      generator.initialize(KEY_SIZE);
+      return new SegmentEncryptionKey(generator.generateKeyPair(), new Date());
+    } catch (NoSuchAlgorithmException e) {
+      throw new ProviderException(e);
+    }
+  }
+
+  PGPPublicKey getPublicKey() {
+    return toPgpKeyPair().getPublicKey();
+  }
+
+  PGPPrivateKey getPrivateKey() {
+    return toPgpKeyPair().getPrivateKey();
+  }
+
+  /**
+   * Converts the key pair to its PGP form.
+   *
+   * <p>The PGP key ID depends on the creation time, so it has to be the same every time.
+   */
+  private PGPKeyPair toPgpKeyPair() {
+    try {
+      return new JcaPGPKeyPair(RSA_GENERAL, keyPair, creationTime);
+    } catch (PGPException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -14,6 +14,7 @@
 
 package google.registry.request.lock;
 
+import com.google.common.collect.ImmutableMap;
 import java.io.Serializable;
 import java.util.concurrent.Callable;
 import javax.annotation.Nullable;
@@ -42,4 +43,44 @@ public interface LockHandler extends Serializable {
       @Nullable String tld,
       Duration leaseLength,
       String... lockNames);
+
+  /**
+   * Acquire one or more locks, waiting up to {@code maxWait} for them, and execute a {@link
+   * FencedCallable}.
+   *
+   * <p>Locks held by someone else are retried with exponential backoff until they are free or
+   * {@code maxWait} has passed. The callable runs on a thread that is killed if it doesn't complete
+   * within {@code maxWait} plus {@code leaseLength}, less a few seconds, of this call starting,
+   * however long acquiring the locks took. So locks that are acquired early give the callable more
+   * than {@code leaseLength}, and their leases are renewed while it runs, whereas locks acquired at
+   * the end of {@code maxWait} give it a little less than {@code leaseLength}.
+   *
+   * @return true if all locks were acquired and the callable was run; false otherwise.
+   */
+  boolean executeWithLocks(
+      final FencedCallable callable,
+      @Nullable String tld,
+      Duration leaseLength,
+      Duration maxWait,
+      String... lockNames);
+
+  /**
+   * Returns whether the lock acquisition with the given fencing token still holds the lock.
+   *
+   * <p>This is how a {@link FencedCallable} checks, right before writing to a resource the lock
+   * protects, that it didn't stall past its lease and lose the lock to someone else.
+   */
+  boolean isLockHeld(String lockName, @Nullable String tld, long fencingToken);
+
+  /** Code that is run under locks, and is given the fencing tokens of those locks. */
+  @FunctionalInterface
+  interface FencedCallable {
+
+    /**
+     * Runs the code.
+     *
+     * @param fencingTokens the fencing token of each of the held locks, by lock name
+     */
+    void call(ImmutableMap<String, Long> fencingTokens) throws Exception;
+  }
 }
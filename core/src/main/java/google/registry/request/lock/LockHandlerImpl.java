@@ -14,24 +14,33 @@
 
 package google.registry.request.lock;
 
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Throwables.throwIfUnchecked;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import google.registry.model.server.Lock;
+import google.registry.model.server.LockMetrics;
 import google.registry.util.AppEngineTimeLimiter;
 import google.registry.util.Clock;
 import google.registry.util.RequestStatusChecker;
-import java.util.HashSet;
+import google.registry.util.Sleeper;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import javax.annotation.Nullable;
@@ -48,13 +57,31 @@ public class LockHandlerImpl implements LockHandler {
   /** Fudge factor to make sure we kill threads before a lock actually expires. */
   private static final Duration LOCK_TIMEOUT_FUDGE = Duration.standardSeconds(5);
 
+  /** How long to wait before the first retry of a lock that is held by someone else. */
+  private static final Duration INITIAL_WAIT_BACKOFF = Duration.standardSeconds(1);
+
+  /** The longest to wait between two retries of a lock that is held by someone else. */
+  private static final Duration MAX_WAIT_BACKOFF = Duration.standardSeconds(32);
+
+  /**
+   * How many times the leases are renewed per lease length while the callable runs.
+   *
+   * <p>Renewing more than once per lease length means that a single failed renewal (e.g. due to
+   * Datastore contention) doesn't lose the locks.
+   */
+  private static final int RENEWALS_PER_LEASE = 3;
+
+  private static final LockMetrics lockMetrics = new LockMetrics();
+
   private final RequestStatusChecker requestStatusChecker;
   private final Clock clock;
+  private final Sleeper sleeper;
 
   @Inject
-  public LockHandlerImpl(RequestStatusChecker requestStatusChecker, Clock clock) {
+  public LockHandlerImpl(RequestStatusChecker requestStatusChecker, Clock clock, Sleeper sleeper) {
     this.requestStatusChecker = requestStatusChecker;
     this.clock = clock;
+    this.sleeper = sleeper;
   }
 
   /**
@@ -73,13 +100,39 @@ public class LockHandlerImpl implements LockHandler {
       @Nullable String tld,
       Duration leaseLength,
       String... lockNames) {
+    return executeWithLocks(
+        unusedFencingTokens -> callable.call(), tld, leaseLength, Duration.ZERO, lockNames);
+  }
+
+  /**
+   * Acquire one or more locks, waiting up to {@code maxWait} for them, and execute a {@link
+   * FencedCallable}.
+   *
+   * <p>Thread will be killed if it doesn't complete before {@code maxWait} plus the lease length,
+   * less a fudge factor, has passed since the call started. If the locks are acquired early enough
+   * that a lease would run out before then, the leases are renewed periodically while the callable
+   * runs, so that it never runs without holding the locks. Locks acquired at the end of {@code
+   * maxWait} outlast the thread without renewals. If a lease can't be renewed because someone else
+   * took over the lock, the thread is interrupted.
+   *
+   * @return whether all locks were acquired and the callable was run.
+   */
+  @Override
+  public boolean executeWithLocks(
+      final FencedCallable callable,
+      @Nullable String tld,
+      Duration leaseLength,
+      Duration maxWait,
+      String... lockNames) {
     DateTime startTime = clock.nowUtc();
     String sanitizedTld = Strings.emptyToNull(tld);
+    DateTime deadline = startTime.plus(maxWait).plus(leaseLength).minus(LOCK_TIMEOUT_FUDGE);
     try {
       return AppEngineTimeLimiter.create()
           .callWithTimeout(
-              new LockingCallable(callable, sanitizedTld, leaseLength, lockNames),
-              leaseLength.minus(LOCK_TIMEOUT_FUDGE).getMillis(),
+              new LockingCallable(
+                  callable, sanitizedTld, leaseLength, maxWait, deadline, lockNames),
+              new Duration(startTime, deadline).getMillis(),
               TimeUnit.MILLISECONDS);
     } catch (ExecutionException | UncheckedExecutionException e) {
       // Unwrap the execution exception and throw its root cause.
@@ -102,50 +155,184 @@ public class LockHandlerImpl implements LockHandler {
     }
   }
 
+  @Override
+  public boolean isLockHeld(String lockName, @Nullable String tld, long fencingToken) {
+    return Lock.isHeld(lockName, Strings.emptyToNull(tld), fencingToken);
+  }
+
   /** Allows injection of mock Lock in tests. */
   @VisibleForTesting
   Optional<Lock> acquire(String lockName, @Nullable String tld, Duration leaseLength) {
     return Lock.acquire(lockName, tld, leaseLength, requestStatusChecker, true);
   }
 
-  /** A {@link Callable} that acquires and releases a lock around a delegate {@link Callable}. */
+  /** Allows injection of mock Lock renewals in tests. */
+  @VisibleForTesting
+  Optional<Lock> renew(Lock lock, Duration leaseLength) {
+    return lock.renew(leaseLength);
+  }
+
+  /** Allows injection of a fake executor for the lease renewals in tests. */
+  @VisibleForTesting
+  ScheduledExecutorService createLeaseRenewer() {
+    return Executors.newSingleThreadScheduledExecutor(currentRequestThreadFactory());
+  }
+
+  /**
+   * Tries to acquire a lock until it succeeds or {@code maxWait} has passed, backing off
+   * exponentially between attempts.
+   */
+  private Optional<Lock> acquireWithWait(
+      String lockName, @Nullable String tld, Duration leaseLength, Duration maxWait)
+      throws InterruptedException {
+    DateTime startTime = clock.nowUtc();
+    Duration backoff = INITIAL_WAIT_BACKOFF;
+    while (true) {
+      Optional<Lock> lock = acquire(lockName, tld, leaseLength);
+      Duration waited = new Duration(startTime, clock.nowUtc());
+      Duration remaining = maxWait.minus(waited);
+      if (lock.isPresent() || remaining.getMillis() <= 0) {
+        lockMetrics.recordWait(lockName, tld, waited, lock.isPresent());
+        return lock;
+      }
+      logger.atInfo().log(
+          "Lock named: %s for TLD: %s is in use, retrying in %s", lockName, tld, backoff);
+      sleeper.sleep(backoff.isShorterThan(remaining) ? backoff : remaining);
+      backoff = backoff.plus(backoff);
+      if (backoff.isLongerThan(MAX_WAIT_BACKOFF)) {
+        backoff = MAX_WAIT_BACKOFF;
+      }
+    }
+  }
+
+  /**
+   * A {@link Callable} that acquires and releases a lock around a delegate {@link FencedCallable}.
+   */
   private class LockingCallable implements Callable<Boolean> {
-    final Callable<Void> delegate;
+    final FencedCallable delegate;
     @Nullable final String tld;
     final Duration leaseLength;
+    final Duration maxWait;
+    /** When the callable is killed if it hasn't finished yet. */
+    final DateTime deadline;
     final Set<String> lockNames;
 
+    /**
+     * The currently held locks, by name.
+     *
+     * <p>Renewals replace the locks in this map, since only the latest renewed lock can be
+     * released.
+     */
+    final Map<String, Lock> acquiredLocks = new ConcurrentHashMap<>();
+
     LockingCallable(
-        Callable<Void> delegate, String tld, Duration leaseLength, String... lockNames) {
+        FencedCallable delegate,
+        String tld,
+        Duration leaseLength,
+        Duration maxWait,
+        DateTime deadline,
+        String... lockNames) {
       checkArgument(leaseLength.isLongerThan(LOCK_TIMEOUT_FUDGE));
+      checkArgument(maxWait.getMillis() >= 0, "maxWait cannot be negative");
       this.delegate = delegate;
       this.tld = tld;
       this.leaseLength = leaseLength;
+      this.maxWait = maxWait;
+      this.deadline = deadline;
       // Make sure we join locks in a fixed (lexicographical) order to avoid deadlock.
       this.lockNames = ImmutableSortedSet.copyOf(lockNames);
     }
 
     @Override
     public Boolean call() throws Exception {
-      Set<Lock> acquiredLocks = new HashSet<>();
+      ScheduledExecutorService leaseRenewer = null;
       try {
+        DateTime startTime = clock.nowUtc();
         for (String lockName : lockNames) {
-          Optional<Lock> lock = acquire(lockName, tld, leaseLength);
+          // The wait is shared by all the locks, rather than applying to each one separately.
+          Duration remainingWait = maxWait.minus(new Duration(startTime, clock.nowUtc()));
+          Optional<Lock> lock =
+              acquireWithWait(
+                  lockName,
+                  tld,
+                  leaseLength,
+                  remainingWait.getMillis() > 0 ? remainingWait : Duration.ZERO);
           if (!lock.isPresent()) {
             logger.atInfo().log("Couldn't acquire lock named: %s for TLD: %s", lockName, tld);
             return false;
           }
           logger.atInfo().log("Acquired lock: %s", lock);
-          acquiredLocks.add(lock.get());
+          acquiredLocks.put(lockName, lock.get());
+          // The first lock acquired is the first to expire. If it would expire before the deadline,
+          // start renewing right away, so that it doesn't expire while waiting for the others.
+          if (leaseRenewer == null && clock.nowUtc().plus(leaseLength).isBefore(deadline)) {
+            leaseRenewer = startLeaseRenewals();
+          }
         }
-        delegate.call();
+        delegate.call(
+            acquiredLocks.entrySet().stream()
+                .collect(
+                    toImmutableMap(
+                        Map.Entry::getKey, entry -> entry.getValue().getFencingToken())));
         return true;
       } finally {
-        for (Lock lock : acquiredLocks) {
+        if (leaseRenewer != null) {
+          // Let an ongoing renewal finish, so that we release the lock it renewed.
+          MoreExecutors.shutdownAndAwaitTermination(
+              leaseRenewer, LOCK_TIMEOUT_FUDGE.getMillis(), TimeUnit.MILLISECONDS);
+        }
+        for (Lock lock : acquiredLocks.values()) {
           lock.release();
           logger.atInfo().log("Released lock: %s", lock);
         }
       }
     }
+
+    /** Renews the leases of the held locks a few times per lease length on a separate thread. */
+    private ScheduledExecutorService startLeaseRenewals() {
+      long renewalPeriodMillis = leaseLength.getMillis() / RENEWALS_PER_LEASE;
+      ScheduledExecutorService leaseRenewer = createLeaseRenewer();
+      Future<?> unusedFuture =
+          leaseRenewer.scheduleAtFixedRate(
+              new LeaseRenewal(Thread.currentThread()),
+              renewalPeriodMillis,
+              renewalPeriodMillis,
+              TimeUnit.MILLISECONDS);
+      return leaseRenewer;
+    }
+
+    /** Renews the leases of all held locks, interrupting the worker if one of them was lost. */
+    private class LeaseRenewal implements Runnable {
+      final Thread worker;
+
+      LeaseRenewal(Thread worker) {
+        this.worker = worker;
+      }
+
+      @Override
+      public void run() {
+        for (Map.Entry<String, Lock> entry : acquiredLocks.entrySet()) {
+          Optional<Lock> renewedLock;
+          try {
+            renewedLock = renew(entry.getValue(), leaseLength);
+          } catch (RuntimeException e) {
+            // The lease is still valid for a while, so leave it to the next renewal.
+            logger.atWarning().withCause(e).log("Failed to renew lock: %s", entry.getValue());
+            continue;
+          }
+          if (renewedLock.isPresent()) {
+            entry.setValue(renewedLock.get());
+          } else {
+            logger.atSevere().log(
+                "Lost lock named: %s for TLD: %s, interrupting the work done under it",
+                entry.getKey(), tld);
+            acquiredLocks.remove(entry.getKey());
+            worker.interrupt();
+            // Throwing cancels all further renewals.
+            throw new IllegalStateException("Lost lock: " + entry.getKey());
+          }
+        }
+      }
+    }
   }
 }
@@ -62,7 +62,7 @@ final class GenerateEscrowDepositCommand implements CommandWithRemoteApi {
 
   @Parameter(
       names = {"-m", "--mode"},
-      description = "Mode of operation: FULL for RDE deposits, THIN for BRDA deposits.")
+      description = "Mode of operation: FULL or DIFF for RDE deposits, THIN for BRDA deposits.")
   private RdeMode mode = RdeMode.FULL;
 
   @Parameter(
@@ -15,45 +15,55 @@
 package google.registry.tools.server;
 
 import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.Iterators.filter;
 import static com.google.common.io.BaseEncoding.base16;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
 import static google.registry.model.EppResourceUtils.loadAtPointInTime;
-import static google.registry.persistence.transaction.TransactionManagerFactory.tm;
 import static google.registry.request.Action.Method.POST;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.joda.time.DateTimeZone.UTC;
 
 import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.appengine.tools.cloudstorage.RetryParams;
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.io.ByteStreams;
+import com.googlecode.objectify.Result;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.gcs.GcsUtils;
 import google.registry.mapreduce.MapreduceRunner;
 import google.registry.mapreduce.inputs.NullInput;
 import google.registry.model.EppResource;
+import google.registry.model.ProjectedResourceCache;
 import google.registry.model.domain.DomainBase;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.host.HostResource;
+import google.registry.persistence.VKey;
 import google.registry.request.Action;
 import google.registry.request.HttpException.BadRequestException;
 import google.registry.request.JsonActionRunner;
 import google.registry.request.auth.Auth;
 import google.registry.util.Clock;
+import google.registry.util.NonFinalForTesting;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.Writer;
 import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -67,6 +77,12 @@ import org.joda.time.Duration;
  * <p>Zone files for each requested TLD are written to GCS. TLDs without entries produce zone files
  * with only a header. The export time must be at least two minutes in the past and no more than 29
  * days in the past, and must be at midnight UTC.
+ *
+ * <p>The stanzas don't go through the shuffle. Each slice of each map shard writes the stanzas of
+ * every requested TLD it comes across straight to a part file of its own, and only the names of
+ * the parts are shuffled. The reducer of each TLD then concatenates its parts into the zone file.
+ * There is at most one part per TLD for each slice of each shard, and a slice only has the parts
+ * of the requested TLDs open at once.
  */
 @Action(
     service = Action.Service.TOOLS,
@@ -80,6 +96,9 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   /** Format for the zone file name. */
   private static final String FILENAME_FORMAT = "%s-%s.zone";
 
+  /** Format for the name of a part of a zone file, by job, TLD, export time, shard and slice. */
+  private static final String PART_FILENAME_FORMAT = "zone-parts/%s/%s-%s/%d-%d.txt";
+
   /** Format for the GCS path to a file. */
   private static final String GCS_PATH_FORMAT = "gs://%s/%s";
 
@@ -139,7 +158,7 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
             .setDefaultReduceShards(tlds.size())
             .runMapreduce(
                 new GenerateBindFileMapper(
-                    tlds, exportTime, dnsDefaultATtl, dnsDefaultNsTtl, dnsDefaultDsTtl),
+                    tlds, exportTime, bucket, dnsDefaultATtl, dnsDefaultNsTtl, dnsDefaultDsTtl),
                 new GenerateBindFileReducer(bucket, exportTime, gcsBufferSize),
                 ImmutableList.of(new NullInput<>(), createEntityInput(DomainBase.class)))
             .getLinkToMapreduceConsole();
@@ -155,85 +174,210 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
         "filenames", filenames);
   }
 
-  /** Mapper to find domains that were active at a given time. */
+  /**
+   * Mapper to find domains that were active at a given time, and write their stanzas to parts.
+   *
+   * <p>The domains of a slice are projected to the export time a batch at a time, and the
+   * nameservers of each batch are loaded at once, so that domains don't load their nameservers one
+   * at a time. Nameservers are shared by many domains, so their projections to the export time are
+   * kept in a bounded cache for the duration of the slice.
+   *
+   * <p>Parts are named after the job, shard and slice, so a slice that's retried overwrites the
+   * parts of its failed attempt, whose names were never committed to the shuffle.
+   */
   static class GenerateBindFileMapper extends Mapper<EppResource, String, String> {
 
     private static final long serialVersionUID = 4647941823789859913L;
 
+    /** Number of domains to project and emit the stanzas of at a time. */
+    @NonFinalForTesting private static int batchSize = 500;
+
+    /** Maximum number of nameservers projected to the export time to keep within a slice. */
+    private static final int NAMESERVER_CACHE_SIZE = 10000;
+
     private final ImmutableSet<String> tlds;
     private final DateTime exportTime;
+    private final String bucket;
     private final Duration dnsDefaultATtl;
     private final Duration dnsDefaultNsTtl;
     private final Duration dnsDefaultDsTtl;
 
+    /** Number of the current slice of this shard, which is restored along with the mapper. */
+    private int sliceNumber = 0;
+
+    // These only exist for the duration of a slice.
+    private transient GcsUtils cloudStorage;
+    private transient Map<String, PrintWriter> partWriters;
+    private transient List<DomainBase> pendingDomains;
+    private transient ProjectedResourceCache<HostResource> nameservers;
+
     GenerateBindFileMapper(
         ImmutableSet<String> tlds,
         DateTime exportTime,
+        String bucket,
         Duration dnsDefaultATtl,
         Duration dnsDefaultNsTtl,
         Duration dnsDefaultDsTtl) {
       this.tlds = tlds;
       this.exportTime = exportTime;
+      this.bucket = bucket;
       this.dnsDefaultATtl = dnsDefaultATtl;
       this.dnsDefaultNsTtl = dnsDefaultNsTtl;
       this.dnsDefaultDsTtl = dnsDefaultDsTtl;
     }
 
+    @Override
+    public void beginSlice() {
+      sliceNumber++;
+      // The buffer size is only used for reading, which we don't do.
+      cloudStorage = new GcsUtils(createGcsService(RetryParams.getDefaultInstance()), 0);
+      partWriters = new HashMap<>();
+      pendingDomains = new ArrayList<>();
+      nameservers = ProjectedResourceCache.create(NAMESERVER_CACHE_SIZE);
+    }
+
+    @Override
+    public void endSlice() {
+      writePendingDomains();
+      for (Map.Entry<String, PrintWriter> entry : partWriters.entrySet()) {
+        // Closing the writer commits the part, so that it can be named in the shuffle.
+        entry.getValue().close();
+        checkState(!entry.getValue().checkError(), "Failed to write part of %s", entry.getKey());
+        emit(entry.getKey(), getPartFilename(entry.getKey()));
+      }
+      getContext().incrementCounter("parts written", partWriters.size());
+      CacheStats stats = nameservers.stats();
+      getContext().incrementCounter("nameserver cache hits", stats.hitCount());
+      getContext().incrementCounter("nameserver cache misses", stats.missCount());
+      partWriters = null;
+      pendingDomains = null;
+      nameservers = null;
+    }
+
     @Override
     public void map(EppResource resource) {
       if (resource == null) {  // Force the reducer to always generate a bind header for each tld.
         for (String tld : tlds) {
           emit(tld, null);
         }
-      } else {
-        mapDomain((DomainBase) resource);
+        return;
+      }
+      DomainBase domain = (DomainBase) resource;
+      // Domains never change their tld, so we can check if it's from the wrong tld right away.
+      if (tlds.contains(domain.getTld())) {
+        pendingDomains.add(domain);
+        if (pendingDomains.size() >= batchSize) {
+          writePendingDomains();
+        }
       }
     }
 
+    /** Writes the stanzas of the pending domains and their glue records, as of the export time. */
+    private void writePendingDomains() {
+      if (pendingDomains.isEmpty()) {
+        return;
+      }
+      // Start all point-in-time loads before waiting for any of them.
+      ImmutableList<Result<DomainBase>> domainResults =
+          pendingDomains.stream()
+              .map(domain -> loadAtPointInTime(domain, exportTime))
+              .collect(toImmutableList());
+      pendingDomains.clear();
+      // A null means the domain was deleted (or not created) at this time.
+      ImmutableList<DomainBase> domains =
+          domainResults.stream()
+              .map(Result::now)
+              .filter(domain -> domain != null && domain.shouldPublishToDns())
+              .collect(toImmutableList());
+      nameservers.prefetch(
+          domains.stream()
+              .flatMap(domain -> domain.getNameservers().stream())
+              .map(VKey::getOfyKey)
+              .collect(toImmutableSet()),
+          ImmutableSet.of(exportTime));
+      for (DomainBase domain : domains) {
+        writeDomain(domain);
+      }
+    }
+
+    private String getPartFilename(String tld) {
+      return String.format(
+          PART_FILENAME_FORMAT,
+          getContext().getJobId(),
+          tld,
+          exportTime,
+          getContext().getShardNumber(),
+          sliceNumber);
+    }
+
+    /** Returns the writer of the part of the current slice for a TLD, opening it if necessary. */
+    private PrintWriter getPartWriter(String tld) {
+      return partWriters.computeIfAbsent(
+          tld,
+          key -> {
+            try {
+              return new PrintWriter(
+                  new OutputStreamWriter(
+                      cloudStorage.openOutputStream(
+                          new GcsFilename(bucket, getPartFilename(key))),
+                      UTF_8));
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          });
+    }
+
     // Originally, we mapped over domains and hosts separately, emitting the necessary information
     // for each. But that doesn't work. All subordinate hosts in the specified TLD(s) would always
     // be emitted in the final file, which is incorrect. Rather, to match the actual DNS glue
     // records, we only want to emit host information for in-bailiwick hosts in the specified
     // TLD(s), meaning those that act as nameservers for their respective superordinate domains.
-    private void mapDomain(DomainBase domain) {
-      // Domains never change their tld, so we can check if it's from the wrong tld right away.
-      if (tlds.contains(domain.getTld())) {
-        domain = loadAtPointInTime(domain, exportTime).now();
-        // A null means the domain was deleted (or not created) at this time.
-        if (domain != null && domain.shouldPublishToDns()) {
-          String stanza = domainStanza(domain, exportTime, dnsDefaultNsTtl, dnsDefaultDsTtl);
-          if (!stanza.isEmpty()) {
-            emit(domain.getTld(), stanza);
-            getContext().incrementCounter(domain.getTld() + " domains");
-          }
-          emitForSubordinateHosts(domain);
-        }
+    private void writeDomain(DomainBase domain) {
+      ImmutableList<HostResource> domainNameservers =
+          domain.getNameservers().stream()
+              .map(
+                  key -> {
+                    // Load the nameservers at the export time in case they've been renamed.
+                    HostResource host = nameservers.get(key.getOfyKey(), exportTime);
+                    checkState(
+                        host != null,
+                        "Nameserver %s of %s doesn't exist at %s",
+                        key,
+                        domain.getFullyQualifiedDomainName(),
+                        exportTime);
+                    return host;
+                  })
+              .collect(toImmutableList());
+      String stanza = domainStanza(domain, domainNameservers, dnsDefaultNsTtl, dnsDefaultDsTtl);
+      if (!stanza.isEmpty()) {
+        getPartWriter(domain.getTld()).println(stanza);
+        getContext().incrementCounter(domain.getTld() + " domains");
       }
-    }
-
-    private void emitForSubordinateHosts(DomainBase domain) {
       ImmutableSet<String> subordinateHosts = domain.getSubordinateHosts();
-      if (!subordinateHosts.isEmpty()) {
-        for (HostResource unprojectedHost : tm().load(domain.getNameservers())) {
-          HostResource host = loadAtPointInTime(unprojectedHost, exportTime).now();
-          // A null means the host was deleted (or not created) at this time.
-          if ((host != null) && subordinateHosts.contains(host.getFullyQualifiedHostName())) {
-            String stanza = hostStanza(host, dnsDefaultATtl, domain.getTld());
-            if (!stanza.isEmpty()) {
-              emit(domain.getTld(), stanza);
-              getContext().incrementCounter(domain.getTld() + " hosts");
-            }
+      for (HostResource host : domainNameservers) {
+        if (subordinateHosts.contains(host.getFullyQualifiedHostName())) {
+          String hostStanza = hostStanza(host, dnsDefaultATtl, domain.getTld());
+          if (!hostStanza.isEmpty()) {
+            getPartWriter(domain.getTld()).println(hostStanza);
+            getContext().incrementCounter(domain.getTld() + " hosts");
           }
         }
       }
     }
   }
 
-  /** Reducer to write zone files to GCS. */
+  /**
+   * Reducer to write zone files to GCS.
+   *
+   * <p>This writes the header of the zone file, then concatenates the parts of its TLD, which are
+   * deleted once the zone file has been written.
+   */
   static class GenerateBindFileReducer extends Reducer<String, String, Void> {
 
     private static final long serialVersionUID = -8489050680083119352L;
 
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
     private final String bucket;
     private final DateTime exportTime;
     private final int gcsBufferSize;
@@ -245,25 +389,32 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
     }
 
     @Override
-    public void reduce(String tld, ReducerInput<String> stanzas) {
-      String stanzaCounter = tld + " stanzas";
+    public void reduce(String tld, ReducerInput<String> partFilenames) {
       GcsFilename filename =
           new GcsFilename(bucket, String.format(FILENAME_FORMAT, tld, exportTime));
-      GcsUtils cloudStorage =
-          new GcsUtils(createGcsService(RetryParams.getDefaultInstance()), gcsBufferSize);
-      try (OutputStream gcsOutput = cloudStorage.openOutputStream(filename);
-          Writer osWriter = new OutputStreamWriter(gcsOutput, UTF_8);
-          PrintWriter writer = new PrintWriter(osWriter)) {
-        writer.printf(HEADER_FORMAT, tld);
-        for (Iterator<String> stanzaIter = filter(stanzas, Objects::nonNull);
-            stanzaIter.hasNext(); ) {
-          writer.println(stanzaIter.next());
-          getContext().incrementCounter(stanzaCounter);
+      GcsService gcsService = createGcsService(RetryParams.getDefaultInstance());
+      GcsUtils cloudStorage = new GcsUtils(gcsService, gcsBufferSize);
+      // The null input emits a null for each TLD, so that TLDs without domains get a header.
+      ImmutableList<String> parts =
+          ImmutableList.copyOf(filter(partFilenames, Objects::nonNull));
+      try (OutputStream gcsOutput = cloudStorage.openOutputStream(filename)) {
+        gcsOutput.write(String.format(HEADER_FORMAT, tld).getBytes(UTF_8));
+        for (String part : parts) {
+          try (InputStream gcsInput = cloudStorage.openInputStream(new GcsFilename(bucket, part))) {
+            ByteStreams.copy(gcsInput, gcsOutput);
+          }
         }
-        writer.flush();
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
+      getContext().incrementCounter(tld + " parts", parts.size());
+      for (String part : parts) {
+        try {
+          gcsService.delete(new GcsFilename(bucket, part));
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("Failed to delete part %s", part);
+        }
+      }
     }
   }
 
@@ -278,18 +429,17 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
    */
   private static String domainStanza(
       DomainBase domain,
-      DateTime exportTime,
+      ImmutableList<HostResource> nameservers,
       Duration dnsDefaultNsTtl,
       Duration dnsDefaultDsTtl) {
     StringBuilder result = new StringBuilder();
     String domainLabel = stripTld(domain.getFullyQualifiedDomainName(), domain.getTld());
-    for (HostResource nameserver : tm().load(domain.getNameservers())) {
+    for (HostResource nameserver : nameservers) {
       result.append(String.format(
           NS_FORMAT,
           domainLabel,
           dnsDefaultNsTtl.getStandardSeconds(),
-          // Load the nameservers at the export time in case they've been renamed or deleted.
-          loadAtPointInTime(nameserver, exportTime).now().getFullyQualifiedHostName()));
+          nameserver.getFullyQualifiedHostName()));
     }
     for (DelegationSignerData dsData : domain.getDsData()) {
       result.append(
@@ -73,6 +73,28 @@ final class DomainWhoisResponse extends WhoisResponseImpl {
 
   @Override
   public WhoisResponseResults getResponse(final boolean preferUnicode, String disclaimer) {
+    String fields =
+        DomainWhoisResponseCache.getFields(
+            domain,
+            fullOutput,
+            whoisRedactedEmailText,
+            preferUnicode,
+            () -> emitFields(preferUnicode));
+    return WhoisResponseResults.create(
+        new DomainEmitter()
+            .emitRendered(fields)
+            .emitLastUpdated(getTimestamp())
+            .emitAwipMessage()
+            .emitFooter(disclaimer)
+            .toString(),
+        1);
+  }
+
+  /**
+   * Returns the fields of the response that only depend on the domain and its linked resources,
+   * i.e. everything but the timestamp of the response and the footer.
+   */
+  private String emitFields(boolean preferUnicode) {
     Optional<Registrar> registrarOptional =
         Registrar.loadByClientIdCached(domain.getCurrentSponsorClientId());
     checkState(
@@ -86,45 +108,40 @@ final class DomainWhoisResponse extends WhoisResponseImpl {
             .stream()
             .filter(RegistrarContact::getVisibleInDomainWhoisAsAbuse)
             .findFirst();
-    return WhoisResponseResults.create(
-        new DomainEmitter()
-            .emitField(
-                "Domain Name",
-                maybeFormatHostname(domain.getFullyQualifiedDomainName(), preferUnicode))
-            .emitField("Registry Domain ID", domain.getRepoId())
-            .emitField("Registrar WHOIS Server", registrar.getWhoisServer())
-            .emitField("Registrar URL", registrar.getUrl())
-            .emitFieldIfDefined("Updated Date", getFormattedString(domain.getLastEppUpdateTime()))
-            .emitField("Creation Date", getFormattedString(domain.getCreationTime()))
-            .emitField(
-                "Registry Expiry Date", getFormattedString(domain.getRegistrationExpirationTime()))
-            .emitField("Registrar", registrar.getRegistrarName())
-            .emitField("Registrar IANA ID", Objects.toString(registrar.getIanaIdentifier(), ""))
-            // Email address is a required field for registrar contacts. Therefore as long as there
-            // is an abuse contact, we can get an email address from it.
-            .emitField(
-                "Registrar Abuse Contact Email",
-                abuseContact.map(RegistrarContact::getEmailAddress).orElse(""))
-            .emitField(
-                "Registrar Abuse Contact Phone",
-                abuseContact.map(RegistrarContact::getPhoneNumber).orElse(""))
-            .emitStatusValues(domain.getStatusValues(), domain.getGracePeriods())
-            .emitContact("Registrant", Optional.of(domain.getRegistrant()), preferUnicode)
-            .emitContact("Admin", getContactReference(Type.ADMIN), preferUnicode)
-            .emitContact("Tech", getContactReference(Type.TECH), preferUnicode)
-            .emitContact("Billing", getContactReference(Type.BILLING), preferUnicode)
-            .emitSet(
-                "Name Server",
-                domain.loadNameserverFullyQualifiedHostNames(),
-                hostName -> maybeFormatHostname(hostName, preferUnicode))
-            .emitField(
-                "DNSSEC", isNullOrEmpty(domain.getDsData()) ? "unsigned" : "signedDelegation")
-            .emitWicfLink()
-            .emitLastUpdated(getTimestamp())
-            .emitAwipMessage()
-            .emitFooter(disclaimer)
-            .toString(),
-        1);
+    return new DomainEmitter()
+        .emitField(
+            "Domain Name",
+            maybeFormatHostname(domain.getFullyQualifiedDomainName(), preferUnicode))
+        .emitField("Registry Domain ID", domain.getRepoId())
+        .emitField("Registrar WHOIS Server", registrar.getWhoisServer())
+        .emitField("Registrar URL", registrar.getUrl())
+        .emitFieldIfDefined("Updated Date", getFormattedString(domain.getLastEppUpdateTime()))
+        .emitField("Creation Date", getFormattedString(domain.getCreationTime()))
+        .emitField(
+            "Registry Expiry Date", getFormattedString(domain.getRegistrationExpirationTime()))
+        .emitField("Registrar", registrar.getRegistrarName())
+        .emitField("Registrar IANA ID", Objects.toString(registrar.getIanaIdentifier(), ""))
+        // Email address is a required field for registrar contacts. Therefore as long as there
+        // is an abuse contact, we can get an email address from it.
+        .emitField(
+            "Registrar Abuse Contact Email",
+            abuseContact.map(RegistrarContact::getEmailAddress).orElse(""))
+        .emitField(
+            "Registrar Abuse Contact Phone",
+            abuseContact.map(RegistrarContact::getPhoneNumber).orElse(""))
+        .emitStatusValues(domain.getStatusValues(), domain.getGracePeriods())
+        .emitContact("Registrant", Optional.of(domain.getRegistrant()), preferUnicode)
+        .emitContact("Admin", getContactReference(Type.ADMIN), preferUnicode)
+        .emitContact("Tech", getContactReference(Type.TECH), preferUnicode)
+        .emitContact("Billing", getContactReference(Type.BILLING), preferUnicode)
+        .emitSet(
+            "Name Server",
+            domain.loadNameserverFullyQualifiedHostNames(),
+            hostName -> maybeFormatHostname(hostName, preferUnicode))
+        .emitField(
+            "DNSSEC", isNullOrEmpty(domain.getDsData()) ? "unsigned" : "signedDelegation")
+        .emitWicfLink()
+        .toString();
   }
 
   /** Returns the contact of the given type. */
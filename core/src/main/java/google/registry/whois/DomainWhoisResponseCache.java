@@ -0,0 +1,177 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.whois;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static google.registry.config.RegistryConfig.getWhoisResponseCacheMaxBytes;
+import static google.registry.config.RegistryConfig.getWhoisResponseCachingDuration;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.domain.GracePeriod;
+import google.registry.model.domain.rgp.GracePeriodStatus;
+import google.registry.model.eppcommon.StatusValue;
+import google.registry.util.NonFinalForTesting;
+import java.util.Optional;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * An in-memory cache of the rendered fields of WHOIS domain responses.
+ *
+ * <p>Scrapers query the same popular domains over and over, and rendering a domain response loads
+ * its registrar, contacts and nameservers every time. This caches the rendered text, keyed by the
+ * domain's update timestamp and the fields that projecting it to the query time can change, so a
+ * new version of the domain is never served stale output. Changes to the linked resources show up
+ * within {@code caching.whoisResponseCachingSeconds}, as they already do through the EPP resource
+ * and registrar caches.
+ *
+ * <p>The size of the cache is bounded by the total size of the cached text rather than by the
+ * number of entries, since full output responses are much larger than redacted ones.
+ */
+final class DomainWhoisResponseCache {
+
+  /** Possible outcomes of looking up a response in the cache. */
+  enum RequestOutcome {
+    HIT,
+    MISS
+  }
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("outcome", "Whether the response was already cached."));
+
+  @VisibleForTesting
+  static final IncrementableMetric requests =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/whois/response_cache/requests",
+              "Count of WHOIS domain responses requested from the response cache",
+              "count",
+              LABEL_DESCRIPTORS);
+
+  @NonFinalForTesting
+  private static Optional<Cache<CacheKey, String>> cacheResponses =
+      createCache(getWhoisResponseCachingDuration());
+
+  private DomainWhoisResponseCache() {}
+
+  private static Optional<Cache<CacheKey, String>> createCache(Duration expiry) {
+    if (expiry.getMillis() <= 0) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(expiry.getMillis(), MILLISECONDS)
+            .maximumWeight(getWhoisResponseCacheMaxBytes())
+            // Java strings take two bytes per char, plus a small overhead that we don't count.
+            .weigher((CacheKey key, String value) -> 2 * value.length())
+            .build());
+  }
+
+  @VisibleForTesting
+  static void setCacheForTest(Optional<Duration> expiry) {
+    cacheResponses = createCache(expiry.orElse(getWhoisResponseCachingDuration()));
+  }
+
+  /**
+   * Returns the rendered fields of the response for {@code domain}, rendering them with {@code
+   * renderer} if they aren't cached.
+   */
+  static String getFields(
+      DomainBase domain,
+      boolean fullOutput,
+      String whoisRedactedEmailText,
+      boolean preferUnicode,
+      Supplier<String> renderer) {
+    if (!cacheResponses.isPresent()) {
+      return renderer.get();
+    }
+    CacheKey key = CacheKey.create(domain, fullOutput, whoisRedactedEmailText, preferUnicode);
+    String fields = cacheResponses.get().getIfPresent(key);
+    if (fields != null) {
+      requests.increment(RequestOutcome.HIT.name());
+      return fields;
+    }
+    requests.increment(RequestOutcome.MISS.name());
+    // Concurrent misses for the same key may both render the response, which is harmless.
+    fields = renderer.get();
+    cacheResponses.get().put(key, fields);
+    return fields;
+  }
+
+  /**
+   * The version of a domain, and the output options, that a rendered response is valid for.
+   *
+   * <p>Besides the update timestamp, this includes the rendered fields that {@link
+   * DomainBase#cloneProjectedAtTime} can change without the domain being saved, such as statuses
+   * and grace periods that resolve or expire over time.
+   */
+  @AutoValue
+  abstract static class CacheKey {
+
+    abstract String domainName();
+
+    abstract String repoId();
+
+    abstract DateTime updateTimestamp();
+
+    @Nullable
+    abstract DateTime lastEppUpdateTime();
+
+    abstract DateTime registrationExpirationTime();
+
+    abstract String currentSponsorClientId();
+
+    abstract ImmutableSet<StatusValue> statusValues();
+
+    abstract ImmutableSet<GracePeriodStatus> gracePeriodStatuses();
+
+    abstract boolean fullOutput();
+
+    abstract String whoisRedactedEmailText();
+
+    abstract boolean preferUnicode();
+
+    static CacheKey create(
+        DomainBase domain,
+        boolean fullOutput,
+        String whoisRedactedEmailText,
+        boolean preferUnicode) {
+      return new AutoValue_DomainWhoisResponseCache_CacheKey(
+          domain.getFullyQualifiedDomainName(),
+          domain.getRepoId(),
+          domain.getUpdateAutoTimestamp().getTimestamp(),
+          domain.getLastEppUpdateTime(),
+          domain.getRegistrationExpirationTime(),
+          domain.getCurrentSponsorClientId(),
+          domain.getStatusValues(),
+          domain.getGracePeriods().stream().map(GracePeriod::getType).collect(toImmutableSet()),
+          fullOutput,
+          whoisRedactedEmailText,
+          preferUnicode);
+    }
+  }
+}
@@ -15,14 +15,12 @@
 package google.registry.whois;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.collect.ImmutableList.toImmutableList;
-import static google.registry.model.EppResourceUtils.queryNotDeleted;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Streams;
 import com.google.common.net.InternetDomainName;
+import google.registry.model.host.HostInetAddressIndex;
 import google.registry.model.host.HostResource;
 import google.registry.model.registry.Registries;
 import java.net.InetAddress;
@@ -32,7 +30,7 @@ import org.joda.time.DateTime;
  * Represents a WHOIS lookup for a nameserver based on its IP.
  *
  * <p>Both IPv4 and IPv6 addresses are supported. Unlike other WHOIS commands, this is an eventually
- * consistent query.
+ * consistent query, answered from the {@link HostInetAddressIndex}.
  *
  * <p><b>Note:</b> There may be multiple nameservers with the same IP.
  */
@@ -48,13 +46,15 @@ final class NameserverLookupByIpCommand implements WhoisCommand {
   @Override
   public WhoisResponse executeQuery(DateTime now) throws WhoisException {
     ImmutableList<HostResource> hosts =
-        Streams.stream(queryNotDeleted(HostResource.class, now, "inetAddresses", ipAddress))
-            .filter(
+        HostInetAddressIndex.loadActiveHosts(
+                ipAddress,
+                now,
                 host ->
                     Registries.findTldForName(
                             InternetDomainName.from(host.getFullyQualifiedHostName()))
-                        .isPresent())
-            .collect(toImmutableList());
+                        .isPresent(),
+                Integer.MAX_VALUE)
+            .hosts();
     if (hosts.isEmpty()) {
       throw new WhoisException(now, SC_NOT_FOUND, "No nameservers found.");
     }
@@ -223,6 +223,12 @@ abstract class WhoisResponseImpl implements WhoisResponse {
       return thisCastToDerived();
     }
 
+    /** Emits output that was already rendered by another emitter, as is. */
+    E emitRendered(String output) {
+      stringBuilder.append(output);
+      return thisCastToDerived();
+    }
+
     /** Emits a string directly, followed by a newline. */
     protected E emitRawLine(String string) {
       stringBuilder.append(string);
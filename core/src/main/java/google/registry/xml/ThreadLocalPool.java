@@ -0,0 +1,101 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.xml;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import google.registry.xml.XmlTransformerMetrics.PoolOutcome;
+import javax.xml.bind.JAXBException;
+
+/**
+ * A pool of reusable objects that are expensive to create and not thread-safe, holding at most one
+ * idle object per thread.
+ *
+ * <p>This is used for JAXB {@link javax.xml.bind.Marshaller} and {@link
+ * javax.xml.bind.Unmarshaller} instances, which may be reused sequentially by a single thread.
+ * Objects are confined to the thread that created them, so no locking is needed. If the thread's
+ * object is already leased out, e.g. because of a reentrant call, a new object is created for that
+ * lease and discarded when it is closed.
+ *
+ * <p>Objects are handed out as-is; callers are responsible for resetting any state that a previous
+ * lease may have changed.
+ *
+ * @param <T> the type of pooled object
+ */
+final class ThreadLocalPool<T> {
+
+  /** A factory for new pooled objects. */
+  @FunctionalInterface
+  interface Factory<T> {
+    T create() throws JAXBException;
+  }
+
+  private final String kind;
+  private final Factory<T> factory;
+  private final ThreadLocal<Lease> idleLease = new ThreadLocal<>();
+
+  /**
+   * Creates a new pool.
+   *
+   * @param kind the kind of object in the pool, used as the metric label
+   * @param factory creates new objects on a pool miss
+   */
+  ThreadLocalPool(String kind, Factory<T> factory) {
+    this.kind = kind;
+    this.factory = factory;
+  }
+
+  /** Leases an object to the current thread until the returned {@link Lease} is closed. */
+  Lease borrow() throws JAXBException {
+    Lease lease = idleLease.get();
+    if (lease != null) {
+      idleLease.remove();
+      XmlTransformerMetrics.recordPoolRequest(kind, PoolOutcome.HIT);
+    } else {
+      lease = new Lease(factory.create());
+      XmlTransformerMetrics.recordPoolRequest(kind, PoolOutcome.MISS);
+    }
+    lease.open = true;
+    return lease;
+  }
+
+  /** An object leased to the current thread, which is returned to the pool on {@link #close}. */
+  final class Lease implements AutoCloseable {
+
+    private final T object;
+    private boolean open;
+
+    private Lease(T object) {
+      this.object = object;
+    }
+
+    /** Returns the leased object. */
+    T get() {
+      checkState(open, "Lease already closed");
+      return object;
+    }
+
+    @Override
+    public void close() {
+      checkState(open, "Lease already closed");
+      open = false;
+      // If an object was returned to this thread while this one was leased out, keep the one that
+      // is already there and let this one be garbage-collected.
+      if (idleLease.get() == null) {
+        idleLease.set(this);
+      }
+    }
+  }
+}
@@ -34,6 +34,7 @@ import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import javax.annotation.Nullable;
 import javax.xml.XMLConstants;
 import javax.xml.bind.JAXBContext;
@@ -43,8 +44,12 @@ import javax.xml.bind.UnmarshalException;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.helpers.DefaultValidationEventHandler;
 import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
+import javax.xml.stream.util.XMLEventConsumer;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Transformer;
@@ -75,6 +80,22 @@ public class XmlTransformer {
   /** A {@link Schema} to validate XML. */
   private final Schema schema;
 
+  /**
+   * Marshaller properties that are reset before every use of a pooled {@link Marshaller}, so that
+   * properties set by a previous caller don't leak into the next one.
+   */
+  private static final ImmutableMap<String, Object> DEFAULT_MARSHALLER_PROPERTIES =
+      ImmutableMap.of(
+          Marshaller.JAXB_ENCODING, UTF_8.toString(),
+          Marshaller.JAXB_FORMATTED_OUTPUT, true,
+          Marshaller.JAXB_FRAGMENT, false);
+
+  /** Per-thread {@link Unmarshaller}s, which are expensive to create but not thread-safe. */
+  private final ThreadLocalPool<Unmarshaller> unmarshallers;
+
+  /** Per-thread {@link Marshaller}s, which are expensive to create but not thread-safe. */
+  private final ThreadLocalPool<Marshaller> marshallers;
+
   /**
    * Create a new XmlTransformer that validates using the given schemas, but uses the given classes
    * (rather than generated ones) for marshaling and unmarshaling.
@@ -89,6 +110,8 @@ public class XmlTransformer {
     } catch (JAXBException e) {
       throw new RuntimeException(e);
     }
+    this.unmarshallers = new ThreadLocalPool<>("unmarshaller", jaxbContext::createUnmarshaller);
+    this.marshallers = new ThreadLocalPool<>("marshaller", jaxbContext::createMarshaller);
   }
 
   /**
@@ -106,6 +129,8 @@ public class XmlTransformer {
     } catch (JAXBException e) {
       throw new RuntimeException(e);
     }
+    this.unmarshallers = new ThreadLocalPool<>("unmarshaller", jaxbContext::createUnmarshaller);
+    this.marshallers = new ThreadLocalPool<>("marshaller", jaxbContext::createMarshaller);
   }
 
   private static XMLInputFactory createInputFactory() throws FactoryConfigurationError {
@@ -143,9 +168,51 @@ public class XmlTransformer {
    * @see <a href="https://errorprone.info/bugpattern/TypeParameterUnusedInFormals">TypeParameterUnusedInFormals</a>
    */
   public <T> T unmarshal(Class<T> clazz, InputStream stream) throws XmlException {
-    try (InputStream autoClosingStream = stream) {
-      return clazz.cast(getUnmarshaller().unmarshal(
-          XML_INPUT_FACTORY.createXMLStreamReader(new StreamSource(autoClosingStream, SYSTEM_ID))));
+    return unmarshal(
+        clazz,
+        stream,
+        (unmarshaller, source) ->
+            unmarshaller.unmarshal(XML_INPUT_FACTORY.createXMLStreamReader(source)));
+  }
+
+  /**
+   * Turns XML text into an object like {@link #unmarshal(Class, InputStream)}, and also passes
+   * every parsed event to {@code observer}.
+   *
+   * <p>This lets callers derive something else from the input (such as a sanitized copy for
+   * logging) from the same parse that validates and unmarshals it, instead of parsing it again.
+   * The observer sees the events in document order, up to and including the end of the document.
+   * Adjacent character data may be split across several events.
+   */
+  public <T> T unmarshal(Class<T> clazz, InputStream stream, XMLEventConsumer observer)
+      throws XmlException {
+    return unmarshal(
+        clazz,
+        stream,
+        (unmarshaller, source) -> {
+          XMLEventReader reader =
+              new ObservingEventReader(XML_INPUT_FACTORY.createXMLEventReader(source), observer);
+          Object result = unmarshaller.unmarshal(reader);
+          // JAXB stops reading at the end of the root element. Pass along whatever follows it, but
+          // don't fail on it, since the non-observing overload never looks at it either.
+          try {
+            while (reader.hasNext()) {
+              reader.nextEvent();
+            }
+          } catch (XMLStreamException e) {
+            // Leave the observer with a truncated document.
+          }
+          return result;
+        });
+  }
+
+  private <T> T unmarshal(Class<T> clazz, InputStream stream, UnmarshalFunction function)
+      throws XmlException {
+    try (InputStream autoClosingStream = stream;
+        ThreadLocalPool<Unmarshaller>.Lease lease = unmarshallers.borrow()) {
+      return clazz.cast(
+          function.apply(
+              resetUnmarshaller(lease.get()), new StreamSource(autoClosingStream, SYSTEM_ID)));
     } catch (UnmarshalException e) {
       // Plain old parsing exceptions have a SAXParseException with no further cause.
       if (e.getLinkedException() instanceof SAXParseException
@@ -188,9 +255,10 @@ public class XmlTransformer {
    * @throws XmlException to rethrow {@link JAXBException}.
    */
   public void marshal(Object root, Writer writer, ValidationMode validation) throws XmlException {
-    try {
+    try (ThreadLocalPool<Marshaller>.Lease lease = marshallers.borrow()) {
       // Omit XML declaration because character-oriented output prevents us from knowing.
-      getMarshaller(
+      resetMarshaller(
+          lease.get(),
           STRICT.equals(validation) ? schema : null,
           ImmutableMap.of(Marshaller.JAXB_FRAGMENT, true)).marshal(
               checkNotNull(root, "root"), checkNotNull(writer, "writer"));
@@ -216,8 +284,9 @@ public class XmlTransformer {
    */
   public void marshal(Object root, OutputStream out, Charset charset, ValidationMode validation)
       throws XmlException {
-    try {
-      getMarshaller(
+    try (ThreadLocalPool<Marshaller>.Lease lease = marshallers.borrow()) {
+      resetMarshaller(
+          lease.get(),
           STRICT.equals(validation) ? schema : null,
           ImmutableMap.of(Marshaller.JAXB_ENCODING, charset.toString())).marshal(
               checkNotNull(root, "root"), checkNotNull(out, "out"));
@@ -239,8 +308,8 @@ public class XmlTransformer {
    * @throws XmlException to rethrow {@link JAXBException}.
    */
   public void marshalStrict(Object root, Result result) throws XmlException {
-    try {
-      getMarshaller(schema, ImmutableMap.of())
+    try (ThreadLocalPool<Marshaller>.Lease lease = marshallers.borrow()) {
+      resetMarshaller(lease.get(), schema, ImmutableMap.of())
           .marshal(checkNotNull(root, "root"), checkNotNull(result, "result"));
     } catch (JAXBException e) {
       throw new XmlException(e);
@@ -274,9 +343,46 @@ public class XmlTransformer {
     return JAXBContext.newInstance(prefix + Joiner.on(':' + prefix).join(schemaNames));
   }
 
-  /** Get a {@link Unmarshaller} instance with the default configuration. */
-  private Unmarshaller getUnmarshaller() throws JAXBException {
-    Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+  /** Reads the root object from {@code source} with a configured {@link Unmarshaller}. */
+  private interface UnmarshalFunction {
+    Object apply(Unmarshaller unmarshaller, StreamSource source)
+        throws JAXBException, XMLStreamException;
+  }
+
+  /**
+   * An {@link XMLEventReader} that passes each event it returns to an {@link XMLEventConsumer}.
+   *
+   * <p>JAXB only consumes events with {@link #nextEvent} and {@link #next}, and looks ahead with
+   * {@link #peek}, so only the former two need to be intercepted.
+   */
+  private static class ObservingEventReader extends EventReaderDelegate {
+
+    private final XMLEventConsumer observer;
+
+    ObservingEventReader(XMLEventReader reader, XMLEventConsumer observer) {
+      super(reader);
+      this.observer = observer;
+    }
+
+    @Override
+    public XMLEvent nextEvent() throws XMLStreamException {
+      XMLEvent event = super.nextEvent();
+      observer.add(event);
+      return event;
+    }
+
+    @Override
+    public Object next() {
+      try {
+        return nextEvent();
+      } catch (XMLStreamException e) {
+        throw new NoSuchElementException(e.getMessage());
+      }
+    }
+  }
+
+  /** Resets a pooled {@link Unmarshaller} instance to the default configuration. */
+  private Unmarshaller resetUnmarshaller(Unmarshaller unmarshaller) throws JAXBException {
     unmarshaller.setSchema(schema);
     // This handler was the default in JAXB 1.0. It fails on any exception thrown while
     // unmarshalling. In JAXB 2.0 some errors are considered recoverable and are ignored, which is
@@ -285,14 +391,16 @@ public class XmlTransformer {
     return unmarshaller;
   }
 
-  /** Get a {@link Marshaller} instance with the given configuration. */
-  private Marshaller getMarshaller(@Nullable Schema schemaParam, Map<String, ?> properties)
+  /** Resets a pooled {@link Marshaller} instance to the given configuration. */
+  private static Marshaller resetMarshaller(
+      Marshaller marshaller, @Nullable Schema schemaParam, Map<String, ?> properties)
       throws JAXBException {
-    Marshaller marshaller = jaxbContext.createMarshaller();
+    for (Map.Entry<String, ?> entry : DEFAULT_MARSHALLER_PROPERTIES.entrySet()) {
+      marshaller.setProperty(entry.getKey(), entry.getValue());
+    }
     for (Map.Entry<String, ?> entry : properties.entrySet()) {
       marshaller.setProperty(entry.getKey(), entry.getValue());
     }
-    marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
     marshaller.setSchema(schemaParam);
     return marshaller;
   }
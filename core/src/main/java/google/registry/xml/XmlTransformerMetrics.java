@@ -0,0 +1,53 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.xml;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+
+/** Instrumentation for {@link XmlTransformer}. */
+class XmlTransformerMetrics {
+
+  /** Possible outcomes of borrowing a JAXB object from a {@link ThreadLocalPool}. */
+  enum PoolOutcome {
+    /** An idle object was reused. */
+    HIT,
+
+    /** No idle object was available on the current thread, so a new one was created. */
+    MISS
+  }
+
+  private static final ImmutableSet<LabelDescriptor> POOL_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("kind", "Kind of JAXB object, e.g. marshaller."),
+          LabelDescriptor.create("outcome", "Whether an idle object was reused."));
+
+  /** Metric counting requests for JAXB marshallers and unmarshallers, by outcome. */
+  @VisibleForTesting
+  static final IncrementableMetric poolRequests =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/xml/jaxb_pool/requests",
+              "Count of JAXB marshaller and unmarshaller requests",
+              "count",
+              POOL_LABEL_DESCRIPTORS);
+
+  static void recordPoolRequest(String kind, PoolOutcome outcome) {
+    poolRequests.increment(kind, outcome.name());
+  }
+}
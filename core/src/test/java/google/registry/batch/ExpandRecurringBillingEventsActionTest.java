@@ -625,6 +625,51 @@ public class ExpandRecurringBillingEventsActionTest
     assertCursorAt(beginningOfTest);
   }
 
+  @Test
+  public void testSuccess_expandMultipleDomains_moreThanOneTransaction() throws Exception {
+    List<DomainBase> domains = new ArrayList<>();
+    List<BillingEvent.Recurring> recurrings = new ArrayList<>();
+    for (int i = 0; i < 45; i++) {
+      DomainBase otherDomain =
+          persistResource(
+              newDomainBase(String.format("example%d.tld", i))
+                  .asBuilder()
+                  .setCreationTimeForTest(DateTime.parse("1999-01-05T00:00:00Z"))
+                  .build());
+      HistoryEntry otherHistoryEntry =
+          persistResource(new HistoryEntry.Builder().setParent(otherDomain).build());
+      domains.add(otherDomain);
+      recurrings.add(
+          persistResource(
+              recurring
+                  .asBuilder()
+                  .setParent(otherHistoryEntry)
+                  .setId(100L + i)
+                  .setTargetId(otherDomain.getFullyQualifiedDomainName())
+                  .build()));
+    }
+    action.cursorTimeParam = Optional.of(START_OF_TIME);
+    runMapreduce();
+    for (int i = 0; i < domains.size(); i++) {
+      DomainBase otherDomain = domains.get(i);
+      HistoryEntry persistedEntry = getOnlyHistoryEntryOfType(otherDomain, DOMAIN_AUTORENEW);
+      assertHistoryEntryMatches(
+          otherDomain,
+          persistedEntry,
+          "TheRegistrar",
+          DateTime.parse("2000-02-19T00:00:00Z"),
+          true);
+      BillingEvent.OneTime expected =
+          defaultOneTimeBuilder()
+              .setParent(persistedEntry)
+              .setCancellationMatchingBillingEvent(recurrings.get(i).createVKey())
+              .setTargetId(otherDomain.getFullyQualifiedDomainName())
+              .build();
+      assertBillingEventsForResource(otherDomain, expected, recurrings.get(i));
+    }
+    assertCursorAt(beginningOfTest);
+  }
+
   @Test
   public void testSuccess_premiumDomain() throws Exception {
     persistResource(
@@ -87,6 +87,7 @@ public class PublishDnsUpdatesActionTest {
   private PublishDnsUpdatesAction createAction(String tld) {
     PublishDnsUpdatesAction action = new PublishDnsUpdatesAction();
     action.timeout = Duration.standardSeconds(10);
+    action.lockWait = Duration.standardSeconds(5);
     action.tld = tld;
     action.hosts = ImmutableSet.of();
     action.domains = ImmutableSet.of();
@@ -167,14 +168,20 @@ public class PublishDnsUpdatesActionTest {
     action.numPublishLocks = 4;
     action.domains = ImmutableSet.of("example.xn--q9jyb4c");
     LockHandler mockLockHandler = mock(LockHandler.class);
-    when(mockLockHandler.executeWithLocks(any(), any(), any(), any())).thenReturn(true);
+    when(mockLockHandler.executeWithLocks(
+            any(), any(), any(Duration.class), any(Duration.class), any()))
+        .thenReturn(true);
     action.lockHandler = mockLockHandler;
 
     action.run();
 
     verify(mockLockHandler)
         .executeWithLocks(
-            action, "xn--q9jyb4c", Duration.standardSeconds(10), "DNS updates-lock 2 of 4");
+            action,
+            "xn--q9jyb4c",
+            Duration.standardSeconds(10),
+            Duration.standardSeconds(5),
+            "DNS updates-lock 2 of 4");
   }
 
   @Test
@@ -292,6 +299,34 @@ public class PublishDnsUpdatesActionTest {
     verifyNoMoreInteractions(dnsQueue);
   }
 
+  @Test
+  public void testLockLostBeforeCommit_doesntCommit() {
+    action = createAction("xn--q9jyb4c");
+    action.domains = ImmutableSet.of("example.xn--q9jyb4c");
+    lockHandler.setLockLost(true);
+
+    ServiceUnavailableException thrown =
+        assertThrows(ServiceUnavailableException.class, action::run);
+
+    assertThat(thrown).hasMessageThat().contains("Lost the lock before committing");
+    verify(dnsWriter).publishDomain("example.xn--q9jyb4c");
+    verifyNoMoreInteractions(dnsWriter);
+    verify(dnsMetrics).incrementPublishDomainRequests("xn--q9jyb4c", 1, PublishStatus.ACCEPTED);
+    verify(dnsMetrics).incrementPublishDomainRequests("xn--q9jyb4c", 0, PublishStatus.REJECTED);
+    verify(dnsMetrics).incrementPublishHostRequests("xn--q9jyb4c", 0, PublishStatus.ACCEPTED);
+    verify(dnsMetrics).incrementPublishHostRequests("xn--q9jyb4c", 0, PublishStatus.REJECTED);
+    verify(dnsMetrics)
+        .recordActionResult(
+            "xn--q9jyb4c",
+            "correctWriter",
+            ActionStatus.LOCK_FAILURE,
+            1,
+            Duration.standardHours(2),
+            Duration.standardHours(1));
+    verifyNoMoreInteractions(dnsMetrics);
+    verifyNoMoreInteractions(dnsQueue);
+  }
+
   @Test
   public void testParam_invalidLockIndex() {
     persistResource(Registry.get("xn--q9jyb4c").asBuilder().setNumDnsPublishLocks(4).build());
@@ -67,6 +67,7 @@ import org.junit.runners.JUnit4;
 public class ReadDnsQueueActionTest {
 
   private static final int TEST_TLD_UPDATE_BATCH_SIZE = 100;
+  private int maxTldUpdateBatchSize = TEST_TLD_UPDATE_BATCH_SIZE;
   private DnsQueue dnsQueue;
   // Because of a bug in the queue test environment - b/73372999 - we must set the fake date of the
   // test in the future. Set to year 3000 so it'll remain in the future for a very long time.
@@ -121,6 +122,8 @@ public class ReadDnsQueueActionTest {
   private void run() {
     ReadDnsQueueAction action = new ReadDnsQueueAction();
     action.tldUpdateBatchSize = TEST_TLD_UPDATE_BATCH_SIZE;
+    action.maxTldUpdateBatchSize = maxTldUpdateBatchSize;
+    action.maxPublishTasksPerLock = 2;
     action.requestedMaximumDuration = Duration.standardSeconds(10);
     action.clock = clock;
     action.dnsQueue = dnsQueue;
@@ -226,6 +229,54 @@ public class ReadDnsQueueActionTest {
         .containsExactlyElementsIn(domains);
   }
 
+  @Test
+  public void testSuccess_backlog_growsBatchesUpToMaximum() {
+    maxTldUpdateBatchSize = 300;
+    ImmutableList<String> domains =
+        IntStream.range(0, 1000)
+            .mapToObj(i -> String.format("domain_%04d.com", i))
+            .collect(toImmutableList());
+    domains.forEach(dnsQueue::addDomainRefreshTask);
+    dnsQueue.addDomainRefreshTask("domain.net");
+
+    run();
+
+    assertNoTasksEnqueued(DNS_PULL_QUEUE_NAME);
+    ImmutableList<ImmutableMultimap<String, String>> queuedParams =
+        getQueuedParams(DNS_PUBLISH_PUSH_QUEUE_NAME);
+    // The 1000 leased items are at most 999 items for com, which would be 10 batches of 100. That
+    // is more than 2 per lock, so they are sent in batches of the maximum size 300 instead.
+    assertThat(
+            queuedParams.stream()
+                .filter(params -> params.get("tld").contains("com"))
+                .map(params -> params.get("domains").stream().collect(onlyElement()))
+                .map(values -> Splitter.on(',').splitToList(values).size()))
+        .containsAtLeast(300, 300, 300);
+    assertThat(
+            queuedParams.stream()
+                .map(params -> params.get("domains").stream().collect(onlyElement()))
+                .flatMap(values -> Splitter.on(',').splitToList(values).stream()))
+        .containsExactlyElementsIn(
+            ImmutableList.builder().addAll(domains).add("domain.net").build());
+  }
+
+  @Test
+  public void testSuccess_smallBacklog_keepsDefaultBatchSize() {
+    maxTldUpdateBatchSize = 300;
+    IntStream.range(0, 150)
+        .mapToObj(i -> String.format("domain_%04d.com", i))
+        .forEach(dnsQueue::addDomainRefreshTask);
+
+    run();
+
+    // 150 items are 2 batches of 100 or fewer, so there's no need to grow the batches.
+    assertThat(
+            getQueuedParams(DNS_PUBLISH_PUSH_QUEUE_NAME).stream()
+                .map(params -> params.get("domains").stream().collect(onlyElement()))
+                .map(values -> Splitter.on(',').splitToList(values).size()))
+        .containsExactly(100, 50);
+  }
+
   @Test
   public void testSuccess_twoDnsWriters() {
     persistResource(
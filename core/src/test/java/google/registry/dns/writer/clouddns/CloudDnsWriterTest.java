@@ -503,6 +503,32 @@ public class CloudDnsWriterTest {
     verifyZone(fakeDomainRecords("example.tld", 1, 0, 0, 0));
   }
 
+  @Test
+  public void testLoadHosts_sameDomain_loadsDomainOnce() {
+    DomainBase domain =
+        persistResource(
+            fakeDomain(
+                    "example.tld",
+                    ImmutableSet.of(persistResource(fakeHost("0.ip4.example.tld", IPv4))),
+                    0)
+                .asBuilder()
+                .addSubordinateHost("0.ip4.example.tld")
+                .build());
+    writer.publishHost("0.ip4.example.tld");
+    // Later refreshes of the same domain in this batch reuse the records staged the first time.
+    persistResource(
+        domain
+            .asBuilder()
+            .setDsData(
+                ImmutableSet.of(
+                    DelegationSignerData.create(0, 3, 1, base16().decode("1234567890ABCDEF"))))
+            .build());
+    writer.publishHost("1.ip4.example.tld");
+    writer.publishDomain("example.tld");
+
+    verifyZone(fakeDomainRecords("example.tld", 1, 0, 0, 0));
+  }
+
   @Test
   public void testInvalidZoneNames() {
     createTld("triple.secret.tld");
@@ -304,6 +304,59 @@ public class DnsUpdateWriterTest {
     assertThatTotalUpdateSetsIs(update, 3);
   }
 
+  @Test
+  public void testPublishHosts_sameDomain_publishesDomainOnce() throws Exception {
+    HostResource host =
+        persistResource(
+            newHostResource("ns1.example.tld")
+                .asBuilder()
+                .setInetAddresses(ImmutableSet.of(InetAddresses.forString("10.0.0.1")))
+                .build());
+    persistResource(
+        newDomainBase("example.tld")
+            .asBuilder()
+            .addSubordinateHost("ns1.example.tld")
+            .addNameserver(host.createVKey())
+            .build());
+    persistDeletedHost("ns2.example.tld", clock.nowUtc().minusDays(1));
+
+    writer.publishDomain("example.tld");
+    writer.publishHost("ns1.example.tld");
+    writer.publishHost("ns2.example.tld");
+    writer.publishHost("ns2.example.tld");
+    writer.commit();
+
+    verify(mockResolver).send(updateCaptor.capture());
+    Update update = updateCaptor.getValue();
+    assertThatUpdatedZoneIs(update, "tld.");
+    assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
+    assertThatUpdateDeletes(update, "ns1.example.tld.", Type.ANY);
+    assertThatUpdateDeletes(update, "ns2.example.tld.", Type.ANY);
+    assertThatUpdateAdds(update, "ns1.example.tld.", Type.A, "10.0.0.1");
+    assertThatUpdateAdds(update, "example.tld.", Type.NS, "ns1.example.tld.");
+    assertThatTotalUpdateSetsIs(update, 5);
+    // Each record is only in the update once, rather than once per refresh of the domain.
+    assertThat(update.getSectionArray(Section.UPDATE)).hasLength(5);
+  }
+
+  @Test
+  public void testPublishHosts_missingDomain_treatsEveryHostTheSame() throws Exception {
+    persistDeletedDomain("example.tld", clock.nowUtc().minusDays(1));
+    persistDeletedHost("ns1.example.tld", clock.nowUtc().minusDays(1));
+    persistDeletedHost("ns2.example.tld", clock.nowUtc().minusDays(1));
+
+    writer.publishHost("ns1.example.tld");
+    writer.publishHost("ns2.example.tld");
+    writer.commit();
+
+    verify(mockResolver).send(updateCaptor.capture());
+    Update update = updateCaptor.getValue();
+    assertThatUpdatedZoneIs(update, "tld.");
+    assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
+    // Neither host is deleted, just as when a single host of the missing domain is published.
+    assertThatTotalUpdateSetsIs(update, 1);
+  }
+
   @Test
   public void testPublishDomainExternalAndInBailiwickNameServer() throws Exception {
     HostResource externalNameserver = persistResource(newHostResource("ns1.example.com"));
@@ -16,6 +16,7 @@ package google.registry.flows;
 
 import static com.google.common.io.BaseEncoding.base64;
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.flows.EppXmlSanitizer.sanitizeEppXml;
 import static google.registry.model.eppcommon.EppXmlTransformer.marshal;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.LogsSubject.assertAboutLogs;
@@ -57,6 +58,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
@@ -155,6 +157,24 @@ public class EppControllerTest extends ShardableTestCase {
     verify(eppMetrics).recordProcessingTime(eq(expectedMetric));
   }
 
+  @Test
+  public void testHandleEppCommand_singlePass_passesSanitizedXmlToFlow() {
+    eppController.singlePassEppInputEnabled = true;
+    eppController.handleEppCommand(
+        sessionMetadata,
+        transportCredentials,
+        EppRequestSource.UNIT_TEST,
+        false,
+        true,
+        domainCreateXml.getBytes(UTF_8));
+
+    ArgumentCaptor<FlowModule> flowModule = ArgumentCaptor.forClass(FlowModule.class);
+    verify(flowComponentBuilder).flowModule(flowModule.capture());
+    assertThat(flowModule.getValue().provideSanitizedInputXml())
+        .isEqualTo(sanitizeEppXml(domainCreateXml.getBytes(UTF_8)));
+    assertThat(flowModule.getValue().provideSanitizedInputXml()).doesNotContain("2fooBAR");
+  }
+
   @Test
   public void testHandleEppCommand_dryRunEppCommand_doesNotExportMetric() {
     eppController.handleEppCommand(
@@ -15,14 +15,19 @@
 package google.registry.flows;
 
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.flows.EppXmlSanitizer.newStreamingSanitizer;
 import static google.registry.flows.EppXmlSanitizer.sanitizeEppXml;
 import static google.registry.testing.TestDataHelper.loadBytes;
 import static java.nio.charset.StandardCharsets.UTF_16LE;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableMap;
+import google.registry.flows.EppXmlSanitizer.StreamingSanitizer;
+import google.registry.model.eppcommon.EppXmlTransformer;
+import google.registry.model.eppinput.EppInput;
 import google.registry.testing.EppLoader;
 import java.util.Base64;
+import javax.xml.stream.XMLEventFactory;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -130,6 +135,46 @@ public class EppXmlSanitizerTest {
     assertThat(sanitizeEppXml(inputXmlBytes)).isEqualTo("");
   }
 
+  @Test
+  public void testStreamingSanitizer_duringUnmarshal_matchesSanitizeEppXml() throws Exception {
+    byte[] inputXmlBytes =
+        new EppLoader(
+                this,
+                "login_update_password.xml",
+                ImmutableMap.of("PW", "oldpass", "NEWPW", "newPw"))
+            .getEppXml()
+            .getBytes(UTF_8);
+    StreamingSanitizer sanitizer = newStreamingSanitizer(inputXmlBytes);
+
+    EppXmlTransformer.unmarshal(EppInput.class, inputXmlBytes, sanitizer);
+    assertThat(sanitizer.getSanitizedXml()).isEqualTo(sanitizeEppXml(inputXmlBytes));
+  }
+
+  @Test
+  public void testStreamingSanitizer_splitCharacters_maskedPerCodePoint() throws Exception {
+    byte[] inputXmlBytes = "<pw>\u007F\u4E43x</pw>".getBytes(UTF_8);
+    StreamingSanitizer sanitizer = newStreamingSanitizer(inputXmlBytes);
+    XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+    sanitizer.add(eventFactory.createStartDocument());
+    sanitizer.add(eventFactory.createStartElement("", "", "pw"));
+    sanitizer.add(eventFactory.createCharacters("\u007F"));
+    sanitizer.add(eventFactory.createCharacters("\u4E43x"));
+    sanitizer.add(eventFactory.createEndElement("", "", "pw"));
+    sanitizer.add(eventFactory.createEndDocument());
+    assertThat(sanitizer.getSanitizedXml()).isEqualTo(UTF8_HEADER + "<pw>C**</pw>\n");
+  }
+
+  @Test
+  public void testStreamingSanitizer_incompleteDocument_encodedToBase64() throws Exception {
+    byte[] inputXmlBytes = "<pw>".getBytes(UTF_8);
+    StreamingSanitizer sanitizer = newStreamingSanitizer(inputXmlBytes);
+    XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+    sanitizer.add(eventFactory.createStartDocument());
+    sanitizer.add(eventFactory.createStartElement("", "", "pw"));
+    assertThat(sanitizer.getSanitizedXml())
+        .isEqualTo(Base64.getMimeEncoder().encodeToString(inputXmlBytes));
+  }
+
   @Test
   public void testSanitize_utf16_encodingPreserved() {
     // Test data should specify an endian-specific UTF-16 scheme for easy assertion. If 'UTF-16' is
@@ -17,6 +17,7 @@ package google.registry.flows;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 import static com.google.common.truth.Truth8.assertThat;
+import static google.registry.flows.EppXmlSanitizer.sanitizeEppXml;
 import static google.registry.testing.TestDataHelper.loadFile;
 import static google.registry.testing.TestLogHandlerUtils.findFirstLogMessageByPrefix;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -73,7 +74,7 @@ public class FlowRunnerTest extends ShardableTestCase {
     flowRunner.eppRequestSource = EppRequestSource.UNIT_TEST;
     flowRunner.flowProvider = TestCommandFlow::new;
     flowRunner.flowClass = TestCommandFlow.class;
-    flowRunner.inputXmlBytes = "<xml/>".getBytes(UTF_8);
+    flowRunner.sanitizedInputXml = sanitizeEppXml("<xml/>".getBytes(UTF_8));
     flowRunner.isDryRun = false;
     flowRunner.isSuperuser = false;
     flowRunner.isTransactional = false;
@@ -167,7 +168,7 @@ public class FlowRunnerTest extends ShardableTestCase {
   public void testRun_loggingStatement_complexEppInput() throws Exception {
     String domainCreateXml = loadFile(getClass(), "domain_create_prettyprinted.xml");
     String sanitizedDomainCreateXml = domainCreateXml.replace("2fooBAR", "*******");
-    flowRunner.inputXmlBytes = domainCreateXml.getBytes(UTF_8);
+    flowRunner.sanitizedInputXml = sanitizeEppXml(domainCreateXml.getBytes(UTF_8));
     flowRunner.run(eppMetricBuilder);
     String logMessage = findFirstLogMessageByPrefix(handler, "EPP Command\n\t");
     List<String> lines = Splitter.on("\n\t").splitToList(logMessage);
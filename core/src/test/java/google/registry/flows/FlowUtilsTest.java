@@ -0,0 +1,80 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.monitoring.metrics.contrib.LongMetricSubject.assertThat;
+import static google.registry.flows.EppOutputValidationMetrics.responses;
+import static google.registry.flows.FlowUtils.marshalWithLenientRetry;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import google.registry.config.RegistryConfig;
+import google.registry.model.eppcommon.Trid;
+import google.registry.model.eppoutput.EppOutput;
+import google.registry.model.eppoutput.EppResponse;
+import google.registry.model.eppoutput.Result;
+import google.registry.model.eppoutput.Result.Code;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link FlowUtils}. */
+@RunWith(JUnit4.class)
+public class FlowUtilsTest {
+
+  private static final EppOutput VALID_OUTPUT =
+      EppController.getErrorResponse(
+          Result.create(Code.COMMAND_FAILED), Trid.create(null, "server-trid"));
+
+  /** A response without the mandatory {@code trID} element. */
+  private static final EppOutput INVALID_OUTPUT =
+      EppOutput.create(
+          new EppResponse.Builder().setResult(Result.create(Code.COMMAND_FAILED)).build());
+
+  private final double originalSampleRate = RegistryConfig.getEppOutputValidationSampleRate();
+
+  @Before
+  public void setUp() {
+    responses.reset();
+  }
+
+  @After
+  public void tearDown() {
+    RegistryConfig.overrideEppOutputValidationSampleRateForTesting(originalSampleRate);
+  }
+
+  @Test
+  public void testMarshalWithLenientRetry_validOutput_validated() {
+    RegistryConfig.overrideEppOutputValidationSampleRateForTesting(1);
+    assertThat(new String(marshalWithLenientRetry(VALID_OUTPUT), UTF_8)).contains("server-trid");
+    assertThat(responses).hasValueForLabels(1, "VALID").and().hasNoOtherValues();
+  }
+
+  @Test
+  public void testMarshalWithLenientRetry_invalidOutput_countedAndSentAnyway() {
+    RegistryConfig.overrideEppOutputValidationSampleRateForTesting(1);
+    assertThat(new String(marshalWithLenientRetry(INVALID_OUTPUT), UTF_8)).contains("2400");
+    assertThat(responses).hasValueForLabels(1, "INVALID").and().hasNoOtherValues();
+  }
+
+  @Test
+  public void testMarshalWithLenientRetry_notSampled_skipsValidation() {
+    RegistryConfig.overrideEppOutputValidationSampleRateForTesting(0);
+    assertThat(new String(marshalWithLenientRetry(INVALID_OUTPUT), UTF_8)).contains("2400");
+    assertThat(responses).hasValueForLabels(1, "SKIPPED").and().hasNoOtherValues();
+  }
+}
@@ -16,7 +16,9 @@ package google.registry.model;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth8.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.DatastoreHelper.persistActiveContact;
 import static google.registry.testing.DatastoreHelper.persistActiveHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
@@ -24,6 +26,7 @@ import static google.registry.testing.DatastoreHelper.persistResource;
 import com.google.common.collect.ImmutableList;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.host.HostResource;
+import google.registry.persistence.VKey;
 import google.registry.testing.TestCacheRule;
 import org.joda.time.Duration;
 import org.junit.Rule;
@@ -62,4 +65,28 @@ public class EppResourceTest extends EntityTestCase {
     assertThat(loadByForeignKey(HostResource.class, "ns1.example.com", fakeClock.nowUtc()))
         .hasValue(modifiedHost);
   }
+
+  @Test
+  public void test_cacheReload_seesHostChangeAfterFirstLoad() throws Exception {
+    // Reload on this thread, whose Objectify session outlives the loads like a background thread's.
+    inject.setStaticField(RefreshAheadCache.class, "backgroundReloadExecutor", directExecutor());
+    RefreshAheadCache<VKey<? extends EppResource>, EppResource> cache =
+        RefreshAheadCache.create(
+            "test", Duration.millis(1), Duration.standardDays(1), 10, EppResource.CACHE_LOADER);
+    HostResource originalHost = persistActiveHost("ns1.example.com");
+    assertThat(cache.get(originalHost.createVKey())).isEqualTo(originalHost);
+    // Save the change in a session of its own, as another request would.
+    HostResource modifiedHost =
+        ofy()
+            .doWithFreshSessionCache(
+                () ->
+                    persistResource(
+                        originalHost
+                            .asBuilder()
+                            .setLastTransferTime(fakeClock.nowUtc().minusDays(60))
+                            .build()));
+    Thread.sleep(10);
+    // The reload runs synchronously, so the refreshed value is returned at once.
+    assertThat(cache.get(originalHost.createVKey())).isEqualTo(modifiedHost);
+  }
 }
@@ -0,0 +1,143 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newHostResource;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.DatastoreHelper.persistResourceWithCommitLog;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import google.registry.model.host.HostResource;
+import google.registry.model.ofy.Ofy;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ProjectedResourceCache}. */
+@RunWith(JUnit4.class)
+public class ProjectedResourceCacheTest {
+
+  @Rule
+  public final AppEngineRule appEngine =
+      AppEngineRule.builder().withDatastoreAndCloudSql().withTaskQueue().build();
+
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
+  private final FakeClock clock = new FakeClock(DateTime.now(UTC));
+  private final ProjectedResourceCache<HostResource> cache = ProjectedResourceCache.create(10);
+
+  private HostResource oldHost;
+  private HostResource currentHost;
+  private DateTime oldTime;
+
+  @Before
+  public void init() {
+    createTld("tld");
+    inject.setStaticField(Ofy.class, "clock", clock);
+    clock.advanceOneMilli();
+    oldHost =
+        persistResourceWithCommitLog(
+            newHostResource("ns1.cat.tld")
+                .asBuilder()
+                .setCreationTimeForTest(START_OF_TIME)
+                .setPersistedCurrentSponsorClientId("OLD")
+                .build());
+    // Advance a day so that the next created revision entry doesn't overwrite the existing one.
+    clock.advanceBy(Duration.standardDays(1));
+    oldTime = clock.nowUtc().minusMillis(1);
+    currentHost =
+        persistResource(oldHost.asBuilder().setPersistedCurrentSponsorClientId("NEW").build());
+  }
+
+  @Test
+  public void testGet_projectsToTime() {
+    assertThat(cache.get(Key.create(currentHost), oldTime)).isEqualTo(oldHost);
+    assertThat(cache.get(Key.create(currentHost), clock.nowUtc())).isEqualTo(currentHost);
+    assertThat(cache.stats().hitCount()).isEqualTo(0);
+    assertThat(cache.stats().missCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testGet_twice_secondIsHit() {
+    assertThat(cache.get(Key.create(currentHost), oldTime)).isEqualTo(oldHost);
+    assertThat(cache.get(Key.create(currentHost), oldTime)).isEqualTo(oldHost);
+    assertThat(cache.stats().hitCount()).isEqualTo(1);
+    assertThat(cache.stats().missCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testGet_beforeCreated_cachesNull() {
+    HostResource host =
+        persistResource(
+            newHostResource("ns2.cat.tld")
+                .asBuilder()
+                .setCreationTimeForTest(clock.nowUtc())
+                .build());
+    assertThat(cache.get(Key.create(host), oldTime)).isNull();
+    assertThat(cache.get(Key.create(host), oldTime)).isNull();
+    assertThat(cache.stats().hitCount()).isEqualTo(1);
+    assertThat(cache.stats().missCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testGet_doesNotExist_returnsNull() {
+    assertThat(cache.get(Key.create(HostResource.class, "1-NONEXISTENT"), oldTime)).isNull();
+  }
+
+  @Test
+  public void testPrefetch_servesLaterLookups() {
+    HostResource otherHost = persistResource(newHostResource("ns2.cat.tld"));
+    cache.prefetch(
+        ImmutableList.of(Key.create(currentHost), Key.create(otherHost)),
+        ImmutableList.of(oldTime, clock.nowUtc()));
+    assertThat(cache.stats().missCount()).isEqualTo(4);
+    assertThat(cache.get(Key.create(currentHost), oldTime)).isEqualTo(oldHost);
+    assertThat(cache.get(Key.create(currentHost), clock.nowUtc())).isEqualTo(currentHost);
+    assertThat(cache.get(Key.create(otherHost), oldTime)).isNull();
+    assertThat(cache.get(Key.create(otherHost), clock.nowUtc())).isEqualTo(otherHost);
+    assertThat(cache.stats().hitCount()).isEqualTo(4);
+    assertThat(cache.stats().missCount()).isEqualTo(4);
+  }
+
+  @Test
+  public void testPrefetch_alreadyCached_notProjectedAgain() {
+    cache.get(Key.create(currentHost), oldTime);
+    cache.prefetch(ImmutableList.of(Key.create(currentHost)), ImmutableList.of(oldTime));
+    assertThat(cache.stats().missCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testGet_overMaxSize_evicts() {
+    ProjectedResourceCache<HostResource> smallCache = ProjectedResourceCache.create(1);
+    smallCache.get(Key.create(currentHost), oldTime);
+    smallCache.get(Key.create(currentHost), clock.nowUtc());
+    assertThat(smallCache.get(Key.create(currentHost), oldTime)).isEqualTo(oldHost);
+    assertThat(smallCache.stats().missCount()).isEqualTo(3);
+    assertThat(smallCache.stats().evictionCount()).isEqualTo(2);
+  }
+}
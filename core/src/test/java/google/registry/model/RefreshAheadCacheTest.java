@@ -0,0 +1,156 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.monitoring.metrics.contrib.LongMetricSubject.assertThat;
+import static google.registry.model.RefreshAheadCache.loadTime;
+import static google.registry.model.RefreshAheadCache.requests;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Streams;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RefreshAheadCache}. */
+@RunWith(JUnit4.class)
+public class RefreshAheadCacheTest {
+
+  private final AtomicInteger loads = new AtomicInteger();
+  private final AtomicInteger batchLoads = new AtomicInteger();
+
+  /** Maps each key to its length, suffixed with the number of loads done so far. */
+  private final CacheLoader<String, String> loader =
+      new CacheLoader<String, String>() {
+        @Override
+        public String load(String key) {
+          return key.length() + "-" + loads.incrementAndGet();
+        }
+
+        @Override
+        public Map<String, String> loadAll(Iterable<? extends String> keys) {
+          batchLoads.incrementAndGet();
+          return Streams.stream(keys).collect(toImmutableMap(key -> key, this::load));
+        }
+      };
+
+  @Before
+  public void before() {
+    requests.reset();
+    loadTime.reset();
+  }
+
+  @Test
+  public void testGet_countsHitsAndMisses() throws Exception {
+    RefreshAheadCache<String, String> cache =
+        RefreshAheadCache.create("test", Duration.ZERO, Duration.standardDays(1), 10, loader);
+    assertThat(cache.get("abc")).isEqualTo("3-1");
+    assertThat(cache.get("abc")).isEqualTo("3-1");
+    assertThat(loads.get()).isEqualTo(1);
+    assertThat(requests)
+        .hasValueForLabels(1, "test", "MISS")
+        .and()
+        .hasValueForLabels(1, "test", "HIT")
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testGetAll_loadsOnlyMissingKeysInOneBatch() throws Exception {
+    RefreshAheadCache<String, String> cache =
+        RefreshAheadCache.create("test", Duration.ZERO, Duration.standardDays(1), 10, loader);
+    cache.get("a");
+    assertThat(cache.getAll(ImmutableList.of("a", "bb", "ccc", "bb")))
+        .containsExactly("a", "1-1", "bb", "2-2", "ccc", "3-3")
+        .inOrder();
+    assertThat(batchLoads.get()).isEqualTo(1);
+    assertThat(requests)
+        .hasValueForLabels(3, "test", "MISS")
+        .and()
+        .hasValueForLabels(1, "test", "HIT")
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testGetAll_allCached_doesNotLoad() throws Exception {
+    RefreshAheadCache<String, String> cache =
+        RefreshAheadCache.create("test", Duration.ZERO, Duration.standardDays(1), 10, loader);
+    cache.getAll(ImmutableList.of("a", "bb"));
+    assertThat(cache.getAll(ImmutableList.of("bb", "a")))
+        .isEqualTo(ImmutableMap.of("bb", "2-2", "a", "1-1"));
+    assertThat(batchLoads.get()).isEqualTo(1);
+    assertThat(requests)
+        .hasValueForLabels(2, "test", "MISS")
+        .and()
+        .hasValueForLabels(2, "test", "HIT")
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testGet_refreshesEntryDueForRefresh() throws Exception {
+    RefreshAheadCache<String, String> cache =
+        RefreshAheadCache.create("test", Duration.millis(1), Duration.standardDays(1), 10, loader);
+    assertThat(cache.get("abc")).isEqualTo("3-1");
+    Thread.sleep(10);
+    // Outside of App Engine reloads run synchronously, so the refreshed value is returned at once.
+    assertThat(cache.get("abc")).isEqualTo("3-2");
+    assertThat(requests)
+        .hasValueForLabels(1, "test", "MISS")
+        .and()
+        .hasValueForLabels(1, "test", "HIT")
+        .and()
+        .hasNoOtherValues();
+    assertThat(loadTime.getTimestampedValues()).hasSize(2);
+  }
+
+  @Test
+  public void testGet_refreshNotShorterThanExpiry_neverRefreshes() throws Exception {
+    RefreshAheadCache<String, String> cache =
+        RefreshAheadCache.create(
+            "test", Duration.standardDays(2), Duration.standardDays(1), 10, loader);
+    cache.get("abc");
+    Thread.sleep(10);
+    assertThat(cache.get("abc")).isEqualTo("3-1");
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testGet_weighted_evictsOverMaximumWeight() throws Exception {
+    RefreshAheadCache<String, String> cache =
+        RefreshAheadCache.create(
+            "test",
+            Duration.ZERO,
+            Duration.standardDays(1),
+            5,
+            (String key, String value) -> key.length(),
+            loader);
+    assertThat(cache.get("abcd")).isEqualTo("4-1");
+    assertThat(cache.get("abcd")).isEqualTo("4-1");
+    // The two entries together weigh more than the maximum, so the first is evicted.
+    assertThat(cache.get("xyz")).isEqualTo("3-2");
+    assertThat(cache.get("abcd")).isEqualTo("4-3");
+    assertThat(loads.get()).isEqualTo(3);
+  }
+}
@@ -0,0 +1,174 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.host;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.DatastoreHelper.newHostResource;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.InetAddresses;
+import com.googlecode.objectify.Key;
+import google.registry.model.EntityTestCase;
+import google.registry.model.host.HostInetAddressIndex.ActiveHosts;
+import google.registry.testing.TestCacheRule;
+import java.net.InetAddress;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/** Unit tests for {@link HostInetAddressIndex}. */
+public class HostInetAddressIndexTest extends EntityTestCase {
+
+  private static final InetAddress ADDRESS = InetAddresses.forString("192.0.2.1");
+  private static final InetAddress OTHER_ADDRESS = InetAddresses.forString("2001:db8::1");
+
+  @Rule
+  public final TestCacheRule testCacheRule =
+      new TestCacheRule.Builder().withHostsByInetAddressCache(Duration.standardDays(1)).build();
+
+  @Before
+  public void before() {
+    inject.setStaticField(HostInetAddressIndex.class, "clock", fakeClock);
+  }
+
+  private ImmutableList<HostResource> loadActiveHosts(InetAddress inetAddress) {
+    return HostInetAddressIndex.loadActiveHosts(
+            inetAddress, fakeClock.nowUtc(), host -> true, Integer.MAX_VALUE)
+        .hosts();
+  }
+
+  private static HostResource persistHost(String hostName, InetAddress... addresses) {
+    return persistResource(
+        newHostResource(hostName)
+            .asBuilder()
+            .setInetAddresses(ImmutableSet.copyOf(addresses))
+            .build());
+  }
+
+  @Test
+  public void testLoadActiveHosts_onlyActiveHostsWithAddress() {
+    HostResource host1 = persistHost("ns1.example.tld", ADDRESS);
+    HostResource host2 = persistHost("ns2.example.tld", ADDRESS, OTHER_ADDRESS);
+    persistHost("ns3.example.tld", OTHER_ADDRESS);
+    persistResource(
+        persistHost("ns4.example.tld", ADDRESS)
+            .asBuilder()
+            .setDeletionTime(fakeClock.nowUtc().minusDays(1))
+            .build());
+    assertThat(loadActiveHosts(ADDRESS))
+        .containsExactly(host1, host2);
+  }
+
+  @Test
+  public void testLoadActiveHosts_noHosts() {
+    persistHost("ns1.example.tld", OTHER_ADDRESS);
+    assertThat(loadActiveHosts(ADDRESS)).isEmpty();
+  }
+
+  @Test
+  public void testLoadActiveHosts_cached_newHostNotFoundUntilExpiry() {
+    HostResource host1 = persistHost("ns1.example.tld", ADDRESS);
+    assertThat(loadActiveHosts(ADDRESS))
+        .containsExactly(host1);
+    persistHost("ns2.example.tld", ADDRESS);
+    assertThat(loadActiveHosts(ADDRESS))
+        .containsExactly(host1);
+  }
+
+  @Test
+  public void testLoadActiveHosts_cached_changedHostsAreReloaded() {
+    HostResource host1 = persistHost("ns1.example.tld", ADDRESS);
+    HostResource host2 = persistHost("ns2.example.tld", ADDRESS);
+    HostResource host3 = persistHost("ns3.example.tld", ADDRESS);
+    assertThat(loadActiveHosts(ADDRESS))
+        .containsExactly(host1, host2, host3);
+    HostResource updatedHost1 =
+        persistResource(host1.asBuilder().setLastTransferTime(fakeClock.nowUtc()).build());
+    persistResource(host2.asBuilder().setInetAddresses(ImmutableSet.of(OTHER_ADDRESS)).build());
+    persistResource(host3.asBuilder().setDeletionTime(fakeClock.nowUtc()).build());
+    assertThat(loadActiveHosts(ADDRESS))
+        .containsExactly(updatedHost1);
+  }
+
+  @Test
+  public void testLoadActiveHosts_futureDeletionTime() {
+    HostResource host =
+        persistResource(
+            persistHost("ns1.example.tld", ADDRESS)
+                .asBuilder()
+                .setDeletionTime(fakeClock.nowUtc().plusDays(1))
+                .build());
+    assertThat(loadActiveHosts(ADDRESS)).containsExactly(host);
+    fakeClock.advanceBy(Duration.standardDays(2));
+    assertThat(loadActiveHosts(ADDRESS)).isEmpty();
+  }
+
+  @Test
+  public void testLoadActiveHosts_limit() {
+    ImmutableList<HostResource> hosts = persistHosts(5, ADDRESS);
+    ActiveHosts activeHosts =
+        HostInetAddressIndex.loadActiveHosts(ADDRESS, fakeClock.nowUtc(), host -> true, 3);
+    assertThat(activeHosts.hosts()).containsExactlyElementsIn(hosts.subList(0, 3)).inOrder();
+    assertThat(activeHosts.mightBeIncomplete()).isFalse();
+  }
+
+  @Test
+  public void testLoadActiveHosts_filter() {
+    ImmutableList<HostResource> hosts = persistHosts(5, ADDRESS);
+    ActiveHosts activeHosts =
+        HostInetAddressIndex.loadActiveHosts(
+            ADDRESS, fakeClock.nowUtc(), host -> !host.equals(hosts.get(1)), 3);
+    assertThat(activeHosts.hosts())
+        .containsExactly(hosts.get(0), hosts.get(2), hosts.get(3))
+        .inOrder();
+  }
+
+  @Test
+  public void testLoadActiveHosts_moreHostsThanIndexed_mightBeIncomplete() {
+    inject.setStaticField(HostInetAddressIndex.class, "maxHostsPerAddress", 3);
+    ImmutableList<HostResource> hosts = persistHosts(5, ADDRESS);
+    ActiveHosts activeHosts =
+        HostInetAddressIndex.loadActiveHosts(
+            ADDRESS, fakeClock.nowUtc(), host -> true, Integer.MAX_VALUE);
+    assertThat(activeHosts.hosts()).hasSize(3);
+    assertThat(hosts).containsAtLeastElementsIn(activeHosts.hosts());
+    assertThat(activeHosts.mightBeIncomplete()).isTrue();
+  }
+
+  @Test
+  public void testLoadActiveHosts_exactlyAsManyHostsAsIndexed_complete() {
+    inject.setStaticField(HostInetAddressIndex.class, "maxHostsPerAddress", 5);
+    ImmutableList<HostResource> hosts = persistHosts(5, ADDRESS);
+    ActiveHosts activeHosts =
+        HostInetAddressIndex.loadActiveHosts(
+            ADDRESS, fakeClock.nowUtc(), host -> true, Integer.MAX_VALUE);
+    assertThat(activeHosts.hosts()).containsExactlyElementsIn(hosts).inOrder();
+    assertThat(activeHosts.mightBeIncomplete()).isFalse();
+  }
+
+  /** Persists hosts with the given address, and returns them in order of their keys. */
+  private static ImmutableList<HostResource> persistHosts(int count, InetAddress address) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> persistHost(String.format("ns%d.example.tld", i), address))
+        .sorted(Comparator.comparing(host -> Key.create(host)))
+        .collect(toImmutableList());
+  }
+}
@@ -16,8 +16,11 @@ package google.registry.model.rde;
 
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.model.rde.RdeMode.DIFF;
 import static google.registry.model.rde.RdeMode.FULL;
 import static google.registry.model.rde.RdeRevision.getNextRevision;
+import static google.registry.model.rde.RdeRevision.getStagedRdeMode;
+import static google.registry.model.rde.RdeRevision.isRdeDepositStaged;
 import static google.registry.model.rde.RdeRevision.saveRevision;
 import static google.registry.persistence.transaction.TransactionManagerFactory.tm;
 import static org.junit.Assert.assertThrows;
@@ -132,6 +135,26 @@ public class RdeRevisionTest {
     assertThat(thrown).hasMessageThat().contains("transaction");
   }
 
+  @Test
+  public void testIsRdeDepositStaged_nothingStaged_returnsFalse() {
+    save("anguish", DateTime.parse("1984-12-17TZ"), FULL, 0);
+    assertThat(isRdeDepositStaged("anguish", DateTime.parse("1984-12-18TZ"))).isFalse();
+  }
+
+  @Test
+  public void testIsRdeDepositStaged_fullStaged_returnsTrue() {
+    save("anguish", DateTime.parse("1984-12-18TZ"), FULL, 0);
+    assertThat(isRdeDepositStaged("anguish", DateTime.parse("1984-12-18TZ"))).isTrue();
+    assertThat(getStagedRdeMode("anguish", DateTime.parse("1984-12-18TZ"))).isEqualTo(FULL);
+  }
+
+  @Test
+  public void testIsRdeDepositStaged_diffStaged_returnsTrue() {
+    save("anguish", DateTime.parse("1984-12-18TZ"), DIFF, 0);
+    assertThat(isRdeDepositStaged("anguish", DateTime.parse("1984-12-18TZ"))).isTrue();
+    assertThat(getStagedRdeMode("anguish", DateTime.parse("1984-12-18TZ"))).isEqualTo(DIFF);
+  }
+
   public static void save(String tld, DateTime date, RdeMode mode, int revision) {
     String triplet = RdeNamingUtils.makePartialName(tld, date, mode);
     RdeRevision object = new RdeRevision();
@@ -0,0 +1,82 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry.label;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import google.registry.model.registry.label.PremiumList.PremiumListEntry;
+import java.util.stream.IntStream;
+import org.joda.money.Money;
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for {@link PremiumListIndex}. */
+class PremiumListIndexTest {
+
+  private static PremiumListEntry entry(String label, String price) {
+    return new PremiumListEntry.Builder().setLabel(label).setPrice(Money.parse(price)).build();
+  }
+
+  @Test
+  void testGetPrice_mixedCurrencies() {
+    PremiumListIndex index =
+        PremiumListIndex.create(
+            ImmutableList.of(
+                entry("rich", "USD 1999"),
+                entry("icann", "JPY 100"),
+                entry("johnny-be-goode", "USD 20.50"),
+                entry("sleighbells", "CHF 2000")));
+    assertThat(index.size()).isEqualTo(4);
+    assertThat(index.getPrice("rich")).hasValue(Money.parse("USD 1999"));
+    assertThat(index.getPrice("icann")).hasValue(Money.parse("JPY 100"));
+    assertThat(index.getPrice("johnny-be-goode")).hasValue(Money.parse("USD 20.50"));
+    assertThat(index.getPrice("sleighbells")).hasValue(Money.parse("CHF 2000"));
+    assertThat(index.getPrice("poor")).isEmpty();
+  }
+
+  @Test
+  void testGetPrice_empty() {
+    PremiumListIndex index = PremiumListIndex.create(ImmutableList.of());
+    assertThat(index.size()).isEqualTo(0);
+    assertThat(index.getPrice("rich")).isEmpty();
+  }
+
+  @Test
+  void testGetPrice_manyLabels() {
+    PremiumListIndex index =
+        PremiumListIndex.create(
+            IntStream.range(0, 5000)
+                .mapToObj(i -> entry("label" + i, "USD " + i))
+                .collect(ImmutableList.toImmutableList()));
+    assertThat(index.size()).isEqualTo(5000);
+    for (int i = 0; i < 5000; i++) {
+      assertThat(index.getPrice("label" + i)).hasValue(Money.parse("USD " + i));
+    }
+    assertThat(index.getPrice("label5000")).isEmpty();
+  }
+
+  @Test
+  void testCreate_duplicateLabel_throws() {
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class,
+            () ->
+                PremiumListIndex.create(
+                    ImmutableList.of(entry("rich", "USD 1999"), entry("rich", "USD 10"))));
+    assertThat(thrown).hasMessageThat().contains("Duplicate premium list label: rich");
+  }
+}
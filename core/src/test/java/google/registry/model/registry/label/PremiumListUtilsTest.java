@@ -22,6 +22,8 @@ import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.BLOOM_FILTER_NEGATIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.CACHED_NEGATIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.CACHED_POSITIVE;
+import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.INDEXED_NEGATIVE;
+import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.INDEXED_POSITIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.UNCACHED_NEGATIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.PremiumListCheckOutcome.UNCACHED_POSITIVE;
 import static google.registry.model.registry.label.DomainLabelMetrics.premiumListChecks;
@@ -29,6 +31,7 @@ import static google.registry.model.registry.label.DomainLabelMetrics.premiumLis
 import static google.registry.model.registry.label.PremiumListUtils.deletePremiumList;
 import static google.registry.model.registry.label.PremiumListUtils.doesPremiumListExist;
 import static google.registry.model.registry.label.PremiumListUtils.getPremiumPrice;
+import static google.registry.model.registry.label.PremiumListUtils.prefetchPremiumListEntries;
 import static google.registry.model.registry.label.PremiumListUtils.savePremiumListAndEntries;
 import static google.registry.persistence.transaction.TransactionManagerFactory.tm;
 import static google.registry.testing.DatastoreHelper.createTld;
@@ -42,6 +45,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
+import google.registry.config.RegistryConfig;
 import google.registry.dns.writer.VoidDnsWriter;
 import google.registry.model.pricing.StaticPremiumListPricingEngine;
 import google.registry.model.registry.Registry;
@@ -70,6 +74,7 @@ public class PremiumListUtilsTest {
       new TestCacheRule.Builder()
           .withPremiumListsCache(standardDays(1))
           .withPremiumListEntriesCache(standardDays(1))
+          .withPremiumListIndexesCache(standardDays(1))
           .build();
 
   @Before
@@ -196,6 +201,52 @@ public class PremiumListUtilsTest {
         .hasNoOtherValues();
   }
 
+  @Test
+  public void testPrefetchPremiumListEntries_laterLookupsAreCached() {
+    prefetchPremiumListEntries(ImmutableList.of("rich", "lol", "notpremium"), Registry.get("tld"));
+    assertThat(premiumListChecks).hasNoOtherValues();
+    assertThat(getPremiumPrice("rich", Registry.get("tld"))).hasValue(Money.parse("USD 1999"));
+    assertThat(getPremiumPrice("lol", Registry.get("tld"))).hasValue(Money.parse("USD 999"));
+    assertThat(getPremiumPrice("notpremium", Registry.get("tld"))).isEmpty();
+    assertThat(premiumListChecks)
+        .hasValueForLabels(2, "tld", "tld", CACHED_POSITIVE.toString())
+        .and()
+        .hasValueForLabels(1, "tld", "tld", BLOOM_FILTER_NEGATIVE.toString())
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testPrefetchPremiumListEntries_noPremiumList_doesNothing() {
+    createTld("ghost");
+    persistResource(Registry.get("ghost").asBuilder().setPremiumList(null).build());
+    prefetchPremiumListEntries(ImmutableList.of("blah"), Registry.get("ghost"));
+    assertThat(premiumListChecks).hasNoOtherValues();
+  }
+
+  @Test
+  public void testGetPremiumPrice_indexEnabled_usesIndexOnly() {
+    boolean origIsIndexEnabled = RegistryConfig.isPremiumListIndexEnabled();
+    try {
+      RegistryConfig.overrideIsPremiumListIndexEnabledForTesting(true);
+      prefetchPremiumListEntries(ImmutableList.of("rich"), Registry.get("tld"));
+      assertThat(getPremiumPrice("rich", Registry.get("tld"))).hasValue(Money.parse("USD 1999"));
+      assertThat(getPremiumPrice("icann", Registry.get("tld"))).hasValue(Money.parse("JPY 100"));
+      assertThat(getPremiumPrice("johnny-be-goode", Registry.get("tld")))
+          .hasValue(Money.parse("USD 20.50"));
+      assertThat(getPremiumPrice("notpremium", Registry.get("tld"))).isEmpty();
+    } finally {
+      RegistryConfig.overrideIsPremiumListIndexEnabledForTesting(origIsIndexEnabled);
+    }
+    assertThat(PremiumList.cachePremiumListEntries.size()).isEqualTo(0);
+    assertThat(premiumListChecks)
+        .hasValueForLabels(3, "tld", "tld", INDEXED_POSITIVE.toString())
+        .and()
+        .hasValueForLabels(1, "tld", "tld", INDEXED_NEGATIVE.toString())
+        .and()
+        .hasNoOtherValues();
+  }
+
   @Test
   public void testGetPremiumPrice_bloomFilterFalsePositive() {
     // Remove one of the premium list entries from behind the Bloom filter's back.
@@ -201,6 +201,21 @@ public class ReservedListTest {
         .hasNoOtherValues();
   }
 
+  @Test
+  public void testGetReservationTypes_multipleLabels_matchesSingleLabelLookups() {
+    ReservedList rl1 = persistReservedList(
+        "reserved1", "lol,NAME_COLLISION", "roflcopter,ALLOWED_IN_SUNRISE");
+    ReservedList rl2 = persistReservedList("reserved2", "lol,FULLY_BLOCKED");
+    createTld("tld");
+    persistResource(Registry.get("tld").asBuilder().setReservedLists(rl1, rl2).build());
+    assertThat(getReservationTypes(ImmutableList.of("lol", "roflcopter", "available", ""), "tld"))
+        .containsExactly(
+            "lol", ImmutableSet.of(FULLY_BLOCKED, NAME_COLLISION),
+            "roflcopter", ImmutableSet.of(ALLOWED_IN_SUNRISE),
+            "available", ImmutableSet.of(),
+            "", ImmutableSet.of(FULLY_BLOCKED));
+  }
+
   @Test
   public void testGetReservationTypes_combinesMultipleLists() {
     ReservedList rl1 = persistReservedList(
@@ -77,6 +77,15 @@ public class LockTest {
     Lock.lockMetrics = null;
   }
 
+  private Optional<Lock> renew(Lock lock, Duration leaseLength, boolean expectedRenewed) {
+    Lock.lockMetrics = mock(LockMetrics.class);
+    Optional<Lock> renewedLock = lock.renew(leaseLength);
+    verify(Lock.lockMetrics).recordRenewal(RESOURCE_NAME, "", expectedRenewed);
+    verifyNoMoreInteractions(Lock.lockMetrics);
+    Lock.lockMetrics = null;
+    return renewedLock;
+  }
+
   @Before public void setUp() {
     inject.setStaticField(Ofy.class, "clock", clock);
     origLockMetrics = Lock.lockMetrics;
@@ -140,6 +149,88 @@ public class LockTest {
     assertThat(acquire("b", ONE_DAY, IN_USE)).isEmpty();
   }
 
+  @Test
+  public void testRenew_extendsLease() {
+    Optional<Lock> lock = acquire("", TWO_MILLIS, FREE);
+    clock.advanceOneMilli();
+    Optional<Lock> renewedLock = renew(lock.get(), TWO_MILLIS, true);
+    assertThat(renewedLock).isPresent();
+    assertThat(renewedLock.get().getExpirationTime()).isEqualTo(clock.nowUtc().plus(TWO_MILLIS));
+    assertThat(renewedLock.get().getAcquiredTime()).isEqualTo(lock.get().getAcquiredTime());
+    assertThat(renewedLock.get().getFencingToken()).isEqualTo(lock.get().getFencingToken());
+    // The original lease would have run out by now, but the renewed one hasn't.
+    clock.advanceOneMilli();
+    assertThat(acquire("", TWO_MILLIS, IN_USE)).isEmpty();
+    // The renewed lock must be used to release the lock.
+    release(renewedLock.get(), "", 2);
+    assertThat(acquire("", TWO_MILLIS, FREE)).isPresent();
+  }
+
+  @Test
+  public void testRenew_failsAfterLockWasTakenOver() {
+    Optional<Lock> lock = acquire("", TWO_MILLIS, FREE);
+    clock.advanceBy(TWO_MILLIS);
+    Optional<Lock> newLock = acquire("", ONE_DAY, TIMED_OUT);
+    assertThat(newLock).isPresent();
+    assertThat(newLock.get().getFencingToken()).isGreaterThan(lock.get().getFencingToken());
+    assertThat(renew(lock.get(), ONE_DAY, false)).isEmpty();
+    assertThat(acquire("", ONE_DAY, IN_USE)).isEmpty();
+  }
+
+  @Test
+  public void testRenew_failsAfterRelease() {
+    Optional<Lock> lock = acquire("", ONE_DAY, FREE);
+    release(lock.get(), "", 0);
+    assertThat(renew(lock.get(), ONE_DAY, false)).isEmpty();
+    assertThat(acquire("", ONE_DAY, FREE)).isPresent();
+  }
+
+  @Test
+  public void testFencingToken_increasesEvenIfClockGoesBackwards() {
+    Optional<Lock> lock = acquire("", ONE_DAY, FREE);
+    assertThat(lock.get().getFencingToken()).isEqualTo(clock.nowUtc().getMillis());
+    when(requestStatusChecker.isRunning("current-request-id")).thenReturn(false);
+    clock.setTo(clock.nowUtc().minusSeconds(1));
+    Optional<Lock> newLock = acquire("", ONE_DAY, OWNER_DIED);
+    assertThat(newLock.get().getFencingToken()).isEqualTo(lock.get().getFencingToken() + 1);
+  }
+
+  @Test
+  public void testIsHeld_whileLeaseIsValid() {
+    Optional<Lock> lock = acquire("", TWO_MILLIS, FREE);
+    long fencingToken = lock.get().getFencingToken();
+    assertThat(Lock.isHeld(RESOURCE_NAME, "", fencingToken)).isTrue();
+    assertThat(Lock.isHeld(RESOURCE_NAME, "a", fencingToken)).isFalse();
+    // Renewals keep the same token.
+    clock.advanceOneMilli();
+    renew(lock.get(), TWO_MILLIS, true);
+    clock.advanceOneMilli();
+    assertThat(Lock.isHeld(RESOURCE_NAME, "", fencingToken)).isTrue();
+  }
+
+  @Test
+  public void testIsHeld_falseAfterLeaseExpires() {
+    Optional<Lock> lock = acquire("", TWO_MILLIS, FREE);
+    clock.advanceBy(TWO_MILLIS);
+    assertThat(Lock.isHeld(RESOURCE_NAME, "", lock.get().getFencingToken())).isFalse();
+  }
+
+  @Test
+  public void testIsHeld_falseAfterLockWasTakenOver() {
+    Optional<Lock> lock = acquire("", TWO_MILLIS, FREE);
+    clock.advanceBy(TWO_MILLIS);
+    Optional<Lock> newLock = acquire("", ONE_DAY, TIMED_OUT);
+    assertThat(Lock.isHeld(RESOURCE_NAME, "", lock.get().getFencingToken())).isFalse();
+    assertThat(Lock.isHeld(RESOURCE_NAME, "", newLock.get().getFencingToken())).isTrue();
+  }
+
+  @Test
+  public void testIsHeld_falseAfterRelease() {
+    Optional<Lock> lock = acquire("", ONE_DAY, FREE);
+    release(lock.get(), "", 0);
+    assertThat(Lock.isHeld(RESOURCE_NAME, "", lock.get().getFencingToken())).isFalse();
+  }
+
   @Test
   public void testFailure_emptyResourceName() {
     IllegalArgumentException thrown =
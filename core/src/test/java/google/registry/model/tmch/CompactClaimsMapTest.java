@@ -0,0 +1,86 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.tmch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CompactClaimsMap}. */
+@RunWith(JUnit4.class)
+public class CompactClaimsMapTest {
+
+  @Test
+  public void testCopyOf_combinesMapsInSortedOrder() {
+    Map<String, String> map =
+        CompactClaimsMap.copyOf(
+            ImmutableList.of(
+                ImmutableMap.of("zebra", "key-z", "apple", "key-a"),
+                ImmutableMap.of("mango", "key-m", "app", "key-ap")));
+    assertThat(map).isInstanceOf(CompactClaimsMap.class);
+    assertThat(map)
+        .containsExactly("app", "key-ap", "apple", "key-a", "mango", "key-m", "zebra", "key-z")
+        .inOrder();
+    assertThat(map.get("apple")).isEqualTo("key-a");
+    assertThat(map.get("appl")).isNull();
+    assertThat(map.get("zebras")).isNull();
+    assertThat(map.containsKey("mango")).isTrue();
+    assertThat(map.containsKey("")).isFalse();
+  }
+
+  @Test
+  public void testCopyOf_duplicateLabel_lastMapWins() {
+    Map<String, String> map =
+        CompactClaimsMap.copyOf(
+            ImmutableList.of(
+                ImmutableMap.of("label", "first", "other", "key"),
+                ImmutableMap.of("label", "second")));
+    assertThat(map).containsExactly("label", "second", "other", "key");
+  }
+
+  @Test
+  public void testCopyOf_empty() {
+    Map<String, String> map = CompactClaimsMap.copyOf(ImmutableList.of());
+    assertThat(map).isEmpty();
+    assertThat(map.get("label")).isNull();
+  }
+
+  @Test
+  public void testCopyOf_nonLatin1_fallsBackToImmutableMap() {
+    Map<String, String> map =
+        CompactClaimsMap.copyOf(
+            ImmutableList.of(ImmutableMap.of("label", "key"), ImmutableMap.of("ラベル", "ключ")));
+    assertThat(map).isInstanceOf(ImmutableMap.class);
+    assertThat(map).containsExactly("label", "key", "ラベル", "ключ");
+  }
+
+  @Test
+  public void testEquals_sameAsHashMap() {
+    Map<String, String> expected = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      expected.put("label" + i, "key" + i);
+    }
+    Map<String, String> map = CompactClaimsMap.copyOf(ImmutableList.of(expected));
+    assertThat(map).isEqualTo(expected);
+    assertThat(expected).isEqualTo(map);
+    assertThat(map.hashCode()).isEqualTo(expected.hashCode());
+  }
+}
@@ -289,6 +289,27 @@ public final class AbstractJsonableObjectTest {
         .isEqualTo(createJson("{'messages':['message 1','more messages','message 2']}"));
   }
 
+  private static final class WithPrivateMembers extends AbstractJsonableObject {
+    @JsonableElement private final String name;
+
+    WithPrivateMembers(String name) {
+      this.name = name;
+    }
+
+    @JsonableElement
+    private String upperName() {
+      return name.toUpperCase();
+    }
+  }
+
+  @Test
+  public void testSameClass_eachInstanceUsesItsOwnValues() {
+    assertThat(new WithPrivateMembers("a").toJson())
+        .isEqualTo(createJson("{'name':'a','upperName':'A'}"));
+    assertThat(new WithPrivateMembers("b").toJson())
+        .isEqualTo(createJson("{'name':'b','upperName':'B'}"));
+  }
+
   private abstract static class BaseToOverride extends AbstractJsonableObject {
     @JsonableElement String annotationOnlyOnBase() {
       return "old value";
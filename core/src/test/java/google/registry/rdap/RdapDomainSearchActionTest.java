@@ -1202,6 +1202,65 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase<RdapDom
             "domain9.lol"));
   }
 
+  @Test
+  public void testDomainMatch_prefixOnly_deletedAndRecreatedDomain_foundNewDomain() {
+    // Prefix searches without a suffix scan the domain foreign key indexes, which point to the
+    // newest domain with each name.
+    persistDomainAsDeleted(domainCatLol, clock.nowUtc().minusDays(1));
+    DomainBase newDomainCatLol =
+        persistResource(
+            makeDomainBase("cat.lol", contact1, contact2, contact3, null, null, registrar)
+                .asBuilder()
+                .setCreationTimeForTest(clock.nowUtc().minusHours(1))
+                .build());
+    rememberWildcardType("cat.l*");
+    JsonObject obj = generateActualJson(RequestType.NAME, "cat.l*");
+    assertThat(response.getStatus()).isEqualTo(200);
+    checkNumberOfDomainsInResult(obj, 1);
+    JsonObject result = obj.getAsJsonArray("domainSearchResults").get(0).getAsJsonObject();
+    assertThat(result.get("ldhName").getAsString()).isEqualTo("cat.lol");
+    assertThat(result.get("handle").getAsString()).isEqualTo(newDomainCatLol.getRepoId());
+    assertThat(newDomainCatLol.getRepoId()).isNotEqualTo(domainCatLol.getRepoId());
+    verifyMetrics(SearchType.BY_DOMAIN_NAME, Optional.of(1L));
+  }
+
+  @Test
+  public void testDomainMatch_prefixOnly_cursorNavigationSkipsDeletedDomains() throws Exception {
+    // Every other domain is deleted, so each page has to scan past deleted names.
+    createManyDomainsAndHosts(6, 2, 2);
+    checkCursorNavigation(
+        RequestType.NAME,
+        "domain*",
+        ImmutableList.of(
+            "domain10.lol",
+            "domain12.lol",
+            "domain2.lol",
+            "domain4.lol",
+            "domain6.lol",
+            "domain8.lol"));
+  }
+
+  @Test
+  public void testDomainMatch_prefixOnly_partialResultSetDueToFetchingLimit() {
+    // Same as testDomainMatch_manyDeletedDomains_partialResultSetDueToFetchingLimit, but without a
+    // TLD suffix, so that the foreign key indexes are scanned rather than the domains.
+    createManyDomainsAndHosts(4, 50, 2);
+    rememberWildcardType("domain*");
+    assertThat(generateActualJson(RequestType.NAME, "domain*"))
+        .isEqualTo(
+            jsonFileBuilder()
+                .addDomain("domain100.lol", "A7-LOL")
+                .addDomain("domain150.lol", "75-LOL")
+                .addDomain("domain200.lol", "43-LOL")
+                .addDomain("domainunused.lol", "unused-LOL")
+                .load("rdap_incomplete_domain_result_set.json"));
+    assertThat(response.getStatus()).isEqualTo(200);
+    verifyMetrics(
+        SearchType.BY_DOMAIN_NAME,
+        Optional.of(120L),
+        IncompletenessWarningType.MIGHT_BE_INCOMPLETE);
+  }
+
   @Test
   public void testNameserverMatch_foundMultiple() {
     rememberWildcardType("ns1.cat.lol");
@@ -1754,6 +1813,40 @@ public class RdapDomainSearchActionTest extends RdapSearchActionTestCase<RdapDom
     verifyErrorMetrics(SearchType.BY_NAMESERVER_ADDRESS, Optional.empty(), Optional.of(0L), 404);
   }
 
+  @Test
+  public void testAddressMatchPendingDeleteNameserver_found() {
+    persistResource(hostNs1CatLol.asBuilder().setDeletionTime(clock.nowUtc().plusDays(1)).build());
+    rememberWildcardType("1.2.3.4");
+    JsonObject obj = generateActualJson(RequestType.NS_IP, "1.2.3.4");
+    assertThat(response.getStatus()).isEqualTo(200);
+    checkNumberOfDomainsInResult(obj, 2);
+    verifyMetrics(SearchType.BY_NAMESERVER_ADDRESS, 2, 1);
+  }
+
+  @Test
+  public void testAddressMatch_moreNameserversThanFirstStageLimit_mightBeIncomplete() {
+    // Only the first 40 of the hosts with the address are searched, so domains might be missed.
+    ImmutableSet.Builder<VKey<HostResource>> hostKeysBuilder = new ImmutableSet.Builder<>();
+    for (int i = 1; i <= 41; i++) {
+      hostKeysBuilder.add(
+          makeAndPersistHostResource(
+                  String.format("ns%d.shared.example", i),
+                  "5.5.5.200",
+                  clock.nowUtc().minusYears(1))
+              .createVKey());
+    }
+    persistResource(domainCatLol.asBuilder().setNameservers(hostKeysBuilder.build()).build());
+    rememberWildcardType("5.5.5.200");
+    JsonObject obj = generateActualJson(RequestType.NS_IP, "5.5.5.200");
+    assertThat(response.getStatus()).isEqualTo(200);
+    checkNumberOfDomainsInResult(obj, 1);
+    verifyMetrics(
+        SearchType.BY_NAMESERVER_ADDRESS,
+        Optional.of(1L),
+        Optional.of(40L),
+        IncompletenessWarningType.MIGHT_BE_INCOMPLETE);
+  }
+
   @Test
   public void testAddressMatch_nontruncatedResultsSet() {
     createManyDomainsAndHosts(4, 1, 2);
@@ -38,6 +38,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.googlecode.objectify.Key;
 import google.registry.model.domain.DomainBase;
+import google.registry.model.host.HostInetAddressIndex;
 import google.registry.model.host.HostResource;
 import google.registry.model.registrar.Registrar;
 import google.registry.rdap.RdapMetrics.EndpointType;
@@ -779,6 +780,24 @@ public class RdapNameserverSearchActionTest
     verifyErrorMetrics();
   }
 
+  @Test
+  public void testAddressMatchPendingDeleteHost_found() {
+    persistResource(hostNs1CatLol.asBuilder().setDeletionTime(clock.nowUtc().plusDays(1)).build());
+    generateActualJsonWithIp("1.2.3.4");
+    assertThat(response.getStatus()).isEqualTo(200);
+    verifyMetrics(1);
+  }
+
+  @Test
+  public void testAddressMatch_moreHostsThanIndexed_mightBeIncomplete() {
+    inject.setStaticField(HostInetAddressIndex.class, "maxHostsPerAddress", 3);
+    createManyHosts(5);
+    JsonObject results = generateActualJsonWithIp("5.5.5.1");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(results.getAsJsonArray("nameserverSearchResults")).hasSize(3);
+    verifyMetrics(3, IncompletenessWarningType.MIGHT_BE_INCOMPLETE);
+  }
+
   @Test
   public void testAddressMatch_nontruncatedResultSet() {
     createManyHosts(4);
@@ -18,17 +18,22 @@ import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.common.Cursor.CursorType.BRDA;
 import static google.registry.model.common.Cursor.CursorType.RDE_STAGING;
 import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.model.rde.RdeMode.DIFF;
 import static google.registry.model.rde.RdeMode.FULL;
 import static google.registry.model.rde.RdeMode.THIN;
+import static google.registry.persistence.transaction.TransactionManagerFactory.tm;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static org.joda.time.DateTimeConstants.SUNDAY;
 import static org.joda.time.DateTimeConstants.TUESDAY;
 import static org.joda.time.Duration.standardDays;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import google.registry.model.common.Cursor;
 import google.registry.model.common.Cursor.CursorType;
 import google.registry.model.ofy.Ofy;
+import google.registry.model.rde.RdeRevision;
 import google.registry.model.registry.Registry;
 import google.registry.schema.cursor.CursorDao;
 import google.registry.testing.AppEngineRule;
@@ -61,6 +66,7 @@ public class PendingDepositCheckerTest {
     checker.brdaInterval = standardDays(7);
     checker.clock = clock;
     checker.rdeInterval = standardDays(1);
+    checker.rdeFullDepositDaysOfWeek = ImmutableSet.of(1, 2, 3, 4, 5, 6, 7);
   }
 
   @Test
@@ -145,6 +151,36 @@ public class PendingDepositCheckerTest {
                 "lol", DateTime.parse("1999-12-30TZ"), FULL, RDE_STAGING, standardDays(1))));
   }
 
+  @Test
+  public void testMethod_notFullDepositDay_depositsDiff() {
+    checker.rdeFullDepositDaysOfWeek = ImmutableSet.of(SUNDAY);
+    clock.setTo(DateTime.parse("2000-01-01TZ"));  // Saturday
+    createTldWithEscrowEnabled("lol");
+    clock.advanceOneMilli();
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-01TZ"));
+    tm().transact(
+        () -> RdeRevision.saveRevision("lol", DateTime.parse("1999-12-31TZ"), FULL, 0));
+    clock.advanceOneMilli();
+    PendingDeposit diff =
+        PendingDeposit.create(
+            "lol", DateTime.parse("2000-01-01TZ"), DIFF, RDE_STAGING, standardDays(1));
+    assertThat(checker.getTldsAndWatermarksPendingDepositForRdeAndBrda())
+        .isEqualTo(ImmutableSetMultimap.of("lol", diff));
+    assertThat(diff.previousWatermark()).isEqualTo(DateTime.parse("1999-12-31TZ"));
+  }
+
+  @Test
+  public void testMethod_notFullDepositDay_previousDepositNotStaged_depositsFull() {
+    checker.rdeFullDepositDaysOfWeek = ImmutableSet.of(SUNDAY);
+    clock.setTo(DateTime.parse("2000-01-01TZ"));  // Saturday
+    createTldWithEscrowEnabled("lol");
+    clock.advanceOneMilli();
+    assertThat(checker.getTldsAndWatermarksPendingDepositForRdeAndBrda()).isEqualTo(
+        ImmutableSetMultimap.of(
+            "lol", PendingDeposit.create(
+                "lol", DateTime.parse("2000-01-01TZ"), FULL, RDE_STAGING, standardDays(1))));
+  }
+
   @Test
   public void testMethod_multipleTldsWithEscrowEnabled_depositsBoth() {
     clock.setTo(DateTime.parse("2000-01-01TZ"));  // Saturday
@@ -19,6 +19,8 @@ import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.common.Cursor.CursorType.BRDA;
 import static google.registry.model.common.Cursor.CursorType.RDE_STAGING;
 import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.model.rde.RdeMode.FULL;
+import static google.registry.persistence.transaction.TransactionManagerFactory.tm;
 import static google.registry.rde.RdeFixtures.makeContactResource;
 import static google.registry.rde.RdeFixtures.makeDomainBase;
 import static google.registry.rde.RdeFixtures.makeHostResource;
@@ -49,8 +51,11 @@ import google.registry.keyring.api.Keyring;
 import google.registry.keyring.api.PgpHelper;
 import google.registry.model.common.Cursor;
 import google.registry.model.common.Cursor.CursorType;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainBase;
 import google.registry.model.host.HostResource;
 import google.registry.model.ofy.Ofy;
+import google.registry.model.rde.RdeRevision;
 import google.registry.model.registry.Registry;
 import google.registry.request.HttpException.BadRequestException;
 import google.registry.request.RequestParameters;
@@ -132,10 +137,12 @@ public class RdeStagingActionTest extends MapreduceTestCase<RdeStagingAction> {
     action.clock = clock;
     action.mrRunner = makeDefaultRunner();
     action.lenient = false;
+    action.mapperFactory = new RdeStagingMapper.Factory();
+    action.mapperFactory.bucket = "rde-bucket";
     action.reducerFactory = new RdeStagingReducer.Factory();
     action.reducerFactory.taskQueueUtils = new TaskQueueUtils(new Retrier(new SystemSleeper(), 1));
     action.reducerFactory.lockHandler = new FakeLockHandler(true);
-    action.reducerFactory.gcsBufferSize = 0;
+    action.reducerFactory.gcsBufferSize = 1024;
     action.reducerFactory.bucket = "rde-bucket";
     action.reducerFactory.lockTimeout = Duration.standardHours(1);
     action.reducerFactory.stagingKeyBytes = PgpHelper.convertPublicKeyToBytes(encryptKey);
@@ -144,8 +151,10 @@ public class RdeStagingActionTest extends MapreduceTestCase<RdeStagingAction> {
     action.pendingDepositChecker.brdaInterval = Duration.standardDays(7);
     action.pendingDepositChecker.clock = clock;
     action.pendingDepositChecker.rdeInterval = Duration.standardDays(1);
+    action.pendingDepositChecker.rdeFullDepositDaysOfWeek = ImmutableSet.of(1, 2, 3, 4, 5, 6, 7);
     action.response = response;
     action.transactionCooldown = Duration.ZERO;
+    action.rdeInterval = Duration.standardDays(1);
     action.directory = Optional.empty();
     action.modeStrings = ImmutableSet.of();
     action.tlds = ImmutableSet.of();
@@ -349,6 +358,51 @@ public class RdeStagingActionTest extends MapreduceTestCase<RdeStagingAction> {
             (long) IdnTableEnum.values().length);
   }
 
+  @Test
+  public void testMapReduce_segmentsDeletedOnceStaged() throws Exception {
+    clock.setTo(DateTime.parse("1999-12-31TZ"));
+    createTldWithEscrowEnabled("lol");
+    makeDomainBase(clock, "lol");
+
+    clock.setTo(DateTime.parse("2000-01-01TZ"));
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+
+    assertThat(readGcsFile(gcsService, XML_FILE)).isNotEmpty();
+    ListResult listResult =
+        gcsService.list("rde-bucket", new ListOptions.Builder().setPrefix("segments/").build());
+    assertThat(ImmutableList.copyOf(listResult)).isEmpty();
+  }
+
+  @Test
+  public void testMapReduce_duplicateJob_skipsStagedDeposit() throws Exception {
+    clock.setTo(DateTime.parse("1999-12-31TZ"));
+    createTldWithEscrowEnabled("lol");
+    makeDomainBase(clock, "lol");
+
+    // Both jobs see the same pending deposit, since neither has rolled the cursor forward yet.
+    clock.setTo(DateTime.parse("2000-01-01TZ"));
+    action.run();
+    action.mrRunner = makeDefaultRunner();
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+
+    // The job that runs second finds the cursor rolled forward, rather than staging revision 1.
+    assertThat(readGcsFile(gcsService, XML_FILE)).isNotEmpty();
+    assertThat(
+            gcsService.getMetadata(
+                new GcsFilename("rde-bucket", "lol_2000-01-01_full_S1_R1.xml.ghostryde")))
+        .isNull();
+    assertThat(RdeRevision.getNextRevision("lol", DateTime.parse("2000-01-01TZ"), FULL))
+        .isEqualTo(1);
+    assertTasksEnqueued(
+        "rde-upload",
+        new TaskMatcher().url(RdeUploadAction.PATH).param(RequestParameters.PARAM_TLD, "lol"));
+    ListResult listResult =
+        gcsService.list("rde-bucket", new ListOptions.Builder().setPrefix("segments/").build());
+    assertThat(ImmutableList.copyOf(listResult)).isEmpty();
+  }
+
   @Test
   public void testMapReduce_validHostResources_getPutInDeposit() throws Exception {
     clock.setTo(DateTime.parse("1999-12-31TZ"));
@@ -629,6 +683,40 @@ public class RdeStagingActionTest extends MapreduceTestCase<RdeStagingAction> {
     assertThat(lolDeposit).contains("ns1.kuss.lol");
   }
 
+  @Test
+  public void testMapReduce_segmentBufferOverflows_splitsDepositAcrossSegments() throws Exception {
+    // Every fragment overflows the buffer, so each one is written to a segment of its own.
+    inject.setStaticField(RdeStagingMapper.class, "segmentBufferSize", 1);
+    clock.setTo(DateTime.parse("1999-12-31TZ"));
+    createTldWithEscrowEnabled("fop");
+    makeHostResource(clock, "ns1.dein.fop", "a:fed::cafe");
+    createTldWithEscrowEnabled("lol");
+    makeHostResource(clock, "ns1.kuss.lol", "face::feed");
+
+    clock.setTo(DateTime.parse("2000-01-01TZ"));
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+
+    String fopDeposit = readXml("fop_2000-01-01_full_S1_R0.xml.ghostryde");
+    assertThat(fopDeposit).contains("ns1.dein.fop");
+    assertThat(fopDeposit).contains("ns1.kuss.lol");
+
+    XjcRdeDeposit deposit =
+        unmarshal(
+            XjcRdeDeposit.class, Ghostryde.decode(readGcsFile(gcsService, XML_FILE), decryptKey));
+    XjcRdeHost host1 = extractAndRemoveContentWithType(XjcRdeHost.class, deposit);
+    XjcRdeHost host2 = extractAndRemoveContentWithType(XjcRdeHost.class, deposit);
+    XjcRdeHeader header = extractAndRemoveContentWithType(XjcRdeHeader.class, deposit);
+    assertThat(asList(host1.getName(), host2.getName()))
+        .containsExactly("ns1.dein.fop", "ns1.kuss.lol");
+    assertThat(mapifyCounts(header)).containsEntry(RdeResourceType.HOST.getUri(), 2L);
+    assertThat(mapifyCounts(header)).containsEntry(RdeResourceType.REGISTRAR.getUri(), 2L);
+
+    ListResult listResult =
+        gcsService.list("rde-bucket", new ListOptions.Builder().setPrefix("segments/").build());
+    assertThat(ImmutableList.copyOf(listResult)).isEmpty();
+  }
+
   @Test
   public void testMapReduce_rewindCursor_resendsDepositAtHigherRevision() throws Exception {
     clock.setTo(DateTime.parse("1999-12-31TZ"));
@@ -675,6 +763,118 @@ public class RdeStagingActionTest extends MapreduceTestCase<RdeStagingAction> {
     assertThat(brdaDeposit).doesNotContain("<rdeContact:email>edgar@allen.みんな");
   }
 
+  @Test
+  public void testMapReduce_notFullDepositDay_depositsOnlyChanges() throws Exception {
+    action.pendingDepositChecker.rdeFullDepositDaysOfWeek =
+        ImmutableSet.of(DateTimeConstants.SUNDAY);
+    clock.setTo(DateTime.parse("1999-12-30TZ"));
+    createTldWithEscrowEnabled("lol");
+    makeHostResource(clock, "ns1.cat.lol", "feed::a:bee");
+    HostResource deletedHost = makeHostResource(clock, "ns3.cat.lol", "3.1.33.7");
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-01TZ"));
+    tm().transact(() -> RdeRevision.saveRevision("lol", DateTime.parse("1999-12-31TZ"), FULL, 0));
+
+    clock.setTo(DateTime.parse("1999-12-31T12:00:00Z"));
+    makeHostResource(clock, "ns2.cat.lol", "bad:f00d:cafe::15:beef");
+    persistResourceWithCommitLog(
+        deletedHost.asBuilder().setDeletionTime(clock.nowUtc()).build());
+
+    clock.setTo(DateTime.parse("2000-01-01TZ")); // Saturday
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+
+    String xml = readXml("lol_2000-01-01_diff_S1_R0.xml.ghostryde");
+    XjcRdeDeposit deposit = unmarshal(XjcRdeDeposit.class, xml.getBytes(UTF_8));
+    assertThat(deposit.getType()).isEqualTo(XjcRdeDepositTypeType.DIFF);
+    assertThat(deposit.getPrevId())
+        .isEqualTo(RdeUtil.timestampToId(DateTime.parse("1999-12-31TZ")));
+    assertThat(xml).contains("<rdeHost:name>ns2.cat.lol");
+    assertThat(xml).doesNotContain("<rdeHost:name>ns1.cat.lol");
+    assertThat(xml).contains("<rdeHost:delete>");
+    assertThat(xml).contains("<rdeHost:roid>" + deletedHost.getRepoId());
+    assertTasksEnqueued("rde-upload",
+        new TaskMatcher()
+            .url(RdeUploadAction.PATH)
+            .param(RequestParameters.PARAM_TLD, "lol"));
+  }
+
+  @Test
+  public void testMapReduce_diffDeposit_includesDomainsOfRenamedHosts() throws Exception {
+    action.pendingDepositChecker.rdeFullDepositDaysOfWeek =
+        ImmutableSet.of(DateTimeConstants.SUNDAY);
+    clock.setTo(DateTime.parse("2000-06-08TZ"));
+    createTldWithEscrowEnabled("lol");
+    HostResource host = makeHostResource(clock, "ns1.cat.lol", "feed::a:bee");
+    DomainBase domain = makeDomainBase(clock, "lol");
+    clock.advanceOneMilli();
+    persistResourceWithCommitLog(domain.asBuilder().addNameserver(host.createVKey()).build());
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-06-10TZ"));
+    tm().transact(() -> RdeRevision.saveRevision("lol", DateTime.parse("2000-06-09TZ"), FULL, 0));
+
+    // Renaming the host doesn't save the domain, which still has to go in the diff.
+    clock.setTo(DateTime.parse("2000-06-09T12:00:00Z"));
+    persistResourceWithCommitLog(host.asBuilder().setFullyQualifiedHostName("ns2.cat.lol").build());
+
+    clock.setTo(DateTime.parse("2000-06-10TZ")); // Saturday
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+
+    String xml = readXml("lol_2000-06-10_diff_S1_R0.xml.ghostryde");
+    assertThat(xml).contains("<rdeDomain:name>love.lol");
+    assertThat(xml).contains("<domain:hostObj>ns2.cat.lol");
+    assertThat(xml).doesNotContain("<domain:hostObj>ns1.cat.lol");
+  }
+
+  @Test
+  public void testMapReduce_diffDeposit_listsDeletedDomains() throws Exception {
+    action.pendingDepositChecker.rdeFullDepositDaysOfWeek =
+        ImmutableSet.of(DateTimeConstants.SUNDAY);
+    clock.setTo(DateTime.parse("1999-12-30TZ"));
+    createTldWithEscrowEnabled("lol");
+    DomainBase domain = makeDomainBase(clock, "lol");
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-01TZ"));
+    tm().transact(() -> RdeRevision.saveRevision("lol", DateTime.parse("1999-12-31TZ"), FULL, 0));
+
+    clock.setTo(DateTime.parse("1999-12-31T12:00:00Z"));
+    persistResourceWithCommitLog(domain.asBuilder().setDeletionTime(clock.nowUtc()).build());
+
+    clock.setTo(DateTime.parse("2000-01-01TZ")); // Saturday
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+
+    String xml = readXml("lol_2000-01-01_diff_S1_R0.xml.ghostryde");
+    assertThat(xml).contains("<rdeDomain:delete>");
+    assertThat(xml).contains("<rdeDomain:name>love.lol</rdeDomain:name>");
+    assertThat(xml).doesNotContain("<rdeDomain:roid>");
+  }
+
+  @Test
+  public void testMapReduce_diffDeposit_listsDeletedContacts() throws Exception {
+    action.pendingDepositChecker.rdeFullDepositDaysOfWeek =
+        ImmutableSet.of(DateTimeConstants.SUNDAY);
+    clock.setTo(DateTime.parse("1999-12-30TZ"));
+    createTldWithEscrowEnabled("lol");
+    makeContactResource(clock, "123-IRL", "raven", "edgar@allen.みんな");
+    ContactResource deletedContact =
+        makeContactResource(clock, "456-IRL", "lenore", "lenore@allen.みんな");
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-01TZ"));
+    tm().transact(() -> RdeRevision.saveRevision("lol", DateTime.parse("1999-12-31TZ"), FULL, 0));
+
+    clock.setTo(DateTime.parse("1999-12-31T12:00:00Z"));
+    persistResourceWithCommitLog(
+        deletedContact.asBuilder().setDeletionTime(clock.nowUtc()).build());
+
+    clock.setTo(DateTime.parse("2000-01-01TZ")); // Saturday
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+
+    String xml = readXml("lol_2000-01-01_diff_S1_R0.xml.ghostryde");
+    assertThat(xml).contains("<rdeContact:delete>");
+    assertThat(xml).contains("<rdeContact:id>456-IRL</rdeContact:id>");
+    assertThat(xml).doesNotContain("123-IRL");
+    assertThat(xml).doesNotContain("lenore@allen");
+  }
+
   @Test
   public void testMapReduce_catchUpCursor_doesPointInTime() throws Exception {
     // Do nothing on the first day.
@@ -0,0 +1,182 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rde;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.monitoring.metrics.contrib.LongMetricSubject.assertThat;
+import static google.registry.keyring.api.PgpHelper.KeyRequirement.ENCRYPT;
+import static google.registry.keyring.api.PgpHelper.KeyRequirement.SIGN;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.io.ByteStreams;
+import google.registry.testing.BouncyCastleProviderRule;
+import google.registry.testing.FakeKeyringModule;
+import google.registry.testing.ShardableTestCase;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RydePipelineStage}. */
+@RunWith(JUnit4.class)
+public final class RydePipelineStageTest extends ShardableTestCase {
+
+  @Rule public final BouncyCastleProviderRule bouncy = new BouncyCastleProviderRule();
+
+  private final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+  /** Several times the size of all the stage's buffers, and not a multiple of their size. */
+  private final byte[] data = new byte[1024 * 1024 + 17];
+
+  @Before
+  public void before() {
+    new Random(42).nextBytes(data);
+    RydePipelineStage.bytesWritten.reset();
+  }
+
+  @Test
+  public void testWrite_sameBytesInSameOrder() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (OutputStream stage = new RydePipelineStage("test", output, threadFactory)) {
+      stage.write(data[0]);
+      int offset = 1;
+      for (int size = 1; offset < data.length; size = size * 3 + 1) {
+        int count = Math.min(size, data.length - offset);
+        stage.write(data, offset, count);
+        offset += count;
+      }
+    }
+    assertThat(output.toByteArray()).isEqualTo(data);
+    assertThat(RydePipelineStage.bytesWritten)
+        .hasValueForLabels(data.length, "test")
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testWrite_upstreamFails_rethrown() throws Exception {
+    IOException failure = new IOException("disk full");
+    OutputStream failingOutput =
+        new OutputStream() {
+          @Override
+          public void write(int b) throws IOException {
+            throw failure;
+          }
+        };
+    OutputStream stage = new RydePipelineStage("test", failingOutput, threadFactory);
+    IOException thrown =
+        assertThrows(
+            IOException.class,
+            () -> {
+              try {
+                stage.write(data);
+              } finally {
+                stage.close();
+              }
+            });
+    assertThat(thrown).hasMessageThat().isEqualTo("test failed");
+    assertThat(thrown).hasCauseThat().isSameInstanceAs(failure);
+    assertThat(RydePipelineStage.bytesWritten).hasNoOtherValues();
+  }
+
+  @Test
+  public void testClose_twice_noop() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OutputStream stage = new RydePipelineStage("test", output, threadFactory);
+    stage.write(data, 0, 10);
+    stage.close();
+    stage.close();
+    assertThat(output.size()).isEqualTo(10);
+  }
+
+  @Test
+  public void testRydeEncoder_pipelined_decodesToOriginalData() throws Exception {
+    FakeKeyringModule keyringModule = new FakeKeyringModule();
+    PGPKeyPair encryptionKey = keyringModule.get("rde-unittest@registry.test", ENCRYPT);
+    PGPKeyPair signingKey = keyringModule.get("rde-unittest@registry.test", SIGN);
+    ByteArrayOutputStream rydeOutput = new ByteArrayOutputStream();
+    ByteArrayOutputStream sigOutput = new ByteArrayOutputStream();
+    try (RydeEncoder encoder =
+        new RydeEncoder.Builder()
+            .setRydeOutput(rydeOutput, encryptionKey.getPublicKey())
+            .setSignatureOutput(sigOutput, signingKey)
+            .setFileMetadata("deposit", data.length, DateTime.parse("2000-01-01T00:00:00Z"))
+            .setPipelineThreadFactory(threadFactory)
+            .build()) {
+      encoder.write(data);
+    }
+
+    try (InputStream decryptor =
+            RydeEncryption.openDecryptor(
+                new ByteArrayInputStream(rydeOutput.toByteArray()),
+                false,
+                encryptionKey.getPrivateKey());
+        InputStream decompressor = RydeCompression.openDecompressor(decryptor);
+        InputStream fileDecoder = RydeFileEncoding.openPgpFileReader(decompressor);
+        InputStream tarDecoder = RydeTar.openTarReader(fileDecoder)) {
+      assertThat(ByteStreams.toByteArray(tarDecoder)).isEqualTo(data);
+    }
+    assertThat(sigOutput.size()).isGreaterThan(0);
+    assertThat(RydePipelineStage.bytesWritten)
+        .hasValueForLabels(rydeOutput.size(), "signing");
+  }
+
+  @Test
+  public void testRydeEncoder_pipelined_sameOutputAsSerial() throws Exception {
+    byte[] serialOutput = encodeWithFixedRandomness(Optional.empty());
+    byte[] pipelinedOutput = encodeWithFixedRandomness(Optional.of(threadFactory));
+    assertThat(pipelinedOutput).isEqualTo(serialOutput);
+  }
+
+  /**
+   * Returns the RyDE encoding of {@link #data}, with the same session key and padding every time.
+   *
+   * <p>The signature isn't returned, since it includes the time it was made at.
+   */
+  private byte[] encodeWithFixedRandomness(Optional<ThreadFactory> pipelineThreadFactory)
+      throws Exception {
+    FakeKeyringModule keyringModule = new FakeKeyringModule();
+    PGPKeyPair encryptionKey = keyringModule.get("rde-unittest@registry.test", ENCRYPT);
+    PGPKeyPair signingKey = keyringModule.get("rde-unittest@registry.test", SIGN);
+    // Seeding SHA1PRNG before using it replaces its seed, so that it generates the same bytes.
+    SecureRandom random = SecureRandom.getInstance("SHA1PRNG", "SUN");
+    random.setSeed(42);
+    ByteArrayOutputStream rydeOutput = new ByteArrayOutputStream();
+    RydeEncoder.Builder builder =
+        new RydeEncoder.Builder()
+            .setRydeOutput(rydeOutput, encryptionKey.getPublicKey())
+            .setSignatureOutput(new ByteArrayOutputStream(), signingKey)
+            .setFileMetadata("deposit", data.length, DateTime.parse("2000-01-01T00:00:00Z"))
+            .setSecureRandom(random);
+    pipelineThreadFactory.ifPresent(builder::setPipelineThreadFactory);
+    try (RydeEncoder encoder = builder.build()) {
+      encoder.write(data);
+    }
+    return rydeOutput.toByteArray();
+  }
+}
@@ -16,17 +16,32 @@ package google.registry.request.lock;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import google.registry.model.server.Lock;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
+import google.registry.testing.FakeSleeper;
 import google.registry.util.RequestStatusCheckerImpl;
+import java.util.Iterator;
 import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -35,6 +50,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 
 /** Unit tests for {@link LockHandler}. */
 @RunWith(JUnit4.class)
@@ -73,18 +89,38 @@ public final class LockHandlerImplTest {
   }
 
   private boolean executeWithLocks(Callable<Void> callable, final @Nullable Lock acquiredLock) {
-    LockHandlerImpl lockHandler = new LockHandlerImpl(new RequestStatusCheckerImpl(), clock) {
+    return createLockHandler(() -> Optional.ofNullable(acquiredLock))
+        .executeWithLocks(callable, "tld", ONE_DAY, "resourceName");
+  }
+
+  private LockHandlerImpl createLockHandler(
+      Supplier<Optional<Lock>> acquiredLocks, ScheduledExecutorService leaseRenewer) {
+    return new LockHandlerImpl(new RequestStatusCheckerImpl(), clock, new FakeSleeper(clock)) {
+      private static final long serialVersionUID = 0L;
+
+      @Override
+      Optional<Lock> acquire(String resourceName, String tld, Duration leaseLength) {
+        return acquiredLocks.get();
+      }
+
+      @Override
+      ScheduledExecutorService createLeaseRenewer() {
+        return leaseRenewer;
+      }
+    };
+  }
+
+  private LockHandlerImpl createLockHandler(Supplier<Optional<Lock>> acquiredLocks) {
+    return new LockHandlerImpl(new RequestStatusCheckerImpl(), clock, new FakeSleeper(clock)) {
       private static final long serialVersionUID = 0L;
       @Override
       Optional<Lock> acquire(String resourceName, String tld, Duration leaseLength) {
         assertThat(resourceName).isEqualTo("resourceName");
         assertThat(tld).isEqualTo("tld");
         assertThat(leaseLength).isEqualTo(ONE_DAY);
-        return Optional.ofNullable(acquiredLock);
+        return acquiredLocks.get();
       }
     };
-
-    return lockHandler.executeWithLocks(callable, "tld", ONE_DAY, "resourceName");
   }
 
   @Before public void setUp() {
@@ -147,4 +183,175 @@ public final class LockHandlerImplTest {
     assertThat(executeWithLocks(countingCallable, lock)).isFalse();
     assertThat(countingCallable.numCalled).isEqualTo(0);
   }
+
+  @Test
+  public void testLockSucceeds_afterWaiting() {
+    Lock lock = mock(Lock.class);
+    Iterator<Optional<Lock>> acquiredLocks =
+        ImmutableList.of(Optional.<Lock>empty(), Optional.<Lock>empty(), Optional.of(lock))
+            .iterator();
+    CountingCallable countingCallable = new CountingCallable();
+    DateTime startTime = clock.nowUtc();
+    assertThat(
+            createLockHandler(acquiredLocks::next)
+                .executeWithLocks(
+                    countingCallable, "tld", ONE_DAY, Duration.standardMinutes(1), "resourceName"))
+        .isTrue();
+    assertThat(countingCallable.numCalled).isEqualTo(1);
+    // Backed off for 1 and then 2 seconds.
+    assertThat(clock.nowUtc()).isEqualTo(startTime.plusSeconds(3));
+    verify(lock, times(1)).release();
+  }
+
+  @Test
+  public void testLockFailed_waitsUpToMaxWait() {
+    AtomicInteger attempts = new AtomicInteger();
+    CountingCallable countingCallable = new CountingCallable();
+    DateTime startTime = clock.nowUtc();
+    assertThat(
+            createLockHandler(
+                    () -> {
+                      attempts.incrementAndGet();
+                      return Optional.empty();
+                    })
+                .executeWithLocks(
+                    countingCallable,
+                    "tld",
+                    ONE_DAY,
+                    Duration.standardSeconds(10),
+                    "resourceName"))
+        .isFalse();
+    assertThat(countingCallable.numCalled).isEqualTo(0);
+    // Attempts at 0, 1, 3 and 7 seconds, and a last one when the wait is over.
+    assertThat(attempts.get()).isEqualTo(5);
+    assertThat(clock.nowUtc()).isEqualTo(startTime.plusSeconds(10));
+  }
+
+  @Test
+  public void testLockSucceeds_passesFencingTokens() {
+    Lock lock = mock(Lock.class);
+    when(lock.getFencingToken()).thenReturn(42L);
+    AtomicReference<ImmutableMap<String, Long>> fencingTokens = new AtomicReference<>();
+    assertThat(
+            createLockHandler(() -> Optional.of(lock))
+                .executeWithLocks(
+                    fencingTokens::set, "tld", ONE_DAY, Duration.ZERO, "resourceName"))
+        .isTrue();
+    assertThat(fencingTokens.get()).containsExactly("resourceName", 42L);
+    verify(lock, times(1)).release();
+  }
+
+  @Test
+  public void testLockSucceeds_withoutWaiting_doesntRenewLeases() {
+    Lock lock = mock(Lock.class);
+    ScheduledExecutorService leaseRenewer = mock(ScheduledExecutorService.class);
+    LockHandlerImpl lockHandler = createLockHandler(() -> Optional.of(lock), leaseRenewer);
+    CountingCallable countingCallable = new CountingCallable();
+    assertThat(lockHandler.executeWithLocks(countingCallable, "tld", ONE_DAY, "resourceName"))
+        .isTrue();
+    assertThat(countingCallable.numCalled).isEqualTo(1);
+    verifyZeroInteractions(leaseRenewer);
+    verify(lock, times(1)).release();
+  }
+
+  @Test
+  public void testLockSucceeds_early_renewsLeases() {
+    Lock lock = mock(Lock.class);
+    ScheduledExecutorService leaseRenewer = mock(ScheduledExecutorService.class);
+    LockHandlerImpl lockHandler = createLockHandler(() -> Optional.of(lock), leaseRenewer);
+    CountingCallable countingCallable = new CountingCallable();
+    assertThat(
+            lockHandler.executeWithLocks(
+                countingCallable, "tld", ONE_DAY, Duration.standardMinutes(1), "resourceName"))
+        .isTrue();
+    assertThat(countingCallable.numCalled).isEqualTo(1);
+    // The lock was acquired without using up any of the wait, so the lease could run out before
+    // the callable is killed. It's renewed every 8 hours.
+    long renewalPeriodMillis = Duration.standardHours(8).getMillis();
+    verify(leaseRenewer)
+        .scheduleAtFixedRate(
+            any(Runnable.class),
+            eq(renewalPeriodMillis),
+            eq(renewalPeriodMillis),
+            eq(TimeUnit.MILLISECONDS));
+    verify(leaseRenewer).shutdown();
+    verify(lock, times(1)).release();
+  }
+
+  @Test
+  public void testLockSucceeds_late_doesntRenewLeases() {
+    Lock lock = mock(Lock.class);
+    Iterator<Optional<Lock>> acquiredLocks =
+        ImmutableList.of(
+                Optional.<Lock>empty(),
+                Optional.<Lock>empty(),
+                Optional.<Lock>empty(),
+                Optional.<Lock>empty(),
+                Optional.of(lock))
+            .iterator();
+    ScheduledExecutorService leaseRenewer = mock(ScheduledExecutorService.class);
+    LockHandlerImpl lockHandler = createLockHandler(acquiredLocks::next, leaseRenewer);
+    CountingCallable countingCallable = new CountingCallable();
+    DateTime startTime = clock.nowUtc();
+    assertThat(
+            lockHandler.executeWithLocks(
+                countingCallable, "tld", ONE_DAY, Duration.standardSeconds(10), "resourceName"))
+        .isTrue();
+    assertThat(countingCallable.numCalled).isEqualTo(1);
+    // Acquired on the last attempt, when the wait is over, so the lease outlasts the callable,
+    // which is killed a day less the timeout fudge after the lock was acquired.
+    assertThat(clock.nowUtc()).isEqualTo(startTime.plusSeconds(10));
+    verifyZeroInteractions(leaseRenewer);
+    verify(lock, times(1)).release();
+  }
+
+  @Test
+  public void testLockLost_interruptsCallable() {
+    Lock lock = mock(Lock.class);
+    ScheduledExecutorService leaseRenewer = mock(ScheduledExecutorService.class);
+    ArgumentCaptor<Runnable> leaseRenewal = ArgumentCaptor.forClass(Runnable.class);
+    LockHandlerImpl lockHandler =
+        new LockHandlerImpl(new RequestStatusCheckerImpl(), clock, new FakeSleeper(clock)) {
+          private static final long serialVersionUID = 0L;
+
+          @Override
+          Optional<Lock> acquire(String resourceName, String tld, Duration leaseLength) {
+            return Optional.of(lock);
+          }
+
+          @Override
+          Optional<Lock> renew(Lock lock, Duration leaseLength) {
+            return Optional.empty();
+          }
+
+          @Override
+          ScheduledExecutorService createLeaseRenewer() {
+            return leaseRenewer;
+          }
+        };
+    RuntimeException thrown =
+        assertThrows(
+            RuntimeException.class,
+            () ->
+                lockHandler.executeWithLocks(
+                    unusedFencingTokens -> {
+                      // Run the renewal that would have been scheduled a third of the lease into
+                      // the callable, which finds that the lock was lost.
+                      verify(leaseRenewer)
+                          .scheduleAtFixedRate(
+                              leaseRenewal.capture(),
+                              anyLong(),
+                              anyLong(),
+                              eq(TimeUnit.MILLISECONDS));
+                      assertThrows(IllegalStateException.class, leaseRenewal.getValue()::run);
+                      // Any blocking call made by the callable from now on is interrupted.
+                      Thread.sleep(Duration.standardMinutes(1).getMillis());
+                    },
+                    "tld",
+                    Duration.standardSeconds(6),
+                    Duration.standardMinutes(1),
+                    "resourceName"));
+    assertThat(thrown).hasCauseThat().isInstanceOf(InterruptedException.class);
+    verify(lock, never()).release();
+  }
 }
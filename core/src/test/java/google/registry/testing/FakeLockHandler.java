@@ -15,8 +15,10 @@
 package google.registry.testing;
 
 import static com.google.common.base.Throwables.throwIfUnchecked;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
 
 import google.registry.request.lock.LockHandler;
+import java.util.Arrays;
 import java.util.concurrent.Callable;
 import javax.annotation.Nullable;
 import org.joda.time.Duration;
@@ -26,7 +28,11 @@ public class FakeLockHandler implements LockHandler {
 
   private static final long serialVersionUID = 6437880915118738492L;
 
+  /** The fencing token given to every acquired lock. */
+  public static final long FENCING_TOKEN = 1L;
+
   boolean lockSucceeds;
+  boolean lockLost;
 
   /**
    * @param lockSucceeds if true - the lock acquisition will succeed and the callable will be
@@ -36,22 +42,46 @@ public class FakeLockHandler implements LockHandler {
     this.lockSucceeds = lockSucceeds;
   }
 
+  /** Makes {@link #isLockHeld} report that the locks were lost, e.g. after their lease expired. */
+  public void setLockLost(boolean lockLost) {
+    this.lockLost = lockLost;
+  }
+
   @Override
   public boolean executeWithLocks(
       final Callable<Void> callable,
       @Nullable String tld,
       Duration leaseLength,
       String... lockNames) {
+    return executeWithLocks(
+        unusedFencingTokens -> callable.call(), tld, leaseLength, Duration.ZERO, lockNames);
+  }
+
+  @Override
+  public boolean executeWithLocks(
+      final FencedCallable callable,
+      @Nullable String tld,
+      Duration leaseLength,
+      Duration maxWait,
+      String... lockNames) {
     if (!lockSucceeds) {
       return false;
     }
 
     try {
-      callable.call();
+      callable.call(
+          Arrays.stream(lockNames)
+              .distinct()
+              .collect(toImmutableMap(lockName -> lockName, lockName -> FENCING_TOKEN)));
     } catch (Exception e) {
       throwIfUnchecked(e);
       throw new RuntimeException(e);
     }
     return true;
   }
+
+  @Override
+  public boolean isLockHeld(String lockName, @Nullable String tld, long fencingToken) {
+    return lockSucceeds && !lockLost && fencingToken == FENCING_TOKEN;
+  }
 }
@@ -17,6 +17,7 @@ package google.registry.testing;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import google.registry.model.EppResource;
+import google.registry.model.host.HostInetAddressIndex;
 import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.registry.label.PremiumList;
 import java.util.Map;
@@ -67,6 +68,13 @@ public class TestCacheRule extends ExternalResource {
       return this;
     }
 
+    public Builder withHostsByInetAddressCache(Duration expiry) {
+      cacheHandlerMap.put(
+          "HostInetAddressIndex.cacheHostKeys",
+          new TestCacheHandler(HostInetAddressIndex::setCacheForTest, expiry));
+      return this;
+    }
+
     public Builder withPremiumListsCache(Duration expiry) {
       cacheHandlerMap.put(
           "PremiumList.cachePremiumLists",
@@ -81,6 +89,13 @@ public class TestCacheRule extends ExternalResource {
       return this;
     }
 
+    public Builder withPremiumListIndexesCache(Duration expiry) {
+      cacheHandlerMap.put(
+          "PremiumList.cachePremiumListIndexes",
+          new TestCacheHandler(PremiumList::setPremiumListIndexesCacheForTest, expiry));
+      return this;
+    }
+
     public TestCacheRule build() {
       return new TestCacheRule(ImmutableList.copyOf(cacheHandlerMap.values()));
     }
@@ -30,6 +30,8 @@ import static org.joda.time.Duration.standardDays;
 
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.appengine.tools.cloudstorage.ListOptions;
+import com.google.appengine.tools.cloudstorage.ListResult;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -39,12 +41,15 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.host.HostResource;
 import google.registry.persistence.VKey;
 import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
 import google.registry.testing.mapreduce.MapreduceTestCase;
+import google.registry.tools.server.GenerateZoneFilesAction.GenerateBindFileMapper;
 import java.net.InetAddress;
 import java.util.Map;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -53,8 +58,23 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneFilesAction> {
 
+  @Rule public final InjectRule inject = new InjectRule();
+
   private final GcsService gcsService = createGcsService();
 
+  private GenerateZoneFilesAction createAction(DateTime now) {
+    GenerateZoneFilesAction action = new GenerateZoneFilesAction();
+    action.mrRunner = makeDefaultRunner();
+    action.bucket = "zonefiles-bucket";
+    action.gcsBufferSize = 123;
+    action.datastoreRetention = standardDays(29);
+    action.dnsDefaultATtl = Duration.standardSeconds(11);
+    action.dnsDefaultNsTtl = Duration.standardSeconds(222);
+    action.dnsDefaultDsTtl = Duration.standardSeconds(3333);
+    action.clock = new FakeClock(now.plusMinutes(2)); // Move past the actions' 2 minute check.
+    return action;
+  }
+
   @Test
   public void testGenerate() throws Exception {
     DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
@@ -114,19 +134,11 @@ public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneF
         .setDsData(ImmutableSet.of(DelegationSignerData.create(1, 2, 3, new byte[] {0, 1, 2})))
         .build());
 
-    GenerateZoneFilesAction action = new GenerateZoneFilesAction();
-    action.mrRunner = makeDefaultRunner();
-    action.bucket = "zonefiles-bucket";
-    action.gcsBufferSize = 123;
-    action.datastoreRetention = standardDays(29);
-    action.dnsDefaultATtl = Duration.standardSeconds(11);
-    action.dnsDefaultNsTtl = Duration.standardSeconds(222);
-    action.dnsDefaultDsTtl = Duration.standardSeconds(3333);
-    action.clock = new FakeClock(now.plusMinutes(2));  // Move past the actions' 2 minute check.
-
     Map<String, Object> response =
-        action.handleJsonRequest(
-            ImmutableMap.<String, Object>of("tlds", ImmutableList.of("tld"), "exportTime", now));
+        createAction(now)
+            .handleJsonRequest(
+                ImmutableMap.<String, Object>of(
+                    "tlds", ImmutableList.of("tld"), "exportTime", now));
     assertThat(response)
         .containsEntry("filenames", ImmutableList.of("gs://zonefiles-bucket/tld-" + now + ".zone"));
     assertThat(response).containsKey("mapreduceConsoleLink");
@@ -149,5 +161,77 @@ public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneF
     assertThat(generatedFileLines.iterator().next()).isEqualTo(goldenFileLines.iterator().next());
     // The remaining lines can be in any order.
     assertThat(generatedFileLines).containsExactlyElementsIn(goldenFileLines);
+    // The parts that the stanzas were written to are deleted.
+    ListResult parts =
+        gcsService.list(
+            "zonefiles-bucket", new ListOptions.Builder().setPrefix("zone-parts/").build());
+    assertThat(ImmutableList.copyOf(parts)).isEmpty();
+  }
+
+  @Test
+  public void testGenerate_eachTldGetsItsOwnFile() throws Exception {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    createTlds("tld", "com");
+    HostResource host = persistActiveHost("ns.example.net");
+    persistResource(newDomainBase("example.tld", host));
+    persistResource(newDomainBase("example.com", host));
+
+    GenerateZoneFilesAction action = createAction(now);
+    action.handleJsonRequest(
+        ImmutableMap.<String, Object>of("tlds", ImmutableList.of("tld", "com"), "exportTime", now));
+
+    executeTasksUntilEmpty("mapreduce");
+
+    assertThat(
+            new String(
+                readGcsFile(
+                    gcsService,
+                    new GcsFilename("zonefiles-bucket", String.format("tld-%s.zone", now))),
+                UTF_8))
+        .isEqualTo("$ORIGIN\ttld.\n\nexample\t222\tIN\tNS\tns.example.net.\n\n");
+    assertThat(
+            new String(
+                readGcsFile(
+                    gcsService,
+                    new GcsFilename("zonefiles-bucket", String.format("com-%s.zone", now))),
+                UTF_8))
+        .isEqualTo("$ORIGIN\tcom.\n\nexample\t222\tIN\tNS\tns.example.net.\n\n");
+  }
+
+  @Test
+  public void testGenerate_moreDomainsThanBatchSize() throws Exception {
+    inject.setStaticField(GenerateBindFileMapper.class, "batchSize", 2);
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    createTlds("tld");
+    HostResource host = persistActiveHost("ns.example.net");
+    // There are three EppResourceIndex buckets in tests, so at least one shard gets more than one
+    // batch of domains.
+    for (int i = 1; i <= 7; i++) {
+      persistResource(newDomainBase(String.format("example%d.tld", i), host));
+    }
+
+    createAction(now)
+        .handleJsonRequest(
+            ImmutableMap.<String, Object>of("tlds", ImmutableList.of("tld"), "exportTime", now));
+
+    executeTasksUntilEmpty("mapreduce");
+
+    String generatedFile =
+        new String(
+            readGcsFile(
+                gcsService, new GcsFilename("zonefiles-bucket", String.format("tld-%s.zone", now))),
+            UTF_8);
+    Iterable<String> generatedFileLines = Splitter.on('\n').omitEmptyStrings().split(generatedFile);
+    assertThat(generatedFileLines.iterator().next()).isEqualTo("$ORIGIN\ttld.");
+    assertThat(generatedFileLines)
+        .containsExactly(
+            "$ORIGIN\ttld.",
+            "example1\t222\tIN\tNS\tns.example.net.",
+            "example2\t222\tIN\tNS\tns.example.net.",
+            "example3\t222\tIN\tNS\tns.example.net.",
+            "example4\t222\tIN\tNS\tns.example.net.",
+            "example5\t222\tIN\tNS\tns.example.net.",
+            "example6\t222\tIN\tNS\tns.example.net.",
+            "example7\t222\tIN\tNS\tns.example.net.");
   }
 }
@@ -15,10 +15,12 @@
 package google.registry.whois;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.monitoring.metrics.contrib.LongMetricSubject.assertThat;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.loadRegistrar;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.util.DateTimeUtils.END_OF_TIME;
+import static google.registry.whois.DomainWhoisResponseCache.requests;
 import static google.registry.whois.WhoisTestData.loadFile;
 
 import com.google.common.collect.ImmutableList;
@@ -40,7 +42,10 @@ import google.registry.persistence.VKey;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
 import google.registry.whois.WhoisResponse.WhoisResponseResults;
+import java.util.Optional;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -306,4 +311,79 @@ public class DomainWhoisResponseTest {
                 .plainTextOutput())
         .contains("Domain Status: ok");
   }
+
+  @Test
+  public void getPlainTextOutputTest_cached_servesCachedFieldsWithFreshTimestamp() {
+    DomainWhoisResponseCache.setCacheForTest(Optional.of(Duration.standardDays(1)));
+    requests.reset();
+    assertThat(
+            new DomainWhoisResponse(domainBase, false, "Please contact registrar", clock.nowUtc())
+                .getResponse(
+                    false,
+                    "Doodle Disclaimer\nI exist so that carriage return\n"
+                        + "in disclaimer can be tested."))
+        .isEqualTo(WhoisResponseResults.create(loadFile("whois_domain.txt"), 1));
+    // Changes to the registrar don't show up until the cached response expires.
+    persistResource(abuseContact.asBuilder().setVisibleInDomainWhoisAsAbuse(false).build());
+    clock.advanceBy(Duration.standardMinutes(1));
+    assertThat(
+            new DomainWhoisResponse(domainBase, false, "Please contact registrar", clock.nowUtc())
+                .getResponse(
+                    false,
+                    "Doodle Disclaimer\nI exist so that carriage return\n"
+                        + "in disclaimer can be tested."))
+        .isEqualTo(
+            WhoisResponseResults.create(
+                loadFile("whois_domain.txt")
+                    .replace(
+                        "Last update of WHOIS database: 2009-05-29T20:15:00Z",
+                        "Last update of WHOIS database: 2009-05-29T20:16:00Z"),
+                1));
+    assertThat(requests)
+        .hasValueForLabels(1, "MISS")
+        .and()
+        .hasValueForLabels(1, "HIT")
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void getPlainTextOutputTest_cached_differentOutputOptionsAreNotShared() {
+    DomainWhoisResponseCache.setCacheForTest(Optional.of(Duration.standardDays(1)));
+    DomainWhoisResponse domainWhoisResponse =
+        new DomainWhoisResponse(domainBase, false, "Please contact registrar", clock.nowUtc());
+    domainWhoisResponse.getResponse(false, "Footer");
+    assertThat(
+            new DomainWhoisResponse(domainBase, true, "Please contact registrar", clock.nowUtc())
+                .getResponse(
+                    false,
+                    "Doodle Disclaimer\nI exist so that carriage return\n"
+                        + "in disclaimer can be tested."))
+        .isEqualTo(WhoisResponseResults.create(loadFile("whois_domain_full_output.txt"), 1));
+  }
+
+  @Test
+  public void getPlainTextOutputTest_cached_changedDomainIsRerendered() {
+    DomainWhoisResponseCache.setCacheForTest(Optional.of(Duration.standardDays(1)));
+    new DomainWhoisResponse(domainBase, false, "Please contact registrar", clock.nowUtc())
+        .getResponse(false, "Footer");
+    persistResource(abuseContact.asBuilder().setVisibleInDomainWhoisAsAbuse(false).build());
+    DomainBase updatedDomain =
+        persistResource(
+            domainBase.asBuilder().addStatusValue(StatusValue.CLIENT_UPDATE_PROHIBITED).build());
+    String output =
+        new DomainWhoisResponse(updatedDomain, false, "Please contact registrar", clock.nowUtc())
+            .getResponse(false, "Footer")
+            .plainTextOutput();
+    assertThat(output)
+        .contains(
+            "Domain Status: clientUpdateProhibited "
+                + "https://icann.org/epp#clientUpdateProhibited");
+    assertThat(output).contains("Registrar Abuse Contact Email:\r\n");
+  }
+
+  @After
+  public void tearDown() {
+    DomainWhoisResponseCache.setCacheForTest(Optional.empty());
+  }
 }
@@ -0,0 +1,116 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.xml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.monitoring.metrics.contrib.LongMetricSubject.assertThat;
+import static google.registry.xml.XmlTransformerMetrics.poolRequests;
+import static org.junit.Assert.assertThrows;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ThreadLocalPool}. */
+@RunWith(JUnit4.class)
+public class ThreadLocalPoolTest {
+
+  private final AtomicInteger created = new AtomicInteger();
+  private final ThreadLocalPool<Object> pool =
+      new ThreadLocalPool<>(
+          "test",
+          () -> {
+            created.incrementAndGet();
+            return new Object();
+          });
+
+  @Before
+  public void before() {
+    poolRequests.reset();
+  }
+
+  @Test
+  public void testBorrow_reusesObjectOnSameThread() throws Exception {
+    Object first;
+    try (ThreadLocalPool<Object>.Lease lease = pool.borrow()) {
+      first = lease.get();
+    }
+    try (ThreadLocalPool<Object>.Lease lease = pool.borrow()) {
+      assertThat(lease.get()).isSameInstanceAs(first);
+    }
+    assertThat(created.get()).isEqualTo(1);
+    assertThat(poolRequests)
+        .hasValueForLabels(1, "test", "MISS")
+        .and()
+        .hasValueForLabels(1, "test", "HIT")
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testBorrow_reentrantCallGetsNewObject() throws Exception {
+    try (ThreadLocalPool<Object>.Lease outer = pool.borrow()) {
+      try (ThreadLocalPool<Object>.Lease inner = pool.borrow()) {
+        assertThat(inner.get()).isNotSameInstanceAs(outer.get());
+      }
+    }
+    assertThat(created.get()).isEqualTo(2);
+    // Only one of the two objects is kept.
+    try (ThreadLocalPool<Object>.Lease lease = pool.borrow()) {
+      assertThat(lease.get()).isNotNull();
+    }
+    assertThat(created.get()).isEqualTo(2);
+    assertThat(poolRequests)
+        .hasValueForLabels(2, "test", "MISS")
+        .and()
+        .hasValueForLabels(1, "test", "HIT")
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testBorrow_differentThreadsGetDifferentObjects() throws Exception {
+    Object mine;
+    try (ThreadLocalPool<Object>.Lease lease = pool.borrow()) {
+      mine = lease.get();
+    }
+    AtomicReference<Object> theirs = new AtomicReference<>();
+    Thread thread =
+        new Thread(
+            () -> {
+              try (ThreadLocalPool<Object>.Lease lease = pool.borrow()) {
+                theirs.set(lease.get());
+              } catch (Exception e) {
+                throw new RuntimeException(e);
+              }
+            });
+    thread.start();
+    thread.join();
+    assertThat(theirs.get()).isNotNull();
+    assertThat(theirs.get()).isNotSameInstanceAs(mine);
+    assertThat(created.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testFailure_useAfterClose() throws Exception {
+    ThreadLocalPool<Object>.Lease lease = pool.borrow();
+    lease.close();
+    IllegalStateException thrown = assertThrows(IllegalStateException.class, lease::get);
+    assertThat(thrown).hasMessageThat().isEqualTo("Lease already closed");
+  }
+}
@@ -23,16 +23,18 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.embedded.EmbeddedChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.ssl.SslProvider;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
+import java.util.Objects;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import javax.inject.Singleton;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLParameters;
 
 /**
@@ -56,7 +58,24 @@ public class SslClientInitializer<C extends Channel> extends ChannelInitializer<
   private final Supplier<PrivateKey> privateKeySupplier;
   private final Supplier<ImmutableList<X509Certificate>> certificateChainSupplier;
 
-  public static SslClientInitializer<NioSocketChannel>
+  /**
+   * The {@link SslContext} shared by all channels, built when the first channel is initialized.
+   *
+   * <p>Building a context loads the trust store and, for the OpenSSL provider, allocates a native
+   * context, so doing it once saves that work on every new connection. The context also holds the
+   * client-side session cache, which lets the JDK provider resume a session with an abbreviated
+   * handshake when reconnecting to the same peer. The OpenSSL provider doesn't resume client
+   * sessions in this version of Netty, so with it every connection still does a full handshake.
+   *
+   * <p>The context is rebuilt if the private key or certificate chain used for client
+   * authentication changes.
+   */
+  private SslContext sslContext;
+
+  private PrivateKey sslContextPrivateKey;
+  private ImmutableList<X509Certificate> sslContextCertificateChain;
+
+  public static <C extends Channel> SslClientInitializer<C>
       createSslClientInitializerWithSystemTrustStore(
           SslProvider sslProvider,
           Function<Channel, String> hostProvider,
@@ -64,7 +83,7 @@ public class SslClientInitializer<C extends Channel> extends ChannelInitializer<
     return new SslClientInitializer<>(sslProvider, hostProvider, portProvider, null, null, null);
   }
 
-  public static SslClientInitializer<NioSocketChannel>
+  public static <C extends Channel> SslClientInitializer<C>
       createSslClientInitializerWithSystemTrustStoreAndClientAuthentication(
           SslProvider sslProvider,
           Function<Channel, String> hostProvider,
@@ -102,22 +121,8 @@ public class SslClientInitializer<C extends Channel> extends ChannelInitializer<
     checkNotNull(hostProvider.apply(channel), "Cannot obtain SSL host for channel: %s", channel);
     checkNotNull(portProvider.apply(channel), "Cannot obtain SSL port for channel: %s", channel);
 
-    SslContextBuilder sslContextBuilder =
-        SslContextBuilder.forClient()
-            .sslProvider(sslProvider)
-            .trustManager(
-                trustedCertificates == null || trustedCertificates.isEmpty()
-                    ? null
-                    : trustedCertificates.toArray(new X509Certificate[0]));
-
-    if (privateKeySupplier != null && certificateChainSupplier != null) {
-      sslContextBuilder.keyManager(
-          privateKeySupplier.get(), certificateChainSupplier.get().toArray(new X509Certificate[0]));
-    }
-
     SslHandler sslHandler =
-        sslContextBuilder
-            .build()
+        getSslContext()
             .newHandler(channel.alloc(), hostProvider.apply(channel), portProvider.apply(channel));
 
     // Enable hostname verification.
@@ -128,4 +133,37 @@ public class SslClientInitializer<C extends Channel> extends ChannelInitializer<
 
     channel.pipeline().addLast(sslHandler);
   }
+
+  /** Returns the {@link SslContext} to create handlers from, building it if necessary. */
+  @VisibleForTesting
+  public synchronized SslContext getSslContext() throws SSLException {
+    PrivateKey privateKey = null;
+    ImmutableList<X509Certificate> certificateChain = null;
+    if (privateKeySupplier != null && certificateChainSupplier != null) {
+      privateKey = privateKeySupplier.get();
+      certificateChain = certificateChainSupplier.get();
+    }
+    if (sslContext != null
+        && Objects.equals(privateKey, sslContextPrivateKey)
+        && Objects.equals(certificateChain, sslContextCertificateChain)) {
+      return sslContext;
+    }
+
+    SslContextBuilder sslContextBuilder =
+        SslContextBuilder.forClient()
+            .sslProvider(sslProvider)
+            .trustManager(
+                trustedCertificates == null || trustedCertificates.isEmpty()
+                    ? null
+                    : trustedCertificates.toArray(new X509Certificate[0]));
+
+    if (privateKey != null && certificateChain != null) {
+      sslContextBuilder.keyManager(privateKey, certificateChain.toArray(new X509Certificate[0]));
+    }
+
+    sslContext = sslContextBuilder.build();
+    sslContextPrivateKey = privateKey;
+    sslContextCertificateChain = certificateChain;
+    return sslContext;
+  }
 }
@@ -127,6 +127,36 @@ public class SslClientInitializerTest {
     assertThat(channel.isActive()).isTrue();
   }
 
+  @Test
+  public void testSuccess_sslContextSharedBetweenChannels() throws Exception {
+    SslClientInitializer<EmbeddedChannel> sslClientInitializer =
+        new SslClientInitializer<>(
+            sslProvider, hostProvider, portProvider, ImmutableList.of(), null, null);
+    SslContext sslContext = sslClientInitializer.getSslContext();
+    new EmbeddedChannel().pipeline().addLast(sslClientInitializer);
+    new EmbeddedChannel().pipeline().addLast(sslClientInitializer);
+    assertThat(sslClientInitializer.getSslContext()).isSameInstanceAs(sslContext);
+  }
+
+  @Test
+  public void testSuccess_sslContextRebuiltWhenClientCertificateChanges() throws Exception {
+    SelfSignedCaCertificate clientSsc1 = SelfSignedCaCertificate.create();
+    SelfSignedCaCertificate clientSsc2 = SelfSignedCaCertificate.create();
+    SelfSignedCaCertificate[] clientSsc = {clientSsc1};
+    SslClientInitializer<EmbeddedChannel> sslClientInitializer =
+        new SslClientInitializer<>(
+            sslProvider,
+            hostProvider,
+            portProvider,
+            ImmutableList.of(),
+            () -> clientSsc[0].key(),
+            () -> ImmutableList.of(clientSsc[0].cert()));
+    SslContext sslContext = sslClientInitializer.getSslContext();
+    assertThat(sslClientInitializer.getSslContext()).isSameInstanceAs(sslContext);
+    clientSsc[0] = clientSsc2;
+    assertThat(sslClientInitializer.getSslContext()).isNotSameInstanceAs(sslContext);
+  }
+
   @Test
   public void testSuccess_nullHost() {
     SslClientInitializer<EmbeddedChannel> sslClientInitializer =
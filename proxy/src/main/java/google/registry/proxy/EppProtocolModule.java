@@ -35,7 +35,7 @@ import google.registry.proxy.quota.QuotaManager;
 import google.registry.proxy.quota.TokenStore;
 import google.registry.util.Clock;
 import io.netty.channel.ChannelHandler;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.ssl.SslProvider;
@@ -70,7 +70,10 @@ public final class EppProtocolModule {
       ProxyConfig config,
       @EppProtocol int eppPort,
       @EppProtocol ImmutableList<Provider<? extends ChannelHandler>> handlerProviders,
-      @HttpsRelayProtocol BackendProtocol.Builder backendProtocolBuilder) {
+      @HttpsRelayProtocol BackendProtocol.Builder backendProtocolBuilder,
+      // Not used by the protocol, but creating it here checks the quota config when the proxy
+      // starts, rather than when the first connection comes in.
+      @EppProtocol QuotaManager unusedQuotaManager) {
     return Protocol.frontendBuilder()
         .name(PROTOCOL_NAME)
         .port(eppPort)
@@ -83,7 +86,7 @@ public final class EppProtocolModule {
   @EppProtocol
   static ImmutableList<Provider<? extends ChannelHandler>> provideHandlerProviders(
       Provider<ProxyProtocolHandler> proxyProtocolHandlerProvider,
-      @EppProtocol Provider<SslServerInitializer<NioSocketChannel>> sslServerInitializerProvider,
+      @EppProtocol Provider<SslServerInitializer<SocketChannel>> sslServerInitializerProvider,
       @EppProtocol Provider<ReadTimeoutHandler> readTimeoutHandlerProvider,
       Provider<LengthFieldBasedFrameDecoder> lengthFieldBasedFrameDecoderProvider,
       Provider<LengthFieldPrepender> lengthFieldPrependerProvider,
@@ -158,7 +161,7 @@ public final class EppProtocolModule {
   @Singleton
   @Provides
   @EppProtocol
-  static SslServerInitializer<NioSocketChannel> provideSslServerInitializer(
+  static SslServerInitializer<SocketChannel> provideSslServerInitializer(
       SslProvider sslProvider,
       Supplier<PrivateKey> privateKeySupplier,
       Supplier<ImmutableList<X509Certificate>> certificatesSupplier) {
@@ -24,7 +24,7 @@ import google.registry.proxy.Protocol.BackendProtocol;
 import google.registry.proxy.handler.BackendMetricsHandler;
 import google.registry.proxy.handler.RelayHandler.FullHttpResponseRelayHandler;
 import io.netty.channel.ChannelHandler;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpClientCodec;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.logging.LoggingHandler;
@@ -33,6 +33,7 @@ import java.security.cert.X509Certificate;
 import javax.annotation.Nullable;
 import javax.inject.Provider;
 import javax.inject.Qualifier;
+import javax.inject.Singleton;
 
 /**
  * Module that provides a {@link BackendProtocol.Builder} for HTTPS protocol.
@@ -61,9 +62,16 @@ public class HttpsRelayProtocolModule {
         .handlerProviders(handlerProviders);
   }
 
+  /**
+   * Provides the SSL initializer of backend channels.
+   *
+   * <p>It is a singleton, so that all backend connections share the {@code SslContext} it holds.
+   * This is safe since the initializer is {@code @Sharable}.
+   */
+  @Singleton
   @Provides
   @HttpsRelayProtocol
-  static SslClientInitializer<NioSocketChannel> provideSslClientInitializer(
+  static SslClientInitializer<SocketChannel> provideSslClientInitializer(
       SslProvider sslProvider) {
     return createSslClientInitializerWithSystemTrustStore(
         sslProvider,
@@ -75,7 +83,7 @@ public class HttpsRelayProtocolModule {
   @HttpsRelayProtocol
   static ImmutableList<Provider<? extends ChannelHandler>> provideHandlerProviders(
       @HttpsRelayProtocol
-          Provider<SslClientInitializer<NioSocketChannel>> sslClientInitializerProvider,
+          Provider<SslClientInitializer<SocketChannel>> sslClientInitializerProvider,
       Provider<HttpClientCodec> httpClientCodecProvider,
       Provider<HttpObjectAggregator> httpObjectAggregatorProvider,
       Provider<BackendMetricsHandler> backendMetricsHandlerProvider,
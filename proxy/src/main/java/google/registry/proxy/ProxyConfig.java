@@ -19,6 +19,7 @@ import static google.registry.util.YamlUtils.getConfigSettings;
 
 import com.google.common.base.Ascii;
 import java.util.List;
+import java.util.Map;
 
 /** The POJO that YAML config files are deserialized into. */
 public class ProxyConfig {
@@ -48,6 +49,7 @@ public class ProxyConfig {
   public WebWhois webWhois;
   public HttpsRelay httpsRelay;
   public Metrics metrics;
+  public Netty netty;
 
   /** Configuration options that apply to GCS. */
   public static class Gcs {
@@ -110,6 +112,14 @@ public class ProxyConfig {
     public int writeIntervalSeconds;
   }
 
+  /** Configuration options that apply to the Netty transport and event loops. */
+  public static class Netty {
+    public boolean useNativeTransport;
+    public int bossThreads;
+    public int defaultWorkerThreads;
+    public Map<String, Integer> workerThreads;
+  }
+
   /** Configuration options that apply to quota management. */
   public static class Quota {
 
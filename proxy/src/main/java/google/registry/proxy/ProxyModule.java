@@ -362,5 +362,7 @@ public class ProxyModule {
     Set<FrontendProtocol> protocols();
 
     MetricReporter metricReporter();
+
+    ProxyConfig proxyConfig();
   }
 }
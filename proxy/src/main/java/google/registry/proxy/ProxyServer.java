@@ -20,6 +20,7 @@ import static google.registry.proxy.handler.RelayHandler.RELAY_CHANNEL_KEY;
 import static google.registry.proxy.handler.RelayHandler.writeToRelayChannel;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.monitoring.metrics.MetricReporter;
@@ -36,9 +37,7 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.Future;
 import io.netty.util.internal.logging.InternalLoggerFactory;
@@ -62,16 +61,38 @@ public class ProxyServer implements Runnable {
 
   private final ImmutableSet<FrontendProtocol> protocols;
   private final HashMap<Integer, Channel> portToChannelMap = new HashMap<>();
-  private final EventLoopGroup eventGroup = new NioEventLoopGroup();
+  private final Transport transport;
+
+  /** Event loops that accept incoming connections on all listening ports. */
+  private final EventLoopGroup bossGroup;
+
+  /** Event loops that serve inbound connections and their relays, shared by most protocols. */
+  private final EventLoopGroup defaultWorkerGroup;
+
+  /** Event loops dedicated to serving inbound connections of specific protocols. */
+  private final ImmutableMap<String, EventLoopGroup> protocolWorkerGroups;
 
   ProxyServer(ProxyComponent proxyComponent) {
     this.protocols = ImmutableSet.copyOf(proxyComponent.protocols());
+    ProxyConfig.Netty config = proxyComponent.proxyConfig().netty;
+    this.transport = Transport.select(config.useNativeTransport);
+    this.bossGroup = transport.newEventLoopGroup(config.bossThreads);
+    this.defaultWorkerGroup = transport.newEventLoopGroup(config.defaultWorkerThreads);
+    ImmutableMap.Builder<String, EventLoopGroup> protocolWorkerGroups =
+        new ImmutableMap.Builder<>();
+    config.workerThreads.forEach(
+        (protocolName, numThreads) ->
+            protocolWorkerGroups.put(protocolName, transport.newEventLoopGroup(numThreads)));
+    this.protocolWorkerGroups = protocolWorkerGroups.build();
+    logger.atInfo().log(
+        "Using %s transport, with dedicated worker threads for protocols %s.",
+        transport, this.protocolWorkerGroups.keySet());
   }
 
   /**
    * A {@link ChannelInitializer} for connections from a client of a certain protocol.
    *
-   * <p>The {@link #initChannel(NioSocketChannel)} method does the following:
+   * <p>The {@link #initChannel(SocketChannel)} method does the following:
    *
    * <ol>
    *   <li>Determine the {@link FrontendProtocol} of the inbound {@link Channel} from its parent
@@ -83,9 +104,16 @@ public class ProxyServer implements Runnable {
    *       ChannelOption#AUTO_READ} on the inbound {@link Channel} to start reading.
    * </ol>
    */
-  private static class ServerChannelInitializer extends ChannelInitializer<NioSocketChannel> {
+  private static class ServerChannelInitializer extends ChannelInitializer<SocketChannel> {
+
+    private final Transport transport;
+
+    ServerChannelInitializer(Transport transport) {
+      this.transport = transport;
+    }
+
     @Override
-    protected void initChannel(NioSocketChannel inboundChannel) throws Exception {
+    protected void initChannel(SocketChannel inboundChannel) throws Exception {
       // Add inbound channel handlers.
       FrontendProtocol inboundProtocol =
           (FrontendProtocol) inboundChannel.parent().attr(PROTOCOL_KEY).get();
@@ -107,11 +135,11 @@ public class ProxyServer implements Runnable {
                 // Use the same thread to connect to the relay channel, therefore avoiding
                 // synchronization handling due to interactions between the two channels
                 .group(inboundChannel.eventLoop())
-                .channel(NioSocketChannel.class)
+                .channel(transport.channelClass())
                 .handler(
-                    new ChannelInitializer<NioSocketChannel>() {
+                    new ChannelInitializer<SocketChannel>() {
                       @Override
-                      protected void initChannel(NioSocketChannel outboundChannel)
+                      protected void initChannel(SocketChannel outboundChannel)
                           throws Exception {
                         addHandlers(
                             outboundChannel.pipeline(), outboundProtocol.handlerProviders());
@@ -169,7 +197,7 @@ public class ProxyServer implements Runnable {
         Bootstrap bootstrap,
         FrontendProtocol inboundProtocol,
         BackendProtocol outboundProtocol,
-        NioSocketChannel inboundChannel) {
+        SocketChannel inboundChannel) {
       ChannelFuture outboundChannelFuture =
           bootstrap.connect(outboundProtocol.host(), outboundProtocol.port());
       outboundChannelFuture.addListener(
@@ -253,9 +281,8 @@ public class ProxyServer implements Runnable {
     try {
       ServerBootstrap serverBootstrap =
           new ServerBootstrap()
-              .group(eventGroup)
-              .channel(NioServerSocketChannel.class)
-              .childHandler(new ServerChannelInitializer())
+              .channel(transport.serverChannelClass())
+              .childHandler(new ServerChannelInitializer(transport))
               .option(ChannelOption.SO_BACKLOG, MAX_SOCKET_BACKLOG)
               .childOption(ChannelOption.SO_KEEPALIVE, true)
               // Do not read before relay channel is established.
@@ -266,8 +293,16 @@ public class ProxyServer implements Runnable {
           protocol -> {
             int port = protocol.port();
             try {
-              // Wait for binding to be established for each listening port.
-              ChannelFuture serverChannelFuture = serverBootstrap.bind(port).sync();
+              // Wait for binding to be established for each listening port. Each protocol is
+              // served by its dedicated worker threads, if it has any.
+              ChannelFuture serverChannelFuture =
+                  serverBootstrap
+                      .clone()
+                      .group(
+                          bossGroup,
+                          protocolWorkerGroups.getOrDefault(protocol.name(), defaultWorkerGroup))
+                      .bind(port)
+                      .sync();
               if (serverChannelFuture.isSuccess()) {
                 logger.atInfo().log(
                     "Start listening on port %s for %s protocol.", port, protocol.name());
@@ -298,7 +333,11 @@ public class ProxyServer implements Runnable {
           });
     } finally {
       logger.atInfo().log("Shutting down server...");
-      Future<?> unusedFuture = eventGroup.shutdownGracefully();
+      Future<?> unusedFuture = bossGroup.shutdownGracefully();
+      Future<?> unusedFuture2 = defaultWorkerGroup.shutdownGracefully();
+      for (EventLoopGroup workerGroup : protocolWorkerGroups.values()) {
+        Future<?> unusedFuture3 = workerGroup.shutdownGracefully();
+      }
     }
   }
 
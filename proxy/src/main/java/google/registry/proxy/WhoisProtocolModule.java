@@ -59,7 +59,10 @@ public class WhoisProtocolModule {
       ProxyConfig config,
       @WhoisProtocol int whoisPort,
       @WhoisProtocol ImmutableList<Provider<? extends ChannelHandler>> handlerProviders,
-      @HttpsRelayProtocol BackendProtocol.Builder backendProtocolBuilder) {
+      @HttpsRelayProtocol BackendProtocol.Builder backendProtocolBuilder,
+      // Not used by the protocol, but creating it here checks the quota config when the proxy
+      // starts, rather than when the first connection comes in.
+      @WhoisProtocol QuotaManager unusedQuotaManager) {
     return Protocol.frontendBuilder()
         .name(PROTOCOL_NAME)
         .port(whoisPort)
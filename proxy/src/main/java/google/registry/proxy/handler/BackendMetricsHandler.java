@@ -89,6 +89,17 @@ public class BackendMetricsHandler extends ChannelDuplexHandler {
     super.channelRegistered(ctx);
   }
 
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    // Requests that have not received a response by now never will, so stop counting them as in
+    // flight.
+    if (!requestSentTimeQueue.isEmpty()) {
+      metrics.requestsAbandoned(relayedProtocolName, clientCertHash, requestSentTimeQueue.size());
+      requestSentTimeQueue.clear();
+    }
+    super.channelInactive(ctx);
+  }
+
   @Override
   public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
     checkArgument(msg instanceof FullHttpResponse, "Incoming response must be FullHttpResponse.");
@@ -26,6 +26,7 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
@@ -56,6 +57,10 @@ import javax.net.ssl.SSLHandshakeException;
  * of the next outbound handler in the channel pipeline, which eventually writes the response bytes
  * to the remote peer of this channel.
  *
+ * <p>Payloads are never copied in either direction: the request content is a slice of the inbound
+ * frame, and the response content is written out as the same (reference counted) buffer that the
+ * HTTP response holds.
+ *
  * <p>This handler is session aware and will store all the session cookies that the are contained in
  * the HTTP response headers, which are added back to headers of subsequent HTTP requests.
  */
@@ -96,15 +101,21 @@ public abstract class HttpsRelayServiceHandler extends ByteToMessageCodec<FullHt
    * @param byteBuf inbound message.
    */
   protected FullHttpRequest decodeFullHttpRequest(ByteBuf byteBuf) {
+    int contentLength = byteBuf.readableBytes();
+    // The request content is a retained slice of the inbound frame, not a copy of it. The frame is
+    // freed when the request is released after it is relayed.
     FullHttpRequest request =
-        new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, relayPath);
+        new DefaultFullHttpRequest(
+            HttpVersion.HTTP_1_1,
+            HttpMethod.POST,
+            relayPath,
+            byteBuf.readRetainedSlice(contentLength));
     request
         .headers()
         .set(HttpHeaderNames.USER_AGENT, "Proxy")
         .set(HttpHeaderNames.HOST, relayHost)
         .set(HttpHeaderNames.AUTHORIZATION, "Bearer " + accessTokenSupplier.get())
-        .setInt(HttpHeaderNames.CONTENT_LENGTH, byteBuf.readableBytes());
-    request.content().writeBytes(byteBuf);
+        .setInt(HttpHeaderNames.CONTENT_LENGTH, contentLength);
     return request;
   }
 
@@ -157,6 +168,12 @@ public abstract class HttpsRelayServiceHandler extends ByteToMessageCodec<FullHt
     }
   }
 
+  /**
+   * Copies the response payload into the {@link ByteBuf} allocated by the codec.
+   *
+   * <p>Responses written to this handler are encoded in {@link #write} without a copy, so this is
+   * only called if the write is bypassed.
+   */
   @Override
   protected void encode(ChannelHandlerContext ctx, FullHttpResponse response, ByteBuf byteBuf)
       throws Exception {
@@ -198,7 +215,27 @@ public abstract class HttpsRelayServiceHandler extends ByteToMessageCodec<FullHt
             ChannelFuture unusedFuture = channelFuture.channel().close();
           }
         });
-    super.write(ctx, msg, promise);
+    if (!(msg instanceof FullHttpResponse)) {
+      super.write(ctx, msg, promise);
+      return;
+    }
+    // Pass the response content down the pipeline as-is instead of copying it into a new buffer
+    // like the codec's encoder does, as responses (e. g. EPP domain info with many hosts) can be
+    // large.
+    FullHttpResponse response = (FullHttpResponse) msg;
+    ByteBuf content;
+    try {
+      if (!response.status().equals(HttpResponseStatus.OK)) {
+        throw new NonOkHttpResponseException(response, ctx.channel());
+      }
+      saveCookies(response);
+      content = encodeFullHttpResponse(response).retain();
+    } catch (Exception e) {
+      throw new EncoderException(e);
+    } finally {
+      response.release();
+    }
+    ChannelFuture unusedFuture = ctx.write(content, promise);
   }
 
   /** Exception thrown when the response status from GAE is not 200. */
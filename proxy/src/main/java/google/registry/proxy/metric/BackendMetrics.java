@@ -14,13 +14,20 @@
 
 package google.registry.proxy.metric;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.monitoring.metrics.EventMetric;
 import com.google.monitoring.metrics.IncrementableMetric;
 import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.Metric;
 import com.google.monitoring.metrics.MetricRegistryImpl;
 import google.registry.util.NonFinalForTesting;
 import io.netty.handler.codec.http.FullHttpResponse;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.joda.time.Duration;
@@ -29,6 +36,23 @@ import org.joda.time.Duration;
 @Singleton
 public class BackendMetrics extends BaseMetrics {
 
+  private static final ConcurrentMap<ImmutableList<String>, AtomicLong> inFlightRequests =
+      new ConcurrentHashMap<>();
+
+  static final Metric<Long> inFlightRequestsGauge =
+      MetricRegistryImpl.getDefault()
+          .newGauge(
+              "/proxy/backend/in_flight_requests",
+              "Number of requests sent to the backend that have not yet received a response.",
+              "In-flight Requests",
+              LABELS,
+              () ->
+                  inFlightRequests.entrySet().stream()
+                      .collect(
+                          ImmutableMap.toImmutableMap(
+                              Map.Entry::getKey, entry -> entry.getValue().get())),
+              Long.class);
+
   static final IncrementableMetric requestsCounter =
       MetricRegistryImpl.getDefault()
           .newIncrementableMetric(
@@ -85,12 +109,19 @@ public class BackendMetrics extends BaseMetrics {
     responseBytes.reset();
     responsesCounter.reset();
     latencyMs.reset();
+    inFlightRequests.clear();
+  }
+
+  private static AtomicLong inFlightRequestsCount(String protocol, String certHash) {
+    return inFlightRequests.computeIfAbsent(
+        ImmutableList.of(protocol, certHash), labels -> new AtomicLong());
   }
 
   @NonFinalForTesting
   public void requestSent(String protocol, String certHash, int bytes) {
     requestsCounter.increment(protocol, certHash);
     requestBytes.record(bytes, protocol, certHash);
+    inFlightRequestsCount(protocol, certHash).incrementAndGet();
   }
 
   @NonFinalForTesting
@@ -99,5 +130,16 @@ public class BackendMetrics extends BaseMetrics {
     latencyMs.record(latency.getMillis(), protocol, certHash);
     responseBytes.record(response.content().readableBytes(), protocol, certHash);
     responsesCounter.increment(protocol, certHash, response.status().toString());
+    inFlightRequestsCount(protocol, certHash).decrementAndGet();
+  }
+
+  /**
+   * Records that requests sent to the backend will not receive a response.
+   *
+   * <p>This happens when the backend connection closes while requests are still in flight.
+   */
+  @NonFinalForTesting
+  public void requestsAbandoned(String protocol, String certHash, int count) {
+    inFlightRequestsCount(protocol, certHash).addAndGet(-count);
   }
 }
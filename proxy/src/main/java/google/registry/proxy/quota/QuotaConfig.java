@@ -20,6 +20,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
 import google.registry.proxy.ProxyConfig.Quota;
 import google.registry.proxy.ProxyConfig.Quota.QuotaGroup;
+import java.util.stream.Stream;
 import org.joda.time.Duration;
 
 /** Value class that stores the quota configuration for a protocol. */
@@ -70,6 +71,14 @@ public class QuotaConfig {
     return findQuotaGroup(userId).tokenAmount;
   }
 
+  /** Returns the largest token amount of any user, which is -1 if all are unlimited. */
+  int getMaxTokenAmount() {
+    return Stream.concat(Stream.of(defaultQuota), customQuotaMap.values().stream())
+        .mapToInt(quotaGroup -> quotaGroup.tokenAmount)
+        .max()
+        .getAsInt();
+  }
+
   /** Returns the refill period for the given {@code userId}. */
   Duration getRefillPeriod(String userId) {
     return Duration.standardSeconds(findQuotaGroup(userId).refillSeconds);
@@ -14,9 +14,11 @@
 
 package google.registry.proxy.quota;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.proxy.quota.QuotaConfig.SENTINEL_UNLIMITED_TOKENS;
 import static java.lang.StrictMath.max;
 import static java.lang.StrictMath.min;
+import static org.joda.time.DateTimeZone.UTC;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
@@ -26,6 +28,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.concurrent.ThreadSafe;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -43,6 +46,12 @@ import org.joda.time.Duration;
  * #put} takes place. It also exposes a {@link #refresh} method that goes through each entry in the
  * store and purges stale entries, in order to prevent the token store from growing too large.
  *
+ * <p>{@link #take} is called on the event loop threads for every new connection, so it must be
+ * cheap even when many connections from the same user arrive at once. Each user's available tokens
+ * and refill time are therefore packed into a single {@link AtomicLong} and updated with
+ * compare-and-set, without locking the map or allocating a new entry. A user that has no tokens
+ * left and is not due for a refill is rejected without writing to the entry at all.
+ *
  * <p>There should be one token store for each protocol.
  */
 @ThreadSafe
@@ -61,28 +70,81 @@ public class TokenStore {
     abstract DateTime timestamp();
   }
 
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   /**
-   * A wrapper to get around Java lambda's closure limitation.
+   * Number of low bits of a packed entry that hold the token count, as a signed integer.
    *
-   * <p>Use the class to modify the value of a local variable captured by an lambda.
+   * <p>The remaining high bits hold the refill time, as signed milliseconds since {@link
+   * #baseMillis}. This allows for token amounts up to about 8 million and refill times within about
+   * 17 years of the creation of the store.
    */
-  private static class Wrapper<T> {
-    T value;
-  }
+  private static final int TOKEN_BITS = 24;
 
-  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  /** The largest token amount that fits in an entry. */
+  @VisibleForTesting static final int MAX_TOKENS = (1 << (TOKEN_BITS - 1)) - 1;
 
-  /** A map of {@code userId} to available tokens, timestamped at last refill time. */
-  private final ConcurrentHashMap<String, TimestampedInteger> tokensMap = new ConcurrentHashMap<>();
+  /**
+   * A map of {@code userId} to available tokens and the last refill time, packed into one long.
+   *
+   * @see #pack
+   */
+  private final ConcurrentHashMap<String, AtomicLong> tokensMap = new ConcurrentHashMap<>();
 
   private final QuotaConfig config;
   private final ScheduledExecutorService refreshExecutor;
   private final Clock clock;
 
+  /** The time that refill times in {@link #tokensMap} are relative to. */
+  private final long baseMillis;
+
+  /**
+   * Creates a token store for the given quota config.
+   *
+   * @throws IllegalArgumentException if a token amount in the config is larger than {@link
+   *     #MAX_TOKENS}
+   */
   public TokenStore(QuotaConfig config, ScheduledExecutorService refreshExecutor, Clock clock) {
+    int maxTokenAmount = config.getMaxTokenAmount();
+    checkArgument(
+        maxTokenAmount <= MAX_TOKENS,
+        "Token amount for protocol %s is larger than the maximum of %s: %s",
+        config.getProtocolName(),
+        MAX_TOKENS,
+        maxTokenAmount);
     this.config = config;
     this.refreshExecutor = refreshExecutor;
     this.clock = clock;
+    this.baseMillis = clock.nowUtc().getMillis();
+  }
+
+  /**
+   * Packs a token amount and refill time into an entry.
+   *
+   * <p>Token amounts from the config are checked when the store is created, so {@code tokens} is
+   * only capped at {@link #MAX_TOKENS} here rather than checked, to keep this cheap and free of
+   * exceptions on the event loop.
+   */
+  private long pack(long tokens, long refillTimeMillis) {
+    long cappedTokens = min(tokens, MAX_TOKENS);
+    return ((refillTimeMillis - baseMillis) << TOKEN_BITS)
+        | (cappedTokens & ((1L << TOKEN_BITS) - 1));
+  }
+
+  private static int unpackTokens(long packed) {
+    // Shift left then right to sign-extend the token bits.
+    return (int) ((packed << (Long.SIZE - TOKEN_BITS)) >> (Long.SIZE - TOKEN_BITS));
+  }
+
+  private long unpackRefillTimeMillis(long packed) {
+    return (packed >> TOKEN_BITS) + baseMillis;
+  }
+
+  /** Returns whether the tokens of the user refilled at the given time need to be refilled now. */
+  private boolean needsRefill(String userId, long refillTimeMillis, long nowMillis) {
+    Duration refillPeriod = config.getRefillPeriod(userId);
+    return !refillPeriod.isEqual(Duration.ZERO)
+        && nowMillis - refillTimeMillis >= refillPeriod.getMillis();
   }
 
   /**
@@ -101,36 +163,46 @@ public class TokenStore {
    *     which the granted one is taken.
    */
   TimestampedInteger take(String userId) {
-    Wrapper<TimestampedInteger> grantedToken = new Wrapper<>();
-    tokensMap.compute(
-        userId,
-        (user, availableTokens) -> {
-          DateTime now = clock.nowUtc();
-          int currentTokenCount;
-          DateTime refillTime;
-          // Checks if the user is provisioned with unlimited tokens.
-          if (config.hasUnlimitedTokens(user)) {
-            grantedToken.value = TimestampedInteger.create(1, now);
-            return TimestampedInteger.create(SENTINEL_UNLIMITED_TOKENS, now);
-          }
-          // Checks if the entry exists.
-          if (availableTokens == null
-              // Or if refill is enabled and the entry needs to be refilled.
-              || (!config.getRefillPeriod(user).isEqual(Duration.ZERO)
-                  && !new Duration(availableTokens.timestamp(), now)
-                      .isShorterThan(config.getRefillPeriod(user)))) {
-            currentTokenCount = config.getTokenAmount(user);
-            refillTime = now;
-          } else {
-            currentTokenCount = availableTokens.value();
-            refillTime = availableTokens.timestamp();
-          }
-          int newTokenCount = max(0, currentTokenCount - 1);
-          grantedToken.value =
-              TimestampedInteger.create(currentTokenCount - newTokenCount, refillTime);
-          return TimestampedInteger.create(newTokenCount, refillTime);
-        });
-    return grantedToken.value;
+    long now = clock.nowUtc().getMillis();
+    // Checks if the user is provisioned with unlimited tokens.
+    if (config.hasUnlimitedTokens(userId)) {
+      getEntry(userId, now).set(pack(SENTINEL_UNLIMITED_TOKENS, now));
+      return TimestampedInteger.create(1, new DateTime(now, UTC));
+    }
+    AtomicLong entry = getEntry(userId, now);
+    while (true) {
+      long packed = entry.get();
+      int currentTokenCount = unpackTokens(packed);
+      long refillTime = unpackRefillTimeMillis(packed);
+      // Checks if the entry is new, or if refill is enabled and the entry needs to be refilled.
+      if (currentTokenCount == SENTINEL_UNLIMITED_TOKENS || needsRefill(userId, refillTime, now)) {
+        currentTokenCount = config.getTokenAmount(userId);
+        refillTime = now;
+      } else if (currentTokenCount == 0) {
+        // Nothing to take and nothing changes, so there is no need to write to the entry.
+        return TimestampedInteger.create(0, new DateTime(refillTime, UTC));
+      }
+      int newTokenCount = max(0, currentTokenCount - 1);
+      if (entry.compareAndSet(packed, pack(newTokenCount, refillTime))) {
+        return TimestampedInteger.create(
+            currentTokenCount - newTokenCount, new DateTime(refillTime, UTC));
+      }
+    }
+  }
+
+  /**
+   * Returns the entry of the given user, creating one that needs to be refilled if absent.
+   *
+   * <p>New entries hold {@link QuotaConfig#SENTINEL_UNLIMITED_TOKENS}, which {@link #take} treats
+   * as needing a refill for users without unlimited tokens.
+   */
+  private AtomicLong getEntry(String userId, long now) {
+    AtomicLong entry = tokensMap.get(userId);
+    if (entry != null) {
+      return entry;
+    }
+    return tokensMap.computeIfAbsent(
+        userId, user -> new AtomicLong(pack(SENTINEL_UNLIMITED_TOKENS, now)));
   }
 
   /**
@@ -145,32 +217,39 @@ public class TokenStore {
    *     one is taken from.
    */
   void put(String userId, DateTime returnedTokenRefillTime) {
-    tokensMap.computeIfPresent(
-        userId,
-        (user, availableTokens) -> {
-          DateTime now = clock.nowUtc();
-          int currentTokenCount = availableTokens.value();
-          DateTime refillTime = availableTokens.timestamp();
-          int newTokenCount;
-          // Check if quota is unlimited.
-          if (!config.hasUnlimitedTokens(userId)) {
-            // Check if refill is enabled and a refill is needed.
-            if (!config.getRefillPeriod(user).isEqual(Duration.ZERO)
-                && !new Duration(availableTokens.timestamp(), now)
-                    .isShorterThan(config.getRefillPeriod(user))) {
-              currentTokenCount = config.getTokenAmount(user);
-              refillTime = now;
-            }
-            // If the returned token comes from the current pool, add it back, otherwise discard it.
-            newTokenCount =
-                returnedTokenRefillTime.equals(refillTime)
-                    ? min(currentTokenCount + 1, config.getTokenAmount(userId))
-                    : currentTokenCount;
-          } else {
-            newTokenCount = SENTINEL_UNLIMITED_TOKENS;
-          }
-          return TimestampedInteger.create(newTokenCount, refillTime);
-        });
+    AtomicLong entry = tokensMap.get(userId);
+    if (entry == null) {
+      return;
+    }
+    long now = clock.nowUtc().getMillis();
+    while (true) {
+      long packed = entry.get();
+      int currentTokenCount = unpackTokens(packed);
+      long refillTime = unpackRefillTimeMillis(packed);
+      int newTokenCount;
+      // Check if quota is unlimited.
+      if (!config.hasUnlimitedTokens(userId)) {
+        if (currentTokenCount == SENTINEL_UNLIMITED_TOKENS) {
+          // The entry was just created by take() and no token has been granted from it yet.
+          return;
+        }
+        // Check if refill is enabled and a refill is needed.
+        if (needsRefill(userId, refillTime, now)) {
+          currentTokenCount = config.getTokenAmount(userId);
+          refillTime = now;
+        }
+        // If the returned token comes from the current pool, add it back, otherwise discard it.
+        newTokenCount =
+            returnedTokenRefillTime.getMillis() == refillTime
+                ? min(currentTokenCount + 1, config.getTokenAmount(userId))
+                : currentTokenCount;
+      } else {
+        newTokenCount = SENTINEL_UNLIMITED_TOKENS;
+      }
+      if (entry.compareAndSet(packed, pack(newTokenCount, refillTime))) {
+        return;
+      }
+    }
   }
 
   /**
@@ -182,15 +261,16 @@ public class TokenStore {
    * the refill period is much shorter than the refresh period, so the last refill time should serve
    * as a good proxy for last update time as the actual update time cannot be one refill period
    * later from the refill time, otherwise another refill would have been performed.
+   *
+   * <p>This runs on the refresh executor, not the event loop threads. Removing entries does not
+   * block concurrent {@link #take} and {@link #put} calls on other entries.
    */
   void refresh() {
-    tokensMap.forEach(
-        (user, availableTokens) -> {
-          if (!new Duration(availableTokens.timestamp(), clock.nowUtc())
-              .isShorterThan(config.getRefreshPeriod())) {
-            tokensMap.remove(user);
-          }
-        });
+    long now = clock.nowUtc().getMillis();
+    long refreshPeriod = config.getRefreshPeriod().getMillis();
+    tokensMap
+        .values()
+        .removeIf(entry -> now - unpackRefillTimeMillis(entry.get()) >= refreshPeriod);
   }
 
   /** Schedules token store refresh if enabled. */
@@ -217,6 +297,12 @@ public class TokenStore {
    */
   @VisibleForTesting
   TimestampedInteger getTokenForTests(String userId) {
-    return tokensMap.get(userId);
+    AtomicLong entry = tokensMap.get(userId);
+    if (entry == null) {
+      return null;
+    }
+    long packed = entry.get();
+    return TimestampedInteger.create(
+        unpackTokens(packed), new DateTime(unpackRefillTimeMillis(packed), UTC));
   }
 }
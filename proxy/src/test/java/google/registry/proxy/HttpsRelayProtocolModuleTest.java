@@ -20,13 +20,16 @@ import static google.registry.proxy.TestUtils.assertHttpResponseEquivalent;
 import static google.registry.proxy.TestUtils.makeHttpPostRequest;
 import static google.registry.proxy.TestUtils.makeHttpResponse;
 
+import google.registry.networking.handler.SslClientInitializer;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpServerCodec;
+import javax.inject.Provider;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -100,4 +103,18 @@ public class HttpsRelayProtocolModuleTest extends ProtocolModuleTest {
   public void testSuccess_NonOkResponse() {
     requestAndRespondWithStatus(HttpResponseStatus.BAD_REQUEST);
   }
+
+  @Test
+  public void testSuccess_channelsShareSslClientInitializer() throws Exception {
+    Provider<? extends ChannelHandler> sslClientInitializerProvider =
+        testComponent.httpsRelayHandlers().get(0);
+    // Each backend channel gets a handler from every provider, as in ProxyServer.
+    SslClientInitializer<?> firstInitializer =
+        (SslClientInitializer<?>) sslClientInitializerProvider.get();
+    SslClientInitializer<?> secondInitializer =
+        (SslClientInitializer<?>) sslClientInitializerProvider.get();
+    assertThat(secondInitializer).isSameInstanceAs(firstInitializer);
+    assertThat(secondInitializer.getSslContext())
+        .isSameInstanceAs(firstInitializer.getSslContext());
+  }
 }
@@ -0,0 +1,55 @@
+// Copyright 2020 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.proxy;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link Transport}. */
+@RunWith(JUnit4.class)
+public class TransportTest {
+
+  @Test
+  public void testSelect_nativeNotRequested_usesNio() {
+    assertThat(Transport.select(false)).isEqualTo(Transport.NIO);
+  }
+
+  @Test
+  public void testSelect_nativeRequested_usesEpollOnlyIfAvailable() {
+    assertThat(Transport.select(true))
+        .isEqualTo(Epoll.isAvailable() ? Transport.EPOLL : Transport.NIO);
+  }
+
+  @Test
+  public void testNio_eventLoopGroupAndChannelsMatch() {
+    EventLoopGroup group = Transport.NIO.newEventLoopGroup(2);
+    try {
+      assertThat(group).isInstanceOf(NioEventLoopGroup.class);
+      assertThat(((NioEventLoopGroup) group).executorCount()).isEqualTo(2);
+      assertThat(Transport.NIO.serverChannelClass()).isEqualTo(NioServerSocketChannel.class);
+      assertThat(Transport.NIO.channelClass()).isEqualTo(NioSocketChannel.class);
+    } finally {
+      group.shutdownGracefully().syncUninterruptibly();
+    }
+  }
+}
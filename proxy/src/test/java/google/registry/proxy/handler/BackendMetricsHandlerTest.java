@@ -160,6 +160,19 @@ public class BackendMetricsHandlerTest {
     verifyNoMoreInteractions(metrics);
   }
 
+  @Test
+  public void testSuccess_channelClosedWithRequestInFlight() {
+    FullHttpRequest request = makeHttpPostRequest("some content", HOST, "/");
+    assertThat(channel.writeOutbound(request)).isTrue();
+    assertHttpRequestEquivalent(request, channel.readOutbound());
+    channel.close().syncUninterruptibly();
+
+    verify(metrics)
+        .requestSent(RELAYED_PROTOCOL_NAME, CLIENT_CERT_HASH, request.content().readableBytes());
+    verify(metrics).requestsAbandoned(RELAYED_PROTOCOL_NAME, CLIENT_CERT_HASH, 1);
+    verifyNoMoreInteractions(metrics);
+  }
+
   @Test
   public void testFailure_responseBeforeRequest() {
     FullHttpResponse response = makeHttpResponse("phantom response", HttpResponseStatus.OK);
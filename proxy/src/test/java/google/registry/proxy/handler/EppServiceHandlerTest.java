@@ -38,6 +38,7 @@ import io.netty.channel.DefaultChannelId;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.cookie.Cookie;
@@ -237,6 +238,30 @@ public class EppServiceHandlerTest {
     assertThat(channel.isActive()).isTrue();
   }
 
+  @Test
+  public void testSuccess_requestSharesInboundFrame() throws Exception {
+    setHandshakeSuccess();
+    // First inbound message is hello.
+    channel.readInbound();
+    ByteBuf frame = Unpooled.wrappedBuffer("<epp>stuff</epp>".getBytes(UTF_8));
+    channel.writeInbound(frame);
+    FullHttpRequest request = channel.readInbound();
+    assertThat(request.content().unwrap()).isSameInstanceAs(frame);
+    assertThat(frame.refCnt()).isEqualTo(1);
+    request.release();
+    assertThat(frame.refCnt()).isEqualTo(0);
+  }
+
+  @Test
+  public void testSuccess_sendResponseToNextHandler_withoutCopy() throws Exception {
+    setHandshakeSuccess();
+    FullHttpResponse response = makeEppHttpResponse("<epp>stuff</epp>", HttpResponseStatus.OK);
+    channel.writeOutbound(response);
+    ByteBuf content = channel.readOutbound();
+    assertThat(content).isSameInstanceAs(response.content());
+    assertThat(content.refCnt()).isEqualTo(1);
+  }
+
   @Test
   public void testSuccess_sendResponseToNextHandler_andDisconnect() throws Exception {
     setHandshakeSuccess();
@@ -171,4 +171,30 @@ public class BackendMetricsTest {
         .and()
         .hasNoOtherValues();
   }
+
+  @Test
+  public void testSuccess_inFlightRequests() {
+    FullHttpResponse response = makeHttpResponse("response", HttpResponseStatus.OK);
+    metrics.requestSent(protocol, certHash, 10);
+    metrics.requestSent(protocol, certHash, 10);
+    metrics.requestSent(protocol, certHash, 10);
+    metrics.requestSent("other protocol", "none", 10);
+
+    assertThat(BackendMetrics.inFlightRequestsGauge)
+        .hasValueForLabels(3, protocol, certHash)
+        .and()
+        .hasValueForLabels(1, "other protocol", "none")
+        .and()
+        .hasNoOtherValues();
+
+    metrics.responseReceived(protocol, certHash, response, Duration.millis(10));
+    metrics.requestsAbandoned("other protocol", "none", 1);
+
+    assertThat(BackendMetrics.inFlightRequestsGauge)
+        .hasValueForLabels(2, protocol, certHash)
+        .and()
+        .hasValueForLabels(0, "other protocol", "none")
+        .and()
+        .hasNoOtherValues();
+  }
 }
@@ -15,6 +15,7 @@
 package google.registry.proxy.quota;
 
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.proxy.quota.QuotaConfig.SENTINEL_UNLIMITED_TOKENS;
 import static google.registry.util.ResourceUtils.readResourceUtf8;
 import static org.junit.Assert.assertThrows;
 
@@ -53,6 +54,7 @@ public class QuotaConfigTest {
     validateQuota("abc", 10, 60);
     validateQuota("987lol", 500, 10);
     validateQuota("no_match", 100, 60);
+    assertThat(quotaConfig.getMaxTokenAmount()).isEqualTo(500);
   }
 
   @Test
@@ -75,6 +77,7 @@ public class QuotaConfigTest {
   public void testFailure_getTokenAmount_throwsOnUnlimitedTokens() {
     quotaConfig = loadQuotaConfig("quota_config_unlimited_tokens.yaml");
     assertThat(quotaConfig.hasUnlimitedTokens("some_user")).isTrue();
+    assertThat(quotaConfig.getMaxTokenAmount()).isEqualTo(SENTINEL_UNLIMITED_TOKENS);
     IllegalStateException e =
         assertThrows(IllegalStateException.class, () -> quotaConfig.getTokenAmount("some_user"));
     assertThat(e)
@@ -16,6 +16,8 @@ package google.registry.proxy.quota;
 
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.proxy.quota.QuotaConfig.SENTINEL_UNLIMITED_TOKENS;
+import static google.registry.proxy.quota.TokenStore.MAX_TOKENS;
+import static org.junit.Assert.assertThrows;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
@@ -25,12 +27,14 @@ import static org.mockito.Mockito.when;
 import google.registry.proxy.quota.TokenStore.TimestampedInteger;
 import google.registry.testing.FakeClock;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.junit.Before;
@@ -296,6 +300,56 @@ public class TokenStoreTest {
         .isEqualTo(TimestampedInteger.create(4, time3));
   }
 
+  @Test
+  public void testSuccess_take_capsTokenAmountAtMaximum() {
+    when(quotaConfig.getTokenAmount(user)).thenReturn(MAX_TOKENS + 1);
+    DateTime refillTime = clock.nowUtc();
+    assertTake(1, MAX_TOKENS, refillTime);
+    assertTake(1, MAX_TOKENS - 1, refillTime);
+  }
+
+  @Test
+  public void testFailure_create_tokenAmountTooLarge() {
+    QuotaConfig largeQuotaConfig = mock(QuotaConfig.class);
+    when(largeQuotaConfig.getProtocolName()).thenReturn("theProtocol");
+    when(largeQuotaConfig.getMaxTokenAmount()).thenReturn(MAX_TOKENS + 1);
+    IllegalArgumentException e =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> new TokenStore(largeQuotaConfig, refreshExecutor, clock));
+    assertThat(e)
+        .hasMessageThat()
+        .isEqualTo(
+            "Token amount for protocol theProtocol is larger than the maximum of 8388607: "
+                + "8388608");
+  }
+
+  @Test
+  public void testSuccess_create_maximumTokenAmount() {
+    QuotaConfig largeQuotaConfig = mock(QuotaConfig.class);
+    when(largeQuotaConfig.getMaxTokenAmount()).thenReturn(MAX_TOKENS);
+    when(largeQuotaConfig.getTokenAmount(user)).thenReturn(MAX_TOKENS);
+    TokenStore largeTokenStore = new TokenStore(largeQuotaConfig, refreshExecutor, clock);
+    assertThat(largeTokenStore.take(user))
+        .isEqualTo(TimestampedInteger.create(1, clock.nowUtc()));
+    assertThat(largeTokenStore.getTokenForTests(user))
+        .isEqualTo(TimestampedInteger.create(MAX_TOKENS - 1, clock.nowUtc()));
+  }
+
+  @Test
+  public void testSuccess_concurrency_manyTakes_grantsExactlyTokenAmount() throws Exception {
+    when(quotaConfig.getTokenAmount(user)).thenReturn(500);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    AtomicInteger grantedTokens = new AtomicInteger();
+    Runnable[] tasks = new Runnable[1000];
+    Arrays.fill(tasks, (Runnable) () -> grantedTokens.addAndGet(tokenStore.take(user).value()));
+    submitAndWaitForTasks(executor, tasks);
+    executor.shutdown();
+    assertThat(grantedTokens.get()).isEqualTo(500);
+    assertThat(tokenStore.getTokenForTests(user))
+        .isEqualTo(TimestampedInteger.create(0, clock.nowUtc()));
+  }
+
   @Test
   public void testSuccess_scheduleRefresh() throws Exception {
     when(quotaConfig.getRefreshPeriod()).thenReturn(Duration.standardSeconds(5));